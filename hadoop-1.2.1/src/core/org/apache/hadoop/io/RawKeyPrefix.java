@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.io;
+
+/**
+ * Computes a 64 bit normalized prefix of a serialized key, ordered (as an
+ * unsigned long) consistently with a {@link RawComparator}: a smaller prefix
+ * means a smaller key, equal prefixes mean the comparator has to decide.
+ *
+ * @see org.apache.hadoop.util.PrefixIndexedSortable
+ */
+public abstract class RawKeyPrefix {
+
+  /**
+   * Prefix of the key serialized in b[s, s + l).
+   */
+  public abstract long getPrefix(byte[] b, int s, int l);
+
+  /**
+   * Returns the prefix computer for the given comparator, or null if its
+   * order is not known to be binary comparable. Only the comparators of
+   * {@link Text}, {@link BytesWritable}, {@link IntWritable} and
+   * {@link LongWritable} are supported; subclasses of them are not, as they
+   * may change the order.
+   */
+  public static RawKeyPrefix forComparator(RawComparator<?> comparator) {
+    if (comparator == null) {
+      return null;
+    }
+    Class<?> c = comparator.getClass();
+    if (c == Text.Comparator.class) {
+      return TEXT;
+    } else if (c == BytesWritable.Comparator.class) {
+      return BYTES;
+    } else if (c == IntWritable.Comparator.class) {
+      return INT;
+    } else if (c == LongWritable.Comparator.class) {
+      return LONG;
+    }
+    return null;
+  }
+
+  /**
+   * The first (up to) 8 bytes of b[s, s + l), big endian and zero padded.
+   */
+  public static long bytesPrefix(byte[] b, int s, int l) {
+    long prefix = 0;
+    int n = Math.min(l, 8);
+    for (int i = 0; i < n; i++) {
+      prefix = (prefix << 8) | (b[s + i] & 0xff);
+    }
+    return prefix << ((8 - n) << 3);
+  }
+
+  private static final RawKeyPrefix TEXT = new RawKeyPrefix() {
+    public long getPrefix(byte[] b, int s, int l) {
+      int n = WritableUtils.decodeVIntSize(b[s]);
+      return bytesPrefix(b, s + n, l - n);
+    }
+  };
+
+  private static final RawKeyPrefix BYTES = new RawKeyPrefix() {
+    public long getPrefix(byte[] b, int s, int l) {
+      return bytesPrefix(b, s + 4, l - 4);
+    }
+  };
+
+  private static final RawKeyPrefix INT = new RawKeyPrefix() {
+    public long getPrefix(byte[] b, int s, int l) {
+      // flipping the sign bit makes the two's complement order unsigned
+      return ((long) (WritableComparator.readInt(b, s) ^ Integer.MIN_VALUE)
+          & 0xffffffffL) << 32;
+    }
+  };
+
+  private static final RawKeyPrefix LONG = new RawKeyPrefix() {
+    public long getPrefix(byte[] b, int s, int l) {
+      return WritableComparator.readLong(b, s) ^ Long.MIN_VALUE;
+    }
+  };
+}
@@ -0,0 +1,41 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+/**
+ * An {@link IndexedSortable} that can describe each of its items by a
+ * fixed-width, binary comparable prefix of its sort key, so that a
+ * {@link PrefixSort} can order most items without calling
+ * {@link #compare(int, int)}.
+ */
+public interface PrefixIndexedSortable extends IndexedSortable {
+
+  /**
+   * Whether {@link #getPrefix(int)} may be used. When false, sorters fall
+   * back to {@link #compare(int, int)} alone.
+   */
+  boolean hasPrefixes();
+
+  /**
+   * Prefix of the item at the given address. Prefixes are compared as
+   * unsigned longs: if the prefix of i is smaller than the prefix of j, then
+   * compare(i, j) must be negative. Equal prefixes say nothing about the
+   * order of the items.
+   */
+  long getPrefix(int i);
+}
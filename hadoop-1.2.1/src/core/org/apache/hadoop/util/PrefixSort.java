@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.util.Arrays;
+
+/**
+ * Sorts {@link PrefixIndexedSortable}s by radix sorting their 64 bit key
+ * prefixes, then sorting the runs of equal prefixes with
+ * {@link IndexedSortable#compare}. For binary comparable keys most items are
+ * ordered without touching the keys; the items themselves are moved once,
+ * with at most one {@link IndexedSortable#swap} per item. Map outputs use it
+ * when "map.sort.class" is set to this class.
+ *
+ * Other {@link IndexedSortable}s, and ranges too small to be worth it, are
+ * sorted with {@link QuickSort}.
+ *
+ * The sort needs 28 bytes of heap per item, kept between calls: instances
+ * are not thread safe.
+ */
+public final class PrefixSort implements IndexedSorter {
+
+  private static final IndexedSorter alt = new QuickSort();
+
+  /** Ranges smaller than this are sorted by {@link QuickSort}. */
+  static final int MIN_RADIX_SORT = 64;
+
+  /** Runs of equal prefixes smaller than this are insertion sorted. */
+  private static final int MIN_QUICKSORT = 16;
+
+  private static final int PROGRESS_INTERVAL = 10000;
+
+  private long[] prefixes = new long[0];
+  private long[] prefixesTmp = new long[0];
+  private int[] items = new int[0];
+  private int[] itemsTmp = new int[0];
+  private int[] positions = new int[0];
+
+  public PrefixSort() { }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void sort(IndexedSortable s, int l, int r) {
+    sort(s, l, r, null);
+  }
+
+  /**
+   * {@inheritDoc}
+   */
+  public void sort(IndexedSortable s, int l, int r, Progressable rep) {
+    if (r - l < MIN_RADIX_SORT || !(s instanceof PrefixIndexedSortable)
+        || !((PrefixIndexedSortable) s).hasPrefixes()) {
+      alt.sort(s, l, r, rep);
+      return;
+    }
+    final PrefixIndexedSortable ps = (PrefixIndexedSortable) s;
+    final int n = r - l;
+    ensureCapacity(n);
+    for (int i = 0; i < n; ++i) {
+      prefixes[i] = ps.getPrefix(l + i);
+      items[i] = i;
+      if (rep != null && i % PROGRESS_INTERVAL == 0) {
+        rep.progress();
+      }
+    }
+    radixSort(n, rep);
+    sortTies(ps, l, n, rep);
+    permute(ps, l, n);
+  }
+
+  private void ensureCapacity(int n) {
+    if (prefixes.length < n) {
+      prefixes = new long[n];
+      prefixesTmp = new long[n];
+      items = new int[n];
+      itemsTmp = new int[n];
+      positions = new int[n];
+    }
+  }
+
+  /**
+   * Stable LSD radix sort of (prefix, item) pairs, one byte per pass.
+   * Passes over a byte that is the same for all prefixes are skipped, which
+   * makes short or low cardinality keys cheap.
+   */
+  private void radixSort(int n, Progressable rep) {
+    final int[] counts = new int[256];
+    for (int shift = 0; shift < 64; shift += 8) {
+      Arrays.fill(counts, 0);
+      for (int i = 0; i < n; ++i) {
+        ++counts[(int) (prefixes[i] >>> shift) & 0xff];
+      }
+      if (counts[(int) (prefixes[0] >>> shift) & 0xff] == n) {
+        continue;
+      }
+      int sum = 0;
+      for (int b = 0; b < 256; ++b) {
+        final int c = counts[b];
+        counts[b] = sum;
+        sum += c;
+      }
+      for (int i = 0; i < n; ++i) {
+        final int pos = counts[(int) (prefixes[i] >>> shift) & 0xff]++;
+        prefixesTmp[pos] = prefixes[i];
+        itemsTmp[pos] = items[i];
+      }
+      long[] p = prefixes; prefixes = prefixesTmp; prefixesTmp = p;
+      int[] t = items; items = itemsTmp; itemsTmp = t;
+      if (rep != null) {
+        rep.progress();
+      }
+    }
+  }
+
+  /**
+   * Orders the runs of equal prefixes with the comparator. The sortable has
+   * not been modified yet, so items are compared at their original address.
+   */
+  private void sortTies(final IndexedSortable s, final int l, int n,
+      Progressable rep) {
+    IndexedSortable run = new IndexedSortable() {
+      public int compare(int i, int j) {
+        return s.compare(l + items[i], l + items[j]);
+      }
+      public void swap(int i, int j) {
+        final int tmp = items[i];
+        items[i] = items[j];
+        items[j] = tmp;
+      }
+    };
+    int compared = 0;
+    for (int i = 0; i < n; ) {
+      int j = i + 1;
+      while (j < n && prefixes[j] == prefixes[i]) {
+        ++j;
+      }
+      if (j - i >= MIN_QUICKSORT) {
+        alt.sort(run, i, j, rep);
+      } else if (j - i > 1) {
+        for (int k = i + 1; k < j; ++k) {
+          for (int m = k; m > i && run.compare(m - 1, m) > 0; --m) {
+            run.swap(m, m - 1);
+          }
+        }
+      }
+      compared += j - i;
+      if (rep != null && compared >= PROGRESS_INTERVAL) {
+        rep.progress();
+        compared = 0;
+      }
+      i = j;
+    }
+  }
+
+  /**
+   * Moves the item sorted at position k (originally at l + items[k]) to
+   * l + k, tracking the current position of each item and the item at each
+   * position.
+   */
+  private void permute(IndexedSortable s, int l, int n) {
+    final int[] where = itemsTmp;
+    final int[] at = positions;
+    for (int i = 0; i < n; ++i) {
+      where[i] = i;
+      at[i] = i;
+    }
+    for (int k = 0; k < n; ++k) {
+      final int item = items[k];
+      final int cur = where[item];
+      if (cur != k) {
+        s.swap(l + k, l + cur);
+        final int displaced = at[k];
+        where[displaced] = cur;
+        at[cur] = displaced;
+        where[item] = k;
+        at[k] = item;
+      }
+    }
+  }
+}
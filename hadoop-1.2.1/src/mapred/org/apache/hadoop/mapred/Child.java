@@ -60,6 +60,12 @@ class Child {
   static volatile boolean currentJobSegmented = true;
 
   static volatile boolean isCleanup;
+
+  /**
+   * Milliseconds an idle JVM sleeps between two requests for a task. Unset,
+   * it sleeps 500ms, then 1500ms after a few requests.
+   */
+  static final String IDLE_SLEEP = "mapred.child.idle.sleep.ms";
   static String cwd;
 
   static boolean logIsSegmented(JobConf job) {
@@ -159,6 +165,7 @@ class Child {
     }
     JvmContext context = new JvmContext(jvmId, pid);
     int idleLoopCount = 0;
+    long idleSleep = -1;
     Task task = null;
     
     UserGroupInformation childUGI = null;
@@ -177,7 +184,9 @@ class Child {
             taskid = null;
             currentJobSegmented = true;
 
-            if (++idleLoopCount >= SLEEP_LONGER_COUNT) {
+            if (idleSleep >= 0) {
+              Thread.sleep(idleSleep);
+            } else if (++idleLoopCount >= SLEEP_LONGER_COUNT) {
               //we sleep for a bigger interval when we don't receive
               //tasks for a while
               Thread.sleep(1500);
@@ -231,6 +240,7 @@ class Child {
         
         numTasksToExecute = job.getNumTasksToExecutePerJvm();
         assert(numTasksToExecute != 0);
+        idleSleep = job.getLong(IDLE_SLEEP, -1);
 
         task.setConf(job);
 
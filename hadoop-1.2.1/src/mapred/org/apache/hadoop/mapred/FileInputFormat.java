@@ -20,6 +20,7 @@ package org.apache.hadoop.mapred;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
@@ -36,6 +37,7 @@ import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.mapreduce.lib.input.FileInputLister;
 import org.apache.hadoop.mapreduce.security.TokenCache;
 import org.apache.hadoop.net.NetworkTopology;
 import org.apache.hadoop.net.Node;
@@ -159,7 +161,6 @@ public abstract class FileInputFormat<K, V> implements InputFormat<K, V> {
     // get tokens for all the required FileSystems..
     TokenCache.obtainTokensForNamenodes(job.getCredentials(), dirs, job);
     
-    List<FileStatus> result = new ArrayList<FileStatus>();
     List<IOException> errors = new ArrayList<IOException>();
     
     // creates a MultiPathFilter with the hiddenFileFilter and the
@@ -172,26 +173,8 @@ public abstract class FileInputFormat<K, V> implements InputFormat<K, V> {
     }
     PathFilter inputFilter = new MultiPathFilter(filters);
 
-    for (Path p: dirs) {
-      FileSystem fs = p.getFileSystem(job); 
-      FileStatus[] matches = fs.globStatus(p, inputFilter);
-      if (matches == null) {
-        errors.add(new IOException("Input path does not exist: " + p));
-      } else if (matches.length == 0) {
-        errors.add(new IOException("Input Pattern " + p + " matches 0 files"));
-      } else {
-        for (FileStatus globStat: matches) {
-          if (globStat.isDir()) {
-            for(FileStatus stat: fs.listStatus(globStat.getPath(),
-                inputFilter)) {
-              result.add(stat);
-            }          
-          } else {
-            result.add(globStat);
-          }
-        }
-      }
-    }
+    List<FileStatus> result = 
+      FileInputLister.listStatus(job, dirs, inputFilter, errors);
 
     if (!errors.isEmpty()) {
       throw new InvalidInputException(errors);
@@ -221,14 +204,24 @@ public abstract class FileInputFormat<K, V> implements InputFormat<K, V> {
     long minSize = Math.max(job.getLong("mapred.min.split.size", 1),
                             minSplitSize);
 
+    // fetch the block locations of all the files at once if the job lists
+    // its input with several threads
+    BlockLocation[][] locations = null;
+    if (FileInputLister.getNumThreads(job) > 1) {
+      locations = FileInputLister.getFileBlockLocations(job, 
+                                                        Arrays.asList(files));
+    }
+
     // generate splits
     ArrayList<FileSplit> splits = new ArrayList<FileSplit>(numSplits);
     NetworkTopology clusterMap = new NetworkTopology();
-    for (FileStatus file: files) {
+    for (int i = 0; i < files.length; ++i) {
+      FileStatus file = files[i];
       Path path = file.getPath();
       FileSystem fs = path.getFileSystem(job);
       long length = file.getLen();
-      BlockLocation[] blkLocations = fs.getFileBlockLocations(file, 0, length);
+      BlockLocation[] blkLocations = locations != null ? locations[i] :
+        fs.getFileBlockLocations(file, 0, length);
       if ((length != 0) && isSplitable(fs, path)) { 
         long blockSize = file.getBlockSize();
         long splitSize = computeSplitSize(goalSize, minSize, blockSize);
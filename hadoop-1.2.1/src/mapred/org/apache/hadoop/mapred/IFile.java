@@ -566,4 +566,112 @@ class IFile {
       ramManager.unreserve(bufferSize);
     }
   }
+
+  /**
+   * <code>IFile.InMemoryReader</code> for a map output held in the direct
+   * memory of a {@link ShuffleBufferPool}. Each record is copied to a heap
+   * buffer before it is returned, so the key and value are only valid until
+   * the next call to {@link #next(DataInputBuffer, DataInputBuffer)}.
+   */
+  public static class DirectInMemoryReader<K, V> extends Reader<K, V> {
+    private static final int LENGTHS_SIZE = 2 * Reader.MAX_VINT_SIZE;
+
+    RamManager ramManager;
+    TaskAttemptID taskAttemptId;
+    private ShuffleBufferPool.Buffer data;
+    private final int reservedSize;
+    private int position = 0;
+    private final byte[] lengths = new byte[LENGTHS_SIZE];
+    private final DataInputBuffer lengthsIn = new DataInputBuffer();
+    private byte[] record = new byte[0];
+
+    DirectInMemoryReader(RamManager ramManager, TaskAttemptID taskAttemptId,
+                         ShuffleBufferPool.Buffer data)
+                         throws IOException {
+      super(null, null, data.getLength(), null, null);
+      this.ramManager = ramManager;
+      this.taskAttemptId = taskAttemptId;
+      this.data = data;
+      this.reservedSize = data.getReservedSize();
+    }
+
+    @Override
+    public long getPosition() throws IOException {
+      return bytesRead;
+    }
+
+    @Override
+    public long getLength() {
+      return fileLength;
+    }
+
+    public boolean next(DataInputBuffer key, DataInputBuffer value)
+    throws IOException {
+      // Sanity check
+      if (eof) {
+        throw new EOFException("Completed reading " + bytesRead);
+      }
+
+      // Read key and value lengths
+      int n = (int)Math.min(LENGTHS_SIZE, fileLength - position);
+      data.read(position, lengths, 0, n);
+      lengthsIn.reset(lengths, n);
+      int keyLength = WritableUtils.readVInt(lengthsIn);
+      int valueLength = WritableUtils.readVInt(lengthsIn);
+      position += lengthsIn.getPosition();
+      bytesRead += lengthsIn.getPosition();
+
+      // Check for EOF
+      if (keyLength == EOF_MARKER && valueLength == EOF_MARKER) {
+        eof = true;
+        return false;
+      }
+
+      // Sanity check
+      if (keyLength < 0) {
+        throw new IOException("Rec# " + recNo + ": Negative key-length: " +
+                              keyLength + " in map-output of " + taskAttemptId);
+      }
+      if (valueLength < 0) {
+        throw new IOException("Rec# " + recNo + ": Negative value-length: " +
+                              valueLength + " in map-output of " + taskAttemptId);
+      }
+
+      final int recordLength = keyLength + valueLength;
+      if (recordLength > fileLength - position) {
+        throw new IOException("Rec# " + recNo + ": Record of length " +
+                              recordLength + " past the end of map-output of " +
+                              taskAttemptId);
+      }
+
+      // Setup the key and value
+      if (record.length < recordLength) {
+        record = new byte[Math.max(recordLength, 2 * record.length)];
+      }
+      data.read(position, record, 0, recordLength);
+      key.reset(record, 0, keyLength);
+      value.reset(record, keyLength, valueLength);
+
+      // Position for the next record
+      position += recordLength;
+      bytesRead += recordLength;
+
+      ++recNo;
+
+      return true;
+    }
+
+    public void close() {
+      if (data == null) {
+        return;
+      }
+      // Release
+      data.release();
+      data = null;
+      record = null;
+
+      // Inform the RamManager
+      ramManager.unreserve(reservedSize);
+    }
+  }
 }
@@ -133,8 +133,8 @@ public class JobInProgress {
   
   protected Credentials tokenStorage;
 
-  // NetworkTopology Node to the set of TIPs
-  Map<Node, List<TaskInProgress>> nonRunningMapCache;
+  // NetworkTopology Node to the queue of non-running TIPs
+  MapLocalityCache nonRunningMapCache;
   
   // Map of NetworkTopology Node to set of running TIPs
   Map<Node, Set<TaskInProgress>> runningMapCache;
@@ -527,11 +527,10 @@ public class JobInProgress {
     }
   }
   
-  private Map<Node, List<TaskInProgress>> createCache(
+  private MapLocalityCache createCache(
                                  TaskSplitMetaInfo[] splits, int maxLevel)
                                  throws UnknownHostException {
-    Map<Node, List<TaskInProgress>> cache = 
-      new IdentityHashMap<Node, List<TaskInProgress>>(maxLevel);
+    MapLocalityCache cache = new MapLocalityCache(maps);
     
     Set<String> uniqueHosts = new TreeSet<String>();
     for (int i = 0; i < splits.length; i++) {
@@ -546,20 +545,10 @@ public class JobInProgress {
         uniqueHosts.add(host);
         LOG.info("tip:" + maps[i].getTIPId() + " has split on node:" + node);
         for (int j = 0; j < maxLevel; j++) {
-          List<TaskInProgress> hostMaps = cache.get(node);
-          if (hostMaps == null) {
-            hostMaps = new ArrayList<TaskInProgress>();
-            cache.put(node, hostMaps);
-            hostMaps.add(maps[i]);
-          }
-          //check whether the hostMaps already contains an entry for a TIP
-          //This will be true for nodes that are racks and multiple nodes in
-          //the rack contain the input for a tip. Note that if it already
-          //exists in the hostMaps, it must be the last element there since
-          //we process one TIP at a time sequentially in the split-size order
-          if (hostMaps.get(hostMaps.size() - 1) != maps[i]) {
-            hostMaps.add(maps[i]);
-          }
+          //A rack is reached once per host of the split that it contains,
+          //the cache queues the TIP only once since we process one TIP at a
+          //time sequentially in the split-size order
+          cache.add(node, i);
           node = node.getParent();
         }
       }
@@ -1247,6 +1236,29 @@ public class JobInProgress {
     }
   }
 
+  /**
+   * Updates the status of an attempt that was, and still is, RUNNING. Such
+   * a report only changes progress, counters and diagnostics, which the
+   * job's lock covers, so the JobTracker applies it without its own lock.
+   * Anything else is left alone, and false returned, for
+   * {@link #updateTaskStatus(TaskInProgress, TaskStatus)} under the
+   * JobTracker lock.
+   */
+  synchronized boolean updateRunningTaskStatus(TaskInProgress tip,
+                                               TaskStatus status) {
+    TaskAttemptID taskid = status.getTaskID();
+    TaskStatus oldStatus = tip.getTaskStatus(taskid);
+    if (this.status.getRunState() != JobStatus.RUNNING ||
+        status.getRunState() != TaskStatus.State.RUNNING ||
+        oldStatus == null ||
+        oldStatus.getRunState() != TaskStatus.State.RUNNING ||
+        tip.isCleanupAttempt(taskid)) {
+      return false;
+    }
+    updateTaskStatus(tip, status);
+    return true;
+  }
+
   String getHistoryFile() {
     return historyFile;
   }
@@ -2117,6 +2129,9 @@ public class JobInProgress {
                + "Job details are missing.");
       return;
     }
+    if (nonRunningMapCache != null) {
+      nonRunningMapCache.remove(tip);
+    }
     String[] splitLocations = tip.getSplitLocations();
 
     // Add the TIP to the list of non-local running TIPs
@@ -2363,21 +2378,12 @@ public class JobInProgress {
       // off-switch/speculative tasks
       int maxLevelToSchedule = Math.min(maxCacheLevel, maxLevel);
       for (level = 0;level < maxLevelToSchedule; ++level) {
-        List <TaskInProgress> cacheForLevel = nonRunningMapCache.get(key);
-        if (cacheForLevel != null) {
-          tip = findTaskFromList(cacheForLevel, tts, 
-              numUniqueHosts,level == 0);
-          if (tip != null) {
-            // Add to running cache
-            scheduleMap(tip);
-
-            // remove the cache if its empty
-            if (cacheForLevel.size() == 0) {
-              nonRunningMapCache.remove(key);
-            }
-
-            return tip.getIdWithinJob();
-          }
+        tip = nonRunningMapCache.find(key, tts.getHost(), 
+            numUniqueHosts, level == 0);
+        if (tip != null) {
+          // Add to running cache
+          scheduleMap(tip);
+          return tip.getIdWithinJob();
         }
         key = key.getParent();
       }
@@ -2408,20 +2414,13 @@ public class JobInProgress {
         continue;
       }
 
-      List<TaskInProgress> cache = nonRunningMapCache.get(parent);
-      if (cache != null) {
-        tip = findTaskFromList(cache, tts, numUniqueHosts, false);
-        if (tip != null) {
-          // Add to the running cache
-          scheduleMap(tip);
-
-          // remove the cache if empty
-          if (cache.size() == 0) {
-            nonRunningMapCache.remove(parent);
-          }
-          LOG.info("Choosing a non-local task " + tip.getTIPId());
-          return tip.getIdWithinJob();
-        }
+      tip = nonRunningMapCache.find(parent, tts.getHost(), 
+          numUniqueHosts, false);
+      if (tip != null) {
+        // Add to the running cache
+        scheduleMap(tip);
+        LOG.info("Choosing a non-local task " + tip.getTIPId());
+        return tip.getIdWithinJob();
       }
     }
 
@@ -1060,6 +1060,14 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
       return fi;
     }
 
+    /**
+     * Whether the host has any faults (or blacklisting) to time out or
+     * clear. Doesn't need the JobTracker lock.
+     */
+    boolean isPotentiallyFaulty(String hostName) {
+      return getFaultInfo(hostName, false) != null;
+    }
+
     /**
      * Removes the tracker from the blacklist, graylist, and
      * potentially-faulty list, when it is restarted.
@@ -1547,9 +1555,10 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   Map<String, Set<TaskAttemptID>> trackerToTasksToCleanup = 
     new HashMap<String, Set<TaskAttemptID>>();
   
-  // All the known TaskInProgress items, mapped to by taskids (taskid->TIP)
+  // All the known TaskInProgress items, mapped to by taskids (taskid->TIP),
+  // updated under the JobTracker lock but read without it by heartbeat()
   Map<TaskAttemptID, TaskInProgress> taskidToTIPMap =
-    new TreeMap<TaskAttemptID, TaskInProgress>();
+    new ConcurrentHashMap<TaskAttemptID, TaskInProgress>();
   // This is used to keep track of all trackers running on one host. While
   // decommissioning the host, all the trackers on the host will be lost.
   Map<String, Set<TaskTracker>> hostnameToTaskTracker = 
@@ -1567,9 +1576,21 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   TreeMap<String, Set<TaskAttemptID>> trackerToMarkedTasksMap =
     new TreeMap<String, Set<TaskAttemptID>>();
 
-  // (trackerID --> last sent HeartBeatResponse)
+  // (trackerID --> last sent HeartBeatResponse), updated under the
+  // JobTracker lock but read without it by heartbeat()
   Map<String, HeartbeatResponse> trackerToHeartbeatResponseMap = 
-    new TreeMap<String, HeartbeatResponse>();
+    new ConcurrentHashMap<String, HeartbeatResponse>();
+
+  // The heartbeats of a tracker are processed one at a time, under the
+  // stripe of these locks its name hashes to. They are taken before any
+  // other lock.
+  private static final int HEARTBEAT_LOCK_STRIPES = 256;
+  private final Object[] heartbeatLocks = new Object[HEARTBEAT_LOCK_STRIPES];
+  {
+    for (int i = 0; i < heartbeatLocks.length; ++i) {
+      heartbeatLocks[i] = new Object();
+    }
+  }
 
   // (hostname --> Node (NetworkTopology))
   Map<String, Node> hostnameToNodeMap = 
@@ -2925,12 +2946,22 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
    * The {@link JobTracker} processes the status information sent by the 
    * {@link TaskTracker} and responds with instructions to start/stop 
    * tasks or jobs, and also 'reset' instructions during contingencies. 
+   * 
+   * The heartbeats of one tracker are processed one at a time, but those
+   * of different trackers run in parallel as far as the status goes: a
+   * healthy tracker's status, and the progress of its RUNNING attempts, are
+   * applied under the taskTrackers lock and the locks of their jobs. Only
+   * the reports that change the state of an attempt, and the choice of the
+   * actions to send back, including the scheduler's assignTasks, are left
+   * to the {@link JobTracker} lock. Initial contacts, restarted trackers
+   * and trackers with faults to time out are processed under that lock
+   * throughout.
    */
-  public synchronized HeartbeatResponse heartbeat(TaskTrackerStatus status, 
-                                                  boolean restarted,
-                                                  boolean initialContact,
-                                                  boolean acceptNewTasks, 
-                                                  short responseId) 
+  public HeartbeatResponse heartbeat(TaskTrackerStatus status, 
+                                     boolean restarted,
+                                     boolean initialContact,
+                                     boolean acceptNewTasks, 
+                                     short responseId) 
     throws IOException {
     if (LOG.isDebugEnabled()) {
       LOG.debug("Got heartbeat from: " + status.getTrackerName() + 
@@ -2945,6 +2976,100 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
       throw new DisallowedTaskTrackerException(status);
     }
 
+    String trackerName = status.getTrackerName();
+    synchronized (heartbeatLock(trackerName)) {
+      // A restarted or potentially faulty tracker has faults to clear or
+      // time out, and a new one has to be added: heartbeatLocked() does.
+      if (initialContact || restarted ||
+          faultyTrackers.isPotentiallyFaulty(status.getHost())) {
+        return heartbeatLocked(status, restarted, initialContact,
+                               acceptNewTasks, responseId);
+      }
+      HeartbeatResponse prevHeartbeatResponse =
+        trackerToHeartbeatResponseMap.get(trackerName);
+      if (prevHeartbeatResponse == null) {
+        // unknown to this JobTracker, maybe restarted
+        return heartbeatLocked(status, restarted, initialContact,
+                               acceptNewTasks, responseId);
+      }
+      // Responses to this tracker are only sent under its heartbeat lock, so
+      // the previous one can't change until it is released.
+      if (prevHeartbeatResponse.getResponseId() != responseId) {
+        LOG.info("Ignoring 'duplicate' heartbeat from '" + trackerName +
+                 "'; resending the previous 'lost' response");
+        return prevHeartbeatResponse;
+      }
+      HeartbeatResponse response =
+        heartbeatUnlocked(status, acceptNewTasks, responseId);
+      if (response == null) {
+        response = heartbeatLocked(status, restarted, initialContact,
+                                   acceptNewTasks, responseId);
+      }
+      return response;
+    }
+  }
+
+  private Object heartbeatLock(String trackerName) {
+    return heartbeatLocks[(trackerName.hashCode() & Integer.MAX_VALUE) %
+                          heartbeatLocks.length];
+  }
+
+  /**
+   * Processes a heartbeat from a known, healthy tracker, applying its status
+   * without the {@link JobTracker} lock. The lock is only taken for the
+   * reports that change the state of an attempt and to choose the actions.
+   * Returns null, having changed nothing, if the tracker is no longer known,
+   * so that heartbeatLocked() processes the heartbeat.
+   */
+  private HeartbeatResponse heartbeatUnlocked(TaskTrackerStatus status,
+                                              boolean acceptNewTasks,
+                                              short responseId)
+    throws IOException {
+    String trackerName = status.getTrackerName();
+    // blacklisting an unhealthy node needs the lock
+    if (!status.getHealthStatus().isNodeHealthy()) {
+      return null;
+    }
+    long now = clock.getTime();
+    status.setLastSeen(now);
+    synchronized (taskTrackers) {
+      synchronized (trackerExpiryQueue) {
+        // lost since its last heartbeat. Only known trackers are updated
+        // here, so taskTrackers keeps its keys for the readers holding just
+        // the JobTracker lock.
+        if (!taskTrackers.containsKey(trackerName)) {
+          return null;
+        }
+        updateTaskTrackerStatus(trackerName, status);
+      }
+    }
+    getInstrumentation().heartbeat();
+    List<TaskStatus> lockedReports = updateRunningTaskStatuses(status);
+
+    synchronized (this) {
+      // The hosts lists may have been refreshed, or the tracker lost, since
+      if (!acceptTaskTracker(status)) {
+        throw new DisallowedTaskTrackerException(status);
+      }
+      short newResponseId = (short)(responseId + 1);
+      if (getTaskTracker(trackerName) == null) {
+        trackerToHeartbeatResponseMap.remove(trackerName);
+        return new HeartbeatResponse(newResponseId, 
+                     new TaskTrackerAction[] {new ReinitTrackerAction()});
+      }
+      updateTaskStatuses(status, lockedReports);
+      return heartbeatResponse(status, acceptNewTasks, newResponseId, false);
+    }
+  }
+
+  private synchronized HeartbeatResponse heartbeatLocked(
+      TaskTrackerStatus status, boolean restarted, boolean initialContact,
+      boolean acceptNewTasks, short responseId) throws IOException {
+    // The hosts lists may have been refreshed since heartbeat() checked
+    if (!acceptTaskTracker(status)) {
+      throw new DisallowedTaskTrackerException(status);
+    }
+
     // First check if the last heartbeat response got through
     String trackerName = status.getTrackerName();
     long now = clock.getTime();
@@ -3005,7 +3130,22 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
       return new HeartbeatResponse(newResponseId, 
                    new TaskTrackerAction[] {new ReinitTrackerAction()});
     }
-      
+    return heartbeatResponse(status, acceptNewTasks, newResponseId,
+                             addRestartInfo);
+  }
+
+  /**
+   * Chooses the actions for a tracker whose heartbeat has been processed,
+   * and records the response.
+   * 
+   * Assumes JobTracker is locked on the entry.
+   */
+  private HeartbeatResponse heartbeatResponse(TaskTrackerStatus status,
+                                              boolean acceptNewTasks,
+                                              short newResponseId,
+                                              boolean addRestartInfo)
+    throws IOException {
+    String trackerName = status.getTrackerName();
     // Initialize the response to be sent for the heartbeat
     HeartbeatResponse response = new HeartbeatResponse(newResponseId, null);
     List<TaskTrackerAction> actions = new ArrayList<TaskTrackerAction>();
@@ -3773,14 +3913,17 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
   }
 
   public synchronized ClusterMetrics getClusterMetrics() {
-    return new ClusterMetrics(totalMaps,
-      totalReduces, occupiedMapSlots, occupiedReduceSlots,
-      reservedMapSlots, reservedReduceSlots,
-      totalMapTaskCapacity, totalReduceTaskCapacity,
-      totalSubmissions,
-      taskTrackers.size() - getBlacklistedTrackerCount(), 
-      getBlacklistedTrackerCount(), getGraylistedTrackerCount(),
-      getExcludedNodes().size()) ;
+    // the task and slot counts are updated under the taskTrackers lock
+    synchronized (taskTrackers) {
+      return new ClusterMetrics(totalMaps,
+        totalReduces, occupiedMapSlots, occupiedReduceSlots,
+        reservedMapSlots, reservedReduceSlots,
+        totalMapTaskCapacity, totalReduceTaskCapacity,
+        totalSubmissions,
+        taskTrackers.size() - getBlacklistedTrackerCount(), 
+        getBlacklistedTrackerCount(), getGraylistedTrackerCount(),
+        getExcludedNodes().size()) ;
+    }
   }
 
   /**
@@ -4416,8 +4559,13 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
    * jobs that might be affected.
    */
   void updateTaskStatuses(TaskTrackerStatus status) {
+    updateTaskStatuses(status, status.getTaskReports());
+  }
+
+  private void updateTaskStatuses(TaskTrackerStatus status,
+                                  List<TaskStatus> reports) {
     String trackerName = status.getTrackerName();
-    for (TaskStatus report : status.getTaskReports()) {
+    for (TaskStatus report : reports) {
       report.setTaskTracker(trackerName);
       TaskAttemptID taskId = report.getTaskID();
       
@@ -4506,6 +4654,32 @@ public class JobTracker implements MRConstants, InterTrackerProtocol,
     }
   }
 
+  /**
+   * Applies the reports of the attempts that were and stay RUNNING, under
+   * the locks of their jobs only. Returns the other reports, to be applied
+   * under the JobTracker lock by updateTaskStatuses().
+   */
+  private List<TaskStatus> updateRunningTaskStatuses(
+      TaskTrackerStatus status) {
+    String trackerName = status.getTrackerName();
+    List<TaskStatus> lockedReports = new ArrayList<TaskStatus>();
+    for (TaskStatus report : status.getTaskReports()) {
+      report.setTaskTracker(trackerName);
+      TaskInProgress tip = taskidToTIPMap.get(report.getTaskID());
+      List<TaskAttemptID> failedFetchMaps = report.getFetchFailedMaps();
+      // cloned as in updateTaskStatuses()
+      if (tip == null || 
+          (failedFetchMaps != null && !failedFetchMaps.isEmpty()) ||
+          !tip.getJob().updateRunningTaskStatus(tip, 
+                                                (TaskStatus)report.clone())) {
+        lockedReports.add(report);
+      } else {
+        expireLaunchingTasks.removeTask(report.getTaskID());
+      }
+    }
+    return lockedReports;
+  }
+
   /**
    * We lost the task tracker!  All task-tracker structures have 
    * already been updated.  Just process the contained tasks and any
@@ -30,6 +30,7 @@ import java.util.Vector;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileUtil;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.mapred.CleanupQueue.PathDeletionContext;
@@ -46,6 +47,18 @@ class JvmManager {
   public static final Log LOG =
     LogFactory.getLog("org.apache.hadoop.mapred.JvmManager");
 
+  /**
+   * The number of tasks a child JVM runs for a job that does not reuse JVMs
+   * itself (-1 for no limit). The JVMs of the job stay up between its tasks
+   * and hand the next ones over the umbilical, until a slot is needed for
+   * another job. 1, the default, starts a JVM per task.
+   */
+  static final String WARM_JVM_TASKS = "mapred.tasktracker.jvm.warm.tasks";
+
+  // how long an idle JVM asking for a task waits for one, when JVMs are kept
+  // warm. The child then asks again without sleeping.
+  static final long WARM_JVM_TASK_WAIT = 500;
+
   private JvmManagerForType mapJvmManager;
 
   private JvmManagerForType reduceJvmManager;
@@ -63,6 +76,15 @@ class JvmManager {
         false, tracker);
   }
 
+  /**
+   * @return the number of tasks to run per JVM for the jobs that do not
+   *         reuse JVMs, or 1 if the tracker does not keep JVMs warm
+   */
+  static int getWarmJvmTasks(Configuration conf) {
+    int warmTasks = conf.getInt(WARM_JVM_TASKS, 1);
+    return warmTasks == 0 ? 1 : warmTasks;
+  }
+
   //called from unit tests
   JvmManagerForType getJvmManagerForType(TaskType type) {
     if (type.equals(TaskType.MAP)) {
@@ -136,6 +158,18 @@ class JvmManager {
     }
   }
 
+  /**
+   * Wait, when JVMs are kept warm, for a task to be given to an idle JVM.
+   * Must not be called with the tracker locked.
+   */
+  public void waitForTask(JVMId jvmId) throws InterruptedException {
+    if (jvmId.isMapJVM()) {
+      mapJvmManager.waitForTask(jvmId);
+    } else {
+      reduceJvmManager.waitForTask(jvmId);
+    }
+  }
+
   public TaskInProgress getTaskForJvm(JVMId jvmId)
       throws IOException {
     if (jvmId.isMapJVM()) {
@@ -206,6 +240,7 @@ class JvmManager {
     int maxJvms;
     boolean isMap;
     private final long sleeptimeBeforeSigkill;
+    private final boolean keepWarm;
     
     Random rand = new Random(System.currentTimeMillis());
     static final String DELAY_BEFORE_KILL_KEY =
@@ -222,6 +257,7 @@ class JvmManager {
       sleeptimeBeforeSigkill =
         tracker.getJobConf().getLong(DELAY_BEFORE_KILL_KEY,
                                      DEFAULT_SLEEPTIME_BEFORE_SIGKILL);
+      keepWarm = getWarmJvmTasks(tracker.getJobConf()) != 1;
     }
 
     synchronized public void setRunningTaskForJvm(JVMId jvmId, 
@@ -229,6 +265,20 @@ class JvmManager {
       jvmToRunningTask.put(jvmId, t);
       runningTaskToJvm.put(t,jvmId);
       jvmIdToRunner.get(jvmId).setBusy(true);
+      notifyAll();
+    }
+
+    synchronized void waitForTask(JVMId jvmId) throws InterruptedException {
+      if (!keepWarm) {
+        return;
+      }
+      long end = System.currentTimeMillis() + WARM_JVM_TASK_WAIT;
+      long timeLeft = WARM_JVM_TASK_WAIT;
+      while (timeLeft > 0 && jvmIdToRunner.containsKey(jvmId) &&
+             !jvmToRunningTask.containsKey(jvmId)) {
+        wait(timeLeft);
+        timeLeft = end - System.currentTimeMillis();
+      }
     }
     
     synchronized public boolean validateTipToJvm(TaskInProgress tip, JVMId jvmId) {
@@ -321,6 +371,7 @@ class JvmManager {
     synchronized private void removeJvm(JVMId jvmId) {
       jvmIdToRunner.remove(jvmId);
       jvmIdToPid.remove(jvmId);
+      notifyAll();
     }
     private synchronized void reapJvm( 
         TaskRunner t, JvmEnv env) throws IOException, InterruptedException {
@@ -340,6 +391,20 @@ class JvmManager {
       // (the order of return is in the order above)
       int numJvmsSpawned = jvmIdToRunner.size();
       JvmRunner runnerToKill = null;
+      if (numJvmsSpawned < maxJvms && keepWarm) {
+        //a warm JVM of the job is preferred to spawning one, even below the
+        //max
+        for (JvmRunner jvmRunner : jvmIdToRunner.values()) {
+          if (jvmRunner.jvmId.getJobId().equals(jobId) && 
+              !jvmRunner.isBusy() && !jvmRunner.ranAll()) {
+            setRunningTaskForJvm(jvmRunner.jvmId, t); //reserve the JVM
+            LOG.info("No new JVM spawned for jobId/taskid: " + 
+                     jobId+"/"+t.getTask().getTaskID() +
+                     ". Reusing warm JVM: " + jvmRunner.jvmId);
+            return;
+          }
+        }
+      }
       if (numJvmsSpawned >= maxJvms) {
         //go through the list of JVMs for all jobs.
         Iterator<Map.Entry<JVMId, JvmRunner>> jvmIter = 
@@ -60,11 +60,24 @@ public class LocalJobRunner implements JobSubmissionProtocol {
   public static final String LOCAL_MAX_MAPS =
       "mapreduce.local.map.tasks.maximum";
 
+  /**
+   * Number of reduces run at a time. If more than 1, jobs run all of their
+   * reduces, reading their partitions straight from the map outputs;
+   * otherwise jobs run 0 or 1 reduce.
+   */
+  public static final String LOCAL_MAX_REDUCES =
+      "mapreduce.local.reduce.tasks.maximum";
+
+  /** The map output files, and their index files, read by local reduces. */
+  static final String LOCAL_MAP_OUTPUTS = "mapreduce.local.map.outputs";
+  static final String LOCAL_MAP_OUTPUT_INDEXES = 
+      "mapreduce.local.map.output.indexes";
+
   private FileSystem fs;
   private HashMap<JobID, Job> jobs = new HashMap<JobID, Job>();
   private JobConf conf;
   private AtomicInteger map_tasks = new AtomicInteger(0);
-  private int reduce_tasks = 0;
+  private AtomicInteger reduce_tasks = new AtomicInteger(0);
   final Random rand = new Random();
   private final TaskController taskController = new DefaultTaskController();
 
@@ -94,7 +107,8 @@ public class LocalJobRunner implements JobSubmissionProtocol {
     private int numMapTasks;
     private float [] partialMapProgress;
     private Counters [] mapCounters;
-    private Counters reduceCounters;
+    private float [] partialReduceProgress;
+    private Counters [] reduceCounters;
 
     private JobStatus status;
     private List<TaskAttemptID> mapIds = Collections.synchronizedList(
@@ -268,7 +282,124 @@ public class LocalJobRunner implements JobSubmissionProtocol {
         this.mapCounters[i] = new Counters();
       }
 
-      this.reduceCounters = new Counters();
+      initReduceCounters(1);
+    }
+
+    /**
+     * Initialize the counters that will hold partial-progress from
+     * the reduce task attempts.
+     * @param numReduces the number of reduce tasks in this job.
+     */
+    private synchronized void initReduceCounters(int numReduces) {
+      this.partialReduceProgress = new float[Math.max(numReduces, 1)];
+      this.reduceCounters = new Counters[Math.max(numReduces, 1)];
+      for (int i = 0; i < reduceCounters.length; i++) {
+        this.reduceCounters[i] = new Counters();
+      }
+    }
+
+    protected class ReduceTaskRunnable implements Runnable {
+      private final int taskId;
+      private final int numMaps;
+      private final JobID jobId;
+      private final JobConf localConf;
+
+      public volatile Throwable storedException;
+
+      public ReduceTaskRunnable(int taskId, JobID jobId, 
+          List<Path> mapOutputs, List<Path> mapOutputIndexes) {
+        this.taskId = taskId;
+        this.numMaps = mapOutputs.size();
+        this.jobId = jobId;
+        this.localConf = new JobConf(job);
+        localConf.set("mapreduce.jobtracker.address", "local");
+        localConf.setStrings(LOCAL_MAP_OUTPUTS, toStrings(mapOutputs));
+        localConf.setStrings(LOCAL_MAP_OUTPUT_INDEXES, 
+                             toStrings(mapOutputIndexes));
+      }
+
+      private String[] toStrings(List<Path> paths) {
+        String[] strings = new String[paths.size()];
+        for (int i = 0; i < strings.length; i++) {
+          strings[i] = paths.get(i).toString();
+        }
+        return strings;
+      }
+
+      public void run() {
+        try {
+          TaskAttemptID reduceId = new TaskAttemptID(new TaskID(
+              jobId, false, taskId), 0);
+          LOG.info("Starting task: " + reduceId);
+          ReduceTask reduce = new ReduceTask(systemJobFile.toString(),
+              reduceId, taskId, numMaps, 1);
+          reduce.setUser(UserGroupInformation.getCurrentUser().
+              getShortUserName());
+          TaskRunner.setupChildMapredLocalDirs(reduce, localConf);
+
+          reduce.setJobFile(localJobFile.toString());
+          localConf.setUser(reduce.getUser());
+          reduce.localizeConfiguration(localConf);
+          reduce.setConf(localConf);
+          try {
+            reduce_tasks.getAndIncrement();
+            myMetrics.launchReduce(reduceId);
+            queueMetrics.launchReduce(reduceId);
+            reduce.run(localConf, Job.this);
+            myMetrics.completeReduce(reduceId);
+            queueMetrics.completeReduce(reduceId);
+          } finally {
+            reduce_tasks.getAndDecrement();
+          }
+
+          LOG.info("Finishing task: " + reduceId);
+        } catch (Throwable e) {
+          this.storedException = e;
+        }
+      }
+    }
+
+    /**
+     * Run all the reduces of the job, LOCAL_MAX_REDUCES at a time, once all
+     * the maps are done. Each reduce merges its partition of every map 
+     * output straight from the map output files.
+     */
+    private void runReduces(int numReduceTasks, JobID jobId,
+        Map<TaskAttemptID, MapOutputFile> mapOutputFiles) throws Exception {
+      List<Path> mapOutputs = new ArrayList<Path>();
+      List<Path> mapOutputIndexes = new ArrayList<Path>();
+      for (TaskAttemptID mapId : mapIds) {
+        MapOutputFile mapOutput = mapOutputFiles.get(mapId);
+        mapOutputs.add(mapOutput.getOutputFile());
+        mapOutputIndexes.add(mapOutput.getOutputIndexFile());
+      }
+
+      List<ReduceTaskRunnable> taskRunnables = 
+        new ArrayList<ReduceTaskRunnable>();
+      for (int i = 0; i < numReduceTasks; i++) {
+        taskRunnables.add(new ReduceTaskRunnable(i, jobId, mapOutputs,
+                                                 mapOutputIndexes));
+      }
+      ExecutorService reduceService = Executors.newFixedThreadPool(
+          Math.min(job.getInt(LOCAL_MAX_REDUCES, 1), numReduceTasks));
+      for (Runnable r : taskRunnables) {
+        reduceService.submit(r);
+      }
+      try {
+        reduceService.shutdown();
+        LOG.info("Waiting for reduce tasks");
+        reduceService.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException ie) {
+        reduceService.shutdownNow();
+        throw ie;
+      }
+      LOG.info("Reduce task executor complete.");
+
+      for (ReduceTaskRunnable r : taskRunnables) {
+        if (r.storedException != null) {
+          throw new Exception(r.storedException);
+        }
+      }
     }
 
     /**
@@ -311,8 +442,10 @@ public class LocalJobRunner implements JobSubmissionProtocol {
         TaskSplitMetaInfo[] taskSplitMetaInfos =
           SplitMetaInfoReader.readSplitMetaInfo(jobId, localFs, conf, systemJobDir);        
         int numReduceTasks = job.getNumReduceTasks();
-        if (numReduceTasks > 1 || numReduceTasks < 0) {
-          // we only allow 0 or 1 reducer in local mode
+        final boolean parallelReduces = job.getInt(LOCAL_MAX_REDUCES, 1) > 1;
+        if (numReduceTasks < 0 || (numReduceTasks > 1 && !parallelReduces)) {
+          // we only allow 0 or 1 reducer in local mode, unless they run
+          // in parallel
           numReduceTasks = 1;
           job.setNumReduceTasks(1);
         }
@@ -358,7 +491,10 @@ public class LocalJobRunner implements JobSubmissionProtocol {
         TaskAttemptID reduceId = 
           new TaskAttemptID(new TaskID(jobId, false, 0), 0);
         try {
-          if (numReduceTasks > 0) {
+          if (numReduceTasks > 0 && parallelReduces) {
+            initReduceCounters(numReduceTasks);
+            runReduces(numReduceTasks, jobId, mapOutputFiles);
+          } else if (numReduceTasks > 0) {
             ReduceTask reduce =
                 new ReduceTask(systemJobFile.toString(), reduceId, 0, mapIds.size(),
                     1);
@@ -392,13 +528,13 @@ public class LocalJobRunner implements JobSubmissionProtocol {
               localConf.setUser(reduce.getUser());
               reduce.localizeConfiguration(localConf);
               reduce.setConf(localConf);
-              reduce_tasks += 1;
+              reduce_tasks.getAndIncrement();
               myMetrics.launchReduce(reduce.getTaskID());
               queueMetrics.launchReduce(reduce.getTaskID());
               reduce.run(localConf, this);
               myMetrics.completeReduce(reduce.getTaskID());
               queueMetrics.completeReduce(reduce.getTaskID());
-              reduce_tasks -= 1;
+              reduce_tasks.getAndDecrement();
             } else {
               throw new InterruptedException();
             }
@@ -475,8 +611,14 @@ public class LocalJobRunner implements JobSubmissionProtocol {
         }
         status.setMapProgress(partialProgress / numTasks);
       } else {
-        reduceCounters = taskStatus.getCounters();
-        status.setReduceProgress(taskStatus.getProgress());
+        int reduceIndex = taskId.getTaskID().getId();
+        reduceCounters[reduceIndex] = taskStatus.getCounters();
+        partialReduceProgress[reduceIndex] = taskStatus.getProgress();
+        float partialProgress = 0.0f;
+        for (float f : partialReduceProgress) {
+          partialProgress += f;
+        }
+        status.setReduceProgress(partialProgress / partialReduceProgress.length);
       }
       
       // ignore phase
@@ -497,7 +639,9 @@ public class LocalJobRunner implements JobSubmissionProtocol {
       for (Counters c : mapCounters) {
         current = Counters.sum(current, c);
       }
-      current = Counters.sum(current, reduceCounters);
+      for (Counters c : reduceCounters) {
+        current = Counters.sum(current, c);
+      }
       return current;
     }
 
@@ -650,7 +794,8 @@ public class LocalJobRunner implements JobSubmissionProtocol {
   
   public ClusterStatus getClusterStatus(boolean detailed) {
     int numMapTasks = map_tasks.get();
-    return new ClusterStatus(1, 0, 0, 0, numMapTasks, reduce_tasks, 1, 1, 
+    int numReduceTasks = reduce_tasks.get();
+    return new ClusterStatus(1, 0, 0, 0, numMapTasks, numReduceTasks, 1, 1, 
                              JobTracker.State.RUNNING);
   }
 
@@ -748,6 +893,27 @@ public class LocalJobRunner implements JobSubmissionProtocol {
     return job.getConfiguration().getInt(LOCAL_MAX_MAPS, 1);
   }
 
+  /**
+   * Set the max number of reduce tasks to run concurrently in the
+   * LocalJobRunner. If more than 1, all the reduces of the job are run.
+   * @param job the job to configure
+   * @param maxReduces the maximum number of reduce tasks to allow.
+   */
+  public static void setLocalMaxRunningReduces(
+      org.apache.hadoop.mapreduce.JobContext job,
+      int maxReduces) {
+    job.getConfiguration().setInt(LOCAL_MAX_REDUCES, maxReduces);
+  }
+
+  /**
+   * @return the max number of reduce tasks to run concurrently in the
+   * LocalJobRunner.
+   */
+  public static int getLocalMaxRunningReduces(
+      org.apache.hadoop.mapreduce.JobContext job) {
+    return job.getConfiguration().getInt(LOCAL_MAX_REDUCES, 1);
+  }
+
   @Override
   public void cancelDelegationToken(Token<DelegationTokenIdentifier> token
                                        ) throws IOException,
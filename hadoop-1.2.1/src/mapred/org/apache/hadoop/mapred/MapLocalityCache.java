@@ -0,0 +1,148 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.util.BitSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.net.Node;
+
+/**
+ * The non-running map TIPs of a job, queued on every topology node (host,
+ * rack, ...) that holds their split.
+ * 
+ * A queue is an array of TIP indexes in split order with a cursor to its
+ * first live entry. Whether a TIP is still waiting to be scheduled is a
+ * single bit shared by all the queues, so scheduling a TIP takes it off
+ * every host and rack at once and the queues only skip over it, instead of
+ * walking and shifting per-node lists of TIPs. The cost of picking a task
+ * does not grow with the number of maps of the job.
+ */
+class MapLocalityCache {
+
+  private static class NodeQueue {
+    int[] tips = new int[4];
+    int head;
+    int size;
+
+    void add(int index) {
+      if (size > 0 && tips[size - 1] == index) {
+        // the TIP was already queued through another host under this rack
+        return;
+      }
+      if (size == tips.length) {
+        int[] grown = new int[tips.length * 2];
+        System.arraycopy(tips, 0, grown, 0, size);
+        tips = grown;
+      }
+      tips[size++] = index;
+    }
+
+    boolean isEmpty() {
+      return head == size;
+    }
+  }
+
+  private final TaskInProgress[] maps;
+  // the TIPs that can still be handed out through the cache
+  private final BitSet waiting;
+  private final Map<Node, NodeQueue> queues =
+    new IdentityHashMap<Node, NodeQueue>();
+
+  MapLocalityCache(TaskInProgress[] maps) {
+    this.maps = maps;
+    this.waiting = new BitSet(maps.length);
+  }
+
+  /**
+   * Queue a TIP on a node. TIPs are expected in increasing index order.
+   */
+  void add(Node node, int index) {
+    NodeQueue queue = queues.get(node);
+    if (queue == null) {
+      queue = new NodeQueue();
+      queues.put(node, queue);
+    }
+    queue.add(index);
+    waiting.set(index);
+  }
+
+  /**
+   * Take a TIP off all the queues.
+   */
+  void remove(TaskInProgress tip) {
+    waiting.clear(tip.getIdWithinJob());
+  }
+
+  /**
+   * Find a non-running TIP queued on the node, with the selection rules of
+   * JobInProgress#findTaskFromList. The TIP returned is taken off all the
+   * queues.
+   * @param node the node whose queue is searched
+   * @param host the host of the tracker asking for a task
+   * @param numUniqueHosts number of unique hosts that run task trackers
+   * @param removeFailedTip whether to drop the TIPs that failed on the host
+   *                        from this queue
+   */
+  TaskInProgress find(Node node, String host, int numUniqueHosts,
+                      boolean removeFailedTip) {
+    NodeQueue queue = queues.get(node);
+    if (queue == null) {
+      return null;
+    }
+    TaskInProgress found = null;
+    for (int i = queue.head; i < queue.size && found == null; ++i) {
+      int index = queue.tips[i];
+      boolean drop;
+      if (index < 0 || !waiting.get(index)) {
+        // scheduled through another node, or dropped from this queue
+        drop = true;
+      } else {
+        TaskInProgress tip = maps[index];
+        if (tip.isRunnable() && !tip.isRunning()) {
+          if (!tip.hasFailedOnMachine(host) || 
+              tip.getNumberOfFailedMachines() >= numUniqueHosts) {
+            waiting.clear(index);
+            found = tip;
+            drop = true;
+          } else {
+            // the TIP stays queued on the other nodes
+            drop = removeFailedTip;
+          }
+        } else {
+          // running, killed or complete : re-executions go through the
+          // failed maps, never back through the cache
+          waiting.clear(index);
+          drop = true;
+        }
+      }
+      if (drop) {
+        if (i == queue.head) {
+          queue.head++;
+        } else {
+          queue.tips[i] = -1;
+        }
+      }
+    }
+    if (queue.isEmpty()) {
+      queues.remove(node);
+    }
+    return found;
+  }
+}
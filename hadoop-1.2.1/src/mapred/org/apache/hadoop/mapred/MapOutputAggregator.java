@@ -0,0 +1,438 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.serializer.Deserializer;
+import org.apache.hadoop.io.serializer.SerializationFactory;
+import org.apache.hadoop.io.serializer.Serializer;
+import org.apache.hadoop.mapred.Task.CombinerRunner;
+import org.apache.hadoop.util.Progress;
+
+/**
+ * Aggregates the output of a map by key before it reaches the sort buffer,
+ * for jobs with a combiner. Records are kept serialized in a bounded hash
+ * table keyed by partition and key bytes. Once a key has collected
+ * {@link #VALUES_PER_KEY} values, the combiner runs over them and its output
+ * takes their place; when the table is full, all of it goes through the
+ * combiner to the sort buffer. Outputs with many records per key then reach
+ * the sort buffer already combined, and spill and sort far less.
+ * <p>
+ * As when combining spills, the combiner must not move records to another
+ * partition: its output goes to the partition of its input.
+ */
+class MapOutputAggregator<K, V> {
+
+  /** Memory for the table, in MB; 0 to collect straight to the buffer. */
+  static final String HASH_MB = "map.combine.hash.mb";
+  /** Values of a key that trigger the combiner on that key. */
+  static final String VALUES_PER_KEY = "map.combine.hash.values";
+
+  /** Where aggregated records go: the sort buffer. */
+  interface Output<K, V> {
+    void collect(K key, V value, int partition) throws IOException;
+  }
+
+  // Memory per entry besides its bytes: 9 ints of entry, up to 4 slots of
+  // table, and room for 2 values of 4 ints
+  private static final int ENTRY_BYTES = (9 + 4 + 2 * 4) * 4;
+
+  private final Output<K, V> output;
+  private final CombinerRunner<K, V> combiner;
+  private final Counters.Counter outputRecordCounter;
+  private final Counters.Counter outputByteCounter;
+  private final Counters.Counter combineOutputCounter;
+  private final int partitions;
+  private final int valuesPerKey;
+  private final DataOutputBuffer scratch = new DataOutputBuffer();
+  private final Serializer<K> keySerializer;
+  private final Serializer<V> valSerializer;
+  private final DataInputBuffer deserializerIn = new DataInputBuffer();
+  private final Deserializer<K> keyDeserializer;
+  private final Deserializer<V> valDeserializer;
+
+  // serialized keys and values
+  private final byte[] arena;
+  private int arenaUsed = 0;
+
+  // open addressing table of entry index + 1, 0 for an empty slot
+  private final int[] table;
+
+  // entries: one per partition and key
+  private final int[] partition;
+  private final int[] hash;
+  private final int[] keyStart;
+  private final int[] keyLength;
+  private final int[] firstValue;
+  private final int[] lastValue;
+  private final int[] valueCount;
+  private final int[] combineAt;     // values that trigger the combiner
+  private final int[] order;         // entries by partition, to flush
+  private int numEntries = 0;
+
+  // values, chained per entry; the values a combiner replaced are chained
+  // in a free list, and reused with their bytes by values that fit
+  private final int[] valueStart;
+  private final int[] valueCapacity;
+  private final int[] valueLength;
+  private final int[] nextValue;
+  private int numValues = 0;
+  private int freeValues = -1;
+
+  // values output by the combiner for the key it combines
+  private final DataOutputBuffer combined = new DataOutputBuffer();
+  private int[] combinedLength = new int[16];
+  private int numCombined = 0;
+
+  @SuppressWarnings("unchecked")
+  MapOutputAggregator(JobConf job, int partitions, 
+                      CombinerRunner<K, V> combiner,
+                      Counters.Counter outputRecordCounter,
+                      Counters.Counter outputByteCounter,
+                      Counters.Counter combineOutputCounter,
+                      Output<K, V> output) throws IOException {
+    final int hashMB = job.getInt(HASH_MB, 0);
+    if ((hashMB & 0x7FF) != hashMB || hashMB == 0) {
+      throw new IOException("Invalid \"" + HASH_MB + "\": " + hashMB);
+    }
+    this.partitions = partitions;
+    this.combiner = combiner;
+    this.outputRecordCounter = outputRecordCounter;
+    this.outputByteCounter = outputByteCounter;
+    this.combineOutputCounter = combineOutputCounter;
+    this.output = output;
+    valuesPerKey = Math.max(2, job.getInt(VALUES_PER_KEY, 64));
+
+    final int memory = hashMB << 20;
+    arena = new byte[memory / 2];
+    final int entries = memory / 2 / ENTRY_BYTES;
+    final int slots = Integer.highestOneBit(entries) << 1;
+    table = new int[slots < 2 * entries ? slots << 1 : slots];
+    partition = new int[entries];
+    hash = new int[entries];
+    keyStart = new int[entries];
+    keyLength = new int[entries];
+    firstValue = new int[entries];
+    lastValue = new int[entries];
+    valueCount = new int[entries];
+    combineAt = new int[entries];
+    order = new int[entries];
+    valueStart = new int[2 * entries];
+    valueCapacity = new int[2 * entries];
+    valueLength = new int[2 * entries];
+    nextValue = new int[2 * entries];
+
+    final Class<K> keyClass = (Class<K>)job.getMapOutputKeyClass();
+    final Class<V> valClass = (Class<V>)job.getMapOutputValueClass();
+    SerializationFactory serializationFactory = new SerializationFactory(job);
+    keySerializer = serializationFactory.getSerializer(keyClass);
+    keySerializer.open(scratch);
+    valSerializer = serializationFactory.getSerializer(valClass);
+    valSerializer.open(scratch);
+    keyDeserializer = serializationFactory.getDeserializer(keyClass);
+    keyDeserializer.open(deserializerIn);
+    valDeserializer = serializationFactory.getDeserializer(valClass);
+    valDeserializer.open(deserializerIn);
+  }
+
+  /**
+   * Adds a record of the map output.
+   */
+  void collect(K key, V value, int part) throws IOException {
+    if (part < 0 || part >= partitions) {
+      throw new IOException("Illegal partition for " + key + " (" +
+          part + ")");
+    }
+    scratch.reset();
+    keySerializer.serialize(key);
+    final int keyLen = scratch.getLength();
+    valSerializer.serialize(value);
+    final int recordLen = scratch.getLength();
+    outputRecordCounter.increment(1);
+    outputByteCounter.increment(recordLen);
+
+    if (recordLen > arena.length / 4) {
+      // not worth keeping
+      output.collect(key, value, part);
+      return;
+    }
+    final byte[] bytes = scratch.getData();
+    final int h = WritableComparator.hashBytes(bytes, keyLen) * 31 + part;
+    int e = find(h, part, bytes, keyLen);
+    if (e < 0 && !hasRoomForEntry(recordLen)) {
+      flush();
+    }
+    if (e < 0) {
+      e = insert(h, part, bytes, keyLen);
+    }
+    int v = newValue(recordLen - keyLen);
+    if (v < 0) {
+      // the key is flushed with the others, and starts over
+      flush();
+      e = insert(h, part, bytes, keyLen);
+      v = newValue(recordLen - keyLen);
+    }
+    System.arraycopy(bytes, keyLen, arena, valueStart[v], recordLen - keyLen);
+    addValue(e, v);
+    if (valueCount[e] >= combineAt[e]) {
+      combine(e);
+    }
+  }
+
+  /**
+   * Sends all the records held through the combiner to the output, one
+   * partition at a time, and empties the table.
+   */
+  void flush() throws IOException {
+    if (numEntries == 0) {
+      return;
+    }
+    final int[] partStart = new int[partitions + 1];
+    for (int e = 0; e < numEntries; ++e) {
+      ++partStart[partition[e] + 1];
+    }
+    for (int p = 0; p < partitions; ++p) {
+      partStart[p + 1] += partStart[p];
+    }
+    final int[] fill = Arrays.copyOf(partStart, partitions);
+    for (int e = 0; e < numEntries; ++e) {
+      order[fill[partition[e]]++] = e;
+    }
+    for (int p = 0; p < partitions; ++p) {
+      if (partStart[p] == partStart[p + 1]) {
+        continue;
+      }
+      final int part = p;
+      runCombiner(new EntryIterator(order, partStart[p], partStart[p + 1]),
+          new OutputCollector<K, V>() {
+            public void collect(K key, V value) throws IOException {
+              combineOutputCounter.increment(1);
+              output.collect(key, value, part);
+            }
+          });
+    }
+    Arrays.fill(table, 0);
+    numEntries = 0;
+    numValues = 0;
+    freeValues = -1;
+    arenaUsed = 0;
+  }
+
+  /**
+   * Replaces the values of an entry with the output of the combiner over
+   * them. Output for another key goes straight to the output, as does any
+   * that does not fit in the table.
+   */
+  private void combine(final int e) throws IOException {
+    final int count = valueCount[e];
+    numCombined = 0;
+    combined.reset();
+    runCombiner(new EntryIterator(new int[] { e }, 0, 1),
+        new OutputCollector<K, V>() {
+          public void collect(K key, V value) throws IOException {
+            combineOutputCounter.increment(1);
+            scratch.reset();
+            keySerializer.serialize(key);
+            final int keyLen = scratch.getLength();
+            if (keyLen != keyLength[e] ||
+                WritableComparator.compareBytes(scratch.getData(), 0, keyLen,
+                    arena, keyStart[e], keyLen) != 0) {
+              output.collect(key, value, partition[e]);
+              return;
+            }
+            final int start = combined.getLength();
+            valSerializer.serialize(value);
+            combined.write(scratch.getData(), keyLen,
+                           scratch.getLength() - keyLen);
+            if (numCombined == combinedLength.length) {
+              combinedLength = Arrays.copyOf(combinedLength, 2 * numCombined);
+            }
+            combinedLength[numCombined++] = combined.getLength() - start;
+          }
+        });
+
+    // free the values combined, then take their place
+    if (lastValue[e] >= 0) {
+      nextValue[lastValue[e]] = freeValues;
+      freeValues = firstValue[e];
+    }
+    firstValue[e] = -1;
+    lastValue[e] = -1;
+    valueCount[e] = 0;
+    int off = 0;
+    for (int i = 0; i < numCombined; ++i) {
+      final int len = combinedLength[i];
+      final int v = newValue(len);
+      if (v >= 0) {
+        System.arraycopy(combined.getData(), off, arena, valueStart[v], len);
+        addValue(e, v);
+      } else {
+        deserializerIn.reset(arena, keyStart[e], keyLength[e]);
+        K key = keyDeserializer.deserialize(null);
+        deserializerIn.reset(combined.getData(), off, len);
+        V value = valDeserializer.deserialize(null);
+        output.collect(key, value, partition[e]);
+      }
+      off += len;
+    }
+    // a combiner that does not reduce the values of a key runs less often
+    combineAt[e] = valueCount[e] > count / 2
+      ? 2 * count
+      : valueCount[e] + valuesPerKey;
+  }
+
+  private void runCombiner(RawKeyValueIterator values,
+                           OutputCollector<K, V> collector)
+      throws IOException {
+    try {
+      combiner.combine(values, collector);
+    } catch (InterruptedException e) {
+      throw (IOException)new IOException("Combiner interrupted").initCause(e);
+    } catch (ClassNotFoundException e) {
+      throw (IOException)new IOException("Combiner not found").initCause(e);
+    }
+  }
+
+  private boolean hasRoomForEntry(int bytes) {
+    return numEntries < partition.length &&
+           numValues < valueStart.length &&
+           arena.length - arenaUsed >= bytes;
+  }
+
+  private int find(int h, int part, byte[] bytes, int len) {
+    final int mask = table.length - 1;
+    for (int slot = h & mask; table[slot] != 0; slot = (slot + 1) & mask) {
+      final int e = table[slot] - 1;
+      if (hash[e] == h && partition[e] == part && keyLength[e] == len &&
+          WritableComparator.compareBytes(bytes, 0, len,
+              arena, keyStart[e], len) == 0) {
+        return e;
+      }
+    }
+    return -1;
+  }
+
+  private int insert(int h, int part, byte[] bytes, int len) {
+    final int e = numEntries++;
+    partition[e] = part;
+    hash[e] = h;
+    keyStart[e] = arenaUsed;
+    keyLength[e] = len;
+    firstValue[e] = -1;
+    lastValue[e] = -1;
+    valueCount[e] = 0;
+    combineAt[e] = valuesPerKey;
+    System.arraycopy(bytes, 0, arena, arenaUsed, len);
+    arenaUsed += len;
+    final int mask = table.length - 1;
+    int slot = h & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = e + 1;
+    return e;
+  }
+
+  /**
+   * Gets room for a value of the given length: a free value if the first
+   * one fits, new room otherwise.
+   * @return the value, -1 if the table is full
+   */
+  private int newValue(int len) {
+    int v;
+    if (freeValues >= 0 && valueCapacity[freeValues] >= len) {
+      v = freeValues;
+      freeValues = nextValue[v];
+    } else if (numValues < valueStart.length &&
+               arena.length - arenaUsed >= len) {
+      v = numValues++;
+      valueStart[v] = arenaUsed;
+      valueCapacity[v] = len;
+      arenaUsed += len;
+    } else {
+      return -1;
+    }
+    valueLength[v] = len;
+    return v;
+  }
+
+  private void addValue(int e, int v) {
+    nextValue[v] = -1;
+    if (lastValue[e] < 0) {
+      firstValue[e] = v;
+    } else {
+      nextValue[lastValue[e]] = v;
+    }
+    lastValue[e] = v;
+    ++valueCount[e];
+  }
+
+  /**
+   * Iterates over the values of entries, for the combiner.
+   */
+  private class EntryIterator implements RawKeyValueIterator {
+    private final int[] entries;
+    private final int end;
+    private int i;
+    private int v = -1;
+    private final DataInputBuffer key = new DataInputBuffer();
+    private final DataInputBuffer value = new DataInputBuffer();
+    private final Progress progress = new Progress();
+
+    EntryIterator(int[] entries, int start, int end) {
+      this.entries = entries;
+      this.i = start - 1;
+      this.end = end;
+    }
+
+    public DataInputBuffer getKey() {
+      return key;
+    }
+
+    public DataInputBuffer getValue() {
+      return value;
+    }
+
+    public boolean next() {
+      if (v >= 0) {
+        v = nextValue[v];
+      }
+      while (v < 0) {
+        if (++i >= end) {
+          return false;
+        }
+        v = firstValue[entries[i]];
+      }
+      final int e = entries[i];
+      key.reset(arena, keyStart[e], keyLength[e]);
+      value.reset(arena, valueStart[v], valueLength[v]);
+      return true;
+    }
+
+    public void close() { }
+
+    public Progress getProgress() {
+      return progress;
+    }
+  }
+}
@@ -35,6 +35,12 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -49,7 +55,9 @@ import org.apache.hadoop.fs.LocalDirAllocator;
 import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.RawKeyPrefix;
 import org.apache.hadoop.io.SequenceFile;
 import org.apache.hadoop.io.SequenceFile.CompressionType;
 import org.apache.hadoop.io.Text;
@@ -65,6 +73,7 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.mapreduce.split.JobSplit.TaskSplitIndex;
 import org.apache.hadoop.util.IndexedSortable;
 import org.apache.hadoop.util.IndexedSorter;
+import org.apache.hadoop.util.PrefixIndexedSortable;
 import org.apache.hadoop.util.Progress;
 import org.apache.hadoop.util.QuickSort;
 import org.apache.hadoop.util.ReflectionUtils;
@@ -856,18 +865,21 @@ class MapTask extends Task {
   }
 
   class MapOutputBuffer<K extends Object, V extends Object> 
-  implements MapOutputCollector<K, V>, IndexedSortable {
+  implements MapOutputCollector<K, V>, PrefixIndexedSortable {
     private final int partitions;
+    private final int partitionBits;   // high bits of a prefix for partition
     private final JobConf job;
     private final TaskReporter reporter;
     private final Class<K> keyClass;
     private final Class<V> valClass;
     private final RawComparator<K> comparator;
+    private final RawKeyPrefix keyPrefix;
     private final SerializationFactory serializationFactory;
     private final Serializer<K> keySerializer;
     private final Serializer<V> valSerializer;
     private final CombinerRunner<K,V> combinerRunner;
     private final CombineOutputCollector<K, V> combineCollector;
+    private final MapOutputAggregator<K, V> aggregator; // null: no hash stage
     
     // Compression for map-outputs
     private CompressionCodec codec = null;
@@ -899,6 +911,16 @@ class MapTask extends Task {
     private final int softBufferLimit;
     private final int minSpillsForCombine;
     private final IndexedSorter sorter;
+    private final ExecutorService sortWorkers; // null: sort, merge on one thread
+    private final int sortThreads;
+    private final int[] kvgrouped;     // kvoffsets of a spill, by partition
+    private final ThreadLocal<PartitionSorter> partitionSorters =
+      new ThreadLocal<PartitionSorter>() {
+        @Override
+        protected PartitionSorter initialValue() {
+          return new PartitionSorter();
+        }
+      };
     private final ReentrantLock spillLock = new ReentrantLock();
     private final Condition spillDone = spillLock.newCondition();
     private final Condition spillReady = spillLock.newCondition();
@@ -926,6 +948,9 @@ class MapTask extends Task {
       this.reporter = reporter;
       localFs = FileSystem.getLocal(job);
       partitions = job.getNumReduceTasks();
+      partitionBits = partitions > 1
+          ? 32 - Integer.numberOfLeadingZeros(partitions - 1)
+          : 0;
        
       rfs = ((LocalFileSystem)localFs).getRaw();
 
@@ -956,12 +981,31 @@ class MapTask extends Task {
       recordCapacity /= RECSIZE;
       kvoffsets = new int[recordCapacity];
       kvindices = new int[recordCapacity * ACCTSIZE];
+      // partitions sorted and merged concurrently
+      sortThreads = job.getInt("map.sort.threads", 1);
+      if (sortThreads > 1 && partitions > 1) {
+        kvgrouped = new int[recordCapacity];
+        sortWorkers = Executors.newFixedThreadPool(sortThreads,
+            new ThreadFactory() {
+              private int count = 0;
+              public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "SortWorker" + (count++));
+                t.setDaemon(true);
+                return t;
+              }
+            });
+        LOG.info("map.sort.threads = " + sortThreads);
+      } else {
+        kvgrouped = null;
+        sortWorkers = null;
+      }
       softBufferLimit = (int)(kvbuffer.length * spillper);
       softRecordLimit = (int)(kvoffsets.length * spillper);
       LOG.info("data buffer = " + softBufferLimit + "/" + kvbuffer.length);
       LOG.info("record buffer = " + softRecordLimit + "/" + kvoffsets.length);
       // k/v serialization
       comparator = job.getOutputKeyComparator();
+      keyPrefix = RawKeyPrefix.forComparator(comparator);
       keyClass = (Class<K>)job.getMapOutputKeyClass();
       valClass = (Class<V>)job.getMapOutputValueClass();
       serializationFactory = new SerializationFactory(job);
@@ -992,6 +1036,24 @@ class MapTask extends Task {
         combineCollector = null;
       }
       minSpillsForCombine = job.getInt("min.num.spills.for.combine", 3);
+      // hash aggregation ahead of the buffer, with a combiner of its own
+      if (combinerRunner != null &&
+          job.getInt(MapOutputAggregator.HASH_MB, 0) > 0) {
+        aggregator = new MapOutputAggregator<K, V>(job, partitions,
+            CombinerRunner.<K, V>create(job, getTaskID(), combineInputCounter,
+                                        reporter, null),
+            mapOutputRecordCounter, mapOutputByteCounter, combineOutputCounter,
+            new MapOutputAggregator.Output<K, V>() {
+              public void collect(K key, V value, int partition)
+                  throws IOException {
+                bufferRecord(key, value, partition, false);
+              }
+            });
+        LOG.info(MapOutputAggregator.HASH_MB + " = " +
+                 job.getInt(MapOutputAggregator.HASH_MB, 0));
+      } else {
+        aggregator = null;
+      }
       spillThread.setDaemon(true);
       spillThread.setName("SpillThread");
       spillLock.lock();
@@ -1025,6 +1087,19 @@ class MapTask extends Task {
                               + valClass.getName() + ", recieved "
                               + value.getClass().getName());
       }
+      if (aggregator != null) {
+        aggregator.collect(key, value, partition);
+      } else {
+        bufferRecord(key, value, partition, true);
+      }
+    }
+
+    /**
+     * Serializes a record into the buffer, counting it as map output if
+     * asked to: records that went through the aggregator have been counted.
+     */
+    private void bufferRecord(K key, V value, int partition, boolean count
+                              ) throws IOException {
       final int kvnext = (kvindex + 1) % kvoffsets.length;
       spillLock.lock();
       try {
@@ -1079,10 +1154,12 @@ class MapTask extends Task {
               partition + ")");
         }
 
-        mapOutputRecordCounter.increment(1);
-        mapOutputByteCounter.increment(valend >= keystart
-            ? valend - keystart
-            : (bufvoid - keystart) + valend);
+        if (count) {
+          mapOutputRecordCounter.increment(1);
+          mapOutputByteCounter.increment(valend >= keystart
+              ? valend - keystart
+              : (bufvoid - keystart) + valend);
+        }
 
         // update accounting info
         int ind = kvindex * ACCTSIZE;
@@ -1093,8 +1170,10 @@ class MapTask extends Task {
         kvindex = kvnext;
       } catch (MapBufferTooSmallException e) {
         LOG.info("Record too large for in-memory buffer: " + e.getMessage());
-        spillSingleRecord(key, value, partition);
-        mapOutputRecordCounter.increment(1);
+        spillSingleRecord(key, value, partition, count);
+        if (count) {
+          mapOutputRecordCounter.increment(1);
+        }
         return;
       }
 
@@ -1121,6 +1200,32 @@ class MapTask extends Task {
           kvindices[ij + VALSTART] - kvindices[ij + KEYSTART]);
     }
 
+    /**
+     * Whether the keys have a binary comparable prefix, for sorters like
+     * {@link org.apache.hadoop.util.PrefixSort}.
+     * @see PrefixIndexedSortable#hasPrefixes
+     */
+    public boolean hasPrefixes() {
+      return keyPrefix != null;
+    }
+
+    /**
+     * Prefix of logical index i MOD offset capacity: the partition in the
+     * high bits, followed by as much of the key prefix as fits.
+     * @see PrefixIndexedSortable#getPrefix
+     */
+    public long getPrefix(int i) {
+      final int ii = kvoffsets[i % kvoffsets.length];
+      final long prefix = keyPrefix.getPrefix(kvbuffer,
+          kvindices[ii + KEYSTART],
+          kvindices[ii + VALSTART] - kvindices[ii + KEYSTART]);
+      if (partitionBits == 0) {
+        return prefix;
+      }
+      return ((long)kvindices[ii + PARTITION] << (64 - partitionBits))
+          | (prefix >>> partitionBits);
+    }
+
     /**
      * Swap logical indices st i, j MOD offset capacity.
      * @see IndexedSortable#swap
@@ -1133,6 +1238,126 @@ class MapTask extends Task {
       kvoffsets[j] = tmp;
     }
 
+    /**
+     * Sorts the records of one partition of a spill by key, on a sort
+     * worker. Each worker has its own comparator and sorter, as neither
+     * needs to be thread safe.
+     */
+    private class PartitionSorter implements PrefixIndexedSortable {
+      @SuppressWarnings("unchecked")
+      private final RawComparator<K> keyComparator =
+        job.getOutputKeyComparator();
+      private final IndexedSorter partitionSorter =
+        ReflectionUtils.newInstance(sorter.getClass(), job);
+
+      public int compare(int i, int j) {
+        final int ii = kvoffsets[i % kvoffsets.length];
+        final int ij = kvoffsets[j % kvoffsets.length];
+        return keyComparator.compare(kvbuffer,
+            kvindices[ii + KEYSTART],
+            kvindices[ii + VALSTART] - kvindices[ii + KEYSTART],
+            kvbuffer,
+            kvindices[ij + KEYSTART],
+            kvindices[ij + VALSTART] - kvindices[ij + KEYSTART]);
+      }
+
+      public boolean hasPrefixes() {
+        return keyPrefix != null;
+      }
+
+      public long getPrefix(int i) {
+        final int ii = kvoffsets[i % kvoffsets.length];
+        return keyPrefix.getPrefix(kvbuffer,
+            kvindices[ii + KEYSTART],
+            kvindices[ii + VALSTART] - kvindices[ii + KEYSTART]);
+      }
+
+      public void swap(int i, int j) {
+        MapOutputBuffer.this.swap(i, j);
+      }
+
+      void sort(int start, int end) {
+        partitionSorter.sort(this, start, end, reporter);
+      }
+    }
+
+    /**
+     * Groups the records of the logical range [start, end) by partition,
+     * then sorts each partition on the sort workers.
+     * @return the sort of each partition, null for an empty partition
+     */
+    private Future<?>[] sortPartitions(int start, int end) {
+      final int[] partStart = new int[partitions + 1];
+      for (int i = start; i < end; ++i) {
+        ++partStart[kvindices[kvoffsets[i % kvoffsets.length] + PARTITION] + 1];
+      }
+      for (int p = 0; p < partitions; ++p) {
+        partStart[p + 1] += partStart[p];
+      }
+      final int[] fill = new int[partitions];
+      System.arraycopy(partStart, 0, fill, 0, partitions);
+      for (int i = start; i < end; ++i) {
+        final int kvoff = kvoffsets[i % kvoffsets.length];
+        kvgrouped[fill[kvindices[kvoff + PARTITION]]++] = kvoff;
+      }
+      for (int i = start; i < end; ++i) {
+        kvoffsets[i % kvoffsets.length] = kvgrouped[i - start];
+      }
+
+      final Future<?>[] sorts = new Future<?>[partitions];
+      for (int p = 0; p < partitions; ++p) {
+        final int pstart = start + partStart[p];
+        final int pend = start + partStart[p + 1];
+        if (pend - pstart > 1) {
+          sorts[p] = sortWorkers.submit(new Runnable() {
+            public void run() {
+              partitionSorters.get().sort(pstart, pend);
+            }
+          });
+        }
+      }
+      return sorts;
+    }
+
+    /**
+     * Waits for work handed to a sort worker, if any.
+     */
+    private void waitFor(Future<?> work) throws IOException,
+                                               InterruptedException {
+      if (work == null) {
+        return;
+      }
+      try {
+        work.get();
+      } catch (ExecutionException e) {
+        throw (IOException)new IOException("Sort worker failed"
+            ).initCause(e.getCause());
+      }
+    }
+
+    /**
+     * Waits for all the work handed to the sort workers to stop, failed or
+     * not, so that none of it outlives the spill or merge it is part of.
+     */
+    private void waitForAll(Future<?>[] work) {
+      boolean interrupted = false;
+      for (Future<?> w : work) {
+        while (w != null) {
+          try {
+            w.get();
+            break;
+          } catch (ExecutionException e) {
+            break;
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+      }
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
     /**
      * Inner class managing the spill of serialized records to disk.
      */
@@ -1287,6 +1512,9 @@ class MapTask extends Task {
     public synchronized void flush() throws IOException, ClassNotFoundException,
                                             InterruptedException {
       LOG.info("Starting flush of map output");
+      if (aggregator != null) {
+        aggregator.flush();
+      }
       spillLock.lock();
       try {
         while (kvstart != kvend) {
@@ -1325,12 +1553,20 @@ class MapTask extends Task {
       }
       // release sort buffer before the merge
       kvbuffer = null;
-      mergeParts();
+      try {
+        mergeParts();
+      } finally {
+        if (sortWorkers != null) sortWorkers.shutdown();
+      }
       Path outputPath = mapOutputFile.getOutputFile();
       fileOutputByteCounter.increment(rfs.getFileStatus(outputPath).getLen());
     }
 
-    public void close() { }
+    public void close() {
+      if (sortWorkers != null) {
+        sortWorkers.shutdownNow();
+      }
+    }
 
     protected class SpillThread extends Thread {
 
@@ -1391,6 +1627,7 @@ class MapTask extends Task {
           : (bufvoid - bufend) + bufstart) +
                   partitions * APPROX_HEADER_LENGTH;
       FSDataOutputStream out = null;
+      Future<?>[] sorts = null;
       try {
         // create spill file
         final SpillRecord spillRec = new SpillRecord(partitions);
@@ -1401,11 +1638,19 @@ class MapTask extends Task {
         final int endPosition = (kvend > kvstart)
           ? kvend
           : kvoffsets.length + kvend;
-        sorter.sort(MapOutputBuffer.this, kvstart, endPosition, reporter);
+        if (sortWorkers == null) {
+          sorter.sort(MapOutputBuffer.this, kvstart, endPosition, reporter);
+        } else {
+          // each partition is written as soon as it is sorted
+          sorts = sortPartitions(kvstart, endPosition);
+        }
         int spindex = kvstart;
         IndexRecord rec = new IndexRecord();
         InMemValBytes value = new InMemValBytes();
         for (int i = 0; i < partitions; ++i) {
+          if (sorts != null) {
+            waitFor(sorts[i]);
+          }
           IFile.Writer<K, V> writer = null;
           try {
             long segmentStart = out.getPos();
@@ -1471,6 +1716,7 @@ class MapTask extends Task {
         LOG.info("Finished spill " + numSpills);
         ++numSpills;
       } finally {
+        if (sorts != null) waitForAll(sorts);
         if (out != null) out.close();
       }
     }
@@ -1481,7 +1727,8 @@ class MapTask extends Task {
      * directly to a spill file. Consider this "losing".
      */
     private void spillSingleRecord(final K key, final V value,
-                                   int partition) throws IOException {
+                                   int partition, boolean count
+                                   ) throws IOException {
       long size = kvbuffer.length + partitions * APPROX_HEADER_LENGTH;
       FSDataOutputStream out = null;
       try {
@@ -1506,7 +1753,9 @@ class MapTask extends Task {
               writer.append(key, value);
               // Note that our map byte count will not be accurate with
               // compression
-              mapOutputByteCounter.increment(out.getPos() - recordStart);
+              if (count) {
+                mapOutputByteCounter.increment(out.getPos() - recordStart);
+              }
             }
             writer.close();
 
@@ -1672,56 +1921,14 @@ class MapTask extends Task {
         return;
       }
       {
-        IndexRecord rec = new IndexRecord();
         final SpillRecord spillRec = new SpillRecord(partitions);
-        for (int parts = 0; parts < partitions; parts++) {
-          //create the segments to be merged
-          List<Segment<K,V>> segmentList =
-            new ArrayList<Segment<K, V>>(numSpills);
-          for(int i = 0; i < numSpills; i++) {
-            IndexRecord indexRecord = indexCacheList.get(i).getIndex(parts);
-
-            Segment<K,V> s =
-              new Segment<K,V>(job, rfs, filename[i], indexRecord.startOffset,
-                               indexRecord.partLength, codec, true);
-            segmentList.add(i, s);
-
-            if (LOG.isDebugEnabled()) {
-              LOG.debug("MapId=" + mapId + " Reducer=" + parts +
-                  "Spill =" + i + "(" + indexRecord.startOffset + "," +
-                  indexRecord.rawLength + ", " + indexRecord.partLength + ")");
-            }
-          }
-
-          //merge
-          @SuppressWarnings("unchecked")
-          RawKeyValueIterator kvIter = Merger.merge(job, rfs,
-                         keyClass, valClass, codec,
-                         segmentList, job.getInt("io.sort.factor", 100),
-                         new Path(mapId.toString()),
-                         job.getOutputKeyComparator(), reporter,
-                         null, spilledRecordsCounter);
-
-          //write merged output to disk
-          long segmentStart = finalOut.getPos();
-          Writer<K, V> writer =
-              new Writer<K, V>(job, finalOut, keyClass, valClass, codec,
-                               spilledRecordsCounter);
-          if (combinerRunner == null || numSpills < minSpillsForCombine) {
-            Merger.writeFile(kvIter, writer, reporter, job);
-          } else {
-            combineCollector.setWriter(writer);
-            combinerRunner.combine(kvIter, combineCollector);
+        if (sortWorkers == null) {
+          for (int parts = 0; parts < partitions; parts++) {
+            mergePartition(parts, filename, finalOut, new Path(mapId.toString()),
+                           combinerRunner, combineCollector, spillRec);
           }
-
-          //close
-          writer.close();
-
-          // record offsets
-          rec.startOffset = segmentStart;
-          rec.rawLength = writer.getRawLength();
-          rec.partLength = writer.getCompressedLength();
-          spillRec.putIndex(rec, parts);
+        } else {
+          mergePartsConcurrently(filename, finalOut, spillRec);
         }
         spillRec.writeToFile(finalIndexFile, job);
         finalOut.close();
@@ -1731,6 +1938,175 @@ class MapTask extends Task {
       }
     }
 
+    /**
+     * Merges the spills of one partition into out, and records where the
+     * partition starts in spillRec.
+     */
+    private void mergePartition(int parts, Path[] filename,
+                                FSDataOutputStream out, Path tmpDir,
+                                CombinerRunner<K,V> combiner,
+                                CombineOutputCollector<K,V> collector,
+                                SpillRecord spillRec)
+        throws IOException, InterruptedException, ClassNotFoundException {
+      final TaskAttemptID mapId = getTaskID();
+      //create the segments to be merged
+      List<Segment<K,V>> segmentList =
+        new ArrayList<Segment<K, V>>(numSpills);
+      for(int i = 0; i < numSpills; i++) {
+        IndexRecord indexRecord = indexCacheList.get(i).getIndex(parts);
+
+        Segment<K,V> s =
+          new Segment<K,V>(job, rfs, filename[i], indexRecord.startOffset,
+                           indexRecord.partLength, codec, true);
+        segmentList.add(i, s);
+
+        if (LOG.isDebugEnabled()) {
+          LOG.debug("MapId=" + mapId + " Reducer=" + parts +
+              "Spill =" + i + "(" + indexRecord.startOffset + "," +
+              indexRecord.rawLength + ", " + indexRecord.partLength + ")");
+        }
+      }
+
+      //merge
+      @SuppressWarnings("unchecked")
+      RawKeyValueIterator kvIter = Merger.merge(job, rfs,
+                     keyClass, valClass, codec,
+                     segmentList, job.getInt("io.sort.factor", 100),
+                     tmpDir,
+                     job.getOutputKeyComparator(), reporter,
+                     null, spilledRecordsCounter);
+
+      //write merged output to disk
+      long segmentStart = out.getPos();
+      Writer<K, V> writer =
+          new Writer<K, V>(job, out, keyClass, valClass, codec,
+                           spilledRecordsCounter);
+      if (combiner == null || numSpills < minSpillsForCombine) {
+        Merger.writeFile(kvIter, writer, reporter, job);
+      } else {
+        collector.setWriter(writer);
+        combiner.combine(kvIter, collector);
+      }
+
+      //close
+      writer.close();
+
+      // record offsets
+      IndexRecord rec = new IndexRecord();
+      rec.startOffset = segmentStart;
+      rec.rawLength = writer.getRawLength();
+      rec.partLength = writer.getCompressedLength();
+      spillRec.putIndex(rec, parts);
+    }
+
+    /**
+     * Merges ranges of partitions of about the same size concurrently: the
+     * first range on this thread straight into the final output, the others
+     * on the sort workers into files of their own, which are then appended
+     * to the final output. The merges are CPU bound (comparisons,
+     * (de)compression, combiner), so this trades a copy of all but the first
+     * range for the use of more cores.
+     */
+    private void mergePartsConcurrently(final Path[] filename,
+                                        FSDataOutputStream finalOut,
+                                        final SpillRecord spillRec)
+        throws IOException, InterruptedException, ClassNotFoundException {
+      final TaskAttemptID mapId = getTaskID();
+      // split the partitions in contiguous ranges by the size of their spills
+      final long[] partSize = new long[partitions];
+      long totalSize = 0;
+      for (int parts = 0; parts < partitions; parts++) {
+        for (int i = 0; i < numSpills; i++) {
+          partSize[parts] += indexCacheList.get(i).getIndex(parts).partLength;
+        }
+        totalSize += partSize[parts];
+      }
+      final int ranges = Math.min(sortThreads, partitions);
+      final int[] firstPart = new int[ranges + 1];
+      long size = 0;
+      int range = 1;
+      for (int parts = 0; parts < partitions && range < ranges; parts++) {
+        size += partSize[parts];
+        while (range < ranges && size >= totalSize * range / ranges) {
+          firstPart[range++] = parts + 1;
+        }
+      }
+      while (range <= ranges) {
+        firstPart[range++] = partitions;
+      }
+
+      final Future<?>[] merges = new Future<?>[ranges];
+      final Path[] rangeFile = new Path[ranges];
+      try {
+        for (int r = 1; r < ranges; r++) {
+          if (firstPart[r] == firstPart[r + 1]) {
+            continue;
+          }
+          long rangeSize = partitions * APPROX_HEADER_LENGTH;
+          for (int parts = firstPart[r]; parts < firstPart[r + 1]; parts++) {
+            rangeSize += partSize[parts];
+          }
+          // named after spills that do not exist, so as not to collide
+          rangeFile[r] = mapOutputFile.getSpillFileForWrite(numSpills + r,
+                                                            rangeSize);
+          final int first = firstPart[r];
+          final int last = firstPart[r + 1];
+          final Path out = rangeFile[r];
+          final Path tmpDir = new Path(mapId.toString(), "range" + r);
+          merges[r] = sortWorkers.submit(new Callable<Object>() {
+            public Object call() throws Exception {
+              CombinerRunner<K,V> combiner = CombinerRunner.create(job, 
+                  getTaskID(), reporter.getCounter(COMBINE_INPUT_RECORDS),
+                  reporter, null);
+              CombineOutputCollector<K,V> collector = combiner == null
+                ? null
+                : new CombineOutputCollector<K,V>(combineOutputCounter, 
+                                                  reporter, job);
+              FSDataOutputStream rangeOut = rfs.create(out);
+              try {
+                for (int parts = first; parts < last; parts++) {
+                  mergePartition(parts, filename, rangeOut, tmpDir,
+                                 combiner, collector, spillRec);
+                }
+              } finally {
+                rangeOut.close();
+              }
+              return null;
+            }
+          });
+        }
+
+        for (int parts = 0; parts < firstPart[1]; parts++) {
+          mergePartition(parts, filename, finalOut, new Path(mapId.toString()),
+                         combinerRunner, combineCollector, spillRec);
+        }
+
+        // append the other ranges, moving their partitions to where they land
+        for (int r = 1; r < ranges; r++) {
+          waitFor(merges[r]);
+          if (rangeFile[r] == null) {
+            continue;
+          }
+          final long rangeStart = finalOut.getPos();
+          FSDataInputStream in = rfs.open(rangeFile[r]);
+          try {
+            IOUtils.copyBytes(in, finalOut, 64 * 1024, false);
+          } finally {
+            in.close();
+          }
+          for (int parts = firstPart[r]; parts < firstPart[r + 1]; parts++) {
+            IndexRecord rec = spillRec.getIndex(parts);
+            rec.startOffset += rangeStart;
+            spillRec.putIndex(rec, parts);
+          }
+          rfs.delete(rangeFile[r], true);
+          reporter.progress();
+        }
+      } finally {
+        waitForAll(merges);
+      }
+    }
+
   } // MapOutputBuffer
   
   /**
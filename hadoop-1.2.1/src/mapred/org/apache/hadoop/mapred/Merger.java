@@ -33,6 +33,7 @@ import org.apache.hadoop.fs.LocalDirAllocator;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DataInputBuffer;
 import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.RawKeyPrefix;
 import org.apache.hadoop.io.compress.CompressionCodec;
 import org.apache.hadoop.mapred.IFile.Reader;
 import org.apache.hadoop.mapred.IFile.Writer;
@@ -216,10 +217,22 @@ class Merger {
     }
 
     private void init(Counters.Counter readsCounter) throws IOException {
+      init(readsCounter, 0);
+    }
+
+    /**
+     * Opens the segment, reading it by bufferSize bytes if positive and the
+     * segment is a file.
+     */
+    private void init(Counters.Counter readsCounter, int bufferSize)
+        throws IOException {
       if (reader == null) {
         FSDataInputStream in = fs.open(file);
         in.seek(segmentOffset);
         reader = new Reader<K, V>(conf, in, segmentLength, codec, readsCounter);
+        if (bufferSize > 0) {
+          reader.bufferSize = bufferSize;
+        }
       }
     }
     
@@ -251,6 +264,132 @@ class Merger {
     }
   }
   
+  // bytes by which a merge with io.sort.merge.memory.mb reads its files
+  private static final int MIN_READ_BUFFER = 64 * 1024;
+  private static final int MAX_READ_BUFFER = 1024 * 1024;
+
+  /**
+   * A loser tree over the segments of a merge pass, used by
+   * {@link MergeQueue} instead of its heap if io.sort.merge.loser.tree is
+   * set. The segment that advances is replayed against the losers on the
+   * path from its leaf to the root, one comparison per level where a heap
+   * makes two, and the prefix of the key at the head of each segment is
+   * kept so that most comparisons are of two longs.
+   */
+  private static class SegmentTree<K extends Object, V extends Object> {
+    private final RawComparator<K> comparator;
+    private final RawKeyPrefix keyPrefix;   // null: no prefixes
+    private List<Segment<K, V>> segments;
+    private long[] prefix;
+    private boolean[] done;
+    private int[] losers;                   // losers[0] is the winner
+    private int size;
+
+    static <K, V> SegmentTree<K, V> create(Configuration conf,
+                                           RawComparator<K> comparator) {
+      return conf != null && conf.getBoolean("io.sort.merge.loser.tree", false)
+        ? new SegmentTree<K, V>(comparator)
+        : null;
+    }
+
+    SegmentTree(RawComparator<K> comparator) {
+      this.comparator = comparator;
+      this.keyPrefix = RawKeyPrefix.forComparator(comparator);
+    }
+
+    /** Starts a pass over segments, each at its first key. */
+    void initialize(List<Segment<K, V>> segmentsToMerge) {
+      segments = new ArrayList<Segment<K, V>>(segmentsToMerge);
+      final int n = segments.size();
+      size = n;
+      prefix = new long[n];
+      done = new boolean[n];
+      losers = new int[Math.max(n, 1)];
+      for (int i = 0; i < n; ++i) {
+        setPrefix(i);
+      }
+      // play the tournament, leaves i at n + i and nodes j at 1 .. n - 1
+      final int[] winners = new int[2 * n];
+      for (int i = 0; i < n; ++i) {
+        winners[n + i] = i;
+      }
+      for (int j = n - 1; j >= 1; --j) {
+        final int a = winners[2 * j];
+        final int b = winners[2 * j + 1];
+        if (lessThan(b, a)) {
+          winners[j] = b;
+          losers[j] = a;
+        } else {
+          winners[j] = a;
+          losers[j] = b;
+        }
+      }
+      losers[0] = n > 1 ? winners[1] : 0;
+    }
+
+    int size() {
+      return size;
+    }
+
+    Segment<K, V> top() {
+      return size > 0 ? segments.get(losers[0]) : null;
+    }
+
+    /** Replays the top segment after it moved to its next key. */
+    void adjustTop() {
+      setPrefix(losers[0]);
+      replay(losers[0]);
+    }
+
+    /** Removes the top segment. */
+    Segment<K, V> pop() {
+      if (size == 0) {
+        return null;
+      }
+      final int w = losers[0];
+      done[w] = true;
+      --size;
+      replay(w);
+      return segments.get(w);
+    }
+
+    private void replay(int winner) {
+      final int n = segments.size();
+      for (int j = (winner + n) / 2; j >= 1; j /= 2) {
+        if (lessThan(losers[j], winner)) {
+          final int t = losers[j];
+          losers[j] = winner;
+          winner = t;
+        }
+      }
+      losers[0] = winner;
+    }
+
+    private void setPrefix(int i) {
+      if (keyPrefix != null) {
+        final DataInputBuffer key = segments.get(i).getKey();
+        prefix[i] = keyPrefix.getPrefix(key.getData(), key.getPosition(),
+                                        key.getLength() - key.getPosition());
+      }
+    }
+
+    private boolean lessThan(int a, int b) {
+      if (done[a] || done[b]) {
+        return !done[a];
+      }
+      if (keyPrefix != null && prefix[a] != prefix[b]) {
+        // unsigned
+        return (prefix[a] ^ Long.MIN_VALUE) < (prefix[b] ^ Long.MIN_VALUE);
+      }
+      final DataInputBuffer key1 = segments.get(a).getKey();
+      final DataInputBuffer key2 = segments.get(b).getKey();
+      final int s1 = key1.getPosition();
+      final int s2 = key2.getPosition();
+      return comparator.compare(key1.getData(), s1, key1.getLength() - s1,
+                                key2.getData(), s2, key2.getLength() - s2) < 0;
+    }
+  }
+
   private static class MergeQueue<K extends Object, V extends Object> 
   extends PriorityQueue<Segment<K, V>> implements RawKeyValueIterator {
     Configuration conf;
@@ -271,6 +410,12 @@ class Merger {
     DataInputBuffer value;
     
     Segment<K, V> minSegment;
+    
+    // loser tree used instead of the heap, null for the heap
+    SegmentTree<K, V> tree;
+    // bytes by which segments are read, 0 for io.file.buffer.size
+    int readBufferSize = 0;
+    
     Comparator<Segment<K, V>> segmentComparator =   
       new Comparator<Segment<K, V>>() {
       public int compare(Segment<K, V> o1, Segment<K, V> o2) {
@@ -293,6 +438,7 @@ class Merger {
       this.codec = codec;
       this.comparator = comparator;
       this.reporter = reporter;
+      this.tree = SegmentTree.create(conf, comparator);
       
       for (Path file : inputs) {
         segments.add(new Segment<K, V>(conf, fs, file, codec, !deleteInputs));
@@ -316,6 +462,7 @@ class Merger {
       this.comparator = comparator;
       this.segments = segments;
       this.reporter = reporter;
+      this.tree = SegmentTree.create(conf, comparator);
       if (sortSegments) {
         Collections.sort(segments, segmentComparator);
       }
@@ -330,7 +477,7 @@ class Merger {
 
     public void close() throws IOException {
       Segment<K, V> segment;
-      while((segment = pop()) != null) {
+      while((segment = queuePop()) != null) {
         segment.close();
       }
     }
@@ -350,15 +497,15 @@ class Merger {
       totalBytesProcessed += endPos - startPos;
       mergeProgress.set(totalBytesProcessed * progPerByte);
       if (hasNext) {
-        adjustTop();
+        queueAdjustTop();
       } else {
-        pop();
+        queuePop();
         reader.close();
       }
     }
 
     public boolean next() throws IOException {
-      if (size() == 0)
+      if (queueSize() == 0)
         return false;
 
       if (minSegment != null) {
@@ -366,12 +513,12 @@ class Merger {
         //one. For the first invocation, the priority queue is ready for use
         //but for the subsequent invocations, first adjust the queue 
         adjustPriorityQueue(minSegment);
-        if (size() == 0) {
+        if (queueSize() == 0) {
           minSegment = null;
           return false;
         }
       }
-      minSegment = top();
+      minSegment = queueTop();
       
       key = minSegment.getKey();
       value = minSegment.getValue();
@@ -390,6 +537,41 @@ class Merger {
 
       return comparator.compare(key1.getData(), s1, l1, key2.getData(), s2, l2) < 0;
     }
+
+    // The queue of the segments being merged: the loser tree if there is
+    // one, the heap otherwise
+
+    private int queueSize() {
+      return tree == null ? size() : tree.size();
+    }
+
+    private Segment<K, V> queueTop() {
+      return tree == null ? top() : tree.top();
+    }
+
+    private Segment<K, V> queuePop() {
+      return tree == null ? pop() : tree.pop();
+    }
+
+    private void queueAdjustTop() {
+      if (tree == null) {
+        adjustTop();
+      } else {
+        tree.adjustTop();
+      }
+    }
+
+    private void queueInit(List<Segment<K, V>> segmentsToMerge) {
+      if (tree == null) {
+        initialize(segmentsToMerge.size());
+        clear();
+        for (Segment<K, V> segment : segmentsToMerge) {
+          put(segment);
+        }
+      } else {
+        tree.initialize(segmentsToMerge);
+      }
+    }
     
     public RawKeyValueIterator merge(Class<K> keyClass, Class<V> valueClass,
                                      int factor, Path tmpDir,
@@ -410,6 +592,22 @@ class Merger {
       //create the MergeStreams from the sorted map created in the constructor
       //and dump the final output to a file
       int numSegments = segments.size();
+      final long mergeMemory = 
+        (long)conf.getInt("io.sort.merge.memory.mb", 0) << 20;
+      if (mergeMemory > 0) {
+        // merge as many files per pass as there is memory to read them by
+        // MIN_READ_BUFFER bytes, and read them by as much as possible
+        int memoryFactor = 
+          (int)Math.min(mergeMemory / MIN_READ_BUFFER, Integer.MAX_VALUE);
+        int onDisk = numSegments - inMem;
+        if (Math.min(onDisk, memoryFactor) > factor) {
+          LOG.info("Merge factor " + Math.min(onDisk, memoryFactor) + 
+                   " instead of " + factor + " for " + onDisk + " files");
+          factor = Math.min(onDisk, memoryFactor);
+        }
+        readBufferSize = (int)Math.min(MAX_READ_BUFFER,
+            mergeMemory / Math.max(1, Math.min(factor, onDisk)));
+      }
       int origFactor = factor;
       int passNo = 1;
       do {
@@ -433,7 +631,7 @@ class Merger {
           for (Segment<K, V> segment : mStream) {
             // Initialize the segment at the last possible moment;
             // this helps in ensuring we don't use buffers until we need them
-            segment.init(readsCounter);
+            segment.init(readsCounter, readBufferSize);
             long startPos = segment.getPosition();
             boolean hasNext = segment.next();
             long endPos = segment.getPosition();
@@ -459,11 +657,7 @@ class Merger {
         }
         
         //feed the streams to the priority queue
-        initialize(segmentsToMerge.size());
-        clear();
-        for (Segment<K, V> segment : segmentsToMerge) {
-          put(segment);
-        }
+        queueInit(segmentsToMerge);
         
         //if we have lesser number of segments remaining, then just return the
         //iterator, else do another single level merge
@@ -18,13 +18,20 @@
 
 package org.apache.hadoop.mapred;
 
+import java.io.BufferedInputStream;
 import java.io.DataInput;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.DataOutput;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.Socket;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -63,6 +70,7 @@ import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.RawComparator;
 import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.io.WritableFactories;
 import org.apache.hadoop.io.WritableFactory;
@@ -78,6 +86,7 @@ import org.apache.hadoop.mapred.SortedRanges.SkipRangeIterator;
 import org.apache.hadoop.mapred.TaskTracker.TaskInProgress;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 import org.apache.hadoop.metrics2.MetricsBuilder;
+import org.apache.hadoop.net.NetUtils;
 import org.apache.hadoop.util.Progress;
 import org.apache.hadoop.util.Progressable;
 import org.apache.hadoop.util.ReflectionUtils;
@@ -229,6 +238,31 @@ class ReduceTask extends Task {
     return fileList.toArray(new Path[0]);
   }
 
+  /**
+   * Merge the partition of this reduce of the map outputs of a local job
+   * that runs several reduces, in place: the map outputs are shared by
+   * the reduces and removed by the LocalJobRunner.
+   */
+  @SuppressWarnings("unchecked")
+  private <K, V> RawKeyValueIterator mergeLocalMapOutputs(JobConf job, 
+      FileSystem fs, Reporter reporter) throws IOException {
+    String[] outputs = job.getStrings(LocalJobRunner.LOCAL_MAP_OUTPUTS);
+    String[] indexes = job.getStrings(LocalJobRunner.LOCAL_MAP_OUTPUT_INDEXES);
+    List<Segment<K, V>> segments = new ArrayList<Segment<K, V>>();
+    for (int i = 0; outputs != null && i < outputs.length; ++i) {
+      SpillRecord spillRecord = 
+        new SpillRecord(new Path(indexes[i]), job, getUser());
+      IndexRecord indexRecord = spillRecord.getIndex(getPartition());
+      segments.add(new Segment<K, V>(job, fs, new Path(outputs[i]),
+          indexRecord.startOffset, indexRecord.partLength, codec, true));
+    }
+    return Merger.merge(job, fs, (Class<K>)job.getMapOutputKeyClass(),
+        (Class<V>)job.getMapOutputValueClass(), codec, segments,
+        job.getInt("io.sort.factor", 100), new Path(getTaskID().toString()),
+        (RawComparator<K>)job.getOutputKeyComparator(), reporter,
+        spilledRecordsCounter, null);
+  }
+
   private class ReduceValuesIterator<KEY,VALUE> 
           extends ValuesIterator<KEY,VALUE> {
     public ReduceValuesIterator (RawKeyValueIterator in,
@@ -396,13 +430,18 @@ class ReduceTask extends Task {
     statusUpdate(umbilical);
 
     final FileSystem rfs = FileSystem.getLocal(job).getRaw();
-    RawKeyValueIterator rIter = isLocal
-      ? Merger.merge(job, rfs, job.getMapOutputKeyClass(),
-          job.getMapOutputValueClass(), codec, getMapFiles(rfs, true),
-          !conf.getKeepFailedTaskFiles(), job.getInt("io.sort.factor", 100),
-          new Path(getTaskID().toString()), job.getOutputKeyComparator(),
-          reporter, spilledRecordsCounter, null)
-      : reduceCopier.createKVIterator(job, rfs, reporter);
+    RawKeyValueIterator rIter;
+    if (isLocal && job.get(LocalJobRunner.LOCAL_MAP_OUTPUTS) != null) {
+      rIter = mergeLocalMapOutputs(job, rfs, reporter);
+    } else {
+      rIter = isLocal
+        ? Merger.merge(job, rfs, job.getMapOutputKeyClass(),
+            job.getMapOutputValueClass(), codec, getMapFiles(rfs, true),
+            !conf.getKeepFailedTaskFiles(), job.getInt("io.sort.factor", 100),
+            new Path(getTaskID().toString()), job.getOutputKeyComparator(),
+            reporter, spilledRecordsCounter, null)
+        : reduceCopier.createKVIterator(job, rfs, reporter);
+    }
         
     // free up the data structures
     mapOutputFilesOnDisk.clear();
@@ -713,6 +752,16 @@ class ReduceTask extends Task {
      * the set of unique hosts from which we are copying
      */
     private Set<String> uniqueHosts;
+
+    /**
+     * the number of copies in flight from each of the unique hosts
+     */
+    private Map<String, Integer> hostCopiesInFlight;
+
+    /**
+     * the most map outputs fetched from a host with a single request
+     */
+    private int mapOutputsPerFetch;
     
     /**
      * A reference to the RamManager for writing the map outputs to.
@@ -758,10 +807,18 @@ class ReduceTask extends Task {
 
     /**
      * Maximum memory usage of map outputs to merge from memory into
-     * the reduce, in bytes.
+     * the reduce, in bytes: a share of the heap, or of the direct memory
+     * budget when the map outputs are held there. Outputs in direct memory
+     * count for the chunks they hold, not just their length.
      */
     private final long maxInMemReduce;
 
+    /**
+     * Number of files on disk merged, with the map outputs retained in
+     * memory, straight into the reduce; 0 to use io.sort.factor.
+     */
+    private final int streamingMergeFactor;
+
     /**
      * The threads for fetching the files.
      */
@@ -974,6 +1031,10 @@ class ReduceTask extends Task {
       
       //a flag signifying whether a copy result is obsolete
       private static final int OBSOLETE = -2;
+
+      //a flag signifying that the copy was not attempted, as the batch it
+      //was part of failed first
+      private static final int RETRY = -3;
       
       private CopyOutputErrorType error = CopyOutputErrorType.NO_ERROR;
       CopyResult(MapOutputLocation loc, long size) {
@@ -991,6 +1052,9 @@ class ReduceTask extends Task {
       public boolean isObsolete() { 
         return size == OBSOLETE;
       }
+      public boolean isRetry() {
+        return size == RETRY;
+      }
       public long getSize() { return size; }
       public String getHost() { return loc.getHost(); }
       public MapOutputLocation getLocation() { return loc; }
@@ -1043,6 +1107,7 @@ class ReduceTask extends Task {
       final Configuration conf;
       
       byte[] data;
+      ShuffleBufferPool.Buffer directData;
       final boolean inMemory;
       long compressedSize;
       long decompressedSize;
@@ -1074,9 +1139,25 @@ class ReduceTask extends Task {
         this.inMemory = true;
       }
       
+      public MapOutput(TaskID mapId, TaskAttemptID mapAttemptId, 
+                       ShuffleBufferPool.Buffer directData, 
+                       int compressedLength) {
+        this(mapId, mapAttemptId, (byte[])null, compressedLength);
+        this.directData = directData;
+      }
+      
+      /** Length of an in-memory map output. */
+      int getLength() {
+        return directData == null ? data.length : directData.getLength();
+      }
+      
       public void discard() throws IOException {
         if (inMemory) {
           data = null;
+          if (directData != null) {
+            directData.release();
+            directData = null;
+          }
         } else {
           FileSystem fs = file.getFileSystem(conf);
           fs.delete(file, true);
@@ -1096,6 +1177,9 @@ class ReduceTask extends Task {
       private final long maxSize;
       private final long maxSingleShuffleLimit;
       
+      /* Direct memory holding the map outputs, null if they are on the heap */
+      private final ShuffleBufferPool directBuffers;
+      
       private long size = 0;
       
       private Object dataAvailable = new Object();
@@ -1112,13 +1196,51 @@ class ReduceTask extends Task {
           throw new IOException("mapred.job.shuffle.input.buffer.percent" +
                                 maxInMemCopyUse);
         }
-        // Allow unit tests to fix Runtime memory
-        maxSize = (int)(conf.getInt("mapred.job.reduce.total.mem.bytes",
-            (int)Math.min(Runtime.getRuntime().maxMemory(), Integer.MAX_VALUE))
-          * maxInMemCopyUse);
+        // Off-heap, the in-memory limit is the budget of direct memory, which
+        // -XX:MaxDirectMemorySize of the child JVMs has to allow for
+        final int directMB = conf.getInt("mapred.job.shuffle.input.direct.mb", 0);
+        if (directMB > 0) {
+          maxSize = Math.min((long)directMB << 20, Integer.MAX_VALUE);
+          directBuffers = new ShuffleBufferPool(
+              conf.getInt("mapred.job.shuffle.input.direct.chunk.size",
+                          ShuffleBufferPool.DEFAULT_CHUNK_SIZE));
+        } else {
+          // Allow unit tests to fix Runtime memory
+          maxSize = (int)(conf.getInt("mapred.job.reduce.total.mem.bytes",
+              (int)Math.min(Runtime.getRuntime().maxMemory(), Integer.MAX_VALUE))
+            * maxInMemCopyUse);
+          directBuffers = null;
+        }
         maxSingleShuffleLimit = (long)(maxSize * MAX_SINGLE_SHUFFLE_SEGMENT_FRACTION);
+        if (directBuffers != null &&
+            directBuffers.reservationFor(1) > maxSingleShuffleLimit) {
+          throw new IOException("mapred.job.shuffle.input.direct.chunk.size " +
+                                directBuffers.reservationFor(1) + 
+                                " too large for mapred.job.shuffle.input.direct.mb " + 
+                                directMB);
+        }
         LOG.info("ShuffleRamManager: MemoryLimit=" + maxSize + 
-                 ", MaxSingleShuffleLimit=" + maxSingleShuffleLimit);
+                 ", MaxSingleShuffleLimit=" + maxSingleShuffleLimit +
+                 (directBuffers == null ? "" : ", off-heap"));
+      }
+      
+      /**
+       * The memory to reserve for a map output of the given length: more
+       * than the length when the map outputs are held in direct memory.
+       */
+      int reservationFor(int length) {
+        return directBuffers == null ? length 
+                                     : directBuffers.reservationFor(length);
+      }
+      
+      /** The direct memory for the map outputs, null if on the heap. */
+      ShuffleBufferPool getDirectBuffers() {
+        return directBuffers;
+      }
+      
+      /** The memory the map outputs may take, on the heap or off it. */
+      long getMemoryLimit() {
+        return maxSize;
       }
       
       public synchronized boolean reserve(int requestedSize, InputStream in) 
@@ -1157,6 +1279,18 @@ class ReduceTask extends Task {
         return (in != null);
       }
       
+      /**
+       * Reserves the memory only if it is available now.
+       * @return whether the memory was reserved
+       */
+      public synchronized boolean tryReserve(int requestedSize) {
+        if ((size + requestedSize) > maxSize) {
+          return false;
+        }
+        size += requestedSize;
+        return true;
+      }
+      
       public synchronized void unreserve(int requestedSize) {
         size -= requestedSize;
         
@@ -1253,6 +1387,14 @@ class ReduceTask extends Task {
       private Decompressor decompressor = null;
       
       private final SecretKey jobTokenSecret;
+
+      // the ShuffleServer port of the tasktrackers, 0 to fetch over http
+      private final int shufflePort;
+      // the connection to the ShuffleServer of the last host, kept open
+      private Socket shuffleSocket = null;
+      private String shuffleSocketHost = null;
+      private DataInputStream shuffleIn = null;
+      private DataOutputStream shuffleOut = null;
       
       public MapOutputCopier(JobConf job, Reporter reporter, SecretKey jobTokenSecret) {
         setName("MapOutputCopier " + reduceTask.getTaskID() + "." + id);
@@ -1265,6 +1407,7 @@ class ReduceTask extends Task {
           job.getInt("mapreduce.reduce.shuffle.connect.timeout", STALLED_COPY_TIMEOUT);
         shuffleReadTimeout =
           job.getInt("mapreduce.reduce.shuffle.read.timeout", DEFAULT_READ_TIMEOUT);
+        shufflePort = job.getInt(TaskTracker.ShuffleServer.PORT, 0);
         
         if (job.getCompressMapOutput()) {
           Class<? extends CompressionCodec> codecClass =
@@ -1318,12 +1461,31 @@ class ReduceTask extends Task {
           try {
             MapOutputLocation loc = null;
             long size = -1;
+            List<MapOutputLocation> batch = null;
             
             synchronized (scheduledCopies) {
               while (scheduledCopies.isEmpty()) {
                 scheduledCopies.wait();
               }
               loc = scheduledCopies.remove(0);
+              // the outputs of a host are scheduled next to each other
+              while (mapOutputsPerFetch > 1 && !scheduledCopies.isEmpty() &&
+                     scheduledCopies.get(0).getHost().equals(loc.getHost()) &&
+                     (batch == null || batch.size() < mapOutputsPerFetch)) {
+                if (batch == null) {
+                  batch = new ArrayList<MapOutputLocation>(mapOutputsPerFetch);
+                  batch.add(loc);
+                }
+                batch.add(scheduledCopies.remove(0));
+              }
+            }
+            if (batch == null && shufflePort > 0) {
+              batch = new ArrayList<MapOutputLocation>(1);
+              batch.add(loc);
+            }
+            if (batch != null) {
+              copyBatch(batch);
+              continue;
             }
             CopyOutputErrorType error = CopyOutputErrorType.OTHER_ERROR;
             readError = false;
@@ -1368,7 +1530,7 @@ class ReduceTask extends Task {
         if (decompressor != null) {
           CodecPool.returnDecompressor(decompressor);
         }
-          
+        closeShuffleSocket();
       }
       
       /** Copies a a map output from a remote host, via HTTP. 
@@ -1379,9 +1541,22 @@ class ReduceTask extends Task {
        */
       private long copyOutput(MapOutputLocation loc
                               ) throws IOException, InterruptedException {
+        return copyOutput(loc, null, null);
+      }
+
+      /**
+       * Copies a map output, either with its own request or, when a header
+       * is given, from the frame of a batched response.
+       */
+      private long copyOutput(MapOutputLocation loc, ShuffleHeader header,
+                              InputStream frame
+                              ) throws IOException, InterruptedException {
         // check if we still need to copy the output from this location
         if (copiedMapOutputs.contains(loc.getTaskId()) || 
             obsoleteMapIds.contains(loc.getTaskAttemptId())) {
+          if (frame != null) {
+            frame.close();
+          }
           return CopyResult.OBSOLETE;
         } 
  
@@ -1398,8 +1573,11 @@ class ReduceTask extends Task {
         Path tmpMapOutput = new Path(filename+"-"+id);
         
         // Copy the map output
-        MapOutput mapOutput = getMapOutput(loc, tmpMapOutput,
-                                           reduceId.getTaskID().getId());
+        MapOutput mapOutput = (header == null)
+          ? getMapOutput(loc, tmpMapOutput, reduceId.getTaskID().getId())
+          : shuffle(loc, null, frame, tmpMapOutput,
+                    header.getUncompressedLength(),
+                    header.getCompressedLength());
         if (mapOutput == null) {
           throw new IOException("Failed to fetch map-output for " + 
                                 loc.getTaskAttemptId() + " from " + 
@@ -1543,6 +1721,24 @@ class ReduceTask extends Task {
               ", decompressed len: " + decompressedLength);
         }
 
+        return shuffle(mapOutputLoc, connection, input, filename,
+                       decompressedLength, compressedLength);
+      }
+
+      /**
+       * Shuffles a map output into memory, or onto the local disk.
+       * @param connection the connection the input comes from, to reconnect
+       *        after waiting for memory; null for a batched fetch, which
+       *        cannot wait without stalling the rest of its batch and goes
+       *        to disk when the memory is not available right away
+       */
+      private MapOutput shuffle(MapOutputLocation mapOutputLoc,
+                                URLConnection connection,
+                                InputStream input,
+                                Path filename,
+                                long decompressedLength,
+                                long compressedLength)
+      throws IOException, InterruptedException {
         //We will put a file in memory if it meets certain criteria:
         //1. The size of the (decompressed) file should be less than 25% of 
         //    the total inmem fs
@@ -1550,6 +1746,10 @@ class ReduceTask extends Task {
         
         // Check if this map-output can be saved in-memory
         boolean shuffleInMemory = ramManager.canFitInMemory(decompressedLength); 
+        if (shuffleInMemory && connection == null) {
+          shuffleInMemory = ramManager.tryReserve(
+              ramManager.reservationFor((int)decompressedLength));
+        }
 
         // Shuffle
         MapOutput mapOutput = null;
@@ -1577,6 +1777,202 @@ class ReduceTask extends Task {
         return mapOutput;
       }
       
+      /**
+       * Copies the outputs of several maps of one host with a single
+       * request, see {@link ShuffleHeader}. Each map gets its own copy
+       * result. If the response breaks, the map being read fails and the
+       * maps after it are handed back to be scheduled again.
+       */
+      private void copyBatch(List<MapOutputLocation> locs)
+      throws InterruptedException {
+        List<MapOutputLocation> needed =
+          new ArrayList<MapOutputLocation>(locs.size());
+        for (MapOutputLocation loc : locs) {
+          if (copiedMapOutputs.contains(loc.getTaskId()) || 
+              obsoleteMapIds.contains(loc.getTaskAttemptId())) {
+            start(loc);
+            finish(CopyResult.OBSOLETE, CopyOutputErrorType.NO_ERROR);
+          } else {
+            needed.add(loc);
+          }
+        }
+        if (needed.isEmpty()) {
+          return;
+        }
+
+        int reduce = reduceTask.getTaskID().getTaskID().getId();
+        InputStream input = null;
+        int next = 0;
+        readError = false;
+        try {
+          shuffleClientMetrics.threadBusy();
+          // failing to connect fails the first map
+          start(needed.get(0));
+          DataInputStream in;
+          if (shufflePort > 0) {
+            in = requestFromShuffleServer(needed, reduce);
+          } else {
+            URL url = getBatchURL(needed, reduce);
+            HttpURLConnection connection =
+              (HttpURLConnection)url.openConnection();
+            input = setupSecureConnection(needed.get(0), connection);
+            int rc = connection.getResponseCode();
+            if (rc != HttpURLConnection.HTTP_OK) {
+              throw new IOException(
+                  "Got invalid response code " + rc + " from " + url +
+                  ": " + connection.getResponseMessage());
+            }
+            in = new DataInputStream(new BufferedInputStream(input));
+          }
+          for (; next < needed.size(); ++next) {
+            MapOutputLocation loc = needed.get(next);
+            start(loc);
+            ShuffleHeader header = new ShuffleHeader();
+            try {
+              header.readFields(in);
+            } catch (IOException ioe) {
+              readError = true;
+              throw ioe;
+            }
+            if (!loc.getTaskAttemptId().toString().equals(header.getMapId())
+                || header.getForReduce() != reduce) {
+              throw new IOException("data for " + header.getMapId() + 
+                  " and reduce " + header.getForReduce() + 
+                  " arrived to reduce task " + reduce + 
+                  ", where as expected map output should be from " +
+                  loc.getTaskAttemptId());
+            }
+            if (header.isFailed()) {
+              LOG.warn(reduceTask.getTaskID() + " copy failed: " +
+                       loc.getTaskAttemptId() + " from " + loc.getHost() +
+                       ": map output lost");
+              shuffleClientMetrics.failedFetch();
+              finish(-1, CopyOutputErrorType.READ_ERROR);
+              continue;
+            }
+            long size = copyOutput(loc, header, 
+                new ShuffleHeader.FrameInputStream(in,
+                    header.getCompressedLength()));
+            shuffleClientMetrics.successFetch();
+            finish(size, CopyOutputErrorType.NO_ERROR);
+          }
+          if (input != null) {
+            // read to the end, so that the connection can be kept alive
+            while (in.read() >= 0) {
+            }
+            input.close();
+          }
+        } catch (IOException e) {
+          LOG.warn(reduceTask.getTaskID() + " batched copy failed from " +
+                   needed.get(0).getHost());
+          LOG.warn(StringUtils.stringifyException(e));
+          if (next < needed.size()) {
+            shuffleClientMetrics.failedFetch();
+            finish(-1, readError ? CopyOutputErrorType.READ_ERROR
+                                 : CopyOutputErrorType.OTHER_ERROR);
+          }
+          for (int i = next + 1; i < needed.size(); ++i) {
+            start(needed.get(i));
+            finish(CopyResult.RETRY, CopyOutputErrorType.NO_ERROR);
+          }
+          IOUtils.cleanup(LOG, input);
+          // the rest of the response is unknown, the connection is unusable
+          closeShuffleSocket();
+        } finally {
+          shuffleClientMetrics.threadFree();
+        }
+      }
+
+      /**
+       * Sends a request for the maps to the ShuffleServer of their host,
+       * see {@link TaskTracker.ShuffleServer}, reusing the connection of the
+       * previous request to the same host.
+       * @return the response, positioned at the header of the first map
+       */
+      private DataInputStream requestFromShuffleServer(
+          List<MapOutputLocation> locs, int reduce) throws IOException {
+        String host = locs.get(0).getHost();
+        String jobId = locs.get(0).getTaskAttemptId().getJobID().toString();
+        String[] maps = new String[locs.size()];
+        for (int i = 0; i < maps.length; ++i) {
+          maps[i] = locs.get(i).getTaskAttemptId().toString();
+        }
+        String hash = SecureShuffleUtils.hashFromString(
+            TaskTracker.ShuffleServer.buildMsg(jobId, reduce, maps),
+            jobTokenSecret);
+        boolean reused = host.equals(shuffleSocketHost);
+        while (true) {
+          if (!host.equals(shuffleSocketHost)) {
+            closeShuffleSocket();
+            Socket s = NetUtils.getDefaultSocketFactory(conf).createSocket();
+            try {
+              NetUtils.connect(s, new InetSocketAddress(host, shufflePort),
+                               shuffleConnectionTimeout);
+              s.setTcpNoDelay(true);
+              shuffleIn = new DataInputStream(new BufferedInputStream(
+                  NetUtils.getInputStream(s, shuffleReadTimeout)));
+              shuffleOut = new DataOutputStream(new BufferedOutputStream(
+                  NetUtils.getOutputStream(s, shuffleReadTimeout)));
+            } catch (IOException ioe) {
+              IOUtils.closeSocket(s);
+              throw ioe;
+            }
+            shuffleSocket = s;
+            shuffleSocketHost = host;
+          }
+          String replyHash;
+          try {
+            Text.writeString(shuffleOut, jobId);
+            WritableUtils.writeVInt(shuffleOut, reduce);
+            WritableUtils.writeVInt(shuffleOut, maps.length);
+            for (String map : maps) {
+              Text.writeString(shuffleOut, map);
+            }
+            Text.writeString(shuffleOut, hash);
+            shuffleOut.flush();
+            replyHash = Text.readString(shuffleIn);
+          } catch (IOException ioe) {
+            closeShuffleSocket();
+            if (reused) {
+              // the server may have closed the idle connection
+              reused = false;
+              continue;
+            }
+            readError = true;
+            throw ioe;
+          }
+          SecureShuffleUtils.verifyReply(replyHash, hash, jobTokenSecret);
+          return shuffleIn;
+        }
+      }
+
+      private void closeShuffleSocket() {
+        if (shuffleSocket != null) {
+          IOUtils.closeSocket(shuffleSocket);
+          shuffleSocket = null;
+          shuffleSocketHost = null;
+          shuffleIn = null;
+          shuffleOut = null;
+        }
+      }
+
+      private URL getBatchURL(List<MapOutputLocation> locs, int reduce)
+      throws MalformedURLException {
+        URL url = locs.get(0).getOutputLocation();
+        StringBuilder file = new StringBuilder(url.getPath());
+        file.append("?job=").append(locs.get(0).getTaskAttemptId().getJobID());
+        file.append("&reduce=").append(reduce);
+        file.append('&').append(ShuffleHeader.MAPS_PARAM).append('=');
+        for (int i = 0; i < locs.size(); ++i) {
+          if (i > 0) {
+            file.append(ShuffleHeader.MAP_SEPARATOR);
+          }
+          file.append(locs.get(i).getTaskAttemptId());
+        }
+        return new URL(url.getProtocol(), url.getHost(), url.getPort(),
+                       file.toString());
+      }
+
       private InputStream setupSecureConnection(MapOutputLocation mapOutputLoc, 
           URLConnection connection) throws IOException {
 
@@ -1667,8 +2063,11 @@ class ReduceTask extends Task {
                                         int mapOutputLength,
                                         int compressedLength)
       throws IOException, InterruptedException {
-        // Reserve ram for the map-output
-        boolean createdNow = ramManager.reserve(mapOutputLength, input);
+        // Reserve ram for the map-output; batched fetches have reserved it
+        // already
+        int reservedLength = ramManager.reservationFor(mapOutputLength);
+        boolean createdNow = (connection == null) ||
+          ramManager.reserve(reservedLength, input);
       
         // Reconnect if we need to
         if (!createdNow) {
@@ -1681,8 +2080,8 @@ class ReduceTask extends Task {
                      mapOutputLoc.getHost());
             
             // Inform the ram-manager
-            ramManager.closeInMemoryFile(mapOutputLength);
-            ramManager.unreserve(mapOutputLength);
+            ramManager.closeInMemoryFile(reservedLength);
+            ramManager.unreserve(reservedLength);
             
             throw ioe;
           }
@@ -1699,24 +2098,51 @@ class ReduceTask extends Task {
           input = codec.createInputStream(input, decompressor);
         }
       
-        // Copy map-output into an in-memory buffer
-        byte[] shuffleData = new byte[mapOutputLength];
-        MapOutput mapOutput = 
-          new MapOutput(mapOutputLoc.getTaskId(), 
-                        mapOutputLoc.getTaskAttemptId(), shuffleData, compressedLength);
+        // Copy map-output into an in-memory buffer, through a heap buffer
+        // when it is held in direct memory
+        ShuffleBufferPool directBuffers = ramManager.getDirectBuffers();
+        byte[] shuffleData;
+        MapOutput mapOutput;
+        if (directBuffers == null) {
+          shuffleData = new byte[mapOutputLength];
+          mapOutput = new MapOutput(mapOutputLoc.getTaskId(), 
+                                    mapOutputLoc.getTaskAttemptId(), 
+                                    shuffleData, compressedLength);
+        } else {
+          shuffleData = new byte[Math.min(mapOutputLength, 64 * 1024)];
+          mapOutput = new MapOutput(mapOutputLoc.getTaskId(), 
+                                    mapOutputLoc.getTaskAttemptId(), 
+                                    directBuffers.allocate(mapOutputLength),
+                                    compressedLength);
+        }
         
         int bytesRead = 0;
         try {
-          int n = IOUtils.wrappedReadForCompressedData(input, shuffleData, 0,
-              shuffleData.length);
-          while (n > 0) {
-            bytesRead += n;
-            shuffleClientMetrics.inputBytes(n);
-
-            // indicate we're making progress
-            reporter.progress();
-            n = IOUtils.wrappedReadForCompressedData(input, shuffleData,
-                bytesRead, shuffleData.length - bytesRead);
+          if (mapOutput.directData == null) {
+            int n = IOUtils.wrappedReadForCompressedData(input, shuffleData, 0,
+                shuffleData.length);
+            while (n > 0) {
+              bytesRead += n;
+              shuffleClientMetrics.inputBytes(n);
+
+              // indicate we're making progress
+              reporter.progress();
+              n = IOUtils.wrappedReadForCompressedData(input, shuffleData,
+                  bytesRead, shuffleData.length - bytesRead);
+            }
+          } else {
+            int n = IOUtils.wrappedReadForCompressedData(input, shuffleData, 0,
+                Math.min(shuffleData.length, mapOutputLength));
+            while (n > 0) {
+              mapOutput.directData.write(shuffleData, 0, n);
+              bytesRead += n;
+              shuffleClientMetrics.inputBytes(n);
+
+              // indicate we're making progress
+              reporter.progress();
+              n = IOUtils.wrappedReadForCompressedData(input, shuffleData, 0,
+                  Math.min(shuffleData.length, mapOutputLength - bytesRead));
+            }
           }
 
           if (LOG.isDebugEnabled()) {
@@ -1730,8 +2156,8 @@ class ReduceTask extends Task {
                    ioe);
 
           // Inform the ram-manager
-          ramManager.closeInMemoryFile(mapOutputLength);
-          ramManager.unreserve(mapOutputLength);
+          ramManager.closeInMemoryFile(reservedLength);
+          ramManager.unreserve(reservedLength);
           
           // Discard the map-output
           try {
@@ -1751,12 +2177,12 @@ class ReduceTask extends Task {
         }
 
         // Close the in-memory file
-        ramManager.closeInMemoryFile(mapOutputLength);
+        ramManager.closeInMemoryFile(reservedLength);
 
         // Sanity check
         if (bytesRead != mapOutputLength) {
           // Inform the ram-manager
-          ramManager.unreserve(mapOutputLength);
+          ramManager.unreserve(reservedLength);
           
           // Discard the map-output
           try {
@@ -1778,7 +2204,7 @@ class ReduceTask extends Task {
 
         // TODO: Remove this after a 'fix' for HADOOP-3647
         if (LOG.isDebugEnabled()) {
-          if (mapOutputLength > 0) {
+          if (mapOutputLength > 0 && mapOutput.directData == null) {
             DataInputBuffer dib = new DataInputBuffer();
             dib.reset(shuffleData, 0, shuffleData.length);
             LOG.debug("Rec #1 from " + mapOutputLoc.getTaskAttemptId() + 
@@ -1940,6 +2366,8 @@ class ReduceTask extends Task {
       this.copyResults = new ArrayList<CopyResult>(100);    
       this.numCopiers = conf.getInt("mapred.reduce.parallel.copies", 5);
       this.maxInFlight = 4 * numCopiers;
+      this.mapOutputsPerFetch =
+        conf.getInt("mapreduce.reduce.shuffle.maps.per.fetch", 1);
       Counters.Counter combineInputCounter = 
         reporter.getCounter(Task.Counter.COMBINE_INPUT_RECORDS);
       this.combinerRunner = CombinerRunner.create(conf, getTaskID(),
@@ -1968,12 +2396,19 @@ class ReduceTask extends Task {
         throw new IOException("mapred.job.reduce.input.buffer.percent" +
                               maxRedPer);
       }
-      this.maxInMemReduce = (int)Math.min(
-          Runtime.getRuntime().maxMemory() * maxRedPer, Integer.MAX_VALUE);
+      this.streamingMergeFactor = 
+        conf.getInt("mapred.reduce.merge.streaming.factor", 0);
 
       // Setup the RamManager
       ramManager = new ShuffleRamManager(conf);
 
+      // map outputs held in direct memory don't use the heap: the share of
+      // them retained during the reduce is of the direct memory budget
+      this.maxInMemReduce = (int)Math.min(
+          (ramManager.getDirectBuffers() == null
+             ? Runtime.getRuntime().maxMemory() : ramManager.getMemoryLimit())
+          * maxRedPer, Integer.MAX_VALUE);
+
       localFileSys = FileSystem.getLocal(conf);
 
       rfs = ((LocalFileSystem)localFileSys).getRaw();
@@ -1983,6 +2418,7 @@ class ReduceTask extends Task {
       
       // hostnames
       this.uniqueHosts = new HashSet<String>();
+      this.hostCopiesInFlight = new HashMap<String, Integer>();
       
       // Seed the random number generator with a reasonably globally unique seed
       long randomSeed = System.nanoTime() + 
@@ -1995,6 +2431,20 @@ class ReduceTask extends Task {
         conf.getBoolean("mapreduce.reduce.shuffle.notify.readerror", true);
     }
     
+    /**
+     * Notes the end of a copy from the host, which can be scheduled again
+     * once all of its copies are done.
+     */
+    private void hostCopyDone(String host) {
+      Integer copies = hostCopiesInFlight.get(host);
+      if (copies == null || copies <= 1) {
+        hostCopiesInFlight.remove(host);
+        uniqueHosts.remove(host);
+      } else {
+        hostCopiesInFlight.put(host, copies - 1);
+      }
+    }
+
     private boolean busyEnough(int numInFlight) {
       return numInFlight > maxInFlight;
     }
@@ -2141,6 +2591,7 @@ class ReduceTask extends Task {
               if (penalized)
                 continue;
 
+              int hostScheduled = 0;
               synchronized (knownOutputsByLoc) {
               
                 locItr = knownOutputsByLoc.iterator();
@@ -2160,9 +2611,15 @@ class ReduceTask extends Task {
                   locItr.remove();  // remove from knownOutputs
                   numInFlight++; numScheduled++;
 
-                  break; //we have a map from this host
+                  //we have as many maps from this host as one fetch gets
+                  if (++hostScheduled >= mapOutputsPerFetch) {
+                    break;
+                  }
                 }
               }
+              if (hostScheduled > 0) {
+                hostCopiesInFlight.put(host, hostScheduled);
+              }
             }
             scheduledCopies.notifyAll();
           }
@@ -2236,6 +2693,10 @@ class ReduceTask extends Task {
                        " Ignoring obsolete copy result for Map Task: " + 
                        cr.getLocation().getTaskAttemptId() + " from host: " + 
                        cr.getHost());
+            } else if (cr.isRetry()) {
+              // not attempted, the rest of its batch failed: not a failure
+              // of this map
+              retryFetches.add(cr.getLocation());
             } else {
               retryFetches.add(cr.getLocation());
               
@@ -2322,7 +2783,7 @@ class ReduceTask extends Task {
                        cr.getHost() + " to penalty box, next contact in " +
                        (currentBackOff/1000) + " seconds");
             }
-            uniqueHosts.remove(cr.getHost());
+            hostCopyDone(cr.getHost());
             numInFlight--;
           }
         }
@@ -2407,17 +2868,20 @@ class ReduceTask extends Task {
       synchronized (mapOutputsFilesInMemory) {
         // fullSize could come from the RamManager, but files can be
         // closed but not yet present in mapOutputsFilesInMemory
+        // sized as reserved, i.e. in whole chunks for direct memory
         long fullSize = 0L;
         for (MapOutput mo : mapOutputsFilesInMemory) {
-          fullSize += mo.data.length;
+          fullSize += ramManager.reservationFor(mo.getLength());
         }
         while(fullSize > leaveBytes) {
           MapOutput mo = mapOutputsFilesInMemory.remove(0);
-          totalSize += mo.data.length;
-          fullSize -= mo.data.length;
-          Reader<K, V> reader = 
-            new InMemoryReader<K, V>(ramManager, mo.mapAttemptId,
-                                     mo.data, 0, mo.data.length);
+          totalSize += mo.getLength();
+          fullSize -= ramManager.reservationFor(mo.getLength());
+          Reader<K, V> reader = (mo.directData == null)
+            ? new InMemoryReader<K, V>(ramManager, mo.mapAttemptId,
+                                       mo.data, 0, mo.data.length)
+            : new DirectInMemoryReader<K, V>(ramManager, mo.mapAttemptId,
+                                             mo.directData);
           Segment<K, V> segment = 
             new Segment<K, V>(reader, true);
           inMemorySegments.add(segment);
@@ -2441,6 +2905,13 @@ class ReduceTask extends Task {
      * keep the excluded outputs from (2) in memory and include them in the
      * first merge pass. If not, then said outputs must be written to disk
      * first.
+     *
+     * With mapred.reduce.merge.streaming.factor set, it replaces
+     * io.sort.factor in (1), so that many more files can be merged straight
+     * into the reduce in a single pass, each read ahead by as much of
+     * io.sort.merge.memory.mb as it gets. The map outputs retained in memory
+     * are never part of an intermediate merge: they are merged, in memory,
+     * with the last pass over the files.
      */
     @SuppressWarnings("unchecked")
     private RawKeyValueIterator createKVIterator(
@@ -2454,6 +2925,9 @@ class ReduceTask extends Task {
       final RawComparator<K> comparator =
         (RawComparator<K>)job.getOutputKeyComparator();
 
+      final int mergeFactor = streamingMergeFactor > 0
+        ? Math.max(streamingMergeFactor, 2) : ioSortFactor;
+
       // segments required to vacate memory
       List<Segment<K,V>> memDiskSegments = new ArrayList<Segment<K,V>>();
       long inMemToDiskBytes = 0;
@@ -2463,7 +2937,7 @@ class ReduceTask extends Task {
             maxInMemReduce);
         final int numMemDiskSegments = memDiskSegments.size();
         if (numMemDiskSegments > 0 &&
-              ioSortFactor > mapOutputFilesOnDisk.size()) {
+              mergeFactor > mapOutputFilesOnDisk.size()) {
           // must spill to disk, but can't retain in-mem for intermediate merge
           final Path outputPath =
               mapOutputFile.getInputFileForWrite(mapId, inMemToDiskBytes);
@@ -2538,7 +3012,7 @@ class ReduceTask extends Task {
         memDiskSegments.clear();
         RawKeyValueIterator diskMerge = Merger.merge(
             job, fs, keyClass, valueClass, codec, diskSegments,
-            ioSortFactor, numInMemSegments, tmpDir, comparator,
+            mergeFactor, numInMemSegments, tmpDir, comparator,
             reporter, false, spilledRecordsCounter, null);
         diskSegments.clear();
         if (0 == finalSegments.size()) {
@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * Direct (off-heap) memory for the map outputs a reduce shuffles into
+ * memory, handed out in chunks of a fixed size. Chunks are allocated as
+ * needed and reused once released, so the shuffle allocates its direct
+ * memory once and the map outputs held in memory are not on the heap.
+ * <p>
+ * The pool does not bound its own size: it relies on the reservations of
+ * the {@link RamManager}, which have to be made in units of
+ * {@link #reservationFor(int)}.
+ */
+class ShuffleBufferPool {
+
+  static final int DEFAULT_CHUNK_SIZE = 256 * 1024;
+
+  private final int chunkSize;
+  private final LinkedList<ByteBuffer> free = new LinkedList<ByteBuffer>();
+  private long allocated = 0;
+
+  ShuffleBufferPool(int chunkSize) {
+    if (chunkSize <= 0) {
+      throw new IllegalArgumentException("Invalid chunk size " + chunkSize);
+    }
+    this.chunkSize = chunkSize;
+  }
+
+  /**
+   * The memory taken by a map output of the given length: a whole number
+   * of chunks.
+   */
+  int reservationFor(int length) {
+    return (int) (((long) length + chunkSize - 1) / chunkSize * chunkSize);
+  }
+
+  /** Direct memory allocated so far, in use or free. */
+  synchronized long getAllocated() {
+    return allocated;
+  }
+
+  /**
+   * Gets the chunks for a map output of the given length, the memory
+   * having been reserved.
+   */
+  synchronized Buffer allocate(int length) {
+    ByteBuffer[] chunks = new ByteBuffer[reservationFor(length) / chunkSize];
+    for (int i = 0; i < chunks.length; ++i) {
+      if (free.isEmpty()) {
+        chunks[i] = ByteBuffer.allocateDirect(chunkSize);
+        allocated += chunkSize;
+      } else {
+        chunks[i] = free.removeFirst();
+        chunks[i].clear();
+      }
+    }
+    return new Buffer(chunks, length);
+  }
+
+  private synchronized void release(ByteBuffer[] chunks) {
+    for (ByteBuffer chunk : chunks) {
+      free.addFirst(chunk);
+    }
+  }
+
+  /**
+   * A map output in direct memory. Written once, then read, by one thread
+   * at a time.
+   */
+  class Buffer {
+    private ByteBuffer[] chunks;
+    private final int length;
+    private int written = 0;
+
+    private Buffer(ByteBuffer[] chunks, int length) {
+      this.chunks = chunks;
+      this.length = length;
+    }
+
+    /** Length of the map output. */
+    int getLength() {
+      return length;
+    }
+
+    /** Memory taken by the map output. */
+    int getReservedSize() {
+      return reservationFor(length);
+    }
+
+    /** Appends bytes to the map output. */
+    void write(byte[] b, int off, int len) {
+      if (written + len > length) {
+        throw new IndexOutOfBoundsException("Writing " + len + " bytes at " +
+            written + " of a buffer of " + length);
+      }
+      while (len > 0) {
+        ByteBuffer chunk = chunks[written / chunkSize];
+        chunk.position(written % chunkSize);
+        int n = Math.min(len, chunk.remaining());
+        chunk.put(b, off, n);
+        off += n;
+        len -= n;
+        written += n;
+      }
+    }
+
+    /**
+     * Copies len bytes of the map output, from the given position, to b.
+     */
+    void read(int position, byte[] b, int off, int len) {
+      if (position < 0 || position + len > written) {
+        throw new IndexOutOfBoundsException("Reading " + len + " bytes at " +
+            position + " of a buffer of " + written);
+      }
+      while (len > 0) {
+        ByteBuffer chunk = chunks[position / chunkSize];
+        chunk.position(position % chunkSize);
+        int n = Math.min(len, chunk.remaining());
+        chunk.get(b, off, n);
+        off += n;
+        len -= n;
+        position += n;
+      }
+    }
+
+    /** Gives the chunks back to the pool; the buffer is unusable after. */
+    void release() {
+      if (chunks != null) {
+        ShuffleBufferPool.this.release(chunks);
+        chunks = null;
+      }
+    }
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Header of one map output in a batched shuffle response.
+ *
+ * A reduce can ask a TaskTracker for the outputs of several maps in one
+ * request (the <code>maps</code> parameter of the mapOutput servlet, a comma
+ * separated list of map attempts). The response body is then, for each map
+ * in the order requested, a header followed by exactly
+ * {@link #getCompressedLength()} bytes of IFile data. A map whose output
+ * cannot be served gets a failed header and no data, and the rest of the
+ * batch is still sent.
+ */
+class ShuffleHeader implements Writable {
+
+  /** Request parameter listing the maps of a batch. */
+  static final String MAPS_PARAM = "maps";
+
+  /** Separator of the maps of a batch. */
+  static final char MAP_SEPARATOR = ',';
+
+  private static final long FAILED = -1;
+
+  private String mapId;
+  private long compressedLength;
+  private long uncompressedLength;
+  private int forReduce;
+
+  ShuffleHeader() { }
+
+  ShuffleHeader(String mapId, long compressedLength,
+                long uncompressedLength, int forReduce) {
+    this.mapId = mapId;
+    this.compressedLength = compressedLength;
+    this.uncompressedLength = uncompressedLength;
+    this.forReduce = forReduce;
+  }
+
+  /**
+   * Header of a map whose output could not be served.
+   */
+  static ShuffleHeader failed(String mapId, int forReduce) {
+    return new ShuffleHeader(mapId, FAILED, FAILED, forReduce);
+  }
+
+  boolean isFailed() {
+    return compressedLength == FAILED;
+  }
+
+  String getMapId() {
+    return mapId;
+  }
+
+  long getCompressedLength() {
+    return compressedLength;
+  }
+
+  long getUncompressedLength() {
+    return uncompressedLength;
+  }
+
+  int getForReduce() {
+    return forReduce;
+  }
+
+  public void write(DataOutput out) throws IOException {
+    Text.writeString(out, mapId);
+    WritableUtils.writeVLong(out, compressedLength);
+    WritableUtils.writeVLong(out, uncompressedLength);
+    WritableUtils.writeVInt(out, forReduce);
+  }
+
+  public void readFields(DataInput in) throws IOException {
+    mapId = Text.readString(in);
+    compressedLength = WritableUtils.readVLong(in);
+    uncompressedLength = WritableUtils.readVLong(in);
+    forReduce = WritableUtils.readVInt(in);
+  }
+
+  /**
+   * The data of one map in a batched response: ends after the
+   * compressed length of its header, and closing it skips to the next
+   * header instead of closing the connection.
+   */
+  static class FrameInputStream extends FilterInputStream {
+    private long remaining;
+
+    FrameInputStream(InputStream in, long length) {
+      super(in);
+      this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int b = in.read();
+      if (b < 0) {
+        throw new EOFException("Shuffle stream ended " + remaining +
+                               " bytes before the end of the map output");
+      }
+      --remaining;
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (remaining <= 0) {
+        return -1;
+      }
+      int n = in.read(b, off, (int) Math.min(len, remaining));
+      if (n < 0) {
+        throw new EOFException("Shuffle stream ended " + remaining +
+                               " bytes before the end of the map output");
+      }
+      remaining -= n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = in.skip(Math.min(n, remaining));
+      remaining -= skipped;
+      return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    /**
+     * Skips what is left of the map output; the underlying stream is left
+     * open.
+     */
+    @Override
+    public void close() throws IOException {
+      byte[] buf = new byte[(int) Math.min(remaining, 4096)];
+      while (remaining > 0) {
+        read(buf, 0, buf.length);
+      }
+    }
+  }
+}
@@ -17,6 +17,11 @@
  */
 package org.apache.hadoop.mapred;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
@@ -24,8 +29,14 @@ import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
 import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.channels.AsynchronousCloseException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
 import java.security.PrivilegedExceptionAction;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -73,10 +84,13 @@ import org.apache.hadoop.fs.LocalFileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.fs.permission.FsPermission;
 import org.apache.hadoop.http.HttpServer;
+import org.apache.hadoop.io.IOUtils;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.ReadaheadPool;
 import org.apache.hadoop.io.ReadaheadPool.ReadaheadRequest;
 import org.apache.hadoop.io.SecureIOUtils;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.io.nativeio.NativeIO;
 import org.apache.hadoop.ipc.RPC;
 import org.apache.hadoop.ipc.RemoteException;
@@ -93,6 +107,7 @@ import org.apache.hadoop.mapreduce.security.token.JobTokenIdentifier;
 import org.apache.hadoop.mapreduce.security.token.JobTokenSecretManager;
 import org.apache.hadoop.net.DNS;
 import org.apache.hadoop.net.NetUtils;
+import org.apache.hadoop.net.SocketOutputStream;
 import org.apache.hadoop.security.SecurityUtil;
 import org.apache.hadoop.security.UserGroupInformation;
 import org.apache.hadoop.security.authorize.PolicyProvider;
@@ -103,6 +118,7 @@ import org.apache.hadoop.util.ResourceCalculatorPlugin;
 import org.apache.hadoop.util.ProcfsBasedProcessTree;
 import org.apache.hadoop.security.token.Token;
 import org.apache.hadoop.security.token.TokenIdentifier;
+import org.apache.hadoop.util.Daemon;
 import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.hadoop.util.StringUtils;
 import org.apache.hadoop.util.VersionInfo;
@@ -271,6 +287,7 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
   FileSystem systemFS = null;
   private FileSystem localFs = null;
   private final HttpServer server;
+  private ShuffleServer shuffleServer = null;
     
   volatile boolean shuttingDown = false;
     
@@ -883,8 +900,14 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
                        maxMapSlots : maxReduceSlots;
     //set the num handlers to max*2 since canCommit may wait for the duration
     //of a heartbeat RPC
+    int handlers = 2 * max;
+    if (JvmManager.getWarmJvmTasks(fConf) != 1) {
+      //each idle warm JVM holds a handler in getTask while it waits for its
+      //next task: one more per slot, so they can't starve the running tasks
+      handlers += maxMapSlots + maxReduceSlots;
+    }
     this.taskReportServer = RPC.getServer(this, bindAddress,
-        tmpPort, 2 * max, false, this.fConf, this.jobTokenSecretManager);
+        tmpPort, handlers, false, this.fConf, this.jobTokenSecretManager);
     this.taskReportServer.start();
 
     // get the assigned address
@@ -1327,6 +1350,7 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
           if (conf.get("slave.host.name") != null) {
             localJobConf.set("slave.host.name", conf.get("slave.host.name"));
           }
+          warmUpNumTasksPerJvm(localJobConf, getJobConf());
           resetNumTasksPerJvm(localJobConf);
           localJobConf.setUser(t.getUser());
 
@@ -1356,6 +1380,21 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
     return initializedConf;
   }
   
+  /** If the tracker keeps JVMs warm, the jobs that do not reuse JVMs
+   * should reuse them as configured on the tracker
+   * @param localJobConf
+   * @param trackerConf
+   */
+  static void warmUpNumTasksPerJvm(JobConf localJobConf, JobConf trackerConf) {
+    int warmTasks = JvmManager.getWarmJvmTasks(trackerConf);
+    if (warmTasks == 1 || localJobConf.getNumTasksToExecutePerJvm() != 1) {
+      return;
+    }
+    localJobConf.setNumTasksToExecutePerJvm(warmTasks);
+    //the tracker holds the idle JVMs' requests for a task, see getTask
+    localJobConf.setLong(Child.IDLE_SLEEP, 0);
+  }
+
   /** If certain configs are enabled, the jvm-reuse should be disabled
    * @param localJobConf
    */
@@ -1433,6 +1472,10 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
   public synchronized void shutdown() throws IOException, InterruptedException {
     shuttingDown = true;
     close();
+    if (this.shuffleServer != null) {
+      LOG.info("Shutting down ShuffleServer");
+      this.shuffleServer.stop();
+    }
     if (this.server != null) {
       try {
         LOG.info("Shutting down StatusHttpServer");
@@ -1616,6 +1659,16 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
     server.start();
     this.httpPort = server.getPort();
     checkJettyPort(httpPort);
+    int shufflePort = conf.getInt(ShuffleServer.PORT, 0);
+    if (shufflePort > 0) {
+      shuffleServer = new ShuffleServer(this,
+          new InetSocketAddress(httpBindAddress, shufflePort), conf);
+      Daemon shuffleServerThread = new Daemon(shuffleServer);
+      shuffleServerThread.setName("ShuffleServer");
+      shuffleServerThread.start();
+      LOG.info("ShuffleServer up at: " + httpBindAddress + ":" + 
+               shuffleServer.getPort());
+    }
     LOG.info("FILE_CACHE_SIZE for mapOutputServlet set to : " + FILE_CACHE_SIZE);
     mapRetainSize = conf.getLong(TaskLogsTruncater.MAP_USERLOG_RETAIN_SIZE, 
         TaskLogsTruncater.DEFAULT_RETAIN_SIZE);
@@ -3484,9 +3537,21 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
   /**
    * Called upon startup by the child process, to fetch Task data.
    */
-  public synchronized JvmTask getTask(JvmContext context) 
+  public JvmTask getTask(JvmContext context) 
   throws IOException {
     authorizeJVM(context.jvmId.getJobId());
+    // an idle warm JVM waits here for its next task, without the tracker
+    // lock that launching the task needs
+    try {
+      jvmManager.waitForTask(context.jvmId);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    return getTaskLocked(context);
+  }
+
+  private synchronized JvmTask getTaskLocked(JvmContext context) 
+  throws IOException {
     JVMId jvmId = context.jvmId;
     LOG.debug("JVM with ID : " + jvmId + " asked for a task");
     // save pid of task JVM sent by child
@@ -3994,6 +4059,11 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
     public void doGet(HttpServletRequest request, 
                       HttpServletResponse response
                       ) throws ServletException, IOException {
+      String maps = request.getParameter(ShuffleHeader.MAPS_PARAM);
+      if (maps != null) {
+        doBatchGet(request, response, maps);
+        return;
+      }
       String mapId = request.getParameter("map");
       String reduceId = request.getParameter("reduce");
       String jobId = request.getParameter("job");
@@ -4047,20 +4117,12 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
       }
       // Index file
       String intermediateOutputDir = TaskTracker.getIntermediateOutputDir(userName, jobId, mapId);
-      String indexKey = intermediateOutputDir + "/file.out.index";
-      Path indexFileName = fileIndexCache.get(indexKey);
-      if (indexFileName == null) {
-        indexFileName = lDirAlloc.getLocalPathToRead(indexKey, conf);
-        fileIndexCache.put(indexKey, indexFileName);
-      }
+      Path indexFileName = getCachedPath(fileIndexCache,
+          intermediateOutputDir + "/file.out.index", lDirAlloc, conf);
 
       // Map-output file
-      String fileKey = intermediateOutputDir + "/file.out";
-      Path mapOutputFileName = fileCache.get(fileKey);
-      if (mapOutputFileName == null) {
-        mapOutputFileName = lDirAlloc.getLocalPathToRead(fileKey, conf);
-        fileCache.put(fileKey, mapOutputFileName);
-      }
+      Path mapOutputFileName = getCachedPath(fileCache,
+          intermediateOutputDir + "/file.out", lDirAlloc, conf);
        
 
         /**
@@ -4179,6 +4241,169 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
       shuffleExceptionTracking.success();
       shuffleMetrics.successOutput();
     }
+
+    private static Path getCachedPath(LRUCache<String, Path> cache,
+        String key, LocalDirAllocator lDirAlloc, JobConf conf)
+    throws IOException {
+      Path path = cache.get(key);
+      if (path == null) {
+        path = lDirAlloc.getLocalPathToRead(key, conf);
+        cache.put(key, path);
+      }
+      return path;
+    }
+
+    /**
+     * Serves the partition of several maps in one response, each as a
+     * {@link ShuffleHeader} followed by its data, so that a reduce fetching
+     * many small map outputs from this tracker needs one request (and,
+     * with HTTP keep-alive, one connection) instead of one per map.
+     * A map whose output cannot be found is reported lost and skipped with a
+     * failed header; an error while sending data aborts the response.
+     */
+    private void doBatchGet(HttpServletRequest request,
+                            HttpServletResponse response, String maps
+                            ) throws IOException {
+      String reduceId = request.getParameter("reduce");
+      String jobId = request.getParameter("job");
+      if (jobId == null || reduceId == null) {
+        throw new IOException("job and reduce parameters are required");
+      }
+      ServletContext context = getServletContext();
+      int reduce = Integer.parseInt(reduceId);
+      byte[] buffer = new byte[MAX_BYTES_TO_READ];
+      ShuffleServerInstrumentation shuffleMetrics =
+        (ShuffleServerInstrumentation) context.getAttribute("shuffleServerMetrics");
+      TaskTracker tracker = 
+        (TaskTracker) context.getAttribute("task.tracker");
+      ShuffleExceptionTracker shuffleExceptionTracking =
+        (ShuffleExceptionTracker) context.getAttribute("shuffleExceptionTracking");
+      Log log = (Log) context.getAttribute("log");
+
+      verifyRequest(request, response, tracker, jobId);
+
+      JobConf conf = (JobConf) context.getAttribute("conf");
+      LocalDirAllocator lDirAlloc = 
+        (LocalDirAllocator)context.getAttribute("localDirAllocator");
+      String userName = null;
+      String runAsUserName = null;
+      synchronized (tracker.runningJobs) {
+        RunningJob rjob = tracker.runningJobs.get(JobID.forName(jobId));
+        if (rjob == null) {
+          throw new IOException("Unknown job " + jobId + "!!");
+        }
+        userName = rjob.jobConf.getUser();
+        runAsUserName = tracker.getTaskController().getRunAsUser(rjob.jobConf);
+      }
+
+      shuffleMetrics.serverHandlerBusy();
+      response.setBufferSize(RESPONSE_BUFFER_SIZE);
+      DataOutputStream out = new DataOutputStream(response.getOutputStream());
+      try {
+        for (String mapId : StringUtils.getStrings(maps)) {
+          long startTime = ClientTraceLog.isInfoEnabled() ? System.nanoTime() : 0;
+          IndexRecord info;
+          String filePath;
+          FileInputStream mapOutputIn;
+          try {
+            String intermediateOutputDir =
+              TaskTracker.getIntermediateOutputDir(userName, jobId, mapId);
+            Path indexFileName = getCachedPath(fileIndexCache,
+                intermediateOutputDir + "/file.out.index", lDirAlloc, conf);
+            Path mapOutputFileName = getCachedPath(fileCache,
+                intermediateOutputDir + "/file.out", lDirAlloc, conf);
+            info = tracker.indexCache.getIndexInformation(mapId, reduce,
+                indexFileName, runAsUserName);
+            filePath = mapOutputFileName.toUri().getPath();
+            mapOutputIn = SecureIOUtils.openForRead(new File(filePath),
+                runAsUserName);
+          } catch (IOException ie) {
+            String errorMsg = ("getMapOutput(" + mapId + "," + reduceId + 
+                               ") failed :\n" +
+                               StringUtils.stringifyException(ie));
+            log.warn(errorMsg);
+            if (shuffleExceptionTracking.checkException(ie)) {
+              shuffleMetrics.exceptionsCaught();
+            }
+            tracker.mapOutputLost(TaskAttemptID.forName(mapId), errorMsg);
+            shuffleMetrics.failedOutput();
+            ShuffleHeader.failed(mapId, reduce).write(out);
+            continue;
+          }
+
+          long totalRead = 0;
+          boolean isInputException = true;
+          try {
+            new ShuffleHeader(mapId, info.partLength, info.rawLength, reduce
+                              ).write(out);
+            ReadaheadRequest curReadahead = null;
+            mapOutputIn.skip(info.startOffset);
+            long rem = info.partLength;
+            long offset = info.startOffset;
+            while (rem > 0) {
+              if (tracker.manageOsCacheInShuffle && tracker.readaheadPool != null) {
+                curReadahead = tracker.readaheadPool.readaheadStream(filePath,
+                    mapOutputIn.getFD(), offset, tracker.readaheadLength,
+                    info.startOffset + info.partLength, curReadahead);
+              }
+              int len = mapOutputIn.read(buffer, 0,
+                  (int) Math.min(rem, MAX_BYTES_TO_READ));
+              if (len < 0) {
+                throw new EOFException("Map output of " + mapId +
+                    " is shorter than its index");
+              }
+              rem -= len;
+              offset += len;
+              try {
+                shuffleMetrics.outputBytes(len);
+                out.write(buffer, 0, len);
+              } catch (IOException ie) {
+                isInputException = false;
+                throw ie;
+              }
+              totalRead += len;
+            }
+            if (curReadahead != null) {
+              curReadahead.cancel();
+            }
+            if (tracker.manageOsCacheInShuffle && info.partLength > 0) {
+              NativeIO.posixFadviseIfPossible(mapOutputIn.getFD(),
+                  info.startOffset, info.partLength,
+                  NativeIO.POSIX_FADV_DONTNEED);
+            }
+          } catch (IOException ie) {
+            String errorMsg = ("getMapOutput(" + mapId + "," + reduceId + 
+                               ") failed :\n" +
+                               StringUtils.stringifyException(ie));
+            log.warn(errorMsg);
+            if (shuffleExceptionTracking.checkException(ie)) {
+              shuffleMetrics.exceptionsCaught();
+            }
+            if (isInputException) {
+              tracker.mapOutputLost(TaskAttemptID.forName(mapId), errorMsg);
+            }
+            shuffleMetrics.failedOutput();
+            // the header promised data we cannot send: the reduce will see
+            // a truncated response and retry the rest of the batch
+            throw ie;
+          } finally {
+            mapOutputIn.close();
+          }
+          shuffleExceptionTracking.success();
+          shuffleMetrics.successOutput();
+          if (ClientTraceLog.isInfoEnabled()) {
+            ClientTraceLog.info(String.format(MR_CLIENTTRACE_FORMAT,
+                  request.getLocalAddr() + ":" + request.getLocalPort(),
+                  request.getRemoteAddr() + ":" + request.getRemotePort(),
+                  totalRead, "MAPRED_SHUFFLE", mapId,
+                  System.nanoTime() - startTime));
+          }
+        }
+      } finally {
+        shuffleMetrics.serverHandlerFree();
+      }
+      out.close();
+    }
     
 
     /**
@@ -4225,7 +4450,334 @@ public class TaskTracker implements MRConstants, TaskUmbilicalProtocol,
           +reply.substring(len-len/2, len-1));
     }
   }
-  
+
+  /**
+   * Serves map outputs over plain sockets, sending the data from the page
+   * cache to the socket with {@link FileChannel#transferTo} the way the
+   * DataNode's BlockSender does, instead of copying it through the buffer
+   * of the {@link MapOutputServlet}. It is started when
+   * "mapred.task.tracker.shuffle.port" is set, and reduces use it when the
+   * same key is set in their job.
+   * <p>
+   * A connection carries any number of requests, one after the other. A
+   * request is the job (Text), the reduce (VInt), the number of maps (VInt)
+   * and the map attempts (Text), followed by the hash of {@link #buildMsg}
+   * with the job token (Text). The reply is the hash of the request hash
+   * (Text), then a {@link ShuffleHeader} and the data of each map, as in a
+   * batched response of the servlet.
+   */
+  static class ShuffleServer implements Runnable {
+    static final String PORT = "mapred.task.tracker.shuffle.port";
+    static final String MAX_CONNECTIONS =
+      "mapred.task.tracker.shuffle.max.connections";
+    static final int DEFAULT_MAX_CONNECTIONS = 128;
+    // the most maps in one request
+    private static final int MAX_MAPS_PER_REQUEST = 10000;
+    // the longest job id, map id or hash in a request. They are a few dozen
+    // bytes; the length is checked before anything is allocated for it.
+    private static final int MAX_STRING_LENGTH = 1024;
+    // idle connections are closed after (in milliseconds)
+    private static final int IDLE_TIMEOUT = 60 * 1000;
+    private static final int WRITE_TIMEOUT = 3 * 60 * 1000;
+    // bytes sent per transferTo call, between readaheads
+    private static final int TRANSFER_CHUNK = 1024 * 1024;
+
+    private final TaskTracker tracker;
+    private final ServerSocket ss;
+    private final int maxConnections;
+    private final Set<Socket> connections =
+      Collections.synchronizedSet(new HashSet<Socket>());
+    private volatile boolean running = true;
+
+    ShuffleServer(TaskTracker tracker, InetSocketAddress address,
+                  Configuration conf) throws IOException {
+      this.tracker = tracker;
+      this.maxConnections = conf.getInt(MAX_CONNECTIONS,
+                                        DEFAULT_MAX_CONNECTIONS);
+      // a channel, for the SocketOutputStreams of the connections
+      ss = ServerSocketChannel.open().socket();
+      ss.bind(address);
+    }
+
+    int getPort() {
+      return ss.getLocalPort();
+    }
+
+    /**
+     * The message hashed with the job token to authenticate a request.
+     */
+    static String buildMsg(String jobId, int reduce, String[] maps) {
+      StringBuilder msg = new StringBuilder(jobId).append('/').append(reduce);
+      for (String map : maps) {
+        msg.append('/').append(map);
+      }
+      return msg.toString();
+    }
+
+    /**
+     * Reads a string written by {@link Text#writeString}, refusing lengths
+     * no request has before the request is authenticated.
+     */
+    static String readString(DataInputStream in) throws IOException {
+      int length = WritableUtils.readVInt(in);
+      if (length < 0 || length > MAX_STRING_LENGTH) {
+        throw new IOException("Invalid string length " + length);
+      }
+      byte[] bytes = new byte[length];
+      in.readFully(bytes);
+      return Text.decode(bytes);
+    }
+
+    public void run() {
+      while (running) {
+        try {
+          Socket s = ss.accept();
+          if (connections.size() >= maxConnections) {
+            LOG.warn("Refusing shuffle connection from " +
+                     s.getRemoteSocketAddress() + ": " + maxConnections +
+                     " connections already open");
+            IOUtils.closeSocket(s);
+            continue;
+          }
+          s.setTcpNoDelay(true);
+          connections.add(s);
+          Daemon handler = new Daemon(new Connection(s));
+          handler.setName("ShuffleServer connection from " +
+                          s.getRemoteSocketAddress());
+          handler.start();
+        } catch (AsynchronousCloseException ace) {
+          // stopped
+        } catch (IOException ie) {
+          if (running) {
+            LOG.warn("ShuffleServer: " + StringUtils.stringifyException(ie));
+          }
+        }
+      }
+      LOG.info("Exiting ShuffleServer");
+    }
+
+    void stop() {
+      running = false;
+      try {
+        ss.close();
+      } catch (IOException ie) {
+        LOG.warn("ShuffleServer.stop(): " + StringUtils.stringifyException(ie));
+      }
+      synchronized (connections) {
+        for (Socket s : connections) {
+          IOUtils.closeSocket(s);
+        }
+      }
+    }
+
+    /** The partition of one map output, opened for sending. */
+    private class Segment {
+      final String mapId;
+      IndexRecord info;
+      String filePath;
+      FileInputStream in;
+      String error;
+
+      Segment(String mapId, int reduce, String userName, String runAsUserName,
+              String jobId) {
+        this.mapId = mapId;
+        try {
+          String intermediateOutputDir =
+            TaskTracker.getIntermediateOutputDir(userName, jobId, mapId);
+          Path indexFileName = MapOutputServlet.getCachedPath(
+              MapOutputServlet.fileIndexCache,
+              intermediateOutputDir + "/file.out.index",
+              tracker.localDirAllocator, tracker.fConf);
+          Path mapOutputFileName = MapOutputServlet.getCachedPath(
+              MapOutputServlet.fileCache,
+              intermediateOutputDir + "/file.out",
+              tracker.localDirAllocator, tracker.fConf);
+          info = tracker.indexCache.getIndexInformation(mapId, reduce,
+              indexFileName, runAsUserName);
+          filePath = mapOutputFileName.toUri().getPath();
+          in = SecureIOUtils.openForRead(new File(filePath), runAsUserName);
+        } catch (IOException ie) {
+          error = ("getMapOutput(" + mapId + "," + reduce + ") failed :\n" +
+                   StringUtils.stringifyException(ie));
+        }
+      }
+
+      /** Starts reading the beginning of the segment into the page cache. */
+      ReadaheadRequest readahead() throws IOException {
+        if (in == null || !tracker.manageOsCacheInShuffle ||
+            tracker.readaheadPool == null) {
+          return null;
+        }
+        return tracker.readaheadPool.readaheadStream(filePath, in.getFD(),
+            info.startOffset, tracker.readaheadLength,
+            info.startOffset + info.partLength, null);
+      }
+
+      void close() {
+        IOUtils.closeStream(in);
+      }
+    }
+
+    private class Connection implements Runnable {
+      private final Socket s;
+
+      Connection(Socket s) {
+        this.s = s;
+      }
+
+      public void run() {
+        try {
+          DataInputStream in = new DataInputStream(new BufferedInputStream(
+              NetUtils.getInputStream(s, IDLE_TIMEOUT)));
+          SocketOutputStream sockOut =
+            (SocketOutputStream) NetUtils.getOutputStream(s, WRITE_TIMEOUT);
+          DataOutputStream out = new DataOutputStream(
+              new BufferedOutputStream(sockOut));
+          while (running) {
+            String jobId;
+            try {
+              jobId = readString(in);
+            } catch (EOFException e) {
+              break; // the reduce is done with this connection
+            } catch (SocketTimeoutException e) {
+              break; // idle
+            }
+            int reduce = WritableUtils.readVInt(in);
+            int numMaps = WritableUtils.readVInt(in);
+            if (numMaps <= 0 || numMaps > MAX_MAPS_PER_REQUEST) {
+              throw new IOException("Invalid number of maps " + numMaps);
+            }
+            String[] maps = new String[numMaps];
+            for (int i = 0; i < numMaps; ++i) {
+              maps[i] = readString(in);
+            }
+            String hash = readString(in);
+            serve(jobId, reduce, maps, hash, s, out, sockOut);
+          }
+        } catch (IOException ie) {
+          if (running) {
+            LOG.warn("ShuffleServer connection from " +
+                     s.getRemoteSocketAddress() + ": " +
+                     StringUtils.stringifyException(ie));
+          }
+        } finally {
+          connections.remove(s);
+          IOUtils.closeSocket(s);
+        }
+      }
+    }
+
+    private void serve(String jobId, int reduce, String[] maps, String hash,
+                       Socket s, DataOutputStream out,
+                       SocketOutputStream sockOut) throws IOException {
+      SecretKey tokenSecret = 
+        tracker.getJobTokenSecretManager().retrieveTokenSecret(jobId);
+      SecureShuffleUtils.verifyReply(hash, buildMsg(jobId, reduce, maps),
+                                     tokenSecret);
+      String userName = null;
+      String runAsUserName = null;
+      synchronized (tracker.runningJobs) {
+        RunningJob rjob = tracker.runningJobs.get(JobID.forName(jobId));
+        if (rjob == null) {
+          throw new IOException("Unknown job " + jobId + "!!");
+        }
+        userName = rjob.jobConf.getUser();
+        runAsUserName = tracker.getTaskController().getRunAsUser(rjob.jobConf);
+      }
+      Text.writeString(out, 
+          SecureShuffleUtils.generateHash(hash.getBytes(), tokenSecret));
+
+      ShuffleServerInstrumentation shuffleMetrics =
+        tracker.shuffleServerMetrics;
+      shuffleMetrics.serverHandlerBusy();
+      // every open segment is either segment or next, so the finally below
+      // closes each of them exactly once, whatever throws.
+      Segment segment = null;
+      Segment next = null;
+      try {
+        segment = new Segment(maps[0], reduce, userName, runAsUserName, jobId);
+        for (int i = 0; i < maps.length; ++i) {
+          // look up the next map, and have its data read while this one
+          // is sent
+          if (i + 1 < maps.length) {
+            next = new Segment(maps[i + 1], reduce, userName, runAsUserName,
+                               jobId);
+            next.readahead();
+          }
+          send(segment, reduce, s, out, sockOut, shuffleMetrics);
+          Segment sent = segment;
+          segment = next;
+          next = null;
+          sent.close();
+        }
+        out.flush();
+      } finally {
+        if (segment != null) {
+          segment.close();
+        }
+        if (next != null) {
+          next.close();
+        }
+        shuffleMetrics.serverHandlerFree();
+      }
+    }
+
+    private void send(Segment segment, int reduce, Socket s,
+                      DataOutputStream out, SocketOutputStream sockOut,
+                      ShuffleServerInstrumentation shuffleMetrics
+                      ) throws IOException {
+      if (segment.error != null) {
+        LOG.warn(segment.error);
+        tracker.mapOutputLost(TaskAttemptID.forName(segment.mapId),
+                              segment.error);
+        shuffleMetrics.failedOutput();
+        ShuffleHeader.failed(segment.mapId, reduce).write(out);
+        return;
+      }
+      long startTime = ClientTraceLog.isInfoEnabled() ? System.nanoTime() : 0;
+      IndexRecord info = segment.info;
+      new ShuffleHeader(segment.mapId, info.partLength, info.rawLength, reduce
+                        ).write(out);
+      // the header goes before the data sent below the buffer
+      out.flush();
+      FileChannel channel = segment.in.getChannel();
+      ReadaheadRequest curReadahead = null;
+      long offset = info.startOffset;
+      long end = info.startOffset + info.partLength;
+      try {
+        while (offset < end) {
+          if (tracker.manageOsCacheInShuffle && tracker.readaheadPool != null) {
+            curReadahead = tracker.readaheadPool.readaheadStream(
+                segment.filePath, segment.in.getFD(), offset,
+                tracker.readaheadLength, end, curReadahead);
+          }
+          int len = (int) Math.min(end - offset, TRANSFER_CHUNK);
+          sockOut.transferToFully(channel, offset, len);
+          shuffleMetrics.outputBytes(len);
+          offset += len;
+        }
+      } catch (IOException ie) {
+        shuffleMetrics.failedOutput();
+        throw ie;
+      } finally {
+        if (curReadahead != null) {
+          curReadahead.cancel();
+        }
+      }
+      if (tracker.manageOsCacheInShuffle && info.partLength > 0) {
+        NativeIO.posixFadviseIfPossible(segment.in.getFD(),
+            info.startOffset, info.partLength, NativeIO.POSIX_FADV_DONTNEED);
+      }
+      tracker.shuffleExceptionTracking.success();
+      shuffleMetrics.successOutput();
+      if (ClientTraceLog.isInfoEnabled()) {
+        ClientTraceLog.info(String.format(MR_CLIENTTRACE_FORMAT,
+              s.getLocalSocketAddress(), s.getRemoteSocketAddress(),
+              info.partLength,
+              "MAPRED_SHUFFLE", segment.mapId, System.nanoTime() - startTime));
+      }
+    }
+  }
 
   // get the full paths of the directory in all the local disks.
   Path[] getLocalFiles(JobConf conf, String subdir) throws IOException{
@@ -187,7 +187,6 @@ public abstract class FileInputFormat<K, V> extends InputFormat<K, V> {
    */
   protected List<FileStatus> listStatus(JobContext job
                                         ) throws IOException {
-    List<FileStatus> result = new ArrayList<FileStatus>();
     Path[] dirs = getInputPaths(job);
     if (dirs.length == 0) {
       throw new IOException("No input paths specified in job");
@@ -209,27 +208,8 @@ public abstract class FileInputFormat<K, V> extends InputFormat<K, V> {
     }
     PathFilter inputFilter = new MultiPathFilter(filters);
     
-    for (int i=0; i < dirs.length; ++i) {
-      Path p = dirs[i];
-      FileSystem fs = p.getFileSystem(job.getConfiguration()); 
-      FileStatus[] matches = fs.globStatus(p, inputFilter);
-      if (matches == null) {
-        errors.add(new IOException("Input path does not exist: " + p));
-      } else if (matches.length == 0) {
-        errors.add(new IOException("Input Pattern " + p + " matches 0 files"));
-      } else {
-        for (FileStatus globStat: matches) {
-          if (globStat.isDir()) {
-            for(FileStatus stat: fs.listStatus(globStat.getPath(),
-                inputFilter)) {
-              result.add(stat);
-            }          
-          } else {
-            result.add(globStat);
-          }
-        }
-      }
-    }
+    List<FileStatus> result = FileInputLister.listStatus(
+        job.getConfiguration(), dirs, inputFilter, errors);
 
     if (!errors.isEmpty()) {
       throw new InvalidInputException(errors);
@@ -250,11 +230,20 @@ public abstract class FileInputFormat<K, V> extends InputFormat<K, V> {
     // generate splits
     List<InputSplit> splits = new ArrayList<InputSplit>();
     List<FileStatus>files = listStatus(job);
-    for (FileStatus file: files) {
+    // fetch the block locations of all the files at once if the job lists
+    // its input with several threads
+    BlockLocation[][] locations = null;
+    if (FileInputLister.getNumThreads(job.getConfiguration()) > 1) {
+      locations = FileInputLister.getFileBlockLocations(
+          job.getConfiguration(), files);
+    }
+    for (int i = 0; i < files.size(); ++i) {
+      FileStatus file = files.get(i);
       Path path = file.getPath();
       FileSystem fs = path.getFileSystem(job.getConfiguration());
       long length = file.getLen();
-      BlockLocation[] blkLocations = fs.getFileBlockLocations(file, 0, length);
+      BlockLocation[] blkLocations = locations != null ? locations[i] :
+        fs.getFileBlockLocations(file, 0, length);
       if ((length != 0) && isSplitable(job, path)) { 
         long blockSize = file.getBlockSize();
         long splitSize = computeSplitSize(blockSize, minSize, maxSize);
@@ -0,0 +1,210 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapreduce.lib.input;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.classification.InterfaceAudience;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.BlockLocation;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+
+/**
+ * Lists the input paths of a job and fetches the block locations of its
+ * input files for both FileInputFormats, with up to
+ * {@link #NUM_THREADS} calls to the file systems in flight. With one thread,
+ * the default, the calls are made one after the other from the caller, as
+ * they always were.
+ */
+@InterfaceAudience.Private
+public class FileInputLister {
+
+  /** Number of threads listing input paths and fetching block locations. */
+  public static final String NUM_THREADS = "mapred.input.list.threads";
+
+  // files whose block locations are fetched by a single call
+  private static final int LOCATIONS_PER_CALL = 100;
+
+  public static int getNumThreads(Configuration conf) {
+    return conf.getInt(NUM_THREADS, 1);
+  }
+
+  /**
+   * Glob the input paths and list the directories they match, in the order
+   * of the input paths.
+   * @param conf the job configuration
+   * @param dirs the input paths
+   * @param inputFilter the filter of the listed paths
+   * @param errors gets the input paths that matched nothing
+   * @return the files that the input paths match, and the contents of the
+   *         directories that they match
+   */
+  public static List<FileStatus> listStatus(final Configuration conf,
+      Path[] dirs, final PathFilter inputFilter, List<IOException> errors
+      ) throws IOException {
+    int numThreads = getNumThreads(conf);
+    List<Callable<FileStatus[]>> globs = new ArrayList<Callable<FileStatus[]>>();
+    for (final Path p: dirs) {
+      globs.add(new Callable<FileStatus[]>() {
+        public FileStatus[] call() throws IOException {
+          return p.getFileSystem(conf).globStatus(p, inputFilter);
+        }
+      });
+    }
+    List<FileStatus[]> matches = callAll(globs, numThreads);
+
+    // the listing of each directory goes in its place among the matches
+    List<FileStatus[]> parts = new ArrayList<FileStatus[]>();
+    List<Integer> listed = new ArrayList<Integer>();
+    List<Callable<FileStatus[]>> listings = 
+      new ArrayList<Callable<FileStatus[]>>();
+    for (int i = 0; i < dirs.length; ++i) {
+      final Path p = dirs[i];
+      FileStatus[] match = matches.get(i);
+      if (match == null) {
+        errors.add(new IOException("Input path does not exist: " + p));
+      } else if (match.length == 0) {
+        errors.add(new IOException("Input Pattern " + p + " matches 0 files"));
+      } else {
+        for (final FileStatus globStat: match) {
+          if (globStat.isDir()) {
+            listed.add(parts.size());
+            parts.add(null);
+            listings.add(new Callable<FileStatus[]>() {
+              public FileStatus[] call() throws IOException {
+                FileSystem fs = p.getFileSystem(conf);
+                return fs.listStatus(globStat.getPath(), inputFilter);
+              }
+            });
+          } else {
+            parts.add(new FileStatus[] { globStat });
+          }
+        }
+      }
+    }
+    List<FileStatus[]> contents = callAll(listings, numThreads);
+    for (int i = 0; i < listed.size(); ++i) {
+      parts.set(listed.get(i), contents.get(i));
+    }
+
+    List<FileStatus> result = new ArrayList<FileStatus>();
+    for (FileStatus[] part: parts) {
+      for (FileStatus stat: part) {
+        result.add(stat);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Fetch the block locations of whole files.
+   * @param conf the job configuration
+   * @param files the files
+   * @return the block locations of each file, in the order of the files
+   */
+  public static BlockLocation[][] getFileBlockLocations(
+      final Configuration conf, final List<FileStatus> files
+      ) throws IOException {
+    final BlockLocation[][] locations = new BlockLocation[files.size()][];
+    List<Callable<Object>> calls = new ArrayList<Callable<Object>>();
+    for (int start = 0; start < files.size(); start += LOCATIONS_PER_CALL) {
+      final int from = start;
+      final int to = Math.min(start + LOCATIONS_PER_CALL, files.size());
+      calls.add(new Callable<Object>() {
+        public Object call() throws IOException {
+          for (int i = from; i < to; ++i) {
+            FileStatus file = files.get(i);
+            FileSystem fs = file.getPath().getFileSystem(conf);
+            locations[i] = fs.getFileBlockLocations(file, 0, file.getLen());
+          }
+          return null;
+        }
+      });
+    }
+    callAll(calls, getNumThreads(conf));
+    return locations;
+  }
+
+  /**
+   * Make the calls, with up to numThreads of them at once.
+   * @return the results of the calls, in order
+   */
+  private static <T> List<T> callAll(List<Callable<T>> calls, int numThreads
+                                     ) throws IOException {
+    List<T> results = new ArrayList<T>(calls.size());
+    if (numThreads <= 1 || calls.size() <= 1) {
+      for (Callable<T> call: calls) {
+        try {
+          results.add(call.call());
+        } catch (Exception e) {
+          throw toIOException(e);
+        }
+      }
+      return results;
+    }
+
+    // the threads are started here, so that they make the calls as the
+    // user submitting the job
+    ExecutorService pool = 
+      Executors.newFixedThreadPool(Math.min(numThreads, calls.size()));
+    try {
+      List<Future<T>> futures = new ArrayList<Future<T>>(calls.size());
+      for (Callable<T> call: calls) {
+        futures.add(pool.submit(call));
+      }
+      for (Future<T> future: futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          throw toIOException(e.getCause());
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw (IOException)new IOException(
+              "Interrupted while listing the input").initCause(e);
+        }
+      }
+    } finally {
+      pool.shutdownNow();
+    }
+    return results;
+  }
+
+  private static IOException toIOException(Throwable t) {
+    if (t instanceof IOException) {
+      return (IOException)t;
+    }
+    if (t instanceof RuntimeException) {
+      throw (RuntimeException)t;
+    }
+    if (t instanceof Error) {
+      throw (Error)t;
+    }
+    return (IOException)new IOException(t.getMessage()).initCause(t);
+  }
+}
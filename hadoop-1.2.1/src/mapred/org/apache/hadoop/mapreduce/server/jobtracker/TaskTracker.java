@@ -33,7 +33,8 @@ public class TaskTracker {
   static final Log LOG = LogFactory.getLog(TaskTracker.class);
   
   final private String trackerName;
-  private TaskTrackerStatus status;
+  // replaced by heartbeats without the JobTracker lock
+  private volatile TaskTrackerStatus status;
 
   private JobInProgress jobForFallowMapSlot;
   private JobInProgress jobForFallowReduceSlot;
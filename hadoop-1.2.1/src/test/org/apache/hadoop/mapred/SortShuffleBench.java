@@ -0,0 +1,388 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.conf.Configured;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.Merger.Segment;
+import org.apache.hadoop.mapred.TestMapCollection.FakeIF;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
+import org.apache.hadoop.mapred.lib.NullOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Benchmark of the sort and shuffle internals, run in a single JVM on the
+ * local file system:
+ * <li>ifile: IFile.Writer then IFile.Reader over sortbench.files files.
+ * <li>merge: Merger.merge of those files in one pass.
+ * <li>memmerge: Merger.merge of the same records held in memory, as the
+ *     reduce merges the map outputs it shuffled into memory.
+ * <li>map: a LocalJobRunner job whose single map collects the records,
+ *     sorts and spills them through MapOutputBuffer, to a single reduce.
+ * <p>
+ * Each benchmark is run sortbench.iterations times per key width of
+ * sortbench.key.widths. Keys are BytesWritables whose last 8 bytes are a
+ * counter and whose other bytes are all equal, the costliest keys to
+ * compare; values are sortbench.value.bytes random bytes. Reported are the
+ * records and serialized bytes per second, the bytes allocated by the
+ * benchmark thread (not for map, which runs on other threads) and the
+ * collections and time spent in GC.
+ */
+public class SortShuffleBench extends Configured implements Tool {
+
+  private static final String[] BENCHMARKS = 
+    { "ifile", "merge", "memmerge", "map" };
+
+  static int printUsage() {
+    ToolRunner.printGenericCommandUsage(System.out);
+    System.out.println(
+"Usage: sortshufflebench [ifile] [merge] [memmerge] [map]\n" +
+"All benchmarks are run unless some are named.\n\n" +
+"Useful options to set:\n" +
+"-D sortbench.dir=/tmp/sortbench \\\n" +
+"-D sortbench.records=1000000 \\\n" +
+"-D sortbench.key.widths=8,32,128 \\\n" +
+"-D sortbench.value.bytes=64 \\\n" +
+"-D sortbench.files=10 \\\n" +
+"-D sortbench.iterations=3\n");
+    return -1;
+  }
+
+  /**
+   * Time, allocation and GC of one benchmark run.
+   */
+  static class Meter {
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private long startNanos;
+    private long startAllocated;
+    private long startCollections;
+    private long startCollectionMillis;
+
+    static void printHeader() {
+      System.out.println(String.format("%-12s %6s %10s %12s %10s %10s %6s %8s",
+          "benchmark", "width", "records", "records/s", "MB/s", "alloc MB",
+          "gcs", "gc ms"));
+    }
+
+    void start() {
+      startCollections = 0;
+      startCollectionMillis = 0;
+      for (GarbageCollectorMXBean gc : 
+           ManagementFactory.getGarbageCollectorMXBeans()) {
+        startCollections += gc.getCollectionCount();
+        startCollectionMillis += gc.getCollectionTime();
+      }
+      startAllocated = allocated();
+      startNanos = System.nanoTime();
+    }
+
+    void report(String name, int width, long records, long bytes,
+                boolean countAllocation) {
+      final double seconds = (System.nanoTime() - startNanos) / 1e9;
+      final long allocated = allocated();
+      long collections = 0;
+      long collectionMillis = 0;
+      for (GarbageCollectorMXBean gc : 
+           ManagementFactory.getGarbageCollectorMXBeans()) {
+        collections += gc.getCollectionCount();
+        collectionMillis += gc.getCollectionTime();
+      }
+      String alloc = countAllocation && allocated >= 0
+        ? String.format("%.1f", (allocated - startAllocated) / 1048576.0)
+        : "-";
+      System.out.println(String.format(
+          "%-12s %6d %10d %12.0f %10.1f %10s %6d %8d", name, width, records,
+          records / seconds, bytes / seconds / 1048576.0, alloc,
+          collections - startCollections, 
+          collectionMillis - startCollectionMillis));
+    }
+
+    /** Bytes allocated by this thread, or -1 if the JVM does not say. */
+    private long allocated() {
+      if (threads instanceof com.sun.management.ThreadMXBean) {
+        com.sun.management.ThreadMXBean t = 
+          (com.sun.management.ThreadMXBean)threads;
+        if (t.isThreadAllocatedMemorySupported() && 
+            t.isThreadAllocatedMemoryEnabled()) {
+          return t.getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+      }
+      return -1;
+    }
+  }
+
+  /** The n-th key of the given width. */
+  static void makeKey(BytesWritable key, int width, long n) {
+    key.setSize(width);
+    byte[] b = key.getBytes();
+    Arrays.fill(b, 0, width - 8, (byte)'k');
+    for (int i = 0; i < 8; ++i) {
+      b[width - 1 - i] = (byte)(n >>> (8 * i));
+    }
+  }
+
+  static BytesWritable makeValue(Configuration conf) {
+    byte[] b = new byte[conf.getInt("sortbench.value.bytes", 64)];
+    new Random(0).nextBytes(b);
+    return new BytesWritable(b);
+  }
+
+  private FileSystem fs;
+  private Path dir;
+  private long records;
+  private int files;
+  private final RawComparator<BytesWritable> comparator = 
+    WritableComparator.get(BytesWritable.class);
+  private final Meter meter = new Meter();
+
+  /**
+   * Writes then reads the records, file f holding the records f, 
+   * f + files, f + 2 * files, ...
+   */
+  private Path[] ifileBench(int width) throws IOException {
+    final Configuration conf = getConf();
+    final BytesWritable key = new BytesWritable();
+    final BytesWritable value = makeValue(conf);
+    Path[] paths = new Path[files];
+    long bytes = 0;
+    meter.start();
+    for (int f = 0; f < files; ++f) {
+      paths[f] = new Path(dir, "ifile" + f);
+      IFile.Writer<BytesWritable, BytesWritable> writer = 
+        new IFile.Writer<BytesWritable, BytesWritable>(conf, fs, paths[f],
+            BytesWritable.class, BytesWritable.class, null, null);
+      for (long n = f; n < records; n += files) {
+        makeKey(key, width, n);
+        writer.append(key, value);
+      }
+      writer.close();
+      bytes += writer.getRawLength();
+    }
+    meter.report("ifile.write", width, records, bytes, true);
+
+    DataInputBuffer k = new DataInputBuffer();
+    DataInputBuffer v = new DataInputBuffer();
+    long read = 0;
+    bytes = 0;
+    meter.start();
+    for (Path path : paths) {
+      IFile.Reader<BytesWritable, BytesWritable> reader = 
+        new IFile.Reader<BytesWritable, BytesWritable>(conf, fs, path, null,
+                                                       null);
+      while (reader.next(k, v)) {
+        ++read;
+        bytes += k.getLength() - k.getPosition() + 
+                 v.getLength() - v.getPosition();
+      }
+      reader.close();
+    }
+    meter.report("ifile.read", width, read, bytes, true);
+    return paths;
+  }
+
+  private void mergeBench(int width, Path[] paths) throws IOException {
+    meter.start();
+    RawKeyValueIterator in = 
+      Merger.merge(getConf(), fs, BytesWritable.class, BytesWritable.class,
+                   null, paths, false, paths.length, new Path(dir, "tmp"),
+                   comparator, Reporter.NULL, null, null);
+    drain("merge", width, in);
+  }
+
+  private void memMergeBench(int width) throws IOException {
+    final Configuration conf = getConf();
+    final BytesWritable key = new BytesWritable();
+    final BytesWritable value = makeValue(conf);
+    final RamManager ramManager = new RamManager() {
+      public boolean reserve(int requestedSize, InputStream in) {
+        return true;
+      }
+      public void unreserve(int requestedSize) { }
+    };
+    final TaskAttemptID attempt = new TaskAttemptID("bench", 0, false, 0, 0);
+    // the map outputs, as shuffled into memory: records and EOF marker
+    List<byte[]> outputs = new ArrayList<byte[]>();
+    for (int f = 0; f < files; ++f) {
+      DataOutputBuffer out = new DataOutputBuffer();
+      IFile.Writer<BytesWritable, BytesWritable> writer = 
+        new IFile.Writer<BytesWritable, BytesWritable>(conf,
+            new FSDataOutputStream(out, null), BytesWritable.class,
+            BytesWritable.class, null, null);
+      for (long n = f; n < records; n += files) {
+        makeKey(key, width, n);
+        writer.append(key, value);
+      }
+      writer.close();
+      outputs.add(Arrays.copyOf(out.getData(), (int)writer.getRawLength()));
+    }
+
+    meter.start();
+    List<Segment<BytesWritable, BytesWritable>> segments = 
+      new ArrayList<Segment<BytesWritable, BytesWritable>>();
+    for (byte[] data : outputs) {
+      segments.add(new Segment<BytesWritable, BytesWritable>(
+          new IFile.InMemoryReader<BytesWritable, BytesWritable>(
+              ramManager, attempt, data, 0, data.length), true));
+    }
+    RawKeyValueIterator in = 
+      Merger.merge(conf, fs, BytesWritable.class, BytesWritable.class,
+                   segments, segments.size(), new Path(dir, "tmp"),
+                   comparator, Reporter.NULL, null, null);
+    drain("memmerge", width, in);
+  }
+
+  private void drain(String name, int width, RawKeyValueIterator in) 
+  throws IOException {
+    long merged = 0;
+    long bytes = 0;
+    while (in.next()) {
+      DataInputBuffer k = in.getKey();
+      DataInputBuffer v = in.getValue();
+      ++merged;
+      bytes += k.getLength() - k.getPosition() + 
+               v.getLength() - v.getPosition();
+    }
+    in.close();
+    meter.report(name, width, merged, bytes, true);
+    if (merged != records) {
+      throw new IOException(name + " merged " + merged + " records of " + 
+                            records);
+    }
+  }
+
+  /**
+   * Collects sortbench.records records of scattered keys.
+   */
+  public static class BenchMapper extends MapReduceBase
+      implements Mapper<NullWritable, NullWritable, 
+                        BytesWritable, BytesWritable> {
+    private long records;
+    private int width;
+    private BytesWritable value;
+
+    public void configure(JobConf job) {
+      records = job.getLong("sortbench.records", 1000000);
+      width = job.getInt("sortbench.width", 8);
+      value = makeValue(job);
+    }
+
+    public void map(NullWritable nk, NullWritable nv,
+        OutputCollector<BytesWritable, BytesWritable> output, 
+        Reporter reporter) throws IOException {
+      BytesWritable key = new BytesWritable();
+      for (long n = 0; n < records; ++n) {
+        // a bijection of [0, 2^64), for keys out of order
+        makeKey(key, width, n * 0x9E3779B97F4A7C15L);
+        output.collect(key, value);
+      }
+    }
+  }
+
+  private void mapBench(int width) throws IOException {
+    JobConf job = new JobConf(getConf(), SortShuffleBench.class);
+    job.set("mapred.job.tracker", "local");
+    job.setInt("sortbench.width", width);
+    job.setInputFormat(FakeIF.class);
+    job.setNumMapTasks(1);
+    job.setMapperClass(BenchMapper.class);
+    job.setReducerClass(IdentityReducer.class);
+    job.setNumReduceTasks(1);
+    job.setOutputKeyClass(BytesWritable.class);
+    job.setOutputValueClass(BytesWritable.class);
+    job.setOutputFormat(NullOutputFormat.class);
+    FileInputFormat.setInputPaths(job, new Path(dir, "in"));
+
+    meter.start();
+    RunningJob running = JobClient.runJob(job);
+    Counters c = running.getCounters();
+    meter.report("map", width, 
+        c.findCounter(Task.Counter.MAP_OUTPUT_RECORDS).getCounter(),
+        c.findCounter(Task.Counter.MAP_OUTPUT_BYTES).getCounter(), false);
+  }
+
+  public int run(String[] argv) throws IOException {
+    final Configuration conf = getConf();
+    List<String> benchmarks = new ArrayList<String>(Arrays.asList(argv));
+    for (String b : benchmarks) {
+      if (!Arrays.asList(BENCHMARKS).contains(b)) {
+        return printUsage();
+      }
+    }
+    if (benchmarks.isEmpty()) {
+      benchmarks.addAll(Arrays.asList(BENCHMARKS));
+    }
+
+    fs = FileSystem.getLocal(conf);
+    dir = new Path(conf.get("sortbench.dir", 
+        System.getProperty("test.build.data", "/tmp") + "/sortbench"));
+    records = conf.getLong("sortbench.records", 1000000);
+    files = conf.getInt("sortbench.files", 10);
+    final int iterations = conf.getInt("sortbench.iterations", 3);
+
+    Meter.printHeader();
+    try {
+      for (String w : conf.getStrings("sortbench.key.widths", 
+                                      "8", "32", "128")) {
+        final int width = Math.max(8, Integer.parseInt(w.trim()));
+        for (int i = 0; i < iterations; ++i) {
+          Path[] paths = null;
+          if (benchmarks.contains("ifile") || benchmarks.contains("merge")) {
+            paths = ifileBench(width);
+          }
+          if (benchmarks.contains("merge")) {
+            mergeBench(width, paths);
+          }
+          if (benchmarks.contains("memmerge")) {
+            memMergeBench(width);
+          }
+          if (benchmarks.contains("map")) {
+            mapBench(width);
+          }
+        }
+      }
+    } finally {
+      fs.delete(dir, true);
+    }
+    return 0;
+  }
+
+  public static void main(String[] argv) throws Exception {
+    int res = ToolRunner.run(new Configuration(), new SortShuffleBench(), argv);
+    System.exit(res);
+  }
+}
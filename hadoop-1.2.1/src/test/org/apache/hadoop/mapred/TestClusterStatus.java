@@ -335,4 +335,34 @@ public class TestClusterStatus extends TestCase {
                     true, false);
     }
   }
+
+  /**
+   * A 'duplicate' heartbeat gets the last response resent without waiting
+   * for the JobTracker lock.
+   */
+  public void testDuplicateHeartbeat() throws Exception {
+    final HeartbeatResponse last = 
+      jobTracker.trackerToHeartbeatResponseMap.get(trackers[0]);
+    assertNotNull(last);
+    final HeartbeatResponse[] resent = new HeartbeatResponse[1];
+    Thread heartbeat = new Thread() {
+      public void run() {
+        TaskTrackerStatus status = new TaskTrackerStatus(trackers[0],
+            JobInProgress.convertTrackerNameToHostName(trackers[0]));
+        try {
+          resent[0] = jobTracker.heartbeat(status, false, false, false,
+              (short)(last.getResponseId() - 1));
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }
+    };
+    synchronized (jobTracker) {
+      heartbeat.start();
+      heartbeat.join(30000);
+      assertFalse("Duplicate heartbeat waited for the lock", 
+                  heartbeat.isAlive());
+    }
+    assertSame(last, resent[0]);
+  }
 }
@@ -216,6 +216,99 @@ public class TestJvmManager {
     assertFalse("Thread caught unexpected IOException", 
                  threadCaughtException);
   }
+
+  /**
+   * Tests that a warm JVM waiting for a task gets the next task of its job.
+   */
+  @Test
+  public void testWarmJvm() throws Exception {
+    JobConf taskConf = new JobConf(ttConf);
+    TaskTracker.warmUpNumTasksPerJvm(taskConf, ttConf);
+    assertEquals(1, taskConf.getNumTasksToExecutePerJvm());
+    ttConf.setInt(JvmManager.WARM_JVM_TASKS, -1);
+    TaskTracker.warmUpNumTasksPerJvm(taskConf, ttConf);
+    assertEquals(-1, taskConf.getNumTasksToExecutePerJvm());
+    assertEquals(0, taskConf.getLong(Child.IDLE_SLEEP, -1));
+
+    final JvmManager warmJvmManager = new JvmManager(tt);
+    tt.setJvmManagerInstance(warmJvmManager);
+    final JvmManagerForType mapJvmManager = warmJvmManager
+        .getJvmManagerForType(TaskType.MAP);
+    TaskAttemptID attemptID = new TaskAttemptID("test", 0, true, 0, 0);
+    Task task = new MapTask(null, attemptID, 0, null, MAP_SLOTS);
+    task.setUser(user);
+    task.setConf(taskConf);
+    TaskInProgress tip = tt.new TaskInProgress(task, taskConf);
+    RunningJob rjob = new RunningJob(attemptID.getJobID());
+    TaskController taskController = new DefaultTaskController();
+    taskController.setConf(ttConf);
+    rjob.distCacheMgr = 
+      new TrackerDistributedCacheManager(ttConf, taskController).
+      newTaskDistributedCacheManager(attemptID.getJobID(), taskConf);
+    final TaskRunner taskRunner = task.createRunner(tt, tip, rjob);
+    // a jvm that lives for 3 seconds
+    File pidFile = new File(TEST_DIR, "warm-pid");
+    pidFile.delete();
+    final Vector<String> vargs = new Vector<String>(2);
+    vargs.add(writeScript("SLEEP", "sleep 3\n", pidFile).getAbsolutePath());
+    final File workDir = new File(TEST_DIR, "work");
+    final File stdout = new File(TEST_DIR, "stdout");
+    final File stderr = new File(TEST_DIR, "stderr");
+    Thread launcher = new Thread() {
+      public void run() {
+        try {
+          taskRunner.launchJvmAndWait(null, vargs, stdout, stderr, 100,
+              workDir);
+        } catch (Exception e) {
+          e.printStackTrace();
+          setThreadCaughtException();
+        }
+      }
+    };
+    launcher.start();
+    // wait till the jvm is launched
+    // this loop waits for at most 1 second
+    for (int i = 0; i < 10; i++) {
+      if (pidFile.exists()) {
+        break;
+      }
+      UtilsForTests.waitFor(100);
+    }
+    assertTrue("pidFile is not present", pidFile.exists());
+    final JVMId jvmId = mapJvmManager.runningTaskToJvm.get(taskRunner);
+    assertNotNull(jvmId);
+
+    // the first task is done, the jvm waits for another one
+    mapJvmManager.taskFinished(taskRunner);
+    taskRunner.signalDone();
+    launcher.join();
+    final TaskRunner[] given = new TaskRunner[1];
+    Thread waiter = new Thread() {
+      public void run() {
+        try {
+          warmJvmManager.waitForTask(jvmId);
+          given[0] = mapJvmManager.jvmToRunningTask.get(jvmId);
+        } catch (InterruptedException e) {
+          setThreadCaughtException();
+        }
+      }
+    };
+    waiter.start();
+
+    attemptID = new TaskAttemptID("test", 0, true, 1, 0);
+    task = new MapTask(null, attemptID, 1, null, MAP_SLOTS);
+    task.setUser(user);
+    task.setConf(taskConf);
+    tip = tt.new TaskInProgress(task, taskConf);
+    TaskRunner taskRunner2 = task.createRunner(tt, tip, rjob);
+    taskRunner2.launchJvmAndWait(null, new Vector<String>(vargs), stdout,
+        stderr, 100, workDir);
+    waiter.join();
+    // the second task was handed to the first jvm
+    assertSame(taskRunner2, given[0]);
+    assertFalse("Thread caught unexpected exception", threadCaughtException);
+  }
+
   private void setThreadCaughtException() {
     threadCaughtException = true;
   }
@@ -0,0 +1,92 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import static org.junit.Assert.*;
+
+import org.apache.hadoop.net.Node;
+import org.apache.hadoop.net.NodeBase;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+public class TestMapLocalityCache {
+
+  private static TaskInProgress[] createMaps(int n) {
+    TaskInProgress[] maps = new TaskInProgress[n];
+    for (int i = 0; i < n; i++) {
+      maps[i] = Mockito.mock(TaskInProgress.class);
+      Mockito.when(maps[i].getIdWithinJob()).thenReturn(i);
+      Mockito.when(maps[i].isRunnable()).thenReturn(true);
+    }
+    return maps;
+  }
+
+  @Test
+  public void testScheduledTipsLeaveAllQueues() {
+    Node h1 = new NodeBase("/r1/h1");
+    Node h2 = new NodeBase("/r1/h2");
+    Node r1 = new NodeBase("/r1");
+    TaskInProgress[] maps = createMaps(3);
+    MapLocalityCache cache = new MapLocalityCache(maps);
+    // map 0 on h1 and h2, map 1 on h2, map 2 on h1; all under r1
+    cache.add(h1, 0);
+    cache.add(r1, 0);
+    cache.add(h2, 0);
+    cache.add(r1, 0);
+    cache.add(h2, 1);
+    cache.add(r1, 1);
+    cache.add(h1, 2);
+    cache.add(r1, 2);
+
+    assertSame(maps[0], cache.find(h1, "h1", 2, true));
+    // map 1 is scheduled without going through the cache
+    cache.remove(maps[1]);
+    assertNull(cache.find(h2, "h2", 2, true));
+    assertSame(maps[2], cache.find(r1, "h1", 2, false));
+    assertNull(cache.find(r1, "h1", 2, false));
+    assertNull(cache.find(h1, "h1", 2, true));
+    assertNull(cache.find(h2, "h1", 2, true));
+  }
+
+  @Test
+  public void testFailedTips() {
+    Node h1 = new NodeBase("/r1/h1");
+    Node r1 = new NodeBase("/r1");
+    TaskInProgress[] maps = createMaps(2);
+    Mockito.when(maps[0].hasFailedOnMachine("h1")).thenReturn(true);
+    Mockito.when(maps[0].getNumberOfFailedMachines()).thenReturn(1);
+    MapLocalityCache cache = new MapLocalityCache(maps);
+    cache.add(h1, 0);
+    cache.add(r1, 0);
+    cache.add(h1, 1);
+    cache.add(r1, 1);
+
+    // skipped on the host that it failed on, but kept in the rack queue
+    assertSame(maps[1], cache.find(r1, "h1", 2, false));
+    assertNull(cache.find(h1, "h1", 2, true));
+    assertSame(maps[0], cache.find(r1, "h2", 2, false));
+
+    // running or complete TIPs are dropped
+    cache = new MapLocalityCache(maps);
+    cache.add(h1, 0);
+    cache.add(h1, 1);
+    Mockito.when(maps[1].isRunning()).thenReturn(true);
+    assertSame(maps[0], cache.find(h1, "h2", 2, true));
+    assertNull(cache.find(h1, "h2", 2, true));
+  }
+}
@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.lib.LongSumReducer;
+
+public class TestMapOutputAggregator extends TestCase {
+
+  private static final int PARTITIONS = 3;
+
+  /** Sums what reaches the sort buffer, by partition and key. */
+  private static class SumOutput
+      implements MapOutputAggregator.Output<Text, LongWritable> {
+    final Map<String, Long> sums = new HashMap<String, Long>();
+    int records = 0;
+
+    public void collect(Text key, LongWritable value, int partition)
+        throws IOException {
+      assertEquals(partition(key), partition);
+      ++records;
+      Long sum = sums.get(key.toString());
+      sums.put(key.toString(), (sum == null ? 0 : sum) + value.get());
+    }
+  }
+
+  private static int partition(Text key) {
+    return (key.hashCode() & Integer.MAX_VALUE) % PARTITIONS;
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static MapOutputAggregator<Text, LongWritable> create(
+      SumOutput output, Counters counters) throws IOException {
+    JobConf job = new JobConf();
+    job.setMapOutputKeyClass(Text.class);
+    job.setMapOutputValueClass(LongWritable.class);
+    job.setInt(MapOutputAggregator.HASH_MB, 1);
+    job.setInt(MapOutputAggregator.VALUES_PER_KEY, 8);
+    Task.CombinerRunner<Text, LongWritable> combiner =
+      new Task.OldCombinerRunner(LongSumReducer.class, job,
+          counters.findCounter(Task.Counter.COMBINE_INPUT_RECORDS), null);
+    return new MapOutputAggregator<Text, LongWritable>(job, PARTITIONS,
+        combiner, counters.findCounter(Task.Counter.MAP_OUTPUT_RECORDS),
+        counters.findCounter(Task.Counter.MAP_OUTPUT_BYTES),
+        counters.findCounter(Task.Counter.COMBINE_OUTPUT_RECORDS), output);
+  }
+
+  private static void collect(MapOutputAggregator<Text, LongWritable> agg,
+      int records, int keys) throws IOException {
+    Text key = new Text();
+    LongWritable one = new LongWritable(1);
+    for (int i = 0; i < records; ++i) {
+      key.set("key" + (i * 7919L) % keys);
+      agg.collect(key, one, partition(key));
+    }
+    agg.flush();
+  }
+
+  public void testFewKeys() throws IOException {
+    SumOutput output = new SumOutput();
+    Counters counters = new Counters();
+    collect(create(output, counters), 100000, 10);
+    assertEquals(10, output.sums.size());
+    for (Long sum : output.sums.values()) {
+      assertEquals(10000L, sum.longValue());
+    }
+    // combined in the table, flushed once
+    assertEquals(10, output.records);
+    assertEquals(100000,
+        counters.findCounter(Task.Counter.MAP_OUTPUT_RECORDS).getCounter());
+  }
+
+  public void testTableFull() throws IOException {
+    SumOutput output = new SumOutput();
+    Counters counters = new Counters();
+    MapOutputAggregator<Text, LongWritable> agg = create(output, counters);
+    // a few hot keys among many more keys than the table holds
+    Text key = new Text();
+    LongWritable one = new LongWritable(1);
+    for (int i = 0; i < 200000; ++i) {
+      key.set(i % 2 == 0 ? "hot" + (i / 2) % 10 : "cold" + i);
+      agg.collect(key, one, partition(key));
+    }
+    agg.flush();
+    assertEquals(100010, output.sums.size());
+    for (Map.Entry<String, Long> sum : output.sums.entrySet()) {
+      assertEquals(sum.getKey(), sum.getKey().startsWith("hot") ? 10000L : 1L,
+                   sum.getValue().longValue());
+    }
+    // the table was flushed several times, hot keys combined in between
+    assertTrue(output.records > 100010);
+    assertTrue(output.records < 110000);
+  }
+}
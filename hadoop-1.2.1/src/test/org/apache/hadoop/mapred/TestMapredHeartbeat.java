@@ -18,12 +18,15 @@
 package org.apache.hadoop.mapred;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import junit.framework.TestCase;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hdfs.MiniDFSCluster;
+import org.apache.hadoop.mapred.FakeObjectUtilities.FakeJobInProgress;
 import org.apache.hadoop.mapred.JobConf;
 
 public class TestMapredHeartbeat extends TestCase {
@@ -103,6 +106,65 @@ public class TestMapredHeartbeat extends TestCase {
     }
   }
 
-}
+  /**
+   * The status and progress of a heartbeat are applied while another thread
+   * holds the JobTracker lock; only the response waits for it.
+   */
+  public void testProgressWithoutJobTrackerLock() throws Exception {
+    MiniMRCluster mr = null;
+    try {
+      mr = new MiniMRCluster(0, "file:///", 1);
+      final JobTracker jt = mr.getJobTrackerRunner().getJobTracker();
+      final String tracker = "tracker_tracker1:1000";
+      FakeObjectUtilities.establishFirstContact(jt, tracker);
 
+      JobConf conf = new JobConf();
+      conf.setNumMapTasks(1);
+      conf.setNumReduceTasks(0);
+      FakeJobInProgress job = new FakeJobInProgress(conf, jt);
+      job.initTasks();
+      job.getStatus().setRunState(JobStatus.RUNNING);
+      TaskAttemptID attempt = job.findMapTask(tracker);
+      TaskInProgress tip = jt.taskidToTIPMap.get(attempt);
+      assertNotNull(tip);
 
+      List<TaskStatus> reports = new ArrayList<TaskStatus>();
+      reports.add(TaskStatus.createTaskStatus(true, attempt, 0.5f, 1,
+          TaskStatus.State.RUNNING, "", "", tracker, TaskStatus.Phase.MAP,
+          new Counters()));
+      final TaskTrackerStatus status = new TaskTrackerStatus(tracker,
+          JobInProgress.convertTrackerNameToHostName(tracker), 0, reports,
+          0, 0, 2, 2);
+      final short responseId =
+        jt.trackerToHeartbeatResponseMap.get(tracker).getResponseId();
+      final HeartbeatResponse[] response = new HeartbeatResponse[1];
+      Thread heartbeat = new Thread() {
+        public void run() {
+          try {
+            response[0] = jt.heartbeat(status, false, false, false, responseId);
+          } catch (IOException e) {
+            throw new RuntimeException(e);
+          }
+        }
+      };
+      synchronized (jt) {
+        heartbeat.start();
+        for (int i = 0; i < 300 && tip.getProgress() < 0.5; ++i) {
+          Thread.sleep(100);
+        }
+        assertEquals(0.5, tip.getProgress(), 0.01);
+        assertEquals(0.5, job.getStatus().mapProgress(), 0.01);
+        assertEquals(1, jt.getClusterMetrics().getRunningMaps());
+        assertEquals(1, jt.getClusterMetrics().getOccupiedMapSlots());
+        // the response is chosen under the lock
+        assertTrue(heartbeat.isAlive());
+        assertNull(response[0]);
+      }
+      heartbeat.join(30000);
+      assertFalse(heartbeat.isAlive());
+      assertEquals(responseId + 1, response[0].getResponseId());
+    } finally {
+      if (mr != null) { mr.shutdown(); }
+    }
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.util.Progressable;
+
+/**
+ * Merges with the loser tree and with the merge factor chosen from
+ * io.sort.merge.memory.mb must give what the heap gives.
+ */
+public class TestMergerLoserTree extends TestCase {
+  private static final Path TEST_DIR = 
+    new Path(System.getProperty("test.build.data", "/tmp"), 
+             "TestMergerLoserTree");
+  private static final int FILES = 17;
+  private static final int RECORDS = 500;
+
+  private Configuration conf;
+  private FileSystem fs;
+  private Path[] inputs;
+
+  private static final Progressable NULL_PROGRESS = new Progressable() {
+    public void progress() { }
+  };
+
+  @Override
+  protected void setUp() throws IOException {
+    conf = new Configuration();
+    fs = FileSystem.getLocal(conf);
+    fs.delete(TEST_DIR, true);
+    Random r = new Random(42);
+    inputs = new Path[FILES];
+    for (int f = 0; f < FILES; ++f) {
+      // keys share their first 8 bytes often, for the comparator to decide
+      List<String> keys = new ArrayList<String>();
+      for (int i = 0; i < RECORDS; ++i) {
+        keys.add("prefix-" + r.nextInt(10) + "-" + r.nextInt(RECORDS));
+      }
+      Collections.sort(keys);
+      inputs[f] = new Path(TEST_DIR, "in" + f);
+      IFile.Writer<Text, LongWritable> writer = 
+        new IFile.Writer<Text, LongWritable>(conf, fs, inputs[f], Text.class,
+                                             LongWritable.class, null, null);
+      for (int i = 0; i < RECORDS; ++i) {
+        writer.append(new Text(keys.get(i)), new LongWritable(f));
+      }
+      writer.close();
+    }
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    fs.delete(TEST_DIR, true);
+  }
+
+  @SuppressWarnings("unchecked")
+  private List<String> merge(Configuration mergeConf, int factor) 
+  throws IOException {
+    RawComparator<Text> comparator = WritableComparator.get(Text.class);
+    RawKeyValueIterator in = 
+      Merger.merge(mergeConf, fs, Text.class, LongWritable.class, null,
+                   inputs, false, factor, new Path(TEST_DIR, "tmp"),
+                   comparator, NULL_PROGRESS, null, null);
+    List<String> out = new ArrayList<String>();
+    Text key = new Text();
+    LongWritable value = new LongWritable();
+    String previous = null;
+    while (in.next()) {
+      DataInputBuffer k = in.getKey();
+      key.readFields(k);
+      value.readFields(in.getValue());
+      String record = key.toString();
+      if (previous != null) {
+        assertTrue(previous + " > " + record, previous.compareTo(record) <= 0);
+      }
+      previous = record;
+      out.add(record + "\t" + value.get());
+    }
+    in.close();
+    return out;
+  }
+
+  private List<String> sortedKeys(List<String> records) {
+    List<String> keys = new ArrayList<String>(records.size());
+    for (String record : records) {
+      keys.add(record.substring(0, record.indexOf('\t')));
+    }
+    return keys;
+  }
+
+  public void testLoserTree() throws IOException {
+    List<String> heap = merge(conf, 4);
+    assertEquals(FILES * RECORDS, heap.size());
+
+    Configuration tree = new Configuration(conf);
+    tree.setBoolean("io.sort.merge.loser.tree", true);
+    for (int factor : new int[] { 2, 4, FILES, 100 }) {
+      List<String> merged = merge(tree, factor);
+      assertEquals(FILES * RECORDS, merged.size());
+      assertEquals(sortedKeys(heap), sortedKeys(merged));
+    }
+  }
+
+  public void testMergeMemory() throws IOException {
+    List<String> heap = merge(conf, 2);
+    for (boolean loserTree : new boolean[] { false, true }) {
+      Configuration memory = new Configuration(conf);
+      memory.setBoolean("io.sort.merge.loser.tree", loserTree);
+      memory.setInt("io.sort.merge.memory.mb", 1);
+      List<String> merged = merge(memory, 2);
+      assertEquals(sortedKeys(heap), sortedKeys(merged));
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.mapred.TestMapCollection.FakeIF;
+import org.apache.hadoop.mapred.lib.LongSumReducer;
+
+/**
+ * Runs jobs whose maps spill several times, sorting and merging their
+ * partitions on several threads.
+ */
+public class TestParallelSpillSort extends TestCase {
+
+  private static final int MAP_TASKS = 2;
+  private static final int REDUCE_TASKS = 5;
+  private static final int RECORDS = 50000;
+  private static final int KEYS = 1000;
+  private static final File TEST_DIR = new File(
+      System.getProperty("test.build.data", "/tmp"), "TestParallelSpillSort");
+
+  enum Check { SUM }
+
+  public static class KeysMapper extends MapReduceBase
+      implements Mapper<NullWritable,NullWritable,IntWritable,LongWritable> {
+
+    public void map(NullWritable nk, NullWritable nv,
+        OutputCollector<IntWritable,LongWritable> output, Reporter reporter)
+        throws IOException {
+      IntWritable key = new IntWritable();
+      LongWritable one = new LongWritable(1);
+      for (int i = 0; i < RECORDS; ++i) {
+        key.set((int)((i * 7919L) % KEYS));
+        output.collect(key, one);
+      }
+    }
+  }
+
+  public static class OrderCheckReducer extends MapReduceBase
+      implements Reducer<IntWritable,LongWritable,IntWritable,LongWritable> {
+    private int last = Integer.MIN_VALUE;
+
+    public void reduce(IntWritable key, Iterator<LongWritable> values,
+        OutputCollector<IntWritable,LongWritable> output, Reporter reporter)
+        throws IOException {
+      if (key.get() <= last) {
+        throw new IOException("Key " + key + " after " + last);
+      }
+      last = key.get();
+      long sum = 0;
+      while (values.hasNext()) {
+        sum += values.next().get();
+      }
+      reporter.incrCounter(Check.SUM, sum);
+      output.collect(key, new LongWritable(sum));
+    }
+  }
+
+  private static void runJob(JobConf job, String name, boolean combine)
+      throws Exception {
+    job.setJobName(name);
+    job.setMapperClass(KeysMapper.class);
+    if (combine) {
+      job.setCombinerClass(LongSumReducer.class);
+    }
+    job.setReducerClass(OrderCheckReducer.class);
+    job.setOutputKeyClass(IntWritable.class);
+    job.setOutputValueClass(LongWritable.class);
+    job.setNumMapTasks(MAP_TASKS);
+    job.setNumReduceTasks(REDUCE_TASKS);
+    job.setInputFormat(FakeIF.class);
+    FileInputFormat.setInputPaths(job, new Path("/in"));
+    FileOutputFormat.setOutputPath(job,
+        new Path(new File(TEST_DIR, name).getAbsolutePath()));
+    // several spills per map
+    job.setInt("io.sort.mb", 1);
+    job.set("io.sort.record.percent", "0.05");
+    job.setInt("map.sort.threads", 3);
+    RunningJob rj = JobClient.runJob(job);
+    assertTrue(rj.isSuccessful());
+    Counters c = rj.getCounters();
+    if (!combine) {
+      assertTrue(c.findCounter(Task.Counter.SPILLED_RECORDS).getCounter() >
+                 MAP_TASKS * RECORDS);
+    }
+    assertEquals(MAP_TASKS * RECORDS, c.findCounter(Check.SUM).getCounter());
+    assertEquals(KEYS,
+        c.findCounter(Task.Counter.REDUCE_INPUT_GROUPS).getCounter());
+  }
+
+  public void testParallelSpillSort() throws Exception {
+    FileUtil.fullyDelete(TEST_DIR);
+    MiniMRCluster mr = null;
+    try {
+      mr = new MiniMRCluster(1, "file:///", 1);
+      runJob(mr.createJobConf(), "nocombiner", false);
+      runJob(mr.createJobConf(), "combiner", true);
+    } finally {
+      if (mr != null) {
+        mr.shutdown();
+      }
+      FileUtil.fullyDelete(TEST_DIR);
+    }
+  }
+}
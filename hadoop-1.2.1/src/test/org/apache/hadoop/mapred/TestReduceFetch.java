@@ -150,4 +150,78 @@ public class TestReduceFetch extends TestCase {
     assertEquals("Spilled records: " + spill, out, spill); // no reduce spill
   }
 
+  public void testReduceFromDirectMem() throws Exception {
+    final int MAP_TASKS = 3;
+    JobConf job = mrCluster.createJobConf();
+    job.set("mapred.job.reduce.input.buffer.percent", "1.0");
+    job.setInt("mapred.job.shuffle.input.direct.mb", 32);
+    job.setNumMapTasks(MAP_TASKS);
+    Counters c = runJob(job);
+    final long spill = c.findCounter(Task.Counter.SPILLED_RECORDS).getCounter();
+    final long out = c.findCounter(Task.Counter.MAP_OUTPUT_RECORDS).getCounter();
+    assertEquals("Spilled records: " + spill, out, spill); // no reduce spill
+  }
+
+  public void testReduceFromDirectMemToDisk() throws Exception {
+    final int MAP_TASKS = 3;
+    JobConf job = mrCluster.createJobConf();
+    // none of the direct memory may be retained during the reduce
+    job.set("mapred.job.reduce.input.buffer.percent", "0.0");
+    job.setInt("mapred.job.shuffle.input.direct.mb", 32);
+    job.setNumMapTasks(MAP_TASKS);
+    Counters c = runJob(job);
+    final long spill = c.findCounter(Task.Counter.SPILLED_RECORDS).getCounter();
+    final long out = c.findCounter(Task.Counter.MAP_OUTPUT_RECORDS).getCounter();
+    assertTrue("Expected all records spilled during reduce (" + spill + ")",
+        spill >= 2 * out); // all records spill at map, reduce
+  }
+
+  public void testReduceStreaming() throws Exception {
+    final int MAP_TASKS = 3;
+    JobConf job = mrCluster.createJobConf();
+    job.set("mapred.job.reduce.input.buffer.percent", "1.0");
+    job.set("mapred.job.shuffle.input.buffer.percent", "1.0");
+    job.setInt("mapred.job.reduce.total.mem.bytes", 128 << 20);
+    job.setInt("mapred.reduce.merge.streaming.factor", 100);
+    job.setNumMapTasks(MAP_TASKS);
+    Counters c = runJob(job);
+    final long spill = c.findCounter(Task.Counter.SPILLED_RECORDS).getCounter();
+    final long out = c.findCounter(Task.Counter.MAP_OUTPUT_RECORDS).getCounter();
+    assertEquals("Spilled records: " + spill, out, spill); // no reduce spill
+  }
+
+  public void testReduceStreamingRetention() throws Exception {
+    final int MAP_TASKS = 3;
+    JobConf job = mrCluster.createJobConf();
+    // streaming doesn't retain more than reduce.input.buffer.percent
+    job.set("mapred.job.reduce.input.buffer.percent", "0.0");
+    job.set("mapred.job.shuffle.input.buffer.percent", "1.0");
+    job.setInt("mapred.job.reduce.total.mem.bytes", 128 << 20);
+    job.setInt("mapred.reduce.merge.streaming.factor", 100);
+    job.setNumMapTasks(MAP_TASKS);
+    Counters c = runJob(job);
+    final long spill = c.findCounter(Task.Counter.SPILLED_RECORDS).getCounter();
+    final long out = c.findCounter(Task.Counter.MAP_OUTPUT_RECORDS).getCounter();
+    assertTrue("Expected all records spilled during reduce (" + spill + ")",
+        spill >= 2 * out); // all records spill at map, reduce
+  }
+
+  public void testReduceStreamingManyFiles() throws Exception {
+    final int MAP_TASKS = 8;
+    JobConf job = mrCluster.createJobConf();
+    // every map output is too large for the shuffle memory: 8 files on disk
+    job.set("mapred.job.reduce.input.buffer.percent", "0.0");
+    job.setInt("mapred.job.reduce.total.mem.bytes", 128 << 20);
+    job.set("mapred.job.shuffle.input.buffer.percent", "0.05");
+    job.setInt("mapred.reduce.merge.streaming.factor", 3);
+    job.setNumMapTasks(MAP_TASKS);
+    Counters c = runJob(job);
+    final long spill = c.findCounter(Task.Counter.SPILLED_RECORDS).getCounter();
+    final long out = c.findCounter(Task.Counter.MAP_OUTPUT_RECORDS).getCounter();
+    final long in = c.findCounter(Task.Counter.REDUCE_INPUT_RECORDS).getCounter();
+    assertEquals("Reduce input records", out, in);
+    assertTrue("Expected intermediate merges (" + spill + ")",
+        spill > out); // files merged down to 3 before the reduce
+  }
+
 }
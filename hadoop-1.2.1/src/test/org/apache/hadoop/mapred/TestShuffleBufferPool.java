@@ -0,0 +1,128 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+
+public class TestShuffleBufferPool extends TestCase {
+
+  private static class CountingRamManager implements RamManager {
+    int reserved = 0;
+
+    public boolean reserve(int requestedSize, InputStream in) {
+      reserved += requestedSize;
+      return true;
+    }
+
+    public void unreserve(int requestedSize) {
+      reserved -= requestedSize;
+    }
+  }
+
+  public void testChunks() {
+    ShuffleBufferPool pool = new ShuffleBufferPool(16);
+    assertEquals(0, pool.reservationFor(0));
+    assertEquals(16, pool.reservationFor(1));
+    assertEquals(16, pool.reservationFor(16));
+    assertEquals(48, pool.reservationFor(33));
+
+    byte[] b = new byte[40];
+    for (int i = 0; i < b.length; ++i) {
+      b[i] = (byte) i;
+    }
+    ShuffleBufferPool.Buffer buffer = pool.allocate(b.length);
+    assertEquals(48, buffer.getReservedSize());
+    assertEquals(48, pool.getAllocated());
+    buffer.write(b, 0, 10);
+    buffer.write(b, 10, 30);
+    try {
+      buffer.write(b, 0, 1);
+      fail("Wrote past the end of the buffer");
+    } catch (IndexOutOfBoundsException e) {
+      // expected
+    }
+
+    byte[] read = new byte[20];
+    buffer.read(12, read, 0, 20);
+    for (int i = 0; i < read.length; ++i) {
+      assertEquals(b[12 + i], read[i]);
+    }
+
+    // released chunks are reused
+    buffer.release();
+    buffer.release();
+    ShuffleBufferPool.Buffer other = pool.allocate(64);
+    assertEquals(64, pool.getAllocated());
+    other.release();
+    pool.allocate(64).release();
+    assertEquals(64, pool.getAllocated());
+  }
+
+  public void testReader() throws IOException {
+    DataOutputBuffer out = new DataOutputBuffer();
+    IFile.Writer<Text, Text> writer = new IFile.Writer<Text, Text>(
+        new Configuration(), new FSDataOutputStream(out, null),
+        Text.class, Text.class, null, null);
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < 500; ++i) {
+      writer.append(new Text(Integer.toString(i)), new Text(sb.toString()));
+      sb.append((char) ('a' + i % 26));
+    }
+    writer.close();
+
+    // the in-memory map output is the IFile without its checksum
+    int length = (int) writer.getRawLength();
+    ShuffleBufferPool pool = new ShuffleBufferPool(1024);
+    ShuffleBufferPool.Buffer data = pool.allocate(length);
+    data.write(out.getData(), 0, length);
+    CountingRamManager ramManager = new CountingRamManager();
+    ramManager.reserve(data.getReservedSize(), null);
+
+    IFile.DirectInMemoryReader<Text, Text> reader =
+      new IFile.DirectInMemoryReader<Text, Text>(ramManager, null, data);
+    DataInputBuffer key = new DataInputBuffer();
+    DataInputBuffer value = new DataInputBuffer();
+    Text k = new Text();
+    Text v = new Text();
+    sb.setLength(0);
+    for (int i = 0; i < 500; ++i) {
+      assertTrue(reader.next(key, value));
+      k.readFields(key);
+      v.readFields(value);
+      assertEquals(Integer.toString(i), k.toString());
+      assertEquals(sb.toString(), v.toString());
+      sb.append((char) ('a' + i % 26));
+    }
+    assertFalse(reader.next(key, value));
+    assertEquals(length, reader.getPosition());
+
+    reader.close();
+    assertEquals(0, ramManager.reserved);
+    pool.allocate(length).release();
+    assertEquals(data.getReservedSize(), pool.getAllocated());
+  }
+}
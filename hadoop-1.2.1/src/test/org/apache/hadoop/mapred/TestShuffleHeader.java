@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+
+import junit.framework.TestCase;
+
+public class TestShuffleHeader extends TestCase {
+
+  private static final String MAP1 = "attempt_201301010000_0001_m_000001_0";
+  private static final String MAP2 = "attempt_201301010000_0001_m_000002_0";
+  private static final String MAP3 = "attempt_201301010000_0001_m_000003_0";
+
+  /** A batched response, as the mapOutput servlet writes it. */
+  private static DataInputBuffer batch(int dlen) throws IOException {
+    DataOutputBuffer dob = new DataOutputBuffer();
+    DataOutputBuffer data = new DataOutputBuffer();
+    IFileOutputStream ifos = new IFileOutputStream(data);
+    for (int i = 0; i < dlen; ++i) {
+      ifos.write(i);
+    }
+    ifos.close();
+    new ShuffleHeader(MAP1, data.getLength(), dlen, 3).write(dob);
+    dob.write(data.getData(), 0, data.getLength());
+    ShuffleHeader.failed(MAP2, 3).write(dob);
+    new ShuffleHeader(MAP3, data.getLength(), dlen, 3).write(dob);
+    dob.write(data.getData(), 0, data.getLength());
+    DataInputBuffer dib = new DataInputBuffer();
+    dib.reset(dob.getData(), dob.getLength());
+    return dib;
+  }
+
+  public void testBatch() throws Exception {
+    final int DLEN = 100;
+    DataInputBuffer in = batch(DLEN);
+
+    ShuffleHeader h = new ShuffleHeader();
+    h.readFields(in);
+    assertEquals(MAP1, h.getMapId());
+    assertEquals(3, h.getForReduce());
+    assertEquals(DLEN, h.getUncompressedLength());
+    assertFalse(h.isFailed());
+    InputStream frame = new ShuffleHeader.FrameInputStream(in,
+        h.getCompressedLength());
+    IFileInputStream ifis = new IFileInputStream(frame,
+        h.getCompressedLength(), new Configuration());
+    for (int i = 0; i < DLEN; ++i) {
+      assertEquals(i, ifis.read());
+    }
+    assertEquals(-1, ifis.read());
+    ifis.close();
+
+    h.readFields(in);
+    assertEquals(MAP2, h.getMapId());
+    assertTrue(h.isFailed());
+
+    // an unread frame is skipped on close
+    h.readFields(in);
+    assertEquals(MAP3, h.getMapId());
+    frame = new ShuffleHeader.FrameInputStream(in, h.getCompressedLength());
+    assertEquals(0, frame.read());
+    frame.close();
+    assertEquals(-1, frame.read());
+    assertEquals(-1, in.read());
+  }
+
+  public void testTruncatedFrame() throws Exception {
+    DataInputBuffer in = new DataInputBuffer();
+    in.reset(new byte[10], 10);
+    InputStream frame = new ShuffleHeader.FrameInputStream(in, 20);
+    byte[] buf = new byte[20];
+    assertEquals(10, frame.read(buf, 0, buf.length));
+    try {
+      frame.read(buf, 0, buf.length);
+      fail("Read past the end of the stream");
+    } catch (EOFException e) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.mapred;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.fs.FileUtil;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.TestMapCollection.FakeIF;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
+
+/**
+ * Runs jobs fetching several map outputs per request, over http and over
+ * the TaskTracker's ShuffleServer.
+ */
+public class TestShuffleServer extends TestCase {
+
+  private static final int MAP_TASKS = 6;
+  private static final File TEST_DIR = new File(
+      System.getProperty("test.build.data", "/tmp"), "TestShuffleServer");
+
+  private static int freePort() throws Exception {
+    ServerSocket probe = new ServerSocket(0);
+    try {
+      return probe.getLocalPort();
+    } finally {
+      probe.close();
+    }
+  }
+
+  private static void runJob(JobConf job, String name) throws Exception {
+    job.setJobName(name);
+    job.setMapperClass(TestReduceFetch.MapMB.class);
+    job.setReducerClass(IdentityReducer.class);
+    job.setOutputKeyClass(Text.class);
+    job.setOutputValueClass(Text.class);
+    job.setNumMapTasks(MAP_TASKS);
+    job.setNumReduceTasks(1);
+    job.setInputFormat(FakeIF.class);
+    FileInputFormat.setInputPaths(job, new Path("/in"));
+    FileOutputFormat.setOutputPath(job,
+        new Path(new File(TEST_DIR, name).getAbsolutePath()));
+    job.setInt("mapreduce.reduce.shuffle.maps.per.fetch", 4);
+    // room for a few outputs in memory, the others go to disk
+    job.setInt("mapred.job.reduce.total.mem.bytes", 64 << 20);
+    job.set("mapred.job.shuffle.input.buffer.percent", "0.3");
+    RunningJob rj = JobClient.runJob(job);
+    assertTrue(rj.isSuccessful());
+    Counters c = rj.getCounters();
+    long out = c.findCounter(Task.Counter.MAP_OUTPUT_RECORDS).getCounter();
+    long in = c.findCounter(Task.Counter.REDUCE_INPUT_RECORDS).getCounter();
+    assertEquals(MAP_TASKS * 4 * 1024, out);
+    assertEquals(out, in);
+  }
+
+  public void testBatchedShuffle() throws Exception {
+    FileUtil.fullyDelete(TEST_DIR);
+    int port = freePort();
+    JobConf conf = new JobConf();
+    conf.setInt(TaskTracker.ShuffleServer.PORT, port);
+    MiniMRCluster mr = null;
+    try {
+      mr = new MiniMRCluster(1, "file:///", 1, null, null, conf);
+      runJob(mr.createJobConf(), "http");
+
+      JobConf job = mr.createJobConf();
+      job.setInt(TaskTracker.ShuffleServer.PORT, port);
+      runJob(job, "shuffleserver");
+    } finally {
+      if (mr != null) {
+        mr.shutdown();
+      }
+      FileUtil.fullyDelete(TEST_DIR);
+    }
+  }
+
+  /** Sends the start of a request, returns the first byte of the answer. */
+  private static int sendRequest(int port, boolean oversizedMap)
+      throws Exception {
+    Socket s = new Socket("localhost", port);
+    try {
+      s.setSoTimeout(30 * 1000);
+      DataOutputStream out = new DataOutputStream(s.getOutputStream());
+      if (oversizedMap) {
+        Text.writeString(out, "job_200707121733_0003");
+        WritableUtils.writeVInt(out, 0);
+        WritableUtils.writeVInt(out, 1);
+      }
+      // a length no string of a request has, without its bytes
+      WritableUtils.writeVInt(out, Integer.MAX_VALUE);
+      out.flush();
+      InputStream in = s.getInputStream();
+      return in.read();
+    } finally {
+      s.close();
+    }
+  }
+
+  public void testOversizedString() throws Exception {
+    TaskTracker.ShuffleServer server = new TaskTracker.ShuffleServer(null,
+        new InetSocketAddress("localhost", 0), new JobConf());
+    Thread t = new Thread(server, "ShuffleServer");
+    t.start();
+    try {
+      // the connection is closed before any authentication, without
+      // allocating the string
+      assertEquals(-1, sendRequest(server.getPort(), false));
+      assertEquals(-1, sendRequest(server.getPort(), true));
+      // and the server still takes connections
+      assertTrue(t.isAlive());
+      assertEquals(-1, sendRequest(server.getPort(), false));
+    } finally {
+      server.stop();
+      t.join();
+    }
+  }
+}
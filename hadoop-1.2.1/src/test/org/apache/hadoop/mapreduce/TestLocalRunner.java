@@ -142,6 +142,16 @@ public class TestLocalRunner extends TestCase {
     }
   }
 
+  private static class SpreadingMapper
+      extends Mapper<LongWritable, Text, LongWritable, Text> {
+
+    /** Spread the records over 16 keys. */
+    public void map(LongWritable key, Text val, Context c)
+        throws IOException, InterruptedException {
+      c.write(new LongWritable(key.get() % 16), val);
+    }
+  }
+
   /**
    * Create a single input file in the input directory.
    * @param dirPath the directory in which the file resides
@@ -276,6 +286,53 @@ public class TestLocalRunner extends TestCase {
     verifyOutput(outputPath);
   }
 
+  /**
+   * Run a test with several reducers in parallel. Verify that every
+   * record reaches a reducer, and every key a single one.
+   */
+  @Test
+  public void testMultiReduces() throws Exception {
+    Job job = new Job();
+
+    Path inputPath = createMultiMapsInput();
+    Path outputPath = getOutputPath();
+
+    Configuration conf = new Configuration();
+    FileSystem fs = FileSystem.getLocal(conf);
+
+    if (fs.exists(outputPath)) {
+      fs.delete(outputPath, true);
+    }
+
+    final int NUM_REDUCES = 4;
+    job.setMapperClass(SpreadingMapper.class);
+    job.setReducerClass(CountingReducer.class);
+    job.setNumReduceTasks(NUM_REDUCES);
+    LocalJobRunner.setLocalMaxRunningMaps(job, 6);
+    LocalJobRunner.setLocalMaxRunningReduces(job, NUM_REDUCES);
+    FileInputFormat.addInputPath(job, inputPath);
+    FileOutputFormat.setOutputPath(job, outputPath);
+
+    assertTrue(job.waitForCompletion(true));
+
+    List<String> keys = new ArrayList<String>();
+    long count = 0;
+    for (int i = 0; i < NUM_REDUCES; i++) {
+      Path outputFile = new Path(outputPath, "part-r-0000" + i);
+      BufferedReader r = 
+        new BufferedReader(new InputStreamReader(fs.open(outputFile)));
+      for (String line = r.readLine(); line != null; line = r.readLine()) {
+        String[] kv = line.split("\t");
+        assertFalse("Key " + kv[0] + " at two reducers", keys.contains(kv[0]));
+        keys.add(kv[0]);
+        count += Long.valueOf(kv[1]);
+      }
+      r.close();
+    }
+    assertEquals(16, keys.size());
+    assertEquals(50000 + 500 + 500 + 20 + 5000 + 500, count);
+  }
+
   /**
    * Run a test with a misconfigured number of mappers.
    * Expect failure.
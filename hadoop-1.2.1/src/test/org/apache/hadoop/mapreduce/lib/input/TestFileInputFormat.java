@@ -20,12 +20,15 @@ package org.apache.hadoop.mapreduce.lib.input;
 
 import java.io.IOException;
 import java.util.Arrays;
+import java.util.List;
 
 import junit.framework.TestCase;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.Job;
 
 public class TestFileInputFormat extends TestCase {
@@ -62,4 +65,55 @@ public class TestFileInputFormat extends TestCase {
     }
   }
 
+  public void testListInParallel() throws Exception {
+    final Configuration conf = new Configuration();
+    final FileSystem localFs = FileSystem.getLocal(conf);
+    final Path dir = localFs.makeQualified(new Path(
+        System.getProperty("test.build.data", "/tmp"), "testListInParallel"));
+    localFs.delete(dir, true);
+    for (int d = 0; d < 5; d++) {
+      for (int f = 0; f < 3; f++) {
+        FSDataOutputStream out = 
+          localFs.create(new Path(dir, "d" + d + "/f" + f));
+        out.writeBytes("file " + d + " " + f + "\n");
+        out.close();
+      }
+    }
+    localFs.create(new Path(dir, "f")).close();
+
+    try {
+      final Job serial = new Job(conf);
+      FileInputFormat.setInputPaths(serial, new Path(dir, "d*"), 
+                                    new Path(dir, "f"));
+      final List<InputSplit> expected = 
+        new TextInputFormat().getSplits(serial);
+      assertEquals(16, expected.size());
+
+      final Job parallel = new Job(conf);
+      parallel.getConfiguration().setInt(FileInputLister.NUM_THREADS, 4);
+      FileInputFormat.setInputPaths(parallel, new Path(dir, "d*"),
+                                    new Path(dir, "f"));
+      final List<InputSplit> splits = new TextInputFormat().getSplits(parallel);
+      assertEquals(expected.size(), splits.size());
+      for (int i = 0; i < splits.size(); i++) {
+        FileSplit e = (FileSplit)expected.get(i);
+        FileSplit s = (FileSplit)splits.get(i);
+        assertEquals(e.getPath(), s.getPath());
+        assertEquals(e.getLength(), s.getLength());
+        assertEquals(Arrays.asList(e.getLocations()), 
+                     Arrays.asList(s.getLocations()));
+      }
+
+      // a missing input path is reported like before
+      FileInputFormat.addInputPath(parallel, new Path(dir, "missing"));
+      try {
+        new TextInputFormat().getSplits(parallel);
+        fail("no error on a missing input path");
+      } catch (InvalidInputException e) {
+        assertEquals(1, e.getProblems().size());
+      }
+    } finally {
+      localFs.delete(dir, true);
+    }
+  }
 }
@@ -39,6 +39,7 @@ import org.apache.hadoop.io.TestSequenceFile;
 import org.apache.hadoop.io.TestSetFile;
 import org.apache.hadoop.ipc.TestIPC;
 import org.apache.hadoop.ipc.TestRPC;
+import org.apache.hadoop.mapred.SortShuffleBench;
 import org.apache.hadoop.mapred.ThreadedMapBenchmark;
 
 public class AllTestDriver {
@@ -72,6 +73,8 @@ public class AllTestDriver {
                    "A map/reduce program that works on a very big " + 
                    "non-splittable file and does identity map/reduce");
       pgd.addClass("loadgen", GenericMRLoadGenerator.class, "Generic map/reduce load generator");
+      pgd.addClass("sortshufflebench", SortShuffleBench.class,
+                   "Benchmark of IFile, Merger and the map-side sort on the local file system");
       pgd.addClass("filebench", FileBench.class, "Benchmark SequenceFile(Input|Output)Format (block,record compressed and uncompressed), Text(Input|Output)Format (compressed and uncompressed)");
       pgd.addClass("dfsthroughput", BenchmarkThroughput.class, 
                    "measure hdfs throughput");
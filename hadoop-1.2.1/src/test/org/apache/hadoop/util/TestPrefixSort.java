@@ -0,0 +1,212 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.hadoop.util;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.RawKeyPrefix;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+public class TestPrefixSort extends TestCase {
+
+  /**
+   * Serialized keys, sorted through an index like MapOutputBuffer.
+   */
+  private static class KeySortable implements PrefixIndexedSortable {
+    private final WritableComparator comparator;
+    private final RawKeyPrefix prefix;
+    private final DataOutputBuffer buffer = new DataOutputBuffer();
+    private final int[] offsets;
+    private final int[] index;
+    private int swaps;
+    private int comparisons;
+
+    KeySortable(WritableComparable<?>[] keys) throws IOException {
+      comparator = WritableComparator.get(keys[0].getClass());
+      prefix = RawKeyPrefix.forComparator(comparator);
+      offsets = new int[keys.length + 1];
+      index = new int[keys.length];
+      for (int i = 0; i < keys.length; ++i) {
+        offsets[i] = buffer.getLength();
+        keys[i].write(buffer);
+        index[i] = i;
+      }
+      offsets[keys.length] = buffer.getLength();
+    }
+
+    public boolean hasPrefixes() {
+      return prefix != null;
+    }
+
+    public long getPrefix(int i) {
+      final int k = index[i];
+      return prefix.getPrefix(buffer.getData(), offsets[k],
+          offsets[k + 1] - offsets[k]);
+    }
+
+    public int compare(int i, int j) {
+      ++comparisons;
+      final int ki = index[i];
+      final int kj = index[j];
+      return comparator.compare(
+          buffer.getData(), offsets[ki], offsets[ki + 1] - offsets[ki],
+          buffer.getData(), offsets[kj], offsets[kj + 1] - offsets[kj]);
+    }
+
+    public void swap(int i, int j) {
+      ++swaps;
+      final int tmp = index[i];
+      index[i] = index[j];
+      index[j] = tmp;
+    }
+
+    int[] getIndex() {
+      return index;
+    }
+  }
+
+  private static void assertSorted(WritableComparable<?>[] keys, int l, int r,
+      KeySortable s) {
+    WritableComparable[] expected = keys.clone();
+    Arrays.sort(expected, l, r);
+    for (int i = 0; i < keys.length; ++i) {
+      assertEquals("at " + i, expected[i], keys[s.getIndex()[i]]);
+    }
+  }
+
+  private static Text[] randomText(Random r, int n, int maxLength) {
+    Text[] keys = new Text[n];
+    for (int i = 0; i < n; ++i) {
+      byte[] b = new byte[r.nextInt(maxLength + 1)];
+      for (int j = 0; j < b.length; ++j) {
+        // few symbols, so that prefixes collide
+        b[j] = (byte) ('a' + r.nextInt(3));
+      }
+      keys[i] = new Text(b);
+    }
+    return keys;
+  }
+
+  public void testText() throws Exception {
+    Random r = new Random();
+    long seed = r.nextLong();
+    r.setSeed(seed);
+    System.out.println("testText seed: " + seed);
+    PrefixSort sorter = new PrefixSort();
+    for (int maxLength : new int[] { 0, 4, 8, 20 }) {
+      Text[] keys = randomText(r, 10000, maxLength);
+      KeySortable s = new KeySortable(keys);
+      assertTrue(s.hasPrefixes());
+      sorter.sort(s, 0, keys.length);
+      assertSorted(keys, 0, keys.length, s);
+      assertTrue("swaps: " + s.swaps, s.swaps <= keys.length);
+    }
+  }
+
+  public void testShortKeysSkipComparator() throws Exception {
+    // distinct keys of at most 8 bytes never reach the comparator
+    Text[] keys = new Text[5000];
+    for (int i = 0; i < keys.length; ++i) {
+      keys[i] = new Text(Integer.toString((i * 7919) % keys.length));
+    }
+    KeySortable s = new KeySortable(keys);
+    new PrefixSort().sort(s, 0, keys.length);
+    assertSorted(keys, 0, keys.length, s);
+    assertEquals(0, s.comparisons);
+  }
+
+  public void testSubRange() throws Exception {
+    Random r = new Random();
+    Text[] keys = randomText(r, 1000, 12);
+    KeySortable s = new KeySortable(keys);
+    new PrefixSort().sort(s, 100, 900);
+    assertSorted(keys, 100, 900, s);
+  }
+
+  public void testNumbers() throws Exception {
+    Random r = new Random();
+    long seed = r.nextLong();
+    r.setSeed(seed);
+    System.out.println("testNumbers seed: " + seed);
+    PrefixSort sorter = new PrefixSort();
+
+    IntWritable[] ints = new IntWritable[5000];
+    LongWritable[] longs = new LongWritable[5000];
+    for (int i = 0; i < ints.length; ++i) {
+      ints[i] = new IntWritable(i % 10 == 0 ? r.nextInt(5) - 2 : r.nextInt());
+      longs[i] = new LongWritable(i % 10 == 0 ? r.nextInt(5) - 2 : r.nextLong());
+    }
+    ints[0].set(Integer.MIN_VALUE);
+    ints[1].set(Integer.MAX_VALUE);
+    longs[0].set(Long.MIN_VALUE);
+    longs[1].set(Long.MAX_VALUE);
+    KeySortable s = new KeySortable(ints);
+    sorter.sort(s, 0, ints.length);
+    assertSorted(ints, 0, ints.length, s);
+    s = new KeySortable(longs);
+    sorter.sort(s, 0, longs.length);
+    assertSorted(longs, 0, longs.length, s);
+  }
+
+  public void testBytes() throws Exception {
+    Random r = new Random();
+    BytesWritable[] keys = new BytesWritable[3000];
+    for (int i = 0; i < keys.length; ++i) {
+      byte[] b = new byte[r.nextInt(12)];
+      r.nextBytes(b);
+      keys[i] = new BytesWritable(b);
+    }
+    KeySortable s = new KeySortable(keys);
+    new PrefixSort().sort(s, 0, keys.length);
+    assertSorted(keys, 0, keys.length, s);
+  }
+
+  public void testFallback() throws Exception {
+    // sortables without prefixes are sorted by the comparator alone
+    assertNull(RawKeyPrefix.forComparator(
+        new LongWritable.DecreasingComparator()));
+    Text[] keys = randomText(new Random(), 1000, 12);
+    final KeySortable s = new KeySortable(keys);
+    new PrefixSort().sort(new IndexedSortable() {
+      public int compare(int i, int j) {
+        return s.compare(i, j);
+      }
+      public void swap(int i, int j) {
+        s.swap(i, j);
+      }
+    }, 0, keys.length);
+    assertSorted(keys, 0, keys.length, s);
+  }
+
+  public void testBytesPrefix() {
+    byte[] b = { 1, 2, (byte) 0xff };
+    assertEquals(0x0102ff0000000000L, RawKeyPrefix.bytesPrefix(b, 0, 3));
+    assertEquals(0xff00000000000000L, RawKeyPrefix.bytesPrefix(b, 2, 1));
+    assertEquals(0L, RawKeyPrefix.bytesPrefix(b, 0, 0));
+  }
+}
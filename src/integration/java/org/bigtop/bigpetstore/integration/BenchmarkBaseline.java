@@ -0,0 +1,107 @@
+package org.bigtop.bigpetstore.integration;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.type.TypeReference;
+
+/**
+ * Stored per-stage throughput for each benchmark scale, i.e.
+ *
+ * {"1MB" : {"generator" : 5321.0, "pig_cleaner" : 1200.5, ...}, ...}
+ *
+ * Values are records per second. A stage is flagged as a regression when its
+ * throughput drops by more than the threshold (a fraction, .25 == 25%)
+ * relative to the baseline. Stages or scales missing from the baseline are
+ * reported by {@link #missing(BenchmarkBaseline)}, so that an empty or stale
+ * baseline fails the run rather than silently passing it.
+ */
+public class BenchmarkBaseline {
+
+    final Map<String, Map<String, Double>> throughput;
+
+    public BenchmarkBaseline() {
+        this(new TreeMap<String, Map<String, Double>>());
+    }
+
+    BenchmarkBaseline(Map<String, Map<String, Double>> throughput) {
+        this.throughput = throughput;
+    }
+
+    public static BenchmarkBaseline load(File f) throws IOException {
+        if (!f.exists() || f.length() == 0) {
+            return new BenchmarkBaseline();
+        }
+        Map<String, Map<String, Double>> m = new ObjectMapper().readValue(f,
+                new TypeReference<TreeMap<String, LinkedHashMap<String, Double>>>() {});
+        return new BenchmarkBaseline(m);
+    }
+
+    public void save(File f) throws IOException {
+        if (f.getParentFile() != null) {
+            f.getParentFile().mkdirs();
+        }
+        new ObjectMapper().writeValue(f, throughput);
+    }
+
+    public synchronized void record(String scale, String stage, double recordsPerSecond) {
+        Map<String, Double> stages = throughput.get(scale);
+        if (stages == null) {
+            stages = new LinkedHashMap<String, Double>();
+            throughput.put(scale, stages);
+        }
+        stages.put(stage, recordsPerSecond);
+    }
+
+    public Double get(String scale, String stage) {
+        Map<String, Double> stages = throughput.get(scale);
+        return stages == null ? null : stages.get(stage);
+    }
+
+    /**
+     * @return "scale stage" for every measured stage of "current" which has
+     * no usable number in this baseline.
+     */
+    public List<String> missing(BenchmarkBaseline current) {
+        List<String> missing = new ArrayList<String>();
+        for (Map.Entry<String, Map<String, Double>> scale : current.throughput.entrySet()) {
+            for (Map.Entry<String, Double> stage : scale.getValue().entrySet()) {
+                Double base = get(scale.getKey(), stage.getKey());
+                if (stage.getValue() >= 0 && (base == null || base <= 0)) {
+                    missing.add(scale.getKey() + " " + stage.getKey());
+                }
+            }
+        }
+        return missing;
+    }
+
+    /**
+     * @return a human readable line for every stage of "current" which is
+     * slower than this baseline by more than the threshold.
+     */
+    public List<String> regressions(BenchmarkBaseline current, double threshold) {
+        List<String> slow = new ArrayList<String>();
+        for (Map.Entry<String, Map<String, Double>> scale : current.throughput.entrySet()) {
+            for (Map.Entry<String, Double> stage : scale.getValue().entrySet()) {
+                Double base = get(scale.getKey(), stage.getKey());
+                if (base == null || base <= 0 || stage.getValue() < 0) {
+                    continue;
+                }
+                double drop = 1d - stage.getValue() / base;
+                if (drop > threshold) {
+                    slow.add(String.format(
+                            "%s %s : %.1f rec/s vs baseline %.1f rec/s (%.0f%% slower, threshold %.0f%%)",
+                            scale.getKey(), stage.getKey(), stage.getValue(), base,
+                            drop * 100, threshold * 100));
+                }
+            }
+        }
+        return slow;
+    }
+}
@@ -0,0 +1,174 @@
+package org.bigtop.bigpetstore.integration;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.crunch.impl.mr.MRPipeline;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.pig.ExecType;
+import org.bigtop.bigpetstore.etl.CrunchETL;
+import org.bigtop.bigpetstore.etl.PigCSVCleaner;
+import org.bigtop.bigpetstore.generator.BPSGenerator;
+import org.bigtop.bigpetstore.util.BigPetStoreConstants;
+import org.bigtop.bigpetstore.util.PipelineMetrics;
+import org.bigtop.bigpetstore.util.PipelineMetrics.STAGE;
+import org.bigtop.bigpetstore.util.StageMetrics;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs the workflow (generator -> pig cleaner -> crunch statistics) at one or
+ * more scales, in local mode, and compares the per-stage throughput against a
+ * stored baseline.
+ *
+ * System properties:
+ *
+ *  bigpetstore.benchmark.scales : comma separated, any of 1MB,1GB,10GB
+ *    (default 1MB, the bigger ones take a long time on a laptop).
+ *  bigpetstore.benchmark.baseline : baseline json
+ *    (default src/integration/resources/bigpetstore-benchmark-baseline.json)
+ *  bigpetstore.benchmark.threshold : allowed slowdown as a fraction (default .25)
+ *
+ * The measured numbers are always written to
+ * target/bigpetstore-benchmark-results.json. To accept them as the new
+ * baseline, just copy that file over the baseline.
+ *
+ * Run with : mvn verify -P benchmark
+ */
+@RunWith(Parameterized.class)
+public class BigPetStoreBenchmarkIT {
+
+    final static Logger log = LoggerFactory.getLogger(BigPetStoreBenchmarkIT.class);
+
+    /**
+     * Roughly 100 bytes per generated record (see {@link BPSGenerator}).
+     */
+    public enum SCALE {
+        ONE_MB("1MB", 10000),
+        ONE_GB("1GB", 10000000),
+        TEN_GB("10GB", 100000000);
+
+        final String label;
+        final int records;
+
+        private SCALE(String label, int records) {
+            this.label = label;
+            this.records = records;
+        }
+
+        static SCALE of(String label) {
+            for (SCALE s : values()) {
+                if (s.label.equalsIgnoreCase(label.trim())) {
+                    return s;
+                }
+            }
+            throw new IllegalArgumentException("Unknown benchmark scale " + label);
+        }
+    }
+
+    static final File BASELINE = new File(System.getProperty(
+            "bigpetstore.benchmark.baseline",
+            "src/integration/resources/bigpetstore-benchmark-baseline.json"));
+    static final File RESULTS = new File("target/bigpetstore-benchmark-results.json");
+    static final double THRESHOLD = Double.parseDouble(
+            System.getProperty("bigpetstore.benchmark.threshold", ".25"));
+
+    static BenchmarkBaseline baseline;
+    static BenchmarkBaseline results = new BenchmarkBaseline();
+
+    @Parameters
+    public static Collection<Object[]> scales() {
+        List<Object[]> scales = new ArrayList<Object[]>();
+        for (String s : System.getProperty("bigpetstore.benchmark.scales", "1MB").split(",")) {
+            scales.add(new Object[] { SCALE.of(s) });
+        }
+        return scales;
+    }
+
+    final SCALE scale;
+
+    public BigPetStoreBenchmarkIT(SCALE scale) {
+        this.scale = scale;
+    }
+
+    @BeforeClass
+    public static void loadBaseline() throws Exception {
+        baseline = BenchmarkBaseline.load(BASELINE);
+    }
+
+    @AfterClass
+    public static void saveResults() throws Exception {
+        results.save(RESULTS);
+        log.info("Benchmark results written to " + RESULTS.getAbsolutePath());
+    }
+
+    @Test
+    public void testWorkflowThroughput() throws Exception {
+        Configuration conf = new Configuration();
+        ITUtils.checkConf(conf);
+        FileSystem fs = FileSystem.getLocal(conf);
+
+        Path base = fs.makeQualified(new Path("bps_benchmark_", scale.label));
+        Path generated = new Path(base, BigPetStoreConstants.OUTPUTS.generated.name());
+        Path cleaned = new Path(base, BigPetStoreConstants.OUTPUTS.cleaned.name());
+        fs.delete(base, true);
+
+        // 1) generate
+        conf.setInt(BPSGenerator.props.bigpetstore_records.name(), scale.records);
+        StageMetrics gen = PipelineMetrics.start(STAGE.generator);
+        Job job = BPSGenerator.createJob(generated, conf);
+        Assert.assertTrue("generator failed", job.waitForCompletion(true));
+        gen.addJobCounters(job).bytesOut(generated, conf).stop();
+        record(gen);
+
+        // 2) clean (pig, local mode)
+        new PigCSVCleaner(generated, cleaned, ExecType.LOCAL);
+        record(PipelineMetrics.get().latest(STAGE.pig_cleaner));
+
+        // 3) statistics (crunch): the load and both aggregations are the one
+        // crunch_etl stage. The bigger scales dont fit in a MemPipeline, so
+        // this runs as local mapreduce jobs over every part file of the generator.
+        CrunchETL crunch = new CrunchETL(new MRPipeline(CrunchETL.class, conf),
+                generated, "part-*");
+        crunch.numberOfTransactionsByState();
+        crunch.numberOfProductsByProduct();
+        record(PipelineMetrics.get().latest(STAGE.crunch_etl));
+
+        List<String> missing = baseline.missing(results);
+        Assert.assertTrue("No baseline for " + missing + " : run the benchmark on the "
+                + "reference machine and copy " + RESULTS + " over " + BASELINE,
+                missing.isEmpty());
+        List<String> slow = baseline.regressions(results, THRESHOLD);
+        for (String s : slow) {
+            log.warn("REGRESSION " + s);
+        }
+        Assert.assertTrue("Throughput regressions : " + slow, slow.isEmpty());
+    }
+
+    void record(StageMetrics m) {
+        record(m.getStage().name(), m.getWallMillis());
+    }
+
+    /**
+     * Every stage processes the same generated transactions, so throughput is
+     * reported as generated records per second of that stage.
+     */
+    void record(String stage, long wallMillis) {
+        double rps = wallMillis <= 0 ? -1 : scale.records * 1000d / wallMillis;
+        log.info(String.format("BENCHMARK %s %s : %d ms, %.1f rec/s",
+                scale.label, stage, wallMillis, rps));
+        results.record(scale.label, stage, rps);
+    }
+}
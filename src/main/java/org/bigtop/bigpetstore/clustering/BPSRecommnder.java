@@ -1,12 +1,15 @@
 package org.bigtop.bigpetstore.clustering;
 
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.mahout.cf.taste.hadoop.item.RecommenderJob;
 import org.apache.mahout.cf.taste.hadoop.preparation.PreparePreferenceMatrixJob;
 import org.apache.pig.builtin.LOG;
 import org.bigtop.bigpetstore.util.DeveloperTools;
+import org.bigtop.bigpetstore.util.PipelineMetrics;
+import org.bigtop.bigpetstore.util.StageMetrics;
 
 /**
  * Implement user based collab filter.
@@ -39,6 +42,9 @@ public class BPSRecommnder implements Tool {
 
         System.out.println("Runnning recommender against : " + args[0] +" -> " + args[1]);
 
+        StageMetrics metrics = PipelineMetrics.start(PipelineMetrics.STAGE.mahout_recommender)
+                .bytesIn(new Path(args[0]), conf);
+
         RecommenderJob recommenderJob = new RecommenderJob();
         /**
         int x = ToolRunner.run(getConf(), new BPSPreparePreferenceMatrixJob(), new String[]{
@@ -63,6 +69,7 @@ public class BPSRecommnder implements Tool {
         });
         
         System.out.println("Exit of recommender: " + ret);
+        metrics.bytesOut(new Path(args[1]), conf).stop();
         return ret;
     }
 
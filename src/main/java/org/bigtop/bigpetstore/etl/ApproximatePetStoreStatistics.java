@@ -0,0 +1,219 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.bigtop.bigpetstore.contract.PetStoreStatistics;
+import org.bigtop.bigpetstore.etl.TransactionSketches.Stratum;
+
+import com.google.common.base.Predicate;
+
+/**
+ * Approximate {@link PetStoreStatistics}, answered only from the
+ * {@link TransactionSketches} stored with the data, never from the
+ * transactions themselves.
+ *
+ * Every answer comes with an error bound, see {@link Estimate}. Sample based
+ * answers use the normal approximation at 95%; sketch based answers use the
+ * count-min bound at the sketches confidence (~99% with depth 5).
+ */
+public class ApproximatePetStoreStatistics extends PetStoreStatistics {
+
+    static final double Z_95 = 1.96;
+
+    /**
+     * value +/- error, with the given confidence. For count-min answers the
+     * error is one sided : the true value is in [value - error, value].
+     */
+    public static class Estimate {
+        public final String key;
+        public final double value;
+        public final double error;
+        public final double confidence;
+
+        public Estimate(String key, double value, double error, double confidence) {
+            this.key = key;
+            this.value = value;
+            this.error = error;
+            this.confidence = confidence;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s=%.1f +/- %.1f (%.0f%%)", key, value, error, confidence * 100);
+        }
+    }
+
+    static final Comparator<Estimate> LARGEST_FIRST = new Comparator<Estimate>() {
+        @Override
+        public int compare(Estimate a, Estimate b) {
+            return Double.compare(b.value, a.value);
+        }
+    };
+
+    final TransactionSketches sketches;
+
+    public ApproximatePetStoreStatistics(TransactionSketches sketches) {
+        this.sketches = sketches;
+    }
+
+    /**
+     * Loads the sketches stored in a data directory, building them first
+     * (with {@link SketchBuilder}) if they arent there yet.
+     */
+    public static ApproximatePetStoreStatistics forData(Path data, Configuration conf) throws Exception {
+        TransactionSketches s = TransactionSketches.load(data, conf);
+        if (s == null) {
+            s = SketchBuilder.build(data, conf);
+        }
+        return new ApproximatePetStoreStatistics(s);
+    }
+
+    /**
+     * Estimated number of transactions matching a predicate, in one state (or
+     * all states, for null), from the stratified sample.
+     */
+    public Estimate count(String state, Predicate<LineItem> predicate) {
+        double value = 0;
+        double variance = 0;
+        for (Map.Entry<String, Stratum> e : sketches.strata.entrySet()) {
+            if (state != null && !state.equals(e.getKey())) {
+                continue;
+            }
+            Stratum s = e.getValue();
+            List<LineItem> sample = s.lineItems();
+            int n = sample.size();
+            if (n == 0) {
+                continue;
+            }
+            int hits = 0;
+            for (LineItem li : sample) {
+                if (predicate.apply(li)) {
+                    hits++;
+                }
+            }
+            double N = s.population;
+            double p = (double) hits / n;
+            value += N * p;
+            // finite population correction : an exhaustive stratum has no error.
+            double fpc = n >= N ? 0 : (N - n) / (N - 1);
+            variance += n > 1 ? N * N * fpc * p * (1 - p) / (n - 1) : 0;
+        }
+        return new Estimate(state == null ? "*" : state, value, Z_95 * Math.sqrt(variance), .95);
+    }
+
+    /**
+     * Products estimated from the sample, with error bounds.
+     */
+    public List<Estimate> productEstimates() {
+        Map<String, double[]> acc = new HashMap<String, double[]>();
+        for (Stratum s : sketches.strata.values()) {
+            List<LineItem> sample = s.lineItems();
+            int n = sample.size();
+            if (n == 0) {
+                continue;
+            }
+            Map<String, Integer> hits = new HashMap<String, Integer>();
+            for (LineItem li : sample) {
+                Integer h = hits.get(li.getDescription());
+                hits.put(li.getDescription(), h == null ? 1 : h + 1);
+            }
+            double N = s.population;
+            double fpc = n >= N ? 0 : (N - n) / (N - 1);
+            for (Map.Entry<String, Integer> h : hits.entrySet()) {
+                double p = (double) h.getValue() / n;
+                double[] valueAndVariance = acc.get(h.getKey());
+                if (valueAndVariance == null) {
+                    valueAndVariance = new double[2];
+                    acc.put(h.getKey(), valueAndVariance);
+                }
+                valueAndVariance[0] += N * p;
+                valueAndVariance[1] += n > 1 ? N * N * fpc * p * (1 - p) / (n - 1) : 0;
+            }
+        }
+        List<Estimate> estimates = new ArrayList<Estimate>();
+        for (Map.Entry<String, double[]> e : acc.entrySet()) {
+            estimates.add(new Estimate(e.getKey(), e.getValue()[0],
+                    Z_95 * Math.sqrt(e.getValue()[1]), .95));
+        }
+        Collections.sort(estimates, LARGEST_FIRST);
+        return estimates;
+    }
+
+    /**
+     * Top products of a state, overall (month < 0) or in one month (yyyyMM),
+     * from the count-min sketches.
+     */
+    public List<Estimate> topProducts(String state, int month, int n) {
+        Stratum s = sketches.strata.get(state);
+        List<Estimate> estimates = new ArrayList<Estimate>();
+        if (s == null) {
+            return estimates;
+        }
+        boolean allTime = month < 0;
+        double error = allTime ?
+                sketches.stateProduct.errorBound() :
+                sketches.stateProductMonth.errorBound();
+        double confidence = sketches.stateProduct.confidence();
+        for (String product : s.products) {
+            String key = state + TransactionSketches.SEP + product;
+            long count = allTime ?
+                    sketches.stateProduct.estimate(key) :
+                    sketches.stateProductMonth.estimate(key + TransactionSketches.SEP + month);
+            if (count > 0) {
+                estimates.add(new Estimate(product, count, error, confidence));
+            }
+        }
+        Collections.sort(estimates, LARGEST_FIRST);
+        return estimates.subList(0, Math.min(n, estimates.size()));
+    }
+
+    /**
+     * Distinct customers in a state (or overall, for null), from HyperLogLog.
+     */
+    public Estimate distinctCustomers(String state) {
+        if (state == null) {
+            long c = sketches.customers.cardinality();
+            return new Estimate("*", c, Z_95 * c * sketches.customers.standardError(), .95);
+        }
+        Stratum s = sketches.strata.get(state);
+        if (s == null) {
+            return new Estimate(state, 0, 0, 1);
+        }
+        long c = s.customers.cardinality();
+        return new Estimate(state, c, Z_95 * c * s.customers.standardError(), .95);
+    }
+
+    /**
+     * Exact : the population of each stratum is counted, not sampled.
+     */
+    @Override
+    public Map<String, ? extends Number> numberOfTransactionsByState()
+            throws Exception {
+        Map<String, Long> m = new HashMap<String, Long>();
+        for (Map.Entry<String, Stratum> e : sketches.strata.entrySet()) {
+            m.put(e.getKey(), e.getValue().population);
+        }
+        return m;
+    }
+
+    /**
+     * Rounded sample estimates, see {@link #productEstimates()} for the
+     * error bounds.
+     */
+    @Override
+    public Map<String, ? extends Number> numberOfProductsByProduct()
+            throws Exception {
+        Map<String, Long> m = new HashMap<String, Long>();
+        for (Estimate e : productEstimates()) {
+            m.put(e.key, Math.round(e.value));
+        }
+        return m;
+    }
+}
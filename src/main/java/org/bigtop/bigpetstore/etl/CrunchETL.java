@@ -1,5 +1,6 @@
 package org.bigtop.bigpetstore.etl;
 
+import java.util.HashMap;
 import java.util.Map;
 
 import org.apache.crunch.FilterFn;
@@ -16,6 +17,8 @@ import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.bigtop.bigpetstore.contract.PetStoreStatistics;
+import org.bigtop.bigpetstore.util.PipelineMetrics;
+import org.bigtop.bigpetstore.util.StageMetrics;
 
 public class CrunchETL extends PetStoreStatistics {
 
@@ -38,16 +41,40 @@ public class CrunchETL extends PetStoreStatistics {
         } 
     };
 
+    final Pipeline pipeline;
+    final Path input;
     PCollection<LineItem> lineItems;
+    Map<String, Long> byState;
+    Map<String, Long> byProduct;
 
     public CrunchETL(Path input, Path output) throws Exception {
-        Pipeline pipeline = MemPipeline.getInstance();
+        this(MemPipeline.getInstance(), input, "part-r-00000");
+    }
+
+    /**
+     * Reads the files of the input directory matching the pattern with the
+     * given pipeline, i.e. an MRPipeline and "part-*" for inputs which dont
+     * fit in memory (the MemPipeline doesnt expand globs).
+     *
+     * Nothing is read here : crunch plans are lazy, see {@link #run()}.
+     */
+    public CrunchETL(Pipeline pipeline, Path input, String files) throws Exception {
+        this.pipeline = pipeline;
+        this.input = input;
         PCollection<String> lines = pipeline.read(From.textFile(new Path(input,
-                "part-r-00000")));
+                files)));
         System.out.println("crunch : " + lines.getName() + "  "
                 + lines.getSize());
         lineItems = lines.parallelDo(ETL, Avros.reflects(LineItem.class));
+    }
 
+    /**
+     * Approximate mode, for exploratory dashboards : answers come from the
+     * sample and sketches stored with the data (built on first use) rather
+     * than from every line item. See {@link ApproximatePetStoreStatistics}.
+     */
+    public static ApproximatePetStoreStatistics approximate(Path input) throws Exception {
+        return ApproximatePetStoreStatistics.forData(input, new Configuration());
     }
 
     public static MapFn ETL = new MapFn<String, LineItem>() {
@@ -63,25 +90,62 @@ public class CrunchETL extends PetStoreStatistics {
         }
     };
 
+    /**
+     * Runs both aggregations in one pipeline run, the first time either is
+     * asked for, and records it as the crunch_etl stage : that run is where
+     * the input is actually read.
+     */
+    synchronized void run() throws Exception {
+        if (byState != null) {
+            return;
+        }
+        StageMetrics metrics = PipelineMetrics.start(PipelineMetrics.STAGE.crunch_etl)
+                .bytesIn(input, new Configuration());
+        // count() is combined map side, so skewed states (CA, NY) dont
+        // overload the reducer they hash to.
+        PTable<String, Long> states = lineItems.parallelDo(COUNT_BY_STATE,
+                Avros.strings()).count();
+        PTable<String, Long> products = lineItems.parallelDo(COUNT_BY_PRODUCT,
+                Avros.strings()).count();
+        // materialize() is lazy, so both counts share the one run (and the
+        // one read of the input).
+        Iterable<Pair<String, Long>> stateCounts = states.materialize();
+        Iterable<Pair<String, Long>> productCounts = products.materialize();
+        pipeline.run();
+        byState = toMap(stateCounts);
+        byProduct = toMap(productCounts);
+        // every line item is counted once per state.
+        long records = 0;
+        for (Long c : byState.values()) {
+            records += c;
+        }
+        metrics.recordsIn(records)
+                .recordsOut(byState.size() + byProduct.size())
+                .stop();
+    }
+
+    static Map<String, Long> toMap(Iterable<Pair<String, Long>> counts) {
+        Map<String, Long> m = new HashMap<String, Long>();
+        for (Pair<String, Long> p : counts) {
+            m.put(p.first(), p.second());
+        }
+        return m;
+    }
+
     @Override
     public Map<String, ? extends Number> numberOfTransactionsByState()
             throws Exception {
-        PTable<String, Long> counts = lineItems.parallelDo(COUNT_BY_STATE,
-                Avros.strings()).count();
-        Map m = counts.materializeToMap();
-        
-        System.out.println("Crunch:::  " + m);
-        return m;
+        run();
+        System.out.println("Crunch:::  " + byState);
+        return byState;
     }
 
     @Override
     public Map<String, ? extends Number> numberOfProductsByProduct()
             throws Exception {
-        PTable<String, Long> counts = lineItems.parallelDo(COUNT_BY_PRODUCT,
-                Avros.strings()).count();
-        Map m = counts.materializeToMap();
-        //CrunchETL. System.out.println("Crunch:::  " + m);
-        return m;
+        run();
+        //CrunchETL. System.out.println("Crunch:::  " + byProduct);
+        return byProduct;
     }
 
     public static void main(String... args) throws Exception {
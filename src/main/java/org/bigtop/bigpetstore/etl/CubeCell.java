@@ -0,0 +1,61 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * One cell of the statistics cube : the number of transactions and the
+ * revenue for a (state, product, day).
+ */
+public class CubeCell implements Writable {
+
+    long count;
+    double revenue;
+
+    public CubeCell() {
+    }
+
+    public CubeCell(long count, double revenue) {
+        this.count = count;
+        this.revenue = revenue;
+    }
+
+    public void set(long count, double revenue) {
+        this.count = count;
+        this.revenue = revenue;
+    }
+
+    public void add(CubeCell other) {
+        this.count += other.count;
+        this.revenue += other.revenue;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public double getRevenue() {
+        return revenue;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVLong(out, count);
+        out.writeDouble(revenue);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        count = WritableUtils.readVLong(in);
+        revenue = in.readDouble();
+    }
+
+    @Override
+    public String toString() {
+        return count + "," + revenue;
+    }
+}
@@ -0,0 +1,186 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.bigtop.bigpetstore.contract.PetStoreStatistics;
+
+/**
+ * {@link PetStoreStatistics} answered from the pre-aggregated cube written by
+ * {@link StatisticsCubeBuilder}, rather than from the raw line items.
+ *
+ * The whole cube is loaded once into parallel arrays (it is a few thousand
+ * cells), and every query is a single in memory pass over them, so dashboard
+ * calls take milliseconds.
+ */
+public class CubePetStoreStatistics extends PetStoreStatistics {
+
+    String[] states;
+    String[] products;
+    int[] days;
+    long[] counts;
+    double[] revenues;
+    int size;
+
+    public CubePetStoreStatistics(Path cube) throws IOException {
+        this(cube, new Configuration());
+    }
+
+    public CubePetStoreStatistics(Path cube, Configuration conf) throws IOException {
+        states = new String[1024];
+        products = new String[1024];
+        days = new int[1024];
+        counts = new long[1024];
+        revenues = new double[1024];
+
+        // intern dimension values so the arrays share one String per value.
+        Map<String, String> dims = new HashMap<String, String>();
+
+        FileSystem fs = FileSystem.get(cube.toUri(), conf);
+        FileStatus[] parts = fs.listStatus(cube);
+        Arrays.sort(parts);
+        Text key = new Text();
+        CubeCell cell = new CubeCell();
+        for (FileStatus part : parts) {
+            if (!part.getPath().getName().startsWith("part-")) {
+                continue;
+            }
+            MapFile.Reader reader = new MapFile.Reader(fs, part.getPath().toString(), conf);
+            try {
+                while (reader.next(key, cell)) {
+                    String[] k = key.toString().split(String.valueOf(StatisticsCubeBuilder.SEP));
+                    add(intern(dims, k[0]), intern(dims, k[1]), Integer.parseInt(k[2]), cell);
+                }
+            }
+            finally {
+                reader.close();
+            }
+        }
+    }
+
+    static String intern(Map<String, String> dims, String s) {
+        String i = dims.get(s);
+        if (i == null) {
+            dims.put(s, s);
+            i = s;
+        }
+        return i;
+    }
+
+    void add(String state, String product, int day, CubeCell cell) {
+        if (size == counts.length) {
+            int n = size * 2;
+            states = Arrays.copyOf(states, n);
+            products = Arrays.copyOf(products, n);
+            days = Arrays.copyOf(days, n);
+            counts = Arrays.copyOf(counts, n);
+            revenues = Arrays.copyOf(revenues, n);
+        }
+        states[size] = state;
+        products[size] = product;
+        days[size] = day;
+        counts[size] = cell.getCount();
+        revenues[size] = cell.getRevenue();
+        size++;
+    }
+
+    /**
+     * Number of cells in the cube.
+     */
+    public int size() {
+        return size;
+    }
+
+    boolean matches(int i, String state, String product, int fromDay, int toDay) {
+        return (state == null || state.equals(states[i]))
+                && (product == null || product.equals(products[i]))
+                && days[i] >= fromDay && days[i] <= toDay;
+    }
+
+    /**
+     * Transactions matching a slice of the cube. Null state/product means
+     * "all", days are inclusive yyyyMMdd.
+     */
+    public long count(String state, String product, int fromDay, int toDay) {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            if (matches(i, state, product, fromDay, toDay)) {
+                total += counts[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Revenue of a slice of the cube, see {@link #count}.
+     */
+    public double revenue(String state, String product, int fromDay, int toDay) {
+        double total = 0;
+        for (int i = 0; i < size; i++) {
+            if (matches(i, state, product, fromDay, toDay)) {
+                total += revenues[i];
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Rolls the cube up to one dimension (states or products), keeping the
+     * cells inside the given slice.
+     */
+    Map<String, Long> rollupCounts(String[] dimension, String state, String product,
+            int fromDay, int toDay) {
+        Map<String, Long> m = new HashMap<String, Long>();
+        for (int i = 0; i < size; i++) {
+            if (matches(i, state, product, fromDay, toDay)) {
+                Long c = m.get(dimension[i]);
+                m.put(dimension[i], c == null ? counts[i] : c + counts[i]);
+            }
+        }
+        return m;
+    }
+
+    Map<String, Double> rollupRevenue(String[] dimension) {
+        Map<String, Double> m = new HashMap<String, Double>();
+        for (int i = 0; i < size; i++) {
+            Double r = m.get(dimension[i]);
+            m.put(dimension[i], r == null ? revenues[i] : r + revenues[i]);
+        }
+        return m;
+    }
+
+    /**
+     * Products sold in one state (or all states, for null) between two days.
+     */
+    public Map<String, Long> productsByState(String state, int fromDay, int toDay) {
+        return rollupCounts(products, state, null, fromDay, toDay);
+    }
+
+    public Map<String, Double> revenueByState() {
+        return rollupRevenue(states);
+    }
+
+    public Map<String, Double> revenueByProduct() {
+        return rollupRevenue(products);
+    }
+
+    @Override
+    public Map<String, ? extends Number> numberOfTransactionsByState()
+            throws Exception {
+        return rollupCounts(states, null, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public Map<String, ? extends Number> numberOfProductsByProduct()
+            throws Exception {
+        return rollupCounts(products, null, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+}
@@ -0,0 +1,93 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/**
+ * Map output key of {@link CustomerTimelineBuilder} : (customer, time), for a
+ * secondary sort. It sorts by customer then time, but hashes (so partitions)
+ * by customer only, and {@link GroupingComparator} groups by customer only,
+ * so each reduce call gets all of a customers purchases, in time order.
+ */
+public class CustomerTimeKey implements WritableComparable<CustomerTimeKey> {
+
+    final Text customer = new Text();
+    long time;
+
+    public CustomerTimeKey() {
+    }
+
+    public void set(String customer, long time) {
+        this.customer.set(customer);
+        this.time = time;
+    }
+
+    public Text getCustomer() {
+        return customer;
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        customer.write(out);
+        out.writeLong(time);
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        customer.readFields(in);
+        time = in.readLong();
+    }
+
+    @Override
+    public int compareTo(CustomerTimeKey o) {
+        int c = customer.compareTo(o.customer);
+        if (c != 0) {
+            return c;
+        }
+        return time < o.time ? -1 : (time == o.time ? 0 : 1);
+    }
+
+    /**
+     * Customer only, so the default HashPartitioner sends every purchase of a
+     * customer to the same reducer.
+     */
+    @Override
+    public int hashCode() {
+        return customer.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof CustomerTimeKey && compareTo((CustomerTimeKey) o) == 0;
+    }
+
+    /**
+     * The partition of a customer, the same as HashPartitioner computes for
+     * its keys.
+     */
+    public static int partition(String customer, int partitions) {
+        return (new Text(customer).hashCode() & Integer.MAX_VALUE) % partitions;
+    }
+
+    public static class GroupingComparator extends WritableComparator {
+
+        public GroupingComparator() {
+            super(CustomerTimeKey.class, true);
+        }
+
+        @SuppressWarnings("rawtypes")
+        @Override
+        public int compare(WritableComparable a, WritableComparable b) {
+            return ((CustomerTimeKey) a).customer.compareTo(((CustomerTimeKey) b).customer);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MultipleOutputs;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.bigtop.bigpetstore.util.DeveloperTools;
+
+/**
+ * Builds the customer purchase history store read by
+ * {@link CustomerTimelineStore} : one {@link PurchaseTimeline} per customer.
+ *
+ * Customers are grouped with a secondary sort on {@link CustomerTimeKey}, so
+ * each reduce call gets one customers purchases already in time order.
+ * Each reducer numbers its customers densely, and the customer id is
+ *
+ * (reducer partition << 40) | (n-th customer of that partition)
+ *
+ * so ids increase within a partition, and the partition (i.e. the file) of
+ * an id is id >>> 40. The output directory holds two MapFiles per partition :
+ *
+ * part-r-0000N : customer id -> PurchaseTimeline
+ * names-r-0000N : "state \t fname \t lname" -> customer id
+ *
+ * hadoop jar bigpetstore.jar org.bigtop.bigpetstore.etl.CustomerTimelineBuilder bps/generated bps/CUSTOMER_TIMELINES
+ */
+public class CustomerTimelineBuilder implements Tool {
+
+    public static final String NAMES = "names";
+
+    public static final int PARTITION_SHIFT = 40;
+
+    public static long customerId(int partition, long n) {
+        return ((long) partition << PARTITION_SHIFT) | n;
+    }
+
+    public static int partitionOf(long customerId) {
+        return (int) (customerId >>> PARTITION_SHIFT);
+    }
+
+    public static String customer(String state, String firstName, String lastName) {
+        return state + StatisticsCubeBuilder.SEP + firstName + StatisticsCubeBuilder.SEP + lastName;
+    }
+
+    public static class TimelineMapper extends Mapper<LongWritable, Text, CustomerTimeKey, Text> {
+
+        final CustomerTimeKey key = new CustomerTimeKey();
+        final Text purchase = new Text();
+
+        @Override
+        protected void map(LongWritable offset, Text line, Context context)
+                throws IOException, InterruptedException {
+            LineItem li = LineItem.parse(line.toString());
+            if (li == null) {
+                context.getCounter(StatisticsCubeBuilder.COUNTERS.malformed_lines).increment(1);
+                return;
+            }
+            key.set(customer(li.getState(), li.getFirstName(), li.getLastName()), li.getTimestamp());
+            purchase.set(li.getDescription() + StatisticsCubeBuilder.SEP + li.getPrice());
+            context.write(key, purchase);
+        }
+    }
+
+    public static class TimelineReducer extends Reducer<CustomerTimeKey, Text, LongWritable, PurchaseTimeline> {
+
+        final LongWritable id = new LongWritable();
+        final Text name = new Text();
+        final PurchaseTimeline timeline = new PurchaseTimeline();
+        MultipleOutputs<LongWritable, PurchaseTimeline> names;
+        int partition;
+        long customers;
+
+        @Override
+        protected void setup(Context context) {
+            partition = context.getTaskAttemptID().getTaskID().getId();
+            names = new MultipleOutputs<LongWritable, PurchaseTimeline>(context);
+        }
+
+        @Override
+        protected void reduce(CustomerTimeKey key, Iterable<Text> purchases, Context context)
+                throws IOException, InterruptedException {
+            String customer = key.getCustomer().toString();
+            timeline.clear(customer);
+            // the key is updated along with each value : key.time is the
+            // time of the current purchase.
+            for (Text purchase : purchases) {
+                String p = purchase.toString();
+                int tab = p.lastIndexOf(StatisticsCubeBuilder.SEP);
+                timeline.add(key.getTime(), p.substring(0, tab), Double.parseDouble(p.substring(tab + 1)));
+            }
+            id.set(customerId(partition, customers++));
+            name.set(customer);
+            context.write(id, timeline);
+            names.write(NAMES, name, id);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            names.close();
+        }
+    }
+
+    public static Job createJob(Path input, Path output, Configuration conf)
+            throws IOException {
+        Job job = new Job(conf, "PetStore_Customer_Timelines_" + System.currentTimeMillis());
+        FileSystem.get(output.toUri(), conf).delete(output, true);
+        job.setJarByClass(CustomerTimelineBuilder.class);
+        job.setMapperClass(TimelineMapper.class);
+        job.setReducerClass(TimelineReducer.class);
+        job.setGroupingComparatorClass(CustomerTimeKey.GroupingComparator.class);
+        job.setMapOutputKeyClass(CustomerTimeKey.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setOutputKeyClass(LongWritable.class);
+        job.setOutputValueClass(PurchaseTimeline.class);
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setOutputFormatClass(MapFileOutputFormat.class);
+        MultipleOutputs.addNamedOutput(job, NAMES, MapFileOutputFormat.class, Text.class, LongWritable.class);
+        FileInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    Configuration conf;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        DeveloperTools.validate(args, "transactions directory", "output directory");
+        Job job = createJob(new Path(args[0]), new Path(args[1]), conf == null ? new Configuration() : conf);
+        return job.waitForCompletion(true) ? 0 : 1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new CustomerTimelineBuilder(), args));
+    }
+}
@@ -0,0 +1,148 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+
+/**
+ * Point and range lookups into the store written by
+ * {@link CustomerTimelineBuilder}. A lookup is one MapFile seek : the
+ * partition (file) of a customer id is in its top bits, and the partition of
+ * a customer name is its hash, as for the shuffle.
+ *
+ * Not thread safe (MapFile readers arent).
+ */
+public class CustomerTimelineStore implements Closeable {
+
+    final MapFile.Reader[] timelines;
+    final MapFile.Reader[] names;
+
+    public CustomerTimelineStore(Path store, Configuration conf) throws IOException {
+        FileSystem fs = FileSystem.get(store.toUri(), conf);
+        timelines = open(fs, store, "part-r-", 0, conf);
+        // MultipleOutputs only creates the names of a partition when it has
+        // any : there are as many partitions as timelines files.
+        names = open(fs, store, CustomerTimelineBuilder.NAMES + "-r-", timelines.length, conf);
+    }
+
+    /**
+     * Readers of the MapFiles with a prefix, indexed by the partition number
+     * in their name (prefix00003 is partition 3). Missing partitions are null,
+     * i.e. empty.
+     */
+    static MapFile.Reader[] open(FileSystem fs, Path store, String prefix, int partitions,
+            Configuration conf) throws IOException {
+        TreeMap<Integer, Path> parts = new TreeMap<Integer, Path>();
+        for (FileStatus s : fs.listStatus(store)) {
+            String name = s.getPath().getName();
+            if (name.startsWith(prefix)) {
+                try {
+                    parts.put(Integer.parseInt(name.substring(prefix.length())), s.getPath());
+                }
+                catch (NumberFormatException e) {
+                    throw new IOException("Not a partition of " + store + " : " + name);
+                }
+            }
+        }
+        int n = parts.isEmpty() ? partitions : Math.max(partitions, parts.lastKey() + 1);
+        MapFile.Reader[] readers = new MapFile.Reader[n];
+        for (Map.Entry<Integer, Path> e : parts.entrySet()) {
+            readers[e.getKey()] = new MapFile.Reader(fs, e.getValue().toString(), conf);
+        }
+        return readers;
+    }
+
+    public int partitions() {
+        return timelines.length;
+    }
+
+    /**
+     * The timeline of a customer id, or null.
+     */
+    public PurchaseTimeline get(long customerId) throws IOException {
+        int p = CustomerTimelineBuilder.partitionOf(customerId);
+        if (p >= timelines.length || timelines[p] == null) {
+            return null;
+        }
+        PurchaseTimeline t = new PurchaseTimeline();
+        return timelines[p].get(new LongWritable(customerId), t) == null ? null : t;
+    }
+
+    /**
+     * The id of a customer, or -1.
+     */
+    public long idOf(String state, String firstName, String lastName) throws IOException {
+        if (names.length == 0) {
+            return -1;
+        }
+        String customer = CustomerTimelineBuilder.customer(state, firstName, lastName);
+        LongWritable id = new LongWritable();
+        MapFile.Reader r = names[CustomerTimeKey.partition(customer, names.length)];
+        return r == null || r.get(new Text(customer), id) == null ? -1 : id.get();
+    }
+
+    /**
+     * The timeline of a customer, by name, or null.
+     */
+    public PurchaseTimeline get(String state, String firstName, String lastName) throws IOException {
+        long id = idOf(state, firstName, lastName);
+        return id < 0 ? null : get(id);
+    }
+
+    /**
+     * Timelines of the ids in [fromId, toId), in id order. Ids are dense
+     * within a partition, so a range is typically a slice of one partition,
+     * i.e. a seek and a sequential read.
+     */
+    public List<PurchaseTimeline> range(long fromId, long toId) throws IOException {
+        List<PurchaseTimeline> result = new ArrayList<PurchaseTimeline>();
+        int last = Math.min(timelines.length - 1, CustomerTimelineBuilder.partitionOf(toId));
+        for (int p = CustomerTimelineBuilder.partitionOf(fromId); p <= last; p++) {
+            MapFile.Reader r = timelines[p];
+            if (r == null) {
+                continue;
+            }
+            LongWritable id = new LongWritable(Math.max(fromId, CustomerTimelineBuilder.customerId(p, 0)));
+            PurchaseTimeline t = new PurchaseTimeline();
+            LongWritable found = (LongWritable) r.getClosest(id, t);
+            if (found == null) {
+                continue;
+            }
+            id.set(found.get());
+            // getClosest positions the reader right after the entry it found.
+            while (id.get() < toId) {
+                result.add(t);
+                t = new PurchaseTimeline();
+                if (!r.next(id, t)) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (MapFile.Reader r : timelines) {
+            if (r != null) {
+                r.close();
+            }
+        }
+        for (MapFile.Reader r : names) {
+            if (r != null) {
+                r.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.bigtop.bigpetstore.util.DeveloperTools;
+import org.bigtop.bigpetstore.util.TimestampCodec;
+
+/**
+ * Writes the date dimension : one precomputed row per calendar day, so that
+ * time based grouping (by month, by week, weekends...) is a join on
+ * date_key, or a filter on its columns, rather than per row date parsing.
+ *
+ * date_key   iso_date    year quarter month day day_of_week iso_week weekend epoch_day
+ * 19700110   1970-01-10  1970 1       1     10  6           2        1       9
+ *
+ * date_key is the yyyyMMdd day used everywhere else (see
+ * {@link TimestampCodec#dayKey} and the statistics cube), day_of_week is
+ * ISO (monday = 1). The range defaults to the generators dates (which are
+ * within ~25 days of the epoch).
+ *
+ * hadoop jar bigpetstore.jar org.bigtop.bigpetstore.etl.DateDimension bps/DATE_DIMENSION [19691201 19700131]
+ */
+public class DateDimension implements Tool {
+
+    public static final String TABLE = "date_dim";
+
+    public static final int DEFAULT_FROM = 19691201;
+    public static final int DEFAULT_TO = 19700131;
+
+    static long epochDayOfKey(int dayKey) {
+        return TimestampCodec.epochDay(dayKey / 10000, dayKey / 100 % 100, dayKey % 100);
+    }
+
+    /**
+     * ISO day of week, monday = 1 ... sunday = 7. The epoch was a thursday.
+     */
+    static int dayOfWeek(long epochDay) {
+        return (int) ((epochDay % 7 + 7 + 3) % 7) + 1;
+    }
+
+    static int isoWeeksInYear(int year) {
+        int jan1 = dayOfWeek(TimestampCodec.epochDay(year, 1, 1));
+        boolean leap = (year % 4 == 0 && year % 100 != 0) || year % 400 == 0;
+        return jan1 == 4 || (leap && jan1 == 3) ? 53 : 52;
+    }
+
+    static int isoWeek(long epochDay, int year) {
+        int dayOfYear = (int) (epochDay - TimestampCodec.epochDay(year, 1, 1)) + 1;
+        int week = (dayOfYear - dayOfWeek(epochDay) + 10) / 7;
+        if (week < 1) {
+            return isoWeeksInYear(year - 1);
+        }
+        if (week > isoWeeksInYear(year)) {
+            return 1;
+        }
+        return week;
+    }
+
+    /**
+     * The tab separated row of one day.
+     */
+    public static String row(long epochDay) {
+        int key = TimestampCodec.dayKeyOfEpochDay(epochDay);
+        int year = key / 10000;
+        int month = key / 100 % 100;
+        int day = key % 100;
+        int dow = dayOfWeek(epochDay);
+        String iso = TimestampCodec.format(epochDay * 86400000L).substring(0, 10);
+        return key + "\t" + iso + "\t" + year + "\t" + ((month - 1) / 3 + 1) + "\t" + month
+                + "\t" + day + "\t" + dow + "\t" + isoWeek(epochDay, year)
+                + "\t" + (dow >= 6 ? 1 : 0) + "\t" + epochDay;
+    }
+
+    /**
+     * Writes the rows of [fromDay, toDay] (inclusive, yyyyMMdd) to
+     * output/part-00000.
+     *
+     * @return the number of days written.
+     */
+    public static int write(Path output, int fromDay, int toDay, Configuration conf)
+            throws IOException {
+        FileSystem fs = FileSystem.get(output.toUri(), conf);
+        fs.delete(output, true);
+        Writer w = new OutputStreamWriter(fs.create(new Path(output, "part-00000")), "UTF-8");
+        int days = 0;
+        try {
+            for (long d = epochDayOfKey(fromDay); d <= epochDayOfKey(toDay); d++) {
+                w.write(row(d));
+                w.write('\n');
+                days++;
+            }
+        }
+        finally {
+            w.close();
+        }
+        return days;
+    }
+
+    /**
+     * Registers the written dimension as an external hive table.
+     */
+    public static void createHiveTable(Statement stmt, Path location) throws SQLException {
+        stmt.execute("DROP TABLE IF EXISTS " + TABLE);
+        stmt.execute("CREATE EXTERNAL TABLE " + TABLE + " ("
+                + "  date_key INT,"
+                + "  iso_date STRING,"
+                + "  year INT,"
+                + "  quarter INT,"
+                + "  month INT,"
+                + "  day INT,"
+                + "  day_of_week INT,"
+                + "  iso_week INT,"
+                + "  weekend INT,"
+                + "  epoch_day BIGINT"
+                + ") ROW FORMAT "
+                + "DELIMITED FIELDS TERMINATED BY '\t' "
+                + "LINES TERMINATED BY '\n' "
+                + "STORED AS TEXTFILE "
+                + "LOCATION '" + location + "'");
+    }
+
+    Configuration conf;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        DeveloperTools.validate(args, "output directory");
+        int from = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_FROM;
+        int to = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_TO;
+        int days = write(new Path(args[0]), from, to, conf == null ? new Configuration() : conf);
+        System.out.println("Wrote " + days + " days to " + args[0]);
+        return 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new DateDimension(), args));
+    }
+}
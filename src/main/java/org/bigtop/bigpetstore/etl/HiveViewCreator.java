@@ -14,6 +14,8 @@ import org.apache.hadoop.io.Text;
 import org.apache.hadoop.util.Tool;
 import org.bigtop.bigpetstore.util.BigPetStoreConstants;
 import org.bigtop.bigpetstore.util.NumericalIdUtils;
+import org.bigtop.bigpetstore.util.PipelineMetrics;
+import org.bigtop.bigpetstore.util.StageMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -70,16 +72,26 @@ public class HiveViewCreator implements Tool {
      * Input args:
      *  Cleaned data files from pig (tsv)
      *  Ouptut table (desired path to mahout input data set)
-     *  
+     *  Optionally, the date dimension directory (see {@link DateDimension}),
+     *  written there if it doesnt exist yet and registered as a table, for
+     *  time based queries : the cleaned dates are ISO-8601 UTC, so
+     *  "join date_dim on substr(date,1,10) = iso_date" needs no date parsing.
      */
     @Override
     public int run(String[] args) throws Exception {
         Statement stmt = getConnection();
+        // states are very skewed (CA 30%, NY 20%...) : group by state in two
+        // stages, the first one spreading each key randomly over reducers.
+        stmt.execute("SET hive.groupby.skewindata=true");
+        stmt.execute("SET hive.optimize.skewjoin=true");
         stmt.execute("DROP TABLE IF EXISTS " + BigPetStoreConstants.OUTPUTS.MAHOUT_CF_IN.name());
         System.out.println("input data " + args[0]);
         System.out.println("output table " + args[1]);
         
         Path inTablePath =  new Path(args[0]);
+        Configuration metricsConf = conf == null ? new Configuration() : conf;
+        StageMetrics metrics = PipelineMetrics.start(PipelineMetrics.STAGE.hive_view)
+                .bytesIn(inTablePath, metricsConf);
         String inTableName = "cleaned"+System.currentTimeMillis();
         String outTableName = BigPetStoreConstants.OUTPUTS.MAHOUT_CF_IN.name();
         
@@ -101,6 +113,14 @@ public class HiveViewCreator implements Tool {
                 + "LOCATION '"+inTablePath+"'";
         boolean res = stmt.execute(create);
         System.out.println("Execute return code : " +res);
+        if (args.length > 2) {
+            Path dateDim = new Path(args[2]);
+            if (! FileSystem.get(dateDim.toUri(), metricsConf).exists(dateDim)) {
+                DateDimension.write(dateDim, DateDimension.DEFAULT_FROM, DateDimension.DEFAULT_TO, metricsConf);
+            }
+            DateDimension.createHiveTable(stmt, dateDim);
+            System.out.println("DATE DIMENSION : " + DateDimension.TABLE + " at " + dateDim);
+        }
         //will change once we add hashes into pig ETL clean
         String create2 = 
                 "create table "+outTableName+" as "+
@@ -116,6 +136,7 @@ public class HiveViewCreator implements Tool {
         
         stmt.execute(finalOutput);
         System.out.println("FINAL OUTPUT STORED : " + outTablePath);
+        metrics.bytesOut(outTablePath, metricsConf).stop();
         return 0;
     }
 
@@ -2,10 +2,13 @@ package org.bigtop.bigpetstore.etl;
 
 import java.io.Serializable;
 
+import org.bigtop.bigpetstore.util.StringUtils;
+import org.bigtop.bigpetstore.util.TimestampCodec;
+
 public class LineItem implements Serializable {
 
     public LineItem(String appName, String storeCode, Integer lineId,
-            String firstName, String lastName, String timestamp, Double price,
+            String firstName, String lastName, long timestamp, Double price,
             String description) {
         super();
         this.appName = appName;
@@ -23,7 +26,8 @@ public class LineItem implements Serializable {
     Integer lineId;
     String firstName;
     String lastName;
-    String timestamp;
+    // epoch millis, see TimestampCodec
+    long timestamp;
     Double price;
     String description;
 
@@ -71,11 +75,11 @@ public class LineItem implements Serializable {
         this.lastName = lastName;
     }
 
-    public String getTimestamp() {
+    public long getTimestamp() {
         return timestamp;
     }
 
-    public void setTimestamp(String timestamp) {
+    public void setTimestamp(long timestamp) {
         this.timestamp = timestamp;
     }
 
@@ -95,5 +99,43 @@ public class LineItem implements Serializable {
         this.description = description;
     }
 
+    /**
+     * The state code, i.e. "AK" for store code "storeCode_AK".
+     */
+    public String getState() {
+        return storeCode == null ? null : StringUtils.substringAfter(storeCode, "_");
+    }
+
+    /**
+     * Parses one transaction, either as written by the generator
+     *
+     * BigPetStore,storeCode_AK,1  lindsay,franco,1970-01-10T05:11:10Z,10.5,dog-food
+     *
+     * (key and value separated by a tab) or as cleaned by pig (all 8 fields
+     * tab separated). Returns null for lines which dont have 8 fields. Legacy
+     * Date.toString() timestamps are still accepted, see {@link TimestampCodec}.
+     */
+    public static LineItem parse(String line) {
+        String[] fields = line.split("[\t,]");
+        if (fields.length != 8) {
+            return null;
+        }
+        try {
+            return new LineItem(
+                    fields[0],
+                    fields[1],
+                    Integer.parseInt(fields[2].trim()),
+                    fields[3],
+                    fields[4],
+                    TimestampCodec.parse(fields[5]),
+                    Double.parseDouble(fields[6]),
+                    fields[7]);
+        }
+        catch (IllegalArgumentException e) {
+            // NumberFormatException, or a bad timestamp
+            return null;
+        }
+    }
+
     // other constructors, parsers, etc.
 }
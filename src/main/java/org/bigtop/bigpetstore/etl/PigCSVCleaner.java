@@ -13,9 +13,13 @@ import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.pig.ExecType;
 import org.apache.pig.PigServer;
+import org.apache.pig.backend.executionengine.ExecJob;
+import org.apache.pig.tools.pigstats.PigStats;
 import org.bigtop.bigpetstore.util.BigPetStoreConstants;
 import org.bigtop.bigpetstore.util.DeveloperTools;
 import org.bigtop.bigpetstore.util.NumericalIdUtils;
+import org.bigtop.bigpetstore.util.PipelineMetrics;
+import org.bigtop.bigpetstore.util.StageMetrics;
 
 /**
  * This class operates by ETL'ing the dataset into pig.
@@ -40,20 +44,21 @@ public class PigCSVCleaner  {
         if(fs.exists(outputPath)){
             throw new RuntimeException("OUTPUT already exists : " + outputPath);
         }
+        StageMetrics metrics = PipelineMetrics.start(PipelineMetrics.STAGE.pig_cleaner)
+                .bytesIn(inputPath, fs.getConf());
+
         // run pig in local mode
         pigServer = new PigServer(ex);
 
         /**
          * First, split the tabs up.
          * 
-         * BigPetStore,storeCode_OK,2 yang,jay,Mon Dec 15 23:33:49 EST
-         * 1969,69.56,flea collar
+         * BigPetStore,storeCode_OK,2 yang,jay,1969-12-16T04:33:49Z,69.56,flea collar
          * 
          * ("BigPetStore,storeCode_OK,2",
-         * "yang,jay,Mon Dec 15 23:33:49 EST 1969,69.56,flea collar")
+         * "yang,jay,1969-12-16T04:33:49Z,69.56,flea collar")
          * 
-         * BigPetStore,storeCode_AK,1 amanda,fitzgerald,Sat Dec 20 09:44:25 EET
-         * 1969,7.5,cat-food
+         * BigPetStore,storeCode_AK,1 amanda,fitzgerald,1969-12-20T07:44:25Z,7.5,cat-food
          */
         pigServer.registerQuery("csvdata = LOAD '<i>' AS (ID,DETAILS);"
                 .replaceAll("<i>", inputPath.toString()));
@@ -74,7 +79,15 @@ public class PigCSVCleaner  {
                             "(lname, fname, date, price," +
                             "product:chararray);");
 
-        pigServer.store("id_details", outputPath.toString());
+        ExecJob job = pigServer.store("id_details", outputPath.toString());
+        PigStats stats = job.getStatistics();
+        if (stats != null) {
+            metrics.recordsOut(stats.getRecordWritten());
+            if (stats.getInputStats() != null && ! stats.getInputStats().isEmpty()) {
+                metrics.recordsIn(stats.getInputStats().get(0).getNumberRecords());
+            }
+        }
+        metrics.bytesOut(outputPath, fs.getConf()).stop();
         
         /**
          * Now we run scripts... this is where you can add some 
@@ -0,0 +1,178 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * All purchases of one customer, sorted by time.
+ *
+ * Stored compactly : times as vlong deltas from the previous purchase,
+ * products as indexes into a per-customer dictionary (a customer buys a
+ * handful of distinct products, many times), prices as vlong cents. A
+ * purchase is typically 5-7 bytes, instead of the ~60 of a text line.
+ */
+public class PurchaseTimeline implements Writable {
+
+    String customer;
+    final List<String> products = new ArrayList<String>();
+    final Map<String, Integer> productIndex = new HashMap<String, Integer>();
+    long[] times = new long[16];
+    int[] productIds = new int[16];
+    long[] cents = new long[16];
+    int size;
+
+    public PurchaseTimeline() {
+    }
+
+    public void clear(String customer) {
+        this.customer = customer;
+        products.clear();
+        productIndex.clear();
+        size = 0;
+    }
+
+    /**
+     * Appends a purchase, which must not be earlier than the last one.
+     */
+    public void add(long time, String product, double price) {
+        if (size > 0 && time < times[size - 1]) {
+            throw new IllegalArgumentException("Purchases must be added in time order");
+        }
+        if (size == times.length) {
+            grow(size * 2);
+        }
+        Integer p = productIndex.get(product);
+        if (p == null) {
+            p = products.size();
+            products.add(product);
+            productIndex.put(product, p);
+        }
+        times[size] = time;
+        productIds[size] = p;
+        cents[size] = Math.round(price * 100);
+        size++;
+    }
+
+    void grow(int n) {
+        times = Arrays.copyOf(times, n);
+        productIds = Arrays.copyOf(productIds, n);
+        cents = Arrays.copyOf(cents, n);
+    }
+
+    /**
+     * "state \t fname \t lname"
+     */
+    public String getCustomer() {
+        return customer;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    public String getProduct(int i) {
+        return products.get(productIds[i]);
+    }
+
+    public double getPrice(int i) {
+        return cents[i] / 100.0;
+    }
+
+    /**
+     * Distinct products, in order of first purchase.
+     */
+    public List<String> getProducts() {
+        return products;
+    }
+
+    public double totalSpent() {
+        long total = 0;
+        for (int i = 0; i < size; i++) {
+            total += cents[i];
+        }
+        return total / 100.0;
+    }
+
+    /**
+     * Index of the first purchase at or after a time (size() if none).
+     */
+    public int indexOf(long time) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (times[mid] < time) {
+                lo = mid + 1;
+            }
+            else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Number of purchases in [from, to).
+     */
+    public int count(long from, long to) {
+        return Math.max(0, indexOf(to) - indexOf(from));
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        Text.writeString(out, customer);
+        WritableUtils.writeVInt(out, products.size());
+        for (String p : products) {
+            Text.writeString(out, p);
+        }
+        WritableUtils.writeVInt(out, size);
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            WritableUtils.writeVLong(out, times[i] - previous);
+            previous = times[i];
+            WritableUtils.writeVInt(out, productIds[i]);
+            WritableUtils.writeVLong(out, cents[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        clear(Text.readString(in));
+        int n = WritableUtils.readVInt(in);
+        for (int i = 0; i < n; i++) {
+            String p = Text.readString(in);
+            productIndex.put(p, products.size());
+            products.add(p);
+        }
+        size = WritableUtils.readVInt(in);
+        if (size > times.length) {
+            grow(size);
+        }
+        long previous = 0;
+        for (int i = 0; i < size; i++) {
+            previous += WritableUtils.readVLong(in);
+            times[i] = previous;
+            productIds[i] = WritableUtils.readVInt(in);
+            cents[i] = WritableUtils.readVLong(in);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return customer + " : " + size + " purchases, " + totalSpent();
+    }
+}
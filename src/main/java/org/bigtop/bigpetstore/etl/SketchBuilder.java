@@ -0,0 +1,146 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.bigtop.bigpetstore.util.DeveloperTools;
+import org.bigtop.bigpetstore.util.TimestampCodec;
+
+/**
+ * Builds the {@link TransactionSketches} for a directory of transactions and
+ * stores them inside that directory, as {@link TransactionSketches#FILE} (and
+ * as text in {@link TransactionSketches#TEXT_DIR}, for pig).
+ *
+ * Each mapper sketches its split in memory and emits one sketch when it is
+ * done; a single reducer merges them. Only (number of maps) sketches are
+ * shuffled, never the transactions.
+ *
+ * hadoop jar bigpetstore.jar org.bigtop.bigpetstore.etl.SketchBuilder bps/generated
+ */
+public class SketchBuilder implements Tool {
+
+    public static class SketchMapper extends Mapper<LongWritable, Text, NullWritable, TransactionSketches> {
+
+        TransactionSketches sketches;
+
+        @Override
+        protected void setup(Context context) {
+            sketches = new TransactionSketches(context.getConfiguration());
+        }
+
+        @Override
+        protected void map(LongWritable offset, Text value, Context context) {
+            String line = value.toString();
+            LineItem li = LineItem.parse(line);
+            if (li == null) {
+                context.getCounter(StatisticsCubeBuilder.COUNTERS.malformed_lines).increment(1);
+                return;
+            }
+            sketches.add(li, line, TimestampCodec.monthKey(li.getTimestamp()));
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            context.write(NullWritable.get(), sketches);
+        }
+    }
+
+    public static class SketchReducer extends Reducer<NullWritable, TransactionSketches, NullWritable, TransactionSketches> {
+
+        @Override
+        protected void reduce(NullWritable key, Iterable<TransactionSketches> partials, Context context)
+                throws IOException, InterruptedException {
+            TransactionSketches merged = new TransactionSketches(context.getConfiguration());
+            for (TransactionSketches partial : partials) {
+                merged.merge(partial);
+            }
+            context.write(key, merged);
+        }
+    }
+
+    public static Job createJob(Path input, Path tmpOutput, Configuration conf) throws IOException {
+        Job job = new Job(conf, "PetStoreTransaction_Sketches_" + System.currentTimeMillis());
+        FileSystem.get(tmpOutput.toUri(), conf).delete(tmpOutput, true);
+        job.setJarByClass(SketchBuilder.class);
+        job.setMapperClass(SketchMapper.class);
+        job.setReducerClass(SketchReducer.class);
+        job.setNumReduceTasks(1);
+        job.setMapOutputKeyClass(NullWritable.class);
+        job.setMapOutputValueClass(TransactionSketches.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(TransactionSketches.class);
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setOutputFormatClass(SequenceFileOutputFormat.class);
+        FileInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, tmpOutput);
+        return job;
+    }
+
+    /**
+     * Runs the job and stores the merged sketches next to the data.
+     */
+    public static TransactionSketches build(Path input, Configuration conf) throws Exception {
+        Path tmp = new Path(input.getParent(), "_sketches_tmp_" + System.currentTimeMillis());
+        FileSystem fs = FileSystem.get(input.toUri(), conf);
+        try {
+            Job job = createJob(input, tmp, conf);
+            if (!job.waitForCompletion(true)) {
+                throw new IOException("Sketch job failed for " + input);
+            }
+            SequenceFile.Reader reader = new SequenceFile.Reader(fs, new Path(tmp, "part-r-00000"), conf);
+            TransactionSketches sketches = new TransactionSketches();
+            try {
+                if (!reader.next(NullWritable.get(), sketches)) {
+                    // no input at all.
+                    sketches = new TransactionSketches(conf);
+                }
+            }
+            finally {
+                reader.close();
+            }
+            sketches.save(input, conf);
+            return sketches;
+        }
+        finally {
+            fs.delete(tmp, true);
+        }
+    }
+
+    Configuration conf;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        DeveloperTools.validate(args, "transactions directory");
+        build(new Path(args[0]), conf == null ? new Configuration() : conf);
+        return 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new SketchBuilder(), args));
+    }
+}
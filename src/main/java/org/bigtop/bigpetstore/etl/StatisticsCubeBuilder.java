@@ -0,0 +1,137 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.MapFileOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.bigtop.bigpetstore.util.DeveloperTools;
+import org.bigtop.bigpetstore.util.PipelineMetrics;
+import org.bigtop.bigpetstore.util.StageMetrics;
+import org.bigtop.bigpetstore.util.TimestampCodec;
+
+/**
+ * Materializes the statistics cube that {@link CubePetStoreStatistics} answers
+ * from : one cell (count, revenue) per (state, product, day).
+ *
+ * Input is the generated (or pig cleaned) transactions. Output is a MapFile
+ * keyed by "state \t product \t yyyyMMdd", which is tiny compared to the
+ * transactions (50 states * a handful of products * days), so the website
+ * can load it and roll it up in memory.
+ *
+ * The skewed state weights dont unbalance the reducers here : CubeReducer
+ * is also the combiner, so a reducer gets one partial cell per map and key,
+ * not every CA transaction, and the cells of a state are hash partitioned
+ * over all the reducers.
+ *
+ * hadoop jar bigpetstore.jar org.bigtop.bigpetstore.etl.StatisticsCubeBuilder bps/generated bps/STATISTICS_CUBE
+ */
+public class StatisticsCubeBuilder implements Tool {
+
+    public enum COUNTERS {
+        malformed_lines
+    }
+
+    public static final char SEP = '\t';
+
+    public static String key(String state, String product, int day) {
+        return state + SEP + product + SEP + day;
+    }
+
+    public static class CubeMapper extends Mapper<LongWritable, Text, Text, CubeCell> {
+
+        final Text cubeKey = new Text();
+        final CubeCell cell = new CubeCell();
+
+        @Override
+        protected void map(LongWritable offset, Text line, Context context)
+                throws IOException, InterruptedException {
+            LineItem li = LineItem.parse(line.toString());
+            if (li == null) {
+                context.getCounter(COUNTERS.malformed_lines).increment(1);
+                return;
+            }
+            // the UTC day, i.e. 19700110, joins with DateDimension.date_key
+            int day = TimestampCodec.dayKey(li.getTimestamp());
+            cubeKey.set(key(li.getState(), li.getDescription(), day));
+            cell.set(1, li.getPrice());
+            context.write(cubeKey, cell);
+        }
+    }
+
+    /**
+     * Used as both combiner and reducer : cells just add up.
+     */
+    public static class CubeReducer extends Reducer<Text, CubeCell, Text, CubeCell> {
+
+        final CubeCell sum = new CubeCell();
+
+        @Override
+        protected void reduce(Text key, Iterable<CubeCell> cells, Context context)
+                throws IOException, InterruptedException {
+            sum.set(0, 0);
+            for (CubeCell c : cells) {
+                sum.add(c);
+            }
+            context.write(key, sum);
+        }
+    }
+
+    public static Job createJob(Path input, Path output, Configuration conf)
+            throws IOException {
+        Job job = new Job(conf, "PetStoreStatistics_Cube_" + System.currentTimeMillis());
+        FileSystem.get(output.toUri(), conf).delete(output, true);
+        job.setJarByClass(StatisticsCubeBuilder.class);
+        job.setMapperClass(CubeMapper.class);
+        job.setCombinerClass(CubeReducer.class);
+        job.setReducerClass(CubeReducer.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(CubeCell.class);
+        job.setOutputKeyClass(Text.class);
+        job.setOutputValueClass(CubeCell.class);
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setOutputFormatClass(MapFileOutputFormat.class);
+        FileInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    Configuration conf;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        DeveloperTools.validate(args, "transactions (generated or cleaned)", "cube output path");
+        Configuration c = conf == null ? new Configuration() : conf;
+        StageMetrics metrics = PipelineMetrics.start(PipelineMetrics.STAGE.statistics_cube)
+                .bytesIn(new Path(args[0]), c);
+        Job job = createJob(new Path(args[0]), new Path(args[1]), c);
+        boolean ok = job.waitForCompletion(true);
+        metrics.addJobCounters(job).bytesOut(new Path(args[1]), c).stop();
+        return ok ? 0 : 1;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new StatisticsCubeBuilder(), args));
+    }
+}
@@ -0,0 +1,442 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.hadoop.util.bloom.DynamicBloomFilter;
+import org.apache.hadoop.util.bloom.Key;
+import org.apache.hadoop.util.hash.Hash;
+import org.bigtop.bigpetstore.util.DeveloperTools;
+
+/**
+ * Drops replayed or duplicated transactions, i.e. a (storeCode, trans_id)
+ * already loaded, or repeated in the same load.
+ *
+ * Every transaction key ever loaded is remembered in a persistent state
+ * directory, in {@link #PARTITIONS} partitions (by hash of the key) :
+ *
+ * bloom/part-N : a DynamicBloomFilter of the keys of partition N.
+ * index/gen-G/part-N : a MapFile of the keys of partition N first loaded by
+ * load G. The exact index is generational, so a load only writes its own
+ * new keys and never rewrites (or shuffles) the history.
+ * _CURRENT : the last committed generation.
+ *
+ * Mappers load the bloom filters and tag each transaction "maybe seen" or
+ * "new"; they also drop the duplicates they see within their split. Each
+ * partition is owned by one reducer (see {@link DedupPartitioner}), which
+ * drops duplicates within the load, and confirm the (rare) maybe seen keys
+ * against the exact index, one MapFile seek per generation. Only the new
+ * load is shuffled. The new bloom filters and index generation are written
+ * aside, and only become current when the job succeeds (see
+ * {@link #commit}), so a failed load can simply be rerun.
+ *
+ * hadoop jar bigpetstore.jar org.bigtop.bigpetstore.etl.TransactionDeduplicator bps/generated bps/deduplicated bps/_dedup
+ */
+public class TransactionDeduplicator implements Tool {
+
+    public enum COUNTERS {
+        malformed_lines,
+        duplicates_in_split,
+        duplicates_in_load,
+        duplicates_in_history,
+        bloom_positives,
+        bloom_false_positives,
+        unique
+    }
+
+    public static final String STATE_DIR = "bigpetstore.dedup.state";
+    public static final String GENERATION = "bigpetstore.dedup.generation";
+    public static final String PARTITIONS = "bigpetstore.dedup.partitions";
+    public static final String BLOOM_VECTOR_SIZE = "bigpetstore.dedup.bloom.vector_size";
+    public static final String BLOOM_HASHES = "bigpetstore.dedup.bloom.hashes";
+    public static final String BLOOM_KEYS_PER_ROW = "bigpetstore.dedup.bloom.keys_per_row";
+    public static final String SPLIT_CACHE = "bigpetstore.dedup.split_cache";
+
+    static final String CURRENT = "_CURRENT";
+    static final char SEEN = '1';
+    static final char NEW = '0';
+
+    /**
+     * "storeCode_AK,1" : unique per transaction.
+     */
+    public static String key(LineItem li) {
+        return li.getStoreCode() + "," + li.getLineId();
+    }
+
+    public static int partition(Text key, int partitions) {
+        return (key.hashCode() & Integer.MAX_VALUE) % partitions;
+    }
+
+    static Path bloom(Path state, int partition) {
+        return new Path(state, "bloom/part-" + partition);
+    }
+
+    static Path pendingBloom(Path state, int generation, int partition) {
+        return new Path(state, "bloom/_gen-" + generation + "/part-" + partition);
+    }
+
+    static Path index(Path state, int generation, int partition) {
+        return new Path(state, "index/gen-" + generation + "/part-" + partition);
+    }
+
+    /**
+     * The last committed generation, 0 if nothing was ever loaded.
+     */
+    public static int currentGeneration(Path state, Configuration conf) throws IOException {
+        Path f = new Path(state, CURRENT);
+        FileSystem fs = FileSystem.get(f.toUri(), conf);
+        if (!fs.exists(f)) {
+            return 0;
+        }
+        FSDataInputStream in = fs.open(f);
+        try {
+            return Integer.parseInt(IOUtils.toString(new InputStreamReader(in, "UTF-8")).trim());
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    static DynamicBloomFilter newBloomFilter(Configuration conf) {
+        return new DynamicBloomFilter(
+                conf.getInt(BLOOM_VECTOR_SIZE, 1 << 20),
+                conf.getInt(BLOOM_HASHES, 7),
+                Hash.MURMUR_HASH,
+                conf.getInt(BLOOM_KEYS_PER_ROW, 100000));
+    }
+
+    /**
+     * The committed filter of a partition, or null if it has none yet.
+     */
+    static DynamicBloomFilter loadBloomFilter(Path state, int partition, Configuration conf)
+            throws IOException {
+        Path f = bloom(state, partition);
+        FileSystem fs = FileSystem.get(f.toUri(), conf);
+        if (!fs.exists(f)) {
+            return null;
+        }
+        FSDataInputStream in = fs.open(f);
+        try {
+            DynamicBloomFilter filter = new DynamicBloomFilter();
+            filter.readFields(in);
+            return filter;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    static Key bloomKey(Text key) {
+        return new Key(key.copyBytes());
+    }
+
+    public static class DedupMapper extends Mapper<LongWritable, Text, Text, Text> {
+
+        DynamicBloomFilter[] filters;
+        Map<String, Boolean> recent;
+        final Text key = new Text();
+        final Text value = new Text();
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            final Configuration conf = context.getConfiguration();
+            Path state = new Path(conf.get(STATE_DIR));
+            filters = new DynamicBloomFilter[conf.getInt(PARTITIONS, 16)];
+            for (int p = 0; p < filters.length; p++) {
+                filters[p] = loadBloomFilter(state, p, conf);
+            }
+            // the last keys of this split, to drop back to back replays
+            // without shuffling them.
+            final int cache = conf.getInt(SPLIT_CACHE, 10000);
+            recent = new LinkedHashMap<String, Boolean>(16, .75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+                    return size() > cache;
+                }
+            };
+        }
+
+        @Override
+        protected void map(LongWritable offset, Text line, Context context)
+                throws IOException, InterruptedException {
+            LineItem li = LineItem.parse(line.toString());
+            if (li == null) {
+                context.getCounter(COUNTERS.malformed_lines).increment(1);
+                return;
+            }
+            String k = key(li);
+            if (recent.put(k, Boolean.TRUE) != null) {
+                context.getCounter(COUNTERS.duplicates_in_split).increment(1);
+                return;
+            }
+            key.set(k);
+            DynamicBloomFilter filter = filters[partition(key, filters.length)];
+            boolean maybeSeen = filter != null && filter.membershipTest(bloomKey(key));
+            if (maybeSeen) {
+                context.getCounter(COUNTERS.bloom_positives).increment(1);
+            }
+            value.set((maybeSeen ? SEEN : NEW) + line.toString());
+            context.write(key, value);
+        }
+    }
+
+    /**
+     * Sends all the keys of state partition p to reducer p % reducers, so
+     * each partition's bloom filter and index are written by exactly one
+     * reducer, whatever the number of reducers.
+     */
+    public static class DedupPartitioner extends Partitioner<Text, Text> implements Configurable {
+
+        Configuration conf;
+        int partitions = 16;
+
+        @Override
+        public void setConf(Configuration conf) {
+            this.conf = conf;
+            partitions = conf.getInt(PARTITIONS, 16);
+        }
+
+        @Override
+        public Configuration getConf() {
+            return conf;
+        }
+
+        @Override
+        public int getPartition(Text key, Text value, int reducers) {
+            return partition(key, partitions) % reducers;
+        }
+    }
+
+    /**
+     * Handles the partitions {@link DedupPartitioner} gives it, opening their
+     * state lazily.
+     */
+    public static class DedupReducer extends Reducer<Text, Text, NullWritable, Text> {
+
+        class PartitionState {
+            final int partition;
+            DynamicBloomFilter filter;
+            final List<MapFile.Reader> history = new ArrayList<MapFile.Reader>();
+            MapFile.Writer index;
+
+            PartitionState(int partition) throws IOException {
+                this.partition = partition;
+                filter = loadBloomFilter(state, partition, conf);
+                if (filter == null) {
+                    filter = newBloomFilter(conf);
+                }
+                // newest first : replays are usually of recent loads.
+                for (int g = generation - 1; g > 0; g--) {
+                    Path p = index(state, g, partition);
+                    if (fs.exists(p)) {
+                        history.add(new MapFile.Reader(fs, p.toString(), conf));
+                    }
+                }
+                Path p = index(state, generation, partition);
+                fs.delete(p, true);
+                index = new MapFile.Writer(conf, fs, p.toString(), Text.class, NullWritable.class);
+            }
+
+            boolean inHistory(Text key) throws IOException {
+                for (MapFile.Reader r : history) {
+                    if (r.get(key, NullWritable.get()) != null) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+
+            void add(Text key) throws IOException {
+                filter.add(bloomKey(key));
+                index.append(key, NullWritable.get());
+            }
+
+            void close() throws IOException {
+                for (MapFile.Reader r : history) {
+                    r.close();
+                }
+                index.close();
+                FSDataOutputStream out = fs.create(pendingBloom(state, generation, partition), true);
+                try {
+                    filter.write(out);
+                }
+                finally {
+                    out.close();
+                }
+            }
+        }
+
+        Configuration conf;
+        FileSystem fs;
+        Path state;
+        int generation;
+        int partitions;
+        final Map<Integer, PartitionState> open = new HashMap<Integer, PartitionState>();
+        final Text line = new Text();
+
+        @Override
+        protected void setup(Context context) throws IOException {
+            conf = context.getConfiguration();
+            state = new Path(conf.get(STATE_DIR));
+            fs = FileSystem.get(state.toUri(), conf);
+            generation = conf.getInt(GENERATION, 1);
+            partitions = conf.getInt(PARTITIONS, 16);
+        }
+
+        @Override
+        protected void reduce(Text key, Iterable<Text> values, Context context)
+                throws IOException, InterruptedException {
+            int p = partition(key, partitions);
+            PartitionState ps = open.get(p);
+            if (ps == null) {
+                ps = new PartitionState(p);
+                open.put(p, ps);
+            }
+            boolean maybeSeen = false;
+            int copies = 0;
+            for (Text v : values) {
+                if (copies++ == 0) {
+                    line.set(v.getBytes(), 1, v.getLength() - 1);
+                }
+                maybeSeen |= v.charAt(0) == SEEN;
+            }
+            if (copies > 1) {
+                context.getCounter(COUNTERS.duplicates_in_load).increment(copies - 1);
+            }
+            if (maybeSeen) {
+                if (ps.inHistory(key)) {
+                    context.getCounter(COUNTERS.duplicates_in_history).increment(1);
+                    return;
+                }
+                context.getCounter(COUNTERS.bloom_false_positives).increment(1);
+            }
+            ps.add(key);
+            context.getCounter(COUNTERS.unique).increment(1);
+            context.write(NullWritable.get(), line);
+        }
+
+        @Override
+        protected void cleanup(Context context) throws IOException {
+            for (PartitionState ps : open.values()) {
+                ps.close();
+            }
+        }
+    }
+
+    /**
+     * A dedup job for the next generation of the state directory.
+     */
+    public static Job createJob(Path input, Path output, Path state, Configuration conf)
+            throws IOException {
+        int generation = currentGeneration(state, conf) + 1;
+        // left overs of a failed attempt at this generation.
+        FileSystem stateFs = FileSystem.get(state.toUri(), conf);
+        stateFs.delete(index(state, generation, 0).getParent(), true);
+        stateFs.delete(pendingBloom(state, generation, 0).getParent(), true);
+
+        Configuration c = new Configuration(conf);
+        c.set(STATE_DIR, state.toString());
+        c.setInt(GENERATION, generation);
+        // reducers write the new state as a side effect.
+        c.setBoolean("mapreduce.reduce.speculative", false);
+        Job job = new Job(c, "PetStoreTransaction_Dedup_" + System.currentTimeMillis());
+        FileSystem.get(output.toUri(), conf).delete(output, true);
+        job.setJarByClass(TransactionDeduplicator.class);
+        job.setMapperClass(DedupMapper.class);
+        job.setReducerClass(DedupReducer.class);
+        job.setPartitionerClass(DedupPartitioner.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(Text.class);
+        job.setOutputKeyClass(NullWritable.class);
+        job.setOutputValueClass(Text.class);
+        job.setInputFormatClass(TextInputFormat.class);
+        job.setOutputFormatClass(TextOutputFormat.class);
+        FileInputFormat.addInputPath(job, input);
+        FileOutputFormat.setOutputPath(job, output);
+        return job;
+    }
+
+    /**
+     * Makes the generation written by a successful job current : its bloom
+     * filters replace the old ones, and its index joins the history.
+     */
+    public static void commit(Job job) throws IOException {
+        Configuration conf = job.getConfiguration();
+        Path state = new Path(conf.get(STATE_DIR));
+        int generation = conf.getInt(GENERATION, 1);
+        FileSystem fs = FileSystem.get(state.toUri(), conf);
+        Path pending = pendingBloom(state, generation, 0).getParent();
+        if (fs.exists(pending)) {
+            for (FileStatus s : fs.listStatus(pending)) {
+                Path target = new Path(state, "bloom/" + s.getPath().getName());
+                fs.delete(target, false);
+                fs.rename(s.getPath(), target);
+            }
+            fs.delete(pending, true);
+        }
+        Writer w = new OutputStreamWriter(fs.create(new Path(state, CURRENT), true), "UTF-8");
+        try {
+            w.write(String.valueOf(generation));
+        }
+        finally {
+            w.close();
+        }
+    }
+
+    Configuration conf;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        DeveloperTools.validate(args, "transactions to load", "deduplicated output", "dedup state directory");
+        Job job = createJob(new Path(args[0]), new Path(args[1]), new Path(args[2]),
+                conf == null ? new Configuration() : conf);
+        if (!job.waitForCompletion(true)) {
+            return 1;
+        }
+        commit(job);
+        return 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new TransactionDeduplicator(), args));
+    }
+}
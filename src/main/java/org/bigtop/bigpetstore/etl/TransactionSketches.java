@@ -0,0 +1,330 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+import org.bigtop.bigpetstore.util.CountMinSketch;
+import org.bigtop.bigpetstore.util.HyperLogLog;
+import org.bigtop.bigpetstore.util.SketchHash;
+import org.bigtop.bigpetstore.util.TimestampCodec;
+
+import com.google.common.base.Charsets;
+
+/**
+ * Everything the approximate query mode needs, small enough (a few MB) to be
+ * stored next to the transactions as {@link #FILE} :
+ *
+ * 1) a stratified sample, one stratum per state, of at most
+ * {@link #SAMPLE_PER_STATE} transactions each, plus the exact population
+ * of each state.
+ *
+ * 2) count-min sketches of (state, product) and (state, product, month).
+ *
+ * 3) HyperLogLog counters of distinct customers, overall and per state.
+ *
+ * The sample is a "bottom-k" sample : each transaction gets a pseudo random
+ * priority from a hash of its (store, transaction id), and each stratum keeps
+ * the k lowest. That is a uniform sample without replacement, it is
+ * deterministic, and two samples merge by keeping the k lowest of both, so
+ * sketches built by different mappers (or different days) can be combined.
+ */
+public class TransactionSketches implements Writable {
+
+    /**
+     * Name of the sketch file, inside the data directory. The leading "_"
+     * keeps FileInputFormat from reading it as data.
+     */
+    public static final String FILE = "_sketches";
+
+    /**
+     * Directory, inside the data directory, of the tab separated copy of the
+     * sample and of the (state, product) counts, for pig (see
+     * BPS_analytics_approx.pig) :
+     *
+     * sample : state, population, sampled, then the 8 transaction fields.
+     *
+     * counts : state, product, count-min estimate, error bound, confidence.
+     */
+    public static final String TEXT_DIR = "_sketches_text";
+
+    public static final String SAMPLE_PER_STATE = "bigpetstore.sketch.sample_per_state";
+    public static final String CMS_WIDTH = "bigpetstore.sketch.cms_width";
+    public static final String CMS_DEPTH = "bigpetstore.sketch.cms_depth";
+    public static final String HLL_P = "bigpetstore.sketch.hll_p";
+
+    static final char SEP = '\t';
+
+    static class Sampled {
+        final double priority;
+        final String line;
+
+        Sampled(double priority, String line) {
+            this.priority = priority;
+            this.line = line;
+        }
+    }
+
+    static final Comparator<Sampled> HIGHEST_PRIORITY_FIRST = new Comparator<Sampled>() {
+        @Override
+        public int compare(Sampled a, Sampled b) {
+            return Double.compare(b.priority, a.priority);
+        }
+    };
+
+    /**
+     * The sample of one state.
+     */
+    static class Stratum {
+        long population;
+        final PriorityQueue<Sampled> sample;
+        final Set<String> products = new TreeSet<String>();
+        HyperLogLog customers;
+
+        Stratum(int k, int hllP) {
+            sample = new PriorityQueue<Sampled>(k + 1, HIGHEST_PRIORITY_FIRST);
+            customers = new HyperLogLog(hllP);
+        }
+
+        void offer(Sampled s, int k) {
+            if (sample.size() < k) {
+                sample.add(s);
+            }
+            else if (s.priority < sample.peek().priority) {
+                sample.poll();
+                sample.add(s);
+            }
+        }
+
+        List<LineItem> lineItems() {
+            List<LineItem> items = new ArrayList<LineItem>(sample.size());
+            for (Sampled s : sample) {
+                LineItem li = LineItem.parse(s.line);
+                if (li != null) {
+                    items.add(li);
+                }
+            }
+            return items;
+        }
+    }
+
+    int samplePerState;
+    int hllP;
+    CountMinSketch stateProduct;
+    CountMinSketch stateProductMonth;
+    HyperLogLog customers;
+    final Map<String, Stratum> strata = new TreeMap<String, Stratum>();
+
+    public TransactionSketches() {
+    }
+
+    public TransactionSketches(Configuration conf) {
+        this(conf.getInt(SAMPLE_PER_STATE, 1000),
+                conf.getInt(CMS_WIDTH, 2048),
+                conf.getInt(CMS_DEPTH, 5),
+                conf.getInt(HLL_P, 14));
+    }
+
+    public TransactionSketches(int samplePerState, int cmsWidth, int cmsDepth, int hllP) {
+        this.samplePerState = samplePerState;
+        this.hllP = hllP;
+        this.stateProduct = new CountMinSketch(cmsWidth, cmsDepth);
+        this.stateProductMonth = new CountMinSketch(cmsWidth, cmsDepth);
+        this.customers = new HyperLogLog(hllP);
+    }
+
+    Stratum stratum(String state) {
+        Stratum s = strata.get(state);
+        if (s == null) {
+            // per state customer counters are smaller than the global one.
+            s = new Stratum(samplePerState, Math.max(4, hllP - 4));
+            strata.put(state, s);
+        }
+        return s;
+    }
+
+    static String customer(LineItem li) {
+        return li.getState() + SEP + li.getFirstName() + SEP + li.getLastName();
+    }
+
+    static double priority(LineItem li) {
+        long h = SketchHash.hash64(li.getStoreCode() + SEP + li.getLineId());
+        // top 53 bits -> uniform double in [0,1)
+        return (h >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Adds one transaction. The month is yyyyMM.
+     */
+    public void add(LineItem li, String line, int month) {
+        String state = li.getState();
+        String product = li.getDescription();
+        Stratum s = stratum(state);
+        s.population++;
+        s.products.add(product);
+        s.offer(new Sampled(priority(li), line), samplePerState);
+        String cust = customer(li);
+        s.customers.offer(cust);
+        customers.offer(cust);
+        stateProduct.add(state + SEP + product, 1);
+        stateProductMonth.add(state + SEP + product + SEP + month, 1);
+    }
+
+    public void merge(TransactionSketches other) {
+        stateProduct.merge(other.stateProduct);
+        stateProductMonth.merge(other.stateProductMonth);
+        customers.merge(other.customers);
+        for (Map.Entry<String, Stratum> e : other.strata.entrySet()) {
+            Stratum mine = stratum(e.getKey());
+            Stratum theirs = e.getValue();
+            mine.population += theirs.population;
+            mine.products.addAll(theirs.products);
+            mine.customers.merge(theirs.customers);
+            for (Sampled s : theirs.sample) {
+                mine.offer(s, samplePerState);
+            }
+        }
+    }
+
+    public Set<String> states() {
+        return Collections.unmodifiableSet(strata.keySet());
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, samplePerState);
+        WritableUtils.writeVInt(out, hllP);
+        stateProduct.write(out);
+        stateProductMonth.write(out);
+        customers.write(out);
+        WritableUtils.writeVInt(out, strata.size());
+        for (Map.Entry<String, Stratum> e : strata.entrySet()) {
+            Stratum s = e.getValue();
+            Text.writeString(out, e.getKey());
+            WritableUtils.writeVLong(out, s.population);
+            WritableUtils.writeVInt(out, s.products.size());
+            for (String p : s.products) {
+                Text.writeString(out, p);
+            }
+            s.customers.write(out);
+            WritableUtils.writeVInt(out, s.sample.size());
+            for (Sampled sampled : s.sample) {
+                out.writeDouble(sampled.priority);
+                Text.writeString(out, sampled.line);
+            }
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        samplePerState = WritableUtils.readVInt(in);
+        hllP = WritableUtils.readVInt(in);
+        stateProduct = new CountMinSketch();
+        stateProduct.readFields(in);
+        stateProductMonth = new CountMinSketch();
+        stateProductMonth.readFields(in);
+        customers = new HyperLogLog();
+        customers.readFields(in);
+        strata.clear();
+        int states = WritableUtils.readVInt(in);
+        for (int i = 0; i < states; i++) {
+            Stratum s = stratum(Text.readString(in));
+            s.population = WritableUtils.readVLong(in);
+            int products = WritableUtils.readVInt(in);
+            for (int j = 0; j < products; j++) {
+                s.products.add(Text.readString(in));
+            }
+            s.customers.readFields(in);
+            int sampled = WritableUtils.readVInt(in);
+            for (int j = 0; j < sampled; j++) {
+                double priority = in.readDouble();
+                s.sample.add(new Sampled(priority, Text.readString(in)));
+            }
+        }
+    }
+
+    public static TransactionSketches load(Path data, Configuration conf) throws IOException {
+        Path f = new Path(data, FILE);
+        FileSystem fs = FileSystem.get(f.toUri(), conf);
+        if (!fs.exists(f)) {
+            return null;
+        }
+        FSDataInputStream in = fs.open(f);
+        try {
+            TransactionSketches s = new TransactionSketches();
+            s.readFields(in);
+            return s;
+        }
+        finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Stores the sketches as {@link #FILE}, and their text copy in
+     * {@link #TEXT_DIR}.
+     */
+    public void save(Path data, Configuration conf) throws IOException {
+        Path f = new Path(data, FILE);
+        FileSystem fs = FileSystem.get(f.toUri(), conf);
+        FSDataOutputStream out = fs.create(f, true);
+        try {
+            write(out);
+        }
+        finally {
+            out.close();
+        }
+        saveText(fs, new Path(data, TEXT_DIR));
+    }
+
+    void saveText(FileSystem fs, Path dir) throws IOException {
+        Writer sample = new OutputStreamWriter(fs.create(new Path(dir, "sample"), true), Charsets.UTF_8);
+        try {
+            for (Map.Entry<String, Stratum> e : strata.entrySet()) {
+                List<LineItem> items = e.getValue().lineItems();
+                String stratum = e.getKey() + SEP + e.getValue().population + SEP + items.size();
+                for (LineItem li : items) {
+                    sample.write(stratum + SEP + li.getAppName() + SEP + li.getStoreCode()
+                            + SEP + li.getLineId() + SEP + li.getFirstName() + SEP + li.getLastName()
+                            + SEP + TimestampCodec.format(li.getTimestamp()) + SEP + li.getPrice()
+                            + SEP + li.getDescription() + "\n");
+                }
+            }
+        }
+        finally {
+            sample.close();
+        }
+        Writer counts = new OutputStreamWriter(fs.create(new Path(dir, "counts"), true), Charsets.UTF_8);
+        try {
+            String bounds = SEP + String.valueOf(stateProduct.errorBound()) + SEP + stateProduct.confidence();
+            for (Map.Entry<String, Stratum> e : strata.entrySet()) {
+                for (String product : e.getValue().products) {
+                    String key = e.getKey() + SEP + product;
+                    counts.write(key + SEP + stateProduct.estimate(key) + bounds + "\n");
+                }
+            }
+        }
+        finally {
+            counts.close();
+        }
+    }
+}
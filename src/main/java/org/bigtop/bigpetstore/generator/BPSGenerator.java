@@ -15,6 +15,8 @@ import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
 import org.bigtop.bigpetstore.util.BigPetStoreConstants;
 import org.bigtop.bigpetstore.util.DeveloperTools;
+import org.bigtop.bigpetstore.util.PipelineMetrics;
+import org.bigtop.bigpetstore.util.StageMetrics;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -94,7 +96,12 @@ public class BPSGenerator {
             conf.setInt(
                     GeneratePetStoreTransactionsInputFormat.props.bigpetstore_records.name(), 
                     Integer.parseInt(args[0]));
-            createJob(new Path(args[1]), conf).waitForCompletion(true);
+            StageMetrics metrics = PipelineMetrics.start(PipelineMetrics.STAGE.generator);
+            Job job = createJob(new Path(args[1]), conf);
+            job.waitForCompletion(true);
+            metrics.addJobCounters(job)
+                .bytesOut(new Path(args[1]), conf)
+                .stop();
         }
     }
 
@@ -1,12 +1,12 @@
 package org.bigtop.bigpetstore.generator;
 
 
-import java.util.Date;
 import java.util.Iterator;
 import java.util.Random;
 
 import org.bigtop.bigpetstore.util.Pair;
 import org.bigtop.bigpetstore.util.StringUtils;
+import org.bigtop.bigpetstore.util.TimestampCodec;
 
 /**
  * This class generates our data. Over time we will use it to embed bias which
@@ -233,7 +233,7 @@ public class TransactionIteratorFactory {
                         ",",
                         fname,
                         lname,
-                        getDate().toString(),
+                        TimestampCodec.format(getTime()),
                         fudgePrice(product_price.getFirst(),
                                 product_price.getSecond())
                                 + "", product_price.getFirst()); // products are
@@ -298,8 +298,12 @@ public class TransactionIteratorFactory {
         return LASTNAMES[this.r.nextInt(LASTNAMES.length - 1)].toLowerCase();
     }
 
-    private Date getDate() {
-        return new Date(this.r.nextInt());
+    /**
+     * Epoch millis, written as ISO-8601 UTC so the data doesnt depend on the
+     * timezone of the generating JVM.
+     */
+    private long getTime() {
+        return this.r.nextInt();
     }
 
     private Integer getPrice() {
@@ -0,0 +1,387 @@
+package org.bigtop.bigpetstore.local;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.mahout.cf.taste.impl.common.FastByIDMap;
+import org.apache.mahout.cf.taste.impl.common.LongPrimitiveIterator;
+import org.apache.mahout.cf.taste.impl.model.GenericDataModel;
+import org.apache.mahout.cf.taste.impl.model.GenericUserPreferenceArray;
+import org.apache.mahout.cf.taste.impl.recommender.GenericItemBasedRecommender;
+import org.apache.mahout.cf.taste.impl.similarity.PearsonCorrelationSimilarity;
+import org.apache.mahout.cf.taste.model.DataModel;
+import org.apache.mahout.cf.taste.model.PreferenceArray;
+import org.apache.mahout.cf.taste.recommender.RecommendedItem;
+import org.apache.mahout.cf.taste.recommender.Recommender;
+import org.bigtop.bigpetstore.generator.TransactionIteratorFactory;
+import org.bigtop.bigpetstore.generator.TransactionIteratorFactory.KeyVal;
+import org.bigtop.bigpetstore.generator.TransactionIteratorFactory.STATE;
+import org.bigtop.bigpetstore.util.BigPetStoreConstants.OUTPUTS;
+import org.bigtop.bigpetstore.util.DeveloperTools;
+import org.bigtop.bigpetstore.util.NumericalIdUtils;
+import org.bigtop.bigpetstore.util.PipelineMetrics;
+import org.bigtop.bigpetstore.util.StageMetrics;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The whole workflow in one JVM, for developers and CI : no pig, no hive
+ * (and no derby), no LocalJobRunner, no intermediate files.
+ *
+ * 1) generate : one task per state (the generator is sequential per state),
+ * on a thread pool sized to the cores.
+ *
+ * 2) clean : each generated record is split straight into a columnar
+ * {@link TransactionBatch}, which is reused once aggregated.
+ *
+ * 3) statistics and view : per batch counts by state and product, and the
+ * (customer, product) -> purchases matrix that the hive view feeds mahout.
+ *
+ * 4) recommend : mahout's in memory item based recommender with pearson
+ * correlation (the similarity BPSRecommnder uses), users spread across the
+ * pool. Preferences are purchase counts.
+ *
+ * Outputs, only written when an output directory is given, mirror the
+ * cluster pipeline : cleaned/, MAHOUT_CF_IN/, MAHOUT_CF_OUT/.
+ *
+ * hadoop jar bigpetstore.jar org.bigtop.bigpetstore.local.LocalFastMode 1000000 [bps/local]
+ */
+public class LocalFastMode implements Tool {
+
+    final static Logger log = LoggerFactory.getLogger(LocalFastMode.class);
+
+    public static final String THREADS = "bigpetstore.local.threads";
+    public static final String BATCH_SIZE = "bigpetstore.local.batch_size";
+    public static final int RECOMMENDATIONS = 4;
+
+    /**
+     * What one state contributes.
+     */
+    static class StateResult {
+        final STATE state;
+        long transactions;
+        long malformed;
+        final Map<String, Long> products = new TreeMap<String, Long>();
+        final List<PreferenceArray> preferences = new ArrayList<PreferenceArray>();
+
+        StateResult(STATE state) {
+            this.state = state;
+        }
+    }
+
+    /**
+     * The results of a run.
+     */
+    public static class Result {
+        public final long transactions;
+        public final LocalPetStoreStatistics statistics;
+        public final Map<Long, List<RecommendedItem>> recommendations;
+
+        Result(long transactions, LocalPetStoreStatistics statistics,
+                Map<Long, List<RecommendedItem>> recommendations) {
+            this.transactions = transactions;
+            this.statistics = statistics;
+            this.recommendations = recommendations;
+        }
+    }
+
+    static Writer writer(Path file, Configuration conf) throws IOException {
+        return new OutputStreamWriter(FileSystem.get(file.toUri(), conf).create(file, true), "UTF-8");
+    }
+
+    /**
+     * Generates, cleans and aggregates the transactions of one state.
+     */
+    static class StateTask implements Callable<StateResult> {
+        final STATE state;
+        final int records;
+        final int batchSize;
+        final Path output;
+        final Configuration conf;
+
+        StateTask(STATE state, int records, int batchSize, Path output, Configuration conf) {
+            this.state = state;
+            this.records = records;
+            this.batchSize = batchSize;
+            this.output = output;
+            this.conf = conf;
+        }
+
+        @Override
+        public StateResult call() throws Exception {
+            StateResult result = new StateResult(state);
+            TransactionBatch.Dictionary customers = new TransactionBatch.Dictionary();
+            TransactionBatch.Dictionary products = new TransactionBatch.Dictionary();
+            TransactionBatch batch = new TransactionBatch(state, customers, products, batchSize);
+            // purchases[customer id][product id], products per state are few.
+            int[][] purchases = new int[1024][];
+            long[] productCounts = new long[state.products.length];
+
+            Writer cleaned = output == null ? null :
+                    writer(new Path(output, OUTPUTS.cleaned.name() + "/part-" + state.name()), conf);
+            StringBuilder line = new StringBuilder();
+            try {
+                Iterator<KeyVal<String, String>> data =
+                        new TransactionIteratorFactory(records, state).getData();
+                while (data.hasNext()) {
+                    KeyVal<String, String> kv = data.next();
+                    if (!batch.add(kv.key, kv.val)) {
+                        result.malformed++;
+                    }
+                    if (batch.isFull() || !data.hasNext()) {
+                        purchases = aggregate(batch, purchases, productCounts);
+                        if (cleaned != null) {
+                            for (int i = 0; i < batch.size(); i++) {
+                                line.setLength(0);
+                                cleaned.append(batch.appendCleaned(line, i)).append('\n');
+                            }
+                        }
+                        result.transactions += batch.size();
+                        batch.clear();
+                    }
+                }
+            }
+            finally {
+                if (cleaned != null) {
+                    cleaned.close();
+                }
+            }
+            for (int p = 0; p < products.size(); p++) {
+                result.products.put(products.get(p), productCounts[p]);
+            }
+            preferences(result, customers, products, purchases);
+            return result;
+        }
+
+        int[][] aggregate(TransactionBatch batch, int[][] purchases, long[] productCounts) {
+            for (int i = 0; i < batch.size(); i++) {
+                int c = batch.getCustomerId(i);
+                int p = batch.getProductId(i);
+                if (c >= purchases.length) {
+                    purchases = Arrays.copyOf(purchases, Math.max(c + 1, purchases.length * 2));
+                }
+                if (purchases[c] == null) {
+                    purchases[c] = new int[productCounts.length];
+                }
+                purchases[c][p]++;
+                productCounts[p]++;
+            }
+            return purchases;
+        }
+
+        /**
+         * The hive view (hashed customer, hashed product, weight), as mahout
+         * preferences, written to MAHOUT_CF_IN too if there is an output.
+         */
+        void preferences(StateResult result, TransactionBatch.Dictionary customers,
+                TransactionBatch.Dictionary products, int[][] purchases) throws IOException {
+            long[] itemIds = new long[products.size()];
+            for (int p = 0; p < itemIds.length; p++) {
+                itemIds[p] = NumericalIdUtils.toId(products.get(p));
+            }
+            Writer view = output == null ? null :
+                    writer(new Path(output, OUTPUTS.MAHOUT_CF_IN.name() + "/part-" + state.name()), conf);
+            try {
+                for (int c = 0; c < customers.size(); c++) {
+                    int[] bought = purchases[c];
+                    int n = 0;
+                    for (int count : bought) {
+                        n += count > 0 ? 1 : 0;
+                    }
+                    long userId = NumericalIdUtils.toId(state, customers.get(c));
+                    PreferenceArray prefs = new GenericUserPreferenceArray(n);
+                    prefs.setUserID(0, userId);
+                    int i = 0;
+                    for (int p = 0; p < bought.length; p++) {
+                        if (bought[p] > 0) {
+                            prefs.setItemID(i, itemIds[p]);
+                            prefs.setValue(i, bought[p]);
+                            i++;
+                            if (view != null) {
+                                view.append(userId + "," + itemIds[p] + "," + bought[p] + "\n");
+                            }
+                        }
+                    }
+                    result.preferences.add(prefs);
+                }
+            }
+            finally {
+                if (view != null) {
+                    view.close();
+                }
+            }
+        }
+    }
+
+    Configuration conf;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    /**
+     * Runs the workflow for (about) the given number of records, split across
+     * states like the generator job does.
+     *
+     * @param output null to keep everything in memory.
+     */
+    public Result run(int records, Path output) throws Exception {
+        Configuration c = conf == null ? new Configuration() : conf;
+        int threads = c.getInt(THREADS, Runtime.getRuntime().availableProcessors());
+        int batchSize = c.getInt(BATCH_SIZE, 64 * 1024);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            StageMetrics etl = PipelineMetrics.start(PipelineMetrics.STAGE.local_fast_etl);
+            List<Future<StateResult>> futures = new ArrayList<Future<StateResult>>();
+            for (STATE s : STATE.values()) {
+                int n = (int) Math.ceil(records * s.probability);
+                if (n > 0) {
+                    futures.add(pool.submit(new StateTask(s, n, batchSize, output, c)));
+                }
+            }
+            Map<String, Long> byState = new TreeMap<String, Long>();
+            Map<String, Long> byProduct = new TreeMap<String, Long>();
+            FastByIDMap<PreferenceArray> preferences = new FastByIDMap<PreferenceArray>();
+            long transactions = 0;
+            long malformed = 0;
+            for (Future<StateResult> f : futures) {
+                StateResult r = f.get();
+                transactions += r.transactions;
+                malformed += r.malformed;
+                byState.put(r.state.name(), r.transactions);
+                for (Map.Entry<String, Long> e : r.products.entrySet()) {
+                    Long count = byProduct.get(e.getKey());
+                    byProduct.put(e.getKey(), count == null ? e.getValue() : count + e.getValue());
+                }
+                for (PreferenceArray prefs : r.preferences) {
+                    // customers are hashed with their state, as in the hive view.
+                    preferences.put(prefs.getUserID(0), prefs);
+                }
+            }
+            etl.recordsIn(transactions + malformed).recordsOut(transactions).stop();
+            log.info("Local ETL : " + etl);
+
+            StageMetrics rec = PipelineMetrics.start(PipelineMetrics.STAGE.local_fast_recommender);
+            Map<Long, List<RecommendedItem>> recommendations = recommend(preferences, pool, threads);
+            rec.recordsIn(preferences.size()).recordsOut(recommendations.size()).stop();
+            log.info("Local recommender : " + rec);
+
+            if (output != null) {
+                writeRecommendations(new Path(output, OUTPUTS.MAHOUT_CF_OUT.name() + "/part-00000"),
+                        recommendations, c);
+            }
+            return new Result(transactions, new LocalPetStoreStatistics(byState, byProduct),
+                    recommendations);
+        }
+        finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Top {@link #RECOMMENDATIONS} items for every user, the users split in
+     * one chunk per thread. Taste recommenders are thread safe.
+     */
+    static Map<Long, List<RecommendedItem>> recommend(FastByIDMap<PreferenceArray> preferences,
+            ExecutorService pool, int threads) throws Exception {
+        final Map<Long, List<RecommendedItem>> recommendations =
+                new ConcurrentHashMap<Long, List<RecommendedItem>>();
+        if (preferences.isEmpty()) {
+            return recommendations;
+        }
+        DataModel model = new GenericDataModel(preferences);
+        final Recommender recommender =
+                new GenericItemBasedRecommender(model, new PearsonCorrelationSimilarity(model));
+
+        List<List<Long>> chunks = new ArrayList<List<Long>>();
+        for (int i = 0; i < threads; i++) {
+            chunks.add(new ArrayList<Long>());
+        }
+        LongPrimitiveIterator users = model.getUserIDs();
+        for (int i = 0; users.hasNext(); i++) {
+            chunks.get(i % threads).add(users.nextLong());
+        }
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (final List<Long> chunk : chunks) {
+            futures.add(pool.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (long user : chunk) {
+                        List<RecommendedItem> items = recommender.recommend(user, RECOMMENDATIONS);
+                        if (!items.isEmpty()) {
+                            recommendations.put(user, items);
+                        }
+                    }
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> f : futures) {
+            f.get();
+        }
+        return recommendations;
+    }
+
+    /**
+     * Same text format as mahout's RecommenderJob : user \t [item:value,...]
+     */
+    static void writeRecommendations(Path file, Map<Long, List<RecommendedItem>> recommendations,
+            Configuration conf) throws IOException {
+        Writer w = writer(file, conf);
+        try {
+            for (Map.Entry<Long, List<RecommendedItem>> e : new TreeMap<Long, List<RecommendedItem>>(recommendations).entrySet()) {
+                StringBuilder sb = new StringBuilder().append(e.getKey()).append("\t[");
+                for (RecommendedItem item : e.getValue()) {
+                    if (sb.charAt(sb.length() - 1) != '[') {
+                        sb.append(',');
+                    }
+                    sb.append(item.getItemID()).append(':').append(item.getValue());
+                }
+                w.append(sb.append("]\n"));
+            }
+        }
+        finally {
+            w.close();
+        }
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        DeveloperTools.validate(args, "number of records");
+        long start = System.currentTimeMillis();
+        Result r = run(Integer.parseInt(args[0]), args.length > 1 ? new Path(args[1]) : null);
+        System.out.println("Transactions : " + r.transactions);
+        System.out.println("By state : " + r.statistics.numberOfTransactionsByState());
+        System.out.println("By product : " + r.statistics.numberOfProductsByProduct());
+        System.out.println("Users with recommendations : " + r.recommendations.size());
+        System.out.println("Done in " + (System.currentTimeMillis() - start) + " ms");
+        return 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new LocalFastMode(), args));
+    }
+}
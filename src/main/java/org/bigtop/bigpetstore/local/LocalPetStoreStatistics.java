@@ -0,0 +1,32 @@
+package org.bigtop.bigpetstore.local;
+
+import java.util.Map;
+
+import org.bigtop.bigpetstore.contract.PetStoreStatistics;
+
+/**
+ * The statistics computed by {@link LocalFastMode}, already aggregated.
+ */
+public class LocalPetStoreStatistics extends PetStoreStatistics {
+
+    final Map<String, Long> transactionsByState;
+    final Map<String, Long> productsByProduct;
+
+    public LocalPetStoreStatistics(Map<String, Long> transactionsByState,
+            Map<String, Long> productsByProduct) {
+        this.transactionsByState = transactionsByState;
+        this.productsByProduct = productsByProduct;
+    }
+
+    @Override
+    public Map<String, ? extends Number> numberOfTransactionsByState()
+            throws Exception {
+        return transactionsByState;
+    }
+
+    @Override
+    public Map<String, ? extends Number> numberOfProductsByProduct()
+            throws Exception {
+        return productsByProduct;
+    }
+}
@@ -0,0 +1,183 @@
+package org.bigtop.bigpetstore.local;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bigtop.bigpetstore.generator.TransactionIteratorFactory.STATE;
+import org.bigtop.bigpetstore.util.TimestampCodec;
+
+/**
+ * A batch of transactions of one state, stored by column : one primitive
+ * array per field, with customers and products as indexes into dictionaries
+ * shared by all the batches of the state. A transaction costs ~28 bytes and
+ * no objects, and aggregations are loops over arrays.
+ *
+ * Not thread safe : each state is generated and aggregated by one thread.
+ */
+public class TransactionBatch {
+
+    /**
+     * Distinct strings of one column, numbered in order of appearance.
+     */
+    public static class Dictionary {
+        final Map<String, Integer> ids = new HashMap<String, Integer>();
+        final List<String> values = new ArrayList<String>();
+
+        public int id(String value) {
+            Integer id = ids.get(value);
+            if (id == null) {
+                id = values.size();
+                ids.put(value, id);
+                values.add(value);
+            }
+            return id;
+        }
+
+        public String get(int id) {
+            return values.get(id);
+        }
+
+        public int size() {
+            return values.size();
+        }
+    }
+
+    final STATE state;
+    final Dictionary customers;
+    final Dictionary products;
+
+    int size;
+    final int[] transactionIds;
+    final int[] customerIds;
+    final long[] times;
+    final float[] prices;
+    final int[] productIds;
+
+    public TransactionBatch(STATE state, Dictionary customers, Dictionary products, int capacity) {
+        this.state = state;
+        this.customers = customers;
+        this.products = products;
+        transactionIds = new int[capacity];
+        customerIds = new int[capacity];
+        times = new long[capacity];
+        prices = new float[capacity];
+        productIds = new int[capacity];
+    }
+
+    /**
+     * Empties the batch, to refill it : the columns are reused.
+     */
+    public void clear() {
+        size = 0;
+    }
+
+    public boolean isFull() {
+        return size == times.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public STATE getState() {
+        return state;
+    }
+
+    /**
+     * Cleans one generated record straight into the columns : the same split
+     * PigCSVCleaner does, without intermediate Strings for the numbers.
+     *
+     * key : BigPetStore,storeCode_CA,12
+     * value : fname,lname,1970-01-10T05:11:10Z,10.5,dog-food
+     *
+     * @return false (and nothing added) for a malformed record.
+     */
+    public boolean add(String key, String value) {
+        int c1 = value.indexOf(',');
+        int c2 = value.indexOf(',', c1 + 1);
+        int c3 = value.indexOf(',', c2 + 1);
+        int c4 = value.indexOf(',', c3 + 1);
+        int k = key.lastIndexOf(',');
+        if (c1 < 0 || c2 < 0 || c3 < 0 || c4 < 0 || k < 0) {
+            return false;
+        }
+        try {
+            transactionIds[size] = Integer.parseInt(key.substring(k + 1));
+            times[size] = TimestampCodec.parseIso(value, c2 + 1);
+            prices[size] = Float.parseFloat(value.substring(c3 + 1, c4));
+        }
+        catch (IllegalArgumentException e) {
+            return false;
+        }
+        customerIds[size] = customers.id(value.substring(0, c2));
+        productIds[size] = products.id(value.substring(c4 + 1));
+        size++;
+        return true;
+    }
+
+    public int getTransactionId(int i) {
+        return transactionIds[i];
+    }
+
+    /**
+     * "fname,lname"
+     */
+    public String getCustomer(int i) {
+        return customers.get(customerIds[i]);
+    }
+
+    public int getCustomerId(int i) {
+        return customerIds[i];
+    }
+
+    public long getTime(int i) {
+        return times[i];
+    }
+
+    public float getPrice(int i) {
+        return prices[i];
+    }
+
+    public String getProduct(int i) {
+        return products.get(productIds[i]);
+    }
+
+    public int getProductId(int i) {
+        return productIds[i];
+    }
+
+    /**
+     * Transactions per product id of this batch.
+     */
+    public long[] countByProduct() {
+        long[] counts = new long[products.size()];
+        for (int i = 0; i < size; i++) {
+            counts[productIds[i]]++;
+        }
+        return counts;
+    }
+
+    /**
+     * The transaction as a line of pigs cleaned output (8 tab separated
+     * fields).
+     */
+    public StringBuilder appendCleaned(StringBuilder sb, int i) {
+        int comma = getCustomer(i).indexOf(',');
+        sb.append("BigPetStore\tstoreCode_").append(state.name()).append('\t')
+                .append(transactionIds[i]).append('\t')
+                .append(getCustomer(i), 0, comma).append('\t')
+                .append(getCustomer(i), comma + 1, getCustomer(i).length()).append('\t');
+        TimestampCodec.appendTo(sb, times[i]).append('\t')
+                .append(prices[i]).append('\t')
+                .append(getProduct(i));
+        return sb;
+    }
+
+    @Override
+    public String toString() {
+        return state + " : " + size + " transactions, " + Arrays.toString(countByProduct());
+    }
+}
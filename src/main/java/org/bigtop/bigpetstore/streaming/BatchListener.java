@@ -0,0 +1,14 @@
+package org.bigtop.bigpetstore.streaming;
+
+import java.util.List;
+
+import org.bigtop.bigpetstore.etl.LineItem;
+
+/**
+ * Called by the {@link MicroBatcher} after each batch has been durably
+ * written, with the parsed line items of that batch.
+ */
+public interface BatchListener {
+
+    void onBatch(List<LineItem> batch);
+}
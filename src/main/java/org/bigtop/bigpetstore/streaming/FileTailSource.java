@@ -0,0 +1,68 @@
+package org.bigtop.bigpetstore.streaming;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Follows a growing local file, like tail -f. Partial last lines are held
+ * back until their newline arrives. The file is read as UTF-8; lines are cut
+ * on the raw bytes, which is safe since no multi byte UTF-8 sequence
+ * contains a '\n' or '\r' byte.
+ */
+public class FileTailSource implements TransactionSource {
+
+    final RandomAccessFile file;
+    final ByteArrayOutputStream partial = new ByteArrayOutputStream();
+    final byte[] buffer = new byte[64 * 1024];
+    int bufferPos = 0;
+    int bufferLen = 0;
+
+    public FileTailSource(File f, boolean fromStart) throws IOException {
+        file = new RandomAccessFile(f, "r");
+        if (!fromStart) {
+            file.seek(file.length());
+        }
+    }
+
+    @Override
+    public String poll(long timeoutMillis) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            while (bufferPos < bufferLen) {
+                byte b = buffer[bufferPos++];
+                if (b == '\n') {
+                    String line = partial.toString("UTF-8");
+                    partial.reset();
+                    return line;
+                }
+                if (b != '\r') {
+                    partial.write(b);
+                }
+            }
+            bufferLen = file.read(buffer);
+            bufferPos = 0;
+            if (bufferLen <= 0) {
+                bufferLen = 0;
+                if (System.currentTimeMillis() >= deadline) {
+                    return null;
+                }
+                Thread.sleep(Math.min(100, timeoutMillis));
+            }
+        }
+    }
+
+    /**
+     * A tailed file may always grow.
+     */
+    @Override
+    public boolean isExhausted() {
+        return false;
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+}
@@ -0,0 +1,86 @@
+package org.bigtop.bigpetstore.streaming;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.bigtop.bigpetstore.generator.TransactionIteratorFactory;
+import org.bigtop.bigpetstore.generator.TransactionIteratorFactory.KeyVal;
+import org.bigtop.bigpetstore.generator.TransactionIteratorFactory.STATE;
+
+/**
+ * Streams transactions straight out of the generator, picking each states
+ * store with that states probability, optionally rate limited.
+ */
+public class GeneratorSource implements TransactionSource {
+
+    final List<STATE> states = new ArrayList<STATE>();
+    final List<Iterator<KeyVal<String, String>>> iterators =
+            new ArrayList<Iterator<KeyVal<String, String>>>();
+    final float[] cumulative;
+    final Random random = new Random();
+    final long limit;
+    final long nanosPerEvent;
+    long emitted;
+    long nextEventNanos = System.nanoTime();
+
+    /**
+     * @param limit total number of transactions, < 0 for unbounded.
+     * @param eventsPerSecond <= 0 for "as fast as possible".
+     */
+    public GeneratorSource(long limit, int eventsPerSecond) {
+        this.limit = limit;
+        this.nanosPerEvent = eventsPerSecond <= 0 ? 0 : 1000000000L / eventsPerSecond;
+        float total = 0;
+        List<Float> sums = new ArrayList<Float>();
+        for (STATE s : STATE.values()) {
+            if (s.probability > 0) {
+                total += s.probability;
+                states.add(s);
+                sums.add(total);
+                iterators.add(new TransactionIteratorFactory(Integer.MAX_VALUE, s).getData());
+            }
+        }
+        cumulative = new float[sums.size()];
+        for (int i = 0; i < cumulative.length; i++) {
+            cumulative[i] = sums.get(i) / total;
+        }
+    }
+
+    @Override
+    public String poll(long timeoutMillis) throws IOException, InterruptedException {
+        if (isExhausted()) {
+            return null;
+        }
+        if (nanosPerEvent > 0) {
+            long wait = nextEventNanos - System.nanoTime();
+            if (wait > timeoutMillis * 1000000L) {
+                Thread.sleep(timeoutMillis);
+                return null;
+            }
+            if (wait > 0) {
+                Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+            }
+            nextEventNanos += nanosPerEvent;
+        }
+        float r = random.nextFloat();
+        int i = 0;
+        while (i < cumulative.length - 1 && r > cumulative[i]) {
+            i++;
+        }
+        KeyVal<String, String> kv = iterators.get(i).next();
+        emitted++;
+        return kv.key + "\t" + kv.val;
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return limit >= 0 && emitted >= limit;
+    }
+
+    @Override
+    public void close() {
+    }
+}
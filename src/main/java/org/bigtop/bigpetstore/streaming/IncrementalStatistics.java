@@ -0,0 +1,119 @@
+package org.bigtop.bigpetstore.streaming;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bigtop.bigpetstore.contract.PetStoreStatistics;
+import org.bigtop.bigpetstore.etl.LineItem;
+
+/**
+ * {@link PetStoreStatistics} kept up to date batch by batch, plus the recent
+ * purchase history of every customer, so dashboards read live numbers
+ * instead of waiting for the next batch run.
+ *
+ * Readers may call in from other threads while batches are applied.
+ */
+public class IncrementalStatistics extends PetStoreStatistics implements BatchListener {
+
+    final ConcurrentMap<String, AtomicLong> byState = new ConcurrentHashMap<String, AtomicLong>();
+    final ConcurrentMap<String, AtomicLong> byProduct = new ConcurrentHashMap<String, AtomicLong>();
+    final ConcurrentMap<String, LinkedList<LineItem>> histories =
+            new ConcurrentHashMap<String, LinkedList<LineItem>>();
+    final int historyPerCustomer;
+    final AtomicLong transactions = new AtomicLong();
+
+    public IncrementalStatistics() {
+        this(100);
+    }
+
+    /**
+     * @param historyPerCustomer how many of the most recent purchases to keep
+     * per customer.
+     */
+    public IncrementalStatistics(int historyPerCustomer) {
+        this.historyPerCustomer = historyPerCustomer;
+    }
+
+    static String customer(String state, String firstName, String lastName) {
+        return state + "\t" + firstName + "\t" + lastName;
+    }
+
+    static void increment(ConcurrentMap<String, AtomicLong> m, String key) {
+        AtomicLong c = m.get(key);
+        if (c == null) {
+            AtomicLong fresh = new AtomicLong();
+            c = m.putIfAbsent(key, fresh);
+            if (c == null) {
+                c = fresh;
+            }
+        }
+        c.incrementAndGet();
+    }
+
+    @Override
+    public void onBatch(List<LineItem> batch) {
+        for (LineItem li : batch) {
+            increment(byState, li.getState());
+            increment(byProduct, li.getDescription());
+            String key = customer(li.getState(), li.getFirstName(), li.getLastName());
+            LinkedList<LineItem> h = histories.get(key);
+            if (h == null) {
+                LinkedList<LineItem> fresh = new LinkedList<LineItem>();
+                h = histories.putIfAbsent(key, fresh);
+                if (h == null) {
+                    h = fresh;
+                }
+            }
+            synchronized (h) {
+                h.addLast(li);
+                if (h.size() > historyPerCustomer) {
+                    h.removeFirst();
+                }
+            }
+        }
+        transactions.addAndGet(batch.size());
+    }
+
+    public long transactions() {
+        return transactions.get();
+    }
+
+    /**
+     * The most recent purchases of one customer, oldest first.
+     */
+    public List<LineItem> purchaseHistory(String state, String firstName, String lastName) {
+        LinkedList<LineItem> h = histories.get(customer(state, firstName, lastName));
+        if (h == null) {
+            return new ArrayList<LineItem>();
+        }
+        synchronized (h) {
+            return new ArrayList<LineItem>(h);
+        }
+    }
+
+    static Map<String, Long> snapshot(Map<String, AtomicLong> m) {
+        Map<String, Long> s = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> e : m.entrySet()) {
+            s.put(e.getKey(), e.getValue().get());
+        }
+        return s;
+    }
+
+    @Override
+    public Map<String, ? extends Number> numberOfTransactionsByState()
+            throws Exception {
+        return snapshot(byState);
+    }
+
+    @Override
+    public Map<String, ? extends Number> numberOfProductsByProduct()
+            throws Exception {
+        return snapshot(byProduct);
+    }
+}
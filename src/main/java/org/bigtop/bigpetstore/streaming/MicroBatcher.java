@@ -0,0 +1,169 @@
+package org.bigtop.bigpetstore.streaming;
+
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.bigtop.bigpetstore.etl.LineItem;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pulls lines from a {@link TransactionSource}, parses them, and cuts them
+ * into micro batches (by size or by time, whichever comes first).
+ *
+ * Each batch is written as one file under a time bucket directory
+ *
+ * output/yyyyMMddHHmm/batch-(millis)-(seq)
+ *
+ * in the generators line format, so the batch tools (pig cleaner, cube
+ * builder, ...) can be pointed at one bucket or at output/* unchanged. Files
+ * are written under a "_" name and renamed when complete, so a batch job
+ * never sees half a batch. Only after the rename are the
+ * {@link BatchListener}s told about the batch.
+ */
+public class MicroBatcher implements Runnable {
+
+    final static Logger log = LoggerFactory.getLogger(MicroBatcher.class);
+
+    final TransactionSource source;
+    final Path output;
+    final FileSystem fs;
+    final int batchSize;
+    final long batchIntervalMillis;
+    final SimpleDateFormat bucketFormat;
+    final List<BatchListener> listeners = new CopyOnWriteArrayList<BatchListener>();
+    final CountDownLatch stopped = new CountDownLatch(1);
+
+    volatile boolean running = true;
+    long seq = 0;
+    long malformed = 0;
+    long written = 0;
+
+    /**
+     * @param bucketPattern SimpleDateFormat pattern of the bucket directories,
+     * i.e. "yyyyMMddHHmm" for one directory per minute (UTC).
+     */
+    public MicroBatcher(TransactionSource source, Path output, Configuration conf,
+            int batchSize, long batchIntervalMillis, String bucketPattern) throws IOException {
+        this.source = source;
+        this.output = output;
+        this.fs = FileSystem.get(output.toUri(), conf);
+        this.batchSize = batchSize;
+        this.batchIntervalMillis = batchIntervalMillis;
+        this.bucketFormat = new SimpleDateFormat(bucketPattern);
+        this.bucketFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    public MicroBatcher addListener(BatchListener l) {
+        listeners.add(l);
+        return this;
+    }
+
+    public void stop() {
+        running = false;
+    }
+
+    /**
+     * Waits for {@link #run()} to return, i.e. for the last batch to be
+     * written and renamed into place after a {@link #stop()}.
+     *
+     * @return false if it didnt within the timeout.
+     */
+    public boolean awaitStopped(long timeout, TimeUnit unit) throws InterruptedException {
+        return stopped.await(timeout, unit);
+    }
+
+    /**
+     * The clock batches are cut and bucketed by; tests override it.
+     */
+    long now() {
+        return System.currentTimeMillis();
+    }
+
+    public long written() {
+        return written;
+    }
+
+    public long malformed() {
+        return malformed;
+    }
+
+    @Override
+    public void run() {
+        List<String> lines = new ArrayList<String>(batchSize);
+        List<LineItem> items = new ArrayList<LineItem>(batchSize);
+        long deadline = now() + batchIntervalMillis;
+        try {
+            while (running && !source.isExhausted()) {
+                long wait = Math.max(1, deadline - now());
+                String line = source.poll(wait);
+                if (line != null) {
+                    LineItem li = LineItem.parse(line);
+                    if (li == null) {
+                        malformed++;
+                    }
+                    else {
+                        lines.add(line);
+                        items.add(li);
+                    }
+                }
+                if (lines.size() >= batchSize || now() >= deadline) {
+                    flush(lines, items);
+                    deadline = now() + batchIntervalMillis;
+                }
+            }
+            flush(lines, items);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        catch (IOException e) {
+            throw new RuntimeException("Streaming ingest failed writing to " + output, e);
+        }
+        finally {
+            stopped.countDown();
+        }
+    }
+
+    void flush(List<String> lines, List<LineItem> items) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
+        long now = now();
+        Path bucket = new Path(output, bucketFormat.format(new Date(now)));
+        String name = "batch-" + now + "-" + (seq++);
+        Path tmp = new Path(bucket, "_" + name);
+        FSDataOutputStream out = fs.create(tmp, true);
+        try {
+            for (String l : lines) {
+                out.write(l.getBytes("UTF-8"));
+                out.write('\n');
+            }
+        }
+        finally {
+            out.close();
+        }
+        if (!fs.rename(tmp, new Path(bucket, name))) {
+            throw new IOException("Couldnt rename " + tmp + " into place");
+        }
+        written += lines.size();
+        List<LineItem> batch = new ArrayList<LineItem>(items);
+        for (BatchListener l : listeners) {
+            l.onBatch(batch);
+        }
+        log.debug("Wrote batch " + name + " : " + lines.size() + " transactions");
+        lines.clear();
+        items.clear();
+    }
+}
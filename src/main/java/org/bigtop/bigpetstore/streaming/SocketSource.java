@@ -0,0 +1,66 @@
+package org.bigtop.bigpetstore.streaming;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.Socket;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads newline separated transactions from a tcp socket (i.e. nc -lk 9999).
+ * A reader thread fills a bounded queue, so a slow batcher pushes back on the
+ * socket rather than buffering without limit.
+ */
+public class SocketSource implements TransactionSource {
+
+    final static Logger log = LoggerFactory.getLogger(SocketSource.class);
+
+    final Socket socket;
+    final BlockingQueue<String> queue = new LinkedBlockingQueue<String>(10000);
+    volatile boolean eof = false;
+
+    public SocketSource(String host, int port) throws IOException {
+        socket = new Socket(host, port);
+        final BufferedReader in = new BufferedReader(
+                new InputStreamReader(socket.getInputStream(), "UTF-8"));
+        Thread reader = new Thread("bps-socket-source-" + host + ":" + port) {
+            @Override
+            public void run() {
+                try {
+                    String line;
+                    while ((line = in.readLine()) != null) {
+                        queue.put(line);
+                    }
+                }
+                catch (Exception e) {
+                    log.warn("Socket source stopped : " + e.getMessage());
+                }
+                finally {
+                    eof = true;
+                }
+            }
+        };
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    @Override
+    public String poll(long timeoutMillis) throws InterruptedException {
+        return queue.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean isExhausted() {
+        return eof && queue.isEmpty();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
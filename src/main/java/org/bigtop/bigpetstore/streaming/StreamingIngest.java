@@ -0,0 +1,126 @@
+package org.bigtop.bigpetstore.streaming;
+
+import java.io.File;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.util.Tool;
+import org.apache.hadoop.util.ToolRunner;
+import org.bigtop.bigpetstore.etl.LineItem;
+import org.bigtop.bigpetstore.util.DeveloperTools;
+
+/**
+ * Streaming ingestion entry point : continuously writes micro batches of
+ * live transactions under bps/generated/stream (or wherever) and keeps
+ * {@link IncrementalStatistics} current.
+ *
+ * Sources :
+ *
+ *  generator[:limit[:eventsPerSecond]]  the BigPetStore generator
+ *  socket:host:port                      newline separated lines over tcp
+ *  tail:/local/file                      a growing local file
+ *
+ * hadoop jar bigpetstore.jar org.bigtop.bigpetstore.streaming.StreamingIngest generator:-1:500 bps/generated/stream
+ *
+ * Batch size / interval / bucket come from bigpetstore.stream.batch.size
+ * (default 1000), bigpetstore.stream.batch.interval.ms (default 1000) and
+ * bigpetstore.stream.bucket.pattern (default yyyyMMddHHmm).
+ */
+public class StreamingIngest implements Tool {
+
+    public static final String BATCH_SIZE = "bigpetstore.stream.batch.size";
+    public static final String BATCH_INTERVAL_MS = "bigpetstore.stream.batch.interval.ms";
+    public static final String BUCKET_PATTERN = "bigpetstore.stream.bucket.pattern";
+
+    public static TransactionSource source(String spec) throws Exception {
+        String[] s = spec.split(":");
+        if (s[0].equals("generator")) {
+            return new GeneratorSource(
+                    s.length > 1 ? Long.parseLong(s[1]) : -1,
+                    s.length > 2 ? Integer.parseInt(s[2]) : 0);
+        }
+        if (s[0].equals("socket")) {
+            return new SocketSource(s[1], Integer.parseInt(s[2]));
+        }
+        if (s[0].equals("tail")) {
+            return new FileTailSource(new File(spec.substring("tail:".length())), true);
+        }
+        throw new IllegalArgumentException("Unknown transaction source : " + spec);
+    }
+
+    public static MicroBatcher batcher(TransactionSource source, Path output, Configuration conf)
+            throws Exception {
+        return new MicroBatcher(source, output, conf,
+                conf.getInt(BATCH_SIZE, 1000),
+                conf.getLong(BATCH_INTERVAL_MS, 1000),
+                conf.get(BUCKET_PATTERN, "yyyyMMddHHmm"));
+    }
+
+    Configuration conf;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public int run(String[] args) throws Exception {
+        DeveloperTools.validate(args, "source (generator|socket:host:port|tail:file)", "output path");
+        final TransactionSource source = source(args[0]);
+        final MicroBatcher batcher = batcher(source, new Path(args[1]),
+                conf == null ? new Configuration() : conf);
+        final IncrementalStatistics stats = new IncrementalStatistics();
+        batcher.addListener(stats);
+        batcher.addListener(new BatchListener() {
+            long batches = 0;
+            @Override
+            public void onBatch(List<LineItem> batch) {
+                if (++batches % 60 == 0) {
+                    try {
+                        System.out.println("Streamed " + stats.transactions()
+                                + " transactions : " + stats.numberOfTransactionsByState());
+                    }
+                    catch (Exception e) {
+                        // just progress output
+                    }
+                }
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                // the JVM exits as soon as the hooks return : wait for the
+                // last batch to be flushed and renamed into place.
+                batcher.stop();
+                try {
+                    if (!batcher.awaitStopped(batcher.batchIntervalMillis + 60000, TimeUnit.MILLISECONDS)) {
+                        System.err.println("Gave up waiting for the last batch to be written.");
+                    }
+                }
+                catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        try {
+            batcher.run();
+        }
+        finally {
+            source.close();
+        }
+        System.out.println("Streamed " + batcher.written() + " transactions, "
+                + batcher.malformed() + " malformed lines skipped.");
+        return 0;
+    }
+
+    public static void main(String[] args) throws Exception {
+        System.exit(ToolRunner.run(new Configuration(), new StreamingIngest(), args));
+    }
+}
@@ -0,0 +1,21 @@
+package org.bigtop.bigpetstore.streaming;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A live feed of transaction lines, in the generators format
+ * (see {@link org.bigtop.bigpetstore.etl.LineItem#parse(String)}).
+ */
+public interface TransactionSource extends Closeable {
+
+    /**
+     * @return the next line, or null if none arrived within the timeout.
+     */
+    String poll(long timeoutMillis) throws IOException, InterruptedException;
+
+    /**
+     * @return true once the source can never produce another line.
+     */
+    boolean isExhausted();
+}
@@ -11,11 +11,15 @@ public class BigPetStoreConstants {
    //Files should be stored in graphviz arch.dot
    public enum OUTPUTS{
         generated,//generator
+        deduplicated,//generated, without replayed (storeCode, trans_id)
         cleaned,//pig
         pig_ad_hoc_script,
         MAHOUT_CF_IN,//hive view over data for mahout
         MAHOUT_CF_OUT,//mahout cf results 
-        CUSTOMER_PAGE//crunchhh
+        CUSTOMER_PAGE,//crunchhh
+        STATISTICS_CUBE,//pre-aggregated (state,product,day) cells for the web site
+        DATE_DIMENSION,//one row per day, joined on yyyyMMdd / iso date
+        CUSTOMER_TIMELINES//customer id -> time sorted purchases, MapFiles
     };
     
 
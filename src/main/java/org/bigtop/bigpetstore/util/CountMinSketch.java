@@ -0,0 +1,113 @@
+package org.bigtop.bigpetstore.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/**
+ * Count-min sketch of string keys.
+ *
+ * {@link #estimate} never underestimates. With width w and depth d it
+ * overestimates by at most (e / w) * {@link #total()} with probability
+ * 1 - e^-d, see {@link #errorBound()} and {@link #confidence()}.
+ *
+ * Sketches with the same width and depth can be merged, so every mapper can
+ * build one and a single reducer adds them up.
+ */
+public class CountMinSketch implements Writable {
+
+    int width;
+    int depth;
+    long[][] table;
+    long total;
+
+    public CountMinSketch() {
+    }
+
+    public CountMinSketch(int width, int depth) {
+        this.width = width;
+        this.depth = depth;
+        this.table = new long[depth][width];
+    }
+
+    int bucket(long hash, int row) {
+        // Kirsch-Mitzenmacher : the rows use h1 + row * h2.
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        int h = h1 + row * h2;
+        return (h & Integer.MAX_VALUE) % width;
+    }
+
+    public void add(CharSequence key, long count) {
+        long hash = SketchHash.hash64(key);
+        for (int row = 0; row < depth; row++) {
+            table[row][bucket(hash, row)] += count;
+        }
+        total += count;
+    }
+
+    public long estimate(CharSequence key) {
+        long hash = SketchHash.hash64(key);
+        long min = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            min = Math.min(min, table[row][bucket(hash, row)]);
+        }
+        return min;
+    }
+
+    public void merge(CountMinSketch other) {
+        if (other.width != width || other.depth != depth) {
+            throw new IllegalArgumentException("Cant merge a " + other.width + "x"
+                    + other.depth + " sketch into a " + width + "x" + depth + " sketch");
+        }
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                table[row][col] += other.table[row][col];
+            }
+        }
+        total += other.total;
+    }
+
+    public long total() {
+        return total;
+    }
+
+    /**
+     * Max overestimate of any {@link #estimate}, at {@link #confidence()}.
+     */
+    public double errorBound() {
+        return Math.E / width * total;
+    }
+
+    public double confidence() {
+        return 1 - Math.exp(-depth);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, width);
+        WritableUtils.writeVInt(out, depth);
+        WritableUtils.writeVLong(out, total);
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                WritableUtils.writeVLong(out, table[row][col]);
+            }
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        width = WritableUtils.readVInt(in);
+        depth = WritableUtils.readVInt(in);
+        total = WritableUtils.readVLong(in);
+        table = new long[depth][width];
+        for (int row = 0; row < depth; row++) {
+            for (int col = 0; col < width; col++) {
+                table[row][col] = WritableUtils.readVLong(in);
+            }
+        }
+    }
+}
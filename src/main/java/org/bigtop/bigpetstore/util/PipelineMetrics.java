@@ -0,0 +1,176 @@
+package org.bigtop.bigpetstore.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.metrics2.MetricsCollector;
+import org.apache.hadoop.metrics2.MetricsRecordBuilder;
+import org.apache.hadoop.metrics2.MetricsSource;
+import org.apache.hadoop.metrics2.lib.DefaultMetricsSystem;
+import org.apache.hadoop.metrics2.lib.Interns;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared instrumentation for the BigPetStore stages.
+ *
+ * Each stage wraps its work like this:
+ *
+ * <pre>
+ * StageMetrics m = PipelineMetrics.start(STAGE.pig_cleaner);
+ * ... do the work ...
+ * m.recordsOut(n).bytesOut(outputPath, conf).stop();
+ * </pre>
+ *
+ * Stopped stages are published two ways:
+ *
+ * 1) as a hadoop metrics2 source named "BigPetStore" (one record per stage),
+ * so any configured sink (file, ganglia, ...) picks them up.
+ *
+ * 2) as a json run report, written to the file named by the
+ * {@link #REPORT_PROPERTY} system property, if it is set. The report is
+ * rewritten after each stage so that a failed run still leaves a report of
+ * the stages which did complete.
+ */
+public class PipelineMetrics implements MetricsSource {
+
+    final static Logger log = LoggerFactory.getLogger(PipelineMetrics.class);
+
+    /**
+     * System property holding the local path of the json run report.
+     */
+    public static final String REPORT_PROPERTY = "bigpetstore.metrics.report";
+
+    public enum STAGE {
+        generator,//BPSGenerator
+        pig_cleaner,//PigCSVCleaner
+        hive_view,//HiveViewCreator
+        crunch_etl,//CrunchETL
+        statistics_cube,//StatisticsCubeBuilder
+        mahout_recommender,//BPSRecommnder
+        local_fast_etl,//LocalFastMode : generate, clean, statistics, view
+        local_fast_recommender//LocalFastMode : in memory recommender
+    }
+
+    private static PipelineMetrics INSTANCE;
+
+    private final long runStartMillis = System.currentTimeMillis();
+    private final Map<STAGE, StageMetrics> latest =
+            new EnumMap<STAGE, StageMetrics>(STAGE.class);
+    private final List<StageMetrics> history = new ArrayList<StageMetrics>();
+
+    PipelineMetrics() {
+    }
+
+    public static synchronized PipelineMetrics get() {
+        if (INSTANCE == null) {
+            INSTANCE = new PipelineMetrics();
+            try {
+                DefaultMetricsSystem.initialize("BigPetStore");
+                DefaultMetricsSystem.instance().register(
+                        "BigPetStore", "BigPetStore pipeline stage metrics", INSTANCE);
+            }
+            catch (Throwable t) {
+                // metrics2 is a nice to have: the json report still works.
+                log.warn("Couldnt register BigPetStore metrics source : " + t.getMessage());
+            }
+        }
+        return INSTANCE;
+    }
+
+    /**
+     * Starts measuring a stage. Call {@link StageMetrics#stop()} when done.
+     */
+    public static StageMetrics start(STAGE stage) {
+        get();
+        return new StageMetrics(stage);
+    }
+
+    synchronized void stopped(StageMetrics m) {
+        latest.put(m.stage, m);
+        history.add(m);
+        log.info("BigPetStore stage finished : " + m);
+        String report = System.getProperty(REPORT_PROPERTY);
+        if (report != null) {
+            try {
+                writeReport(new File(report));
+            }
+            catch (IOException e) {
+                log.warn("Couldnt write run report to " + report, e);
+            }
+        }
+    }
+
+    /**
+     * The most recent measurement for a stage, or null.
+     */
+    public synchronized StageMetrics latest(STAGE stage) {
+        return latest.get(stage);
+    }
+
+    public synchronized List<StageMetrics> history() {
+        return new ArrayList<StageMetrics>(history);
+    }
+
+    /**
+     * Forgets the stages recorded so far : the instance is shared by every
+     * stage of the JVM, tests start from a clean one.
+     */
+    synchronized void reset() {
+        latest.clear();
+        history.clear();
+    }
+
+    /**
+     * The run report, as nested maps, ready for json serialization.
+     */
+    public synchronized Map<String, Object> report() {
+        Map<String, Object> r = new LinkedHashMap<String, Object>();
+        r.put("run_start_ms", runStartMillis);
+        r.put("report_time_ms", System.currentTimeMillis());
+        long total = 0;
+        StageMetrics dominant = null;
+        List<Map<String, Object>> stages = new ArrayList<Map<String, Object>>();
+        for (StageMetrics m : history) {
+            stages.add(m.toMap());
+            total += Math.max(0, m.wallMillis);
+            if (dominant == null || m.wallMillis > dominant.wallMillis) {
+                dominant = m;
+            }
+        }
+        r.put("total_wall_ms", total);
+        r.put("dominant_stage", dominant == null ? null : dominant.stage.name());
+        r.put("stages", stages);
+        return r;
+    }
+
+    public synchronized void writeReport(File f) throws IOException {
+        new ObjectMapper().writeValue(f, report());
+    }
+
+    @Override
+    public synchronized void getMetrics(MetricsCollector collector, boolean all) {
+        for (StageMetrics m : latest.values()) {
+            MetricsRecordBuilder rb = collector.addRecord("Stage")
+                    .setContext("bigpetstore")
+                    .tag(Interns.info("Stage", "BigPetStore stage"), m.stage.name());
+            rb.addGauge(Interns.info("WallMillis", "Wall time of the stage"), m.wallMillis)
+              .addGauge(Interns.info("CpuMillis", "Driver JVM cpu time"), m.cpuMillis)
+              .addGauge(Interns.info("GcMillis", "Driver JVM gc time"), m.gcMillis)
+              .addGauge(Interns.info("TaskCpuMillis", "Task cpu time from job counters"), m.taskCpuMillis)
+              .addGauge(Interns.info("TaskGcMillis", "Task gc time from job counters"), m.taskGcMillis)
+              .addGauge(Interns.info("RecordsIn", "Records read"), m.recordsIn)
+              .addGauge(Interns.info("RecordsOut", "Records written"), m.recordsOut)
+              .addGauge(Interns.info("BytesIn", "Bytes read"), m.bytesIn)
+              .addGauge(Interns.info("BytesOut", "Bytes written"), m.bytesOut)
+              .addGauge(Interns.info("RecordsPerSec", "Input records per second"), m.recordsPerSecond())
+              .addGauge(Interns.info("BytesPerSec", "Input bytes per second"), m.bytesPerSecond());
+        }
+    }
+}
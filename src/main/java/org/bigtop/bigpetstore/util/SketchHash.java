@@ -0,0 +1,28 @@
+package org.bigtop.bigpetstore.util;
+
+/**
+ * 64 bit string hash for the sketches ({@link CountMinSketch},
+ * {@link HyperLogLog}). String.hashCode() is only 32 bits and poorly mixed,
+ * which skews HyperLogLog registers, so this is FNV-1a over the chars,
+ * finished with the murmur3 64 bit mixer.
+ */
+public class SketchHash {
+
+    public static long hash64(CharSequence s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return fmix64(h);
+    }
+
+    public static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,230 @@
+package org.bigtop.bigpetstore.util;
+
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Counters;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.TaskCounter;
+
+/**
+ * The measurements for a single run of one BigPetStore stage.
+ *
+ * Wall time, cpu time and gc time are taken from the driver JVM between
+ * {@link PipelineMetrics#start} and {@link #stop()}. In local mode that is the
+ * whole story, because the map and reduce tasks run in this JVM. On a cluster,
+ * stages which run a plain mapreduce {@link Job} should also call
+ * {@link #addJobCounters(Job)} so that the task side cpu/gc is included.
+ *
+ * Records and bytes are -1 until a stage reports them, so that the report can
+ * tell "unknown" apart from "zero".
+ */
+public class StageMetrics {
+
+    final PipelineMetrics.STAGE stage;
+
+    long startWallMillis;
+    long wallMillis = -1;
+
+    long startCpuNanos;
+    long cpuMillis = -1;
+
+    long startGcMillis;
+    long gcMillis = -1;
+
+    long taskCpuMillis = -1;
+    long taskGcMillis = -1;
+
+    long recordsIn = -1;
+    long recordsOut = -1;
+    long bytesIn = -1;
+    long bytesOut = -1;
+
+    StageMetrics(PipelineMetrics.STAGE stage) {
+        this.stage = stage;
+        this.startWallMillis = System.currentTimeMillis();
+        this.startCpuNanos = processCpuNanos();
+        this.startGcMillis = gcMillis();
+    }
+
+    public PipelineMetrics.STAGE getStage() {
+        return stage;
+    }
+
+    public StageMetrics recordsIn(long records) {
+        this.recordsIn = records;
+        return this;
+    }
+
+    public StageMetrics recordsOut(long records) {
+        this.recordsOut = records;
+        return this;
+    }
+
+    public StageMetrics bytesIn(long bytes) {
+        this.bytesIn = bytes;
+        return this;
+    }
+
+    public StageMetrics bytesOut(long bytes) {
+        this.bytesOut = bytes;
+        return this;
+    }
+
+    /**
+     * Sets bytes in from the size of the input path (file or directory).
+     */
+    public StageMetrics bytesIn(Path input, Configuration conf) {
+        return bytesIn(sizeOf(input, conf));
+    }
+
+    /**
+     * Sets bytes out from the size of the output path (file or directory).
+     */
+    public StageMetrics bytesOut(Path output, Configuration conf) {
+        return bytesOut(sizeOf(output, conf));
+    }
+
+    /**
+     * Pulls the record counts and task side cpu/gc out of a completed job.
+     */
+    public StageMetrics addJobCounters(Job job) throws IOException {
+        Counters counters = job.getCounters();
+        if (counters == null) {
+            return this;
+        }
+        recordsIn = counters.findCounter(TaskCounter.MAP_INPUT_RECORDS).getValue();
+        long reduceOut = counters.findCounter(TaskCounter.REDUCE_OUTPUT_RECORDS).getValue();
+        recordsOut = reduceOut > 0 ?
+                reduceOut :
+                counters.findCounter(TaskCounter.MAP_OUTPUT_RECORDS).getValue();
+        taskCpuMillis = counters.findCounter(TaskCounter.CPU_MILLISECONDS).getValue();
+        taskGcMillis = counters.findCounter(TaskCounter.GC_TIME_MILLIS).getValue();
+        return this;
+    }
+
+    /**
+     * Finishes the measurement and publishes it to the {@link PipelineMetrics}.
+     */
+    public StageMetrics stop() {
+        wallMillis = System.currentTimeMillis() - startWallMillis;
+        long cpu = processCpuNanos();
+        cpuMillis = cpu < 0 || startCpuNanos < 0 ? -1 : (cpu - startCpuNanos) / 1000000L;
+        gcMillis = gcMillis() - startGcMillis;
+        PipelineMetrics.get().stopped(this);
+        return this;
+    }
+
+    public long getWallMillis() {
+        return wallMillis;
+    }
+
+    public long getCpuMillis() {
+        return cpuMillis;
+    }
+
+    public long getGcMillis() {
+        return gcMillis;
+    }
+
+    public long getRecordsIn() {
+        return recordsIn;
+    }
+
+    public long getRecordsOut() {
+        return recordsOut;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * Input records per second of wall time, or -1 if unknown.
+     */
+    public double recordsPerSecond() {
+        if (recordsIn < 0 || wallMillis <= 0) {
+            return -1;
+        }
+        return recordsIn * 1000d / wallMillis;
+    }
+
+    /**
+     * Input bytes per second of wall time, or -1 if unknown.
+     */
+    public double bytesPerSecond() {
+        if (bytesIn < 0 || wallMillis <= 0) {
+            return -1;
+        }
+        return bytesIn * 1000d / wallMillis;
+    }
+
+    public Map<String, Object> toMap() {
+        Map<String, Object> m = new LinkedHashMap<String, Object>();
+        m.put("stage", stage.name());
+        m.put("wall_ms", wallMillis);
+        m.put("cpu_ms", cpuMillis);
+        m.put("gc_ms", gcMillis);
+        m.put("task_cpu_ms", taskCpuMillis);
+        m.put("task_gc_ms", taskGcMillis);
+        m.put("records_in", recordsIn);
+        m.put("records_out", recordsOut);
+        m.put("bytes_in", bytesIn);
+        m.put("bytes_out", bytesOut);
+        m.put("records_per_sec", recordsPerSecond());
+        m.put("bytes_per_sec", bytesPerSecond());
+        return m;
+    }
+
+    @Override
+    public String toString() {
+        return toMap().toString();
+    }
+
+    static long sizeOf(Path p, Configuration conf) {
+        try {
+            FileSystem fs = FileSystem.get(p.toUri(), conf);
+            if (!fs.exists(p)) {
+                return -1;
+            }
+            return fs.getContentSummary(p).getLength();
+        }
+        catch (IOException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Cpu time of the whole process, all threads, or -1 if the JVM doesnt
+     * expose it.
+     */
+    static long processCpuNanos() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean) {
+            return ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+        }
+        return -1;
+    }
+
+    static long gcMillis() {
+        long total = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            long t = gc.getCollectionTime();
+            if (t > 0) {
+                total += t;
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,49 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.fs.Path;
+import org.bigtop.bigpetstore.util.PipelineMetrics;
+import org.bigtop.bigpetstore.util.PipelineMetrics.STAGE;
+import org.bigtop.bigpetstore.util.StageMetrics;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCrunchETL {
+
+    static int crunchStages() {
+        int n = 0;
+        for (StageMetrics m : PipelineMetrics.get().history()) {
+            if (m.getStage() == STAGE.crunch_etl) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void testOneStageForBothQueries() throws Exception {
+        File dir = new File("target/crunch_test_" + System.currentTimeMillis());
+        FileUtils.writeStringToFile(new File(dir, "part-r-00000"),
+                "BigPetStore,storeCode_AK,1\tjay,guy,1970-01-10T05:11:10Z,10.5,dog-food\n"
+                + "BigPetStore,storeCode_CA,1\tangie,coleman,1969-12-11T07:00:31Z,10.5,dog-food\n"
+                + "BigPetStore,storeCode_CA,2\tangie,coleman,1970-01-20T06:24:23Z,7.5,cat-food\n");
+        int before = crunchStages();
+
+        CrunchETL crunch = new CrunchETL(new Path(dir.getAbsolutePath()), null);
+        // the plan is lazy : nothing is measured until a query runs it.
+        Assert.assertEquals(before, crunchStages());
+        Map<String, ? extends Number> a = crunch.numberOfTransactionsByState();
+        Map<String, ? extends Number> b = crunch.numberOfProductsByProduct();
+        Assert.assertEquals(before + 1, crunchStages());
+
+        StageMetrics m = PipelineMetrics.get().latest(STAGE.crunch_etl);
+        Assert.assertEquals(3, m.getRecordsIn());
+        Assert.assertEquals(a.size() + b.size(), m.getRecordsOut());
+        Assert.assertTrue(m.toString(), m.getBytesIn() > 0);
+        Assert.assertTrue(m.toString(), m.getWallMillis() >= 0);
+        FileUtils.deleteDirectory(dir);
+    }
+}
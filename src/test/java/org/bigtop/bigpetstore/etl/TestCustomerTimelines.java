@@ -0,0 +1,141 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.bigtop.bigpetstore.util.TimestampCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestCustomerTimelines {
+
+    // angie's purchases are out of time order, and she shops in two states.
+    static final String TRANSACTIONS =
+            "BigPetStore,storeCode_CA,3\tangie,coleman,1970-01-20T06:24:23Z,7.5,cat-food\n" +
+            "BigPetStore,storeCode_AK,1\tlindsay,franco,1970-01-10T00:11:10Z,10.5,dog-food\n" +
+            "BigPetStore,storeCode_CA,1\tangie,coleman,1969-12-08T20:23:57Z,16.5,organic-dog-food\n" +
+            "BigPetStore,storeCode_CA,2\tangie,coleman,1969-12-11T07:00:31Z,10.5,dog-food\n" +
+            "BigPetStore,storeCode_AK,2\tangie,coleman,1970-01-10T23:08:45Z,10.5,dog-food\n" +
+            "this line is garbage\n";
+
+    @Test
+    public void testTimelineEncoding() throws Exception {
+        PurchaseTimeline t = new PurchaseTimeline();
+        t.clear("CA\tangie\tcoleman");
+        t.add(-100000, "dog-food", 10.5);
+        t.add(5000, "cat-food", 7.5);
+        t.add(5000, "dog-food", 10.5);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        t.write(new DataOutputStream(bytes));
+
+        PurchaseTimeline read = new PurchaseTimeline();
+        read.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+        Assert.assertEquals("CA\tangie\tcoleman", read.getCustomer());
+        Assert.assertEquals(3, read.size());
+        Assert.assertEquals(2, read.getProducts().size());
+        Assert.assertEquals(-100000, read.getTime(0));
+        Assert.assertEquals("dog-food", read.getProduct(2));
+        Assert.assertEquals(28.5, read.totalSpent(), .0001);
+        Assert.assertEquals(2, read.count(0, 5001));
+        Assert.assertEquals(0, read.count(5001, 10000));
+    }
+
+    @Test
+    public void testStoreLookups() throws Exception {
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path base = fs.makeQualified(new Path("target/timelines_test_" + System.currentTimeMillis()));
+        Path input = new Path(base, "generated");
+        Path output = new Path(base, "timelines");
+        FileUtils.writeStringToFile(new File(fs.pathToFile(input), "part-r-00000"), TRANSACTIONS);
+
+        Job job = CustomerTimelineBuilder.createJob(input, output, conf);
+        Assert.assertTrue(job.waitForCompletion(true));
+
+        CustomerTimelineStore store = new CustomerTimelineStore(output, conf);
+        try {
+            PurchaseTimeline angie = store.get("CA", "angie", "coleman");
+            Assert.assertEquals(3, angie.size());
+            Assert.assertEquals(TimestampCodec.parse("1969-12-08T20:23:57Z"), angie.getTime(0));
+            Assert.assertEquals("organic-dog-food", angie.getProduct(0));
+            Assert.assertEquals("cat-food", angie.getProduct(2));
+            Assert.assertEquals(34.5, angie.totalSpent(), .0001);
+
+            Assert.assertEquals(1, store.get("AK", "angie", "coleman").size());
+            Assert.assertNull(store.get("NY", "angie", "coleman"));
+            Assert.assertEquals(-1, store.idOf("NY", "angie", "coleman"));
+
+            long id = store.idOf("AK", "lindsay", "franco");
+            Assert.assertEquals("AK\tlindsay\tfranco", store.get(id).getCustomer());
+
+            // every customer exactly once.
+            List<PurchaseTimeline> all = store.range(0, Long.MAX_VALUE);
+            Assert.assertEquals(3, all.size());
+            Assert.assertEquals(1, store.range(id, id + 1).size());
+        }
+        finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testMissingNamePartitions() throws Exception {
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path store = fs.makeQualified(new Path("target/timelines_parts_test_" + System.currentTimeMillis()));
+        // four reducers, only partitions 1 and 3 had customers.
+        for (int p = 0; p < 4; p++) {
+            new MapFile.Writer(conf, fs, new Path(store, String.format("part-r-%05d", p)).toString(),
+                    LongWritable.class, PurchaseTimeline.class).close();
+        }
+        for (int p : new int[] { 1, 3 }) {
+            MapFile.Writer w = new MapFile.Writer(conf, fs,
+                    new Path(store, String.format("%s-r-%05d", CustomerTimelineBuilder.NAMES, p)).toString(),
+                    Text.class, LongWritable.class);
+            w.append(new Text("partition" + p), new LongWritable(CustomerTimelineBuilder.customerId(p, 0)));
+            w.close();
+        }
+
+        MapFile.Reader[] names = CustomerTimelineStore.open(fs, store,
+                CustomerTimelineBuilder.NAMES + "-r-", 4, conf);
+        try {
+            Assert.assertEquals(4, names.length);
+            Assert.assertNull(names[0]);
+            Assert.assertNull(names[2]);
+            LongWritable id = new LongWritable();
+            Assert.assertNotNull(names[3].get(new Text("partition3"), id));
+            Assert.assertEquals(3, CustomerTimelineBuilder.partitionOf(id.get()));
+        }
+        finally {
+            for (MapFile.Reader r : names) {
+                if (r != null) {
+                    r.close();
+                }
+            }
+        }
+
+        CustomerTimelineStore s = new CustomerTimelineStore(store, conf);
+        try {
+            Assert.assertEquals(4, s.partitions());
+            // whichever partition they hash to, unknown customers are not found.
+            for (String state : new String[] { "AK", "CA", "NY", "TX", "WA" }) {
+                Assert.assertEquals(-1, s.idOf(state, "nobody", "atall"));
+            }
+        }
+        finally {
+            s.close();
+        }
+    }
+}
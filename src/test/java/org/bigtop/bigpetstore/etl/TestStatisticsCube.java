@@ -0,0 +1,56 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.File;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapreduce.Job;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestStatisticsCube {
+
+    // a mix of ISO-8601 and legacy Date.toString() timestamps.
+    static final String TRANSACTIONS =
+            "BigPetStore,storeCode_AK,1\tlindsay,franco,Sat Jan 10 00:11:10 UTC 1970,10.5,dog-food\n" +
+            "BigPetStore,storeCode_AK,2\ttom,giles,1970-01-10T23:08:45Z,10.5,dog-food\n" +
+            "BigPetStore,storeCode_CA,1\tbrandon,ewing,Mon Dec 08 20:23:57 UTC 1969,16.5,organic-dog-food\n" +
+            "BigPetStore,storeCode_CA,2\tangie,coleman,Thu Dec 11 07:00:31 UTC 1969,10.5,dog-food\n" +
+            "BigPetStore,storeCode_CA,3\tangie,coleman,1970-01-20T06:24:23Z,7.5,cat-food\n" +
+            "this line is garbage\n";
+
+    @Test
+    public void testCubeRollups() throws Exception {
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path base = fs.makeQualified(new Path("target/cube_test_" + System.currentTimeMillis()));
+        Path input = new Path(base, "generated");
+        Path cube = new Path(base, "cube");
+        FileUtils.writeStringToFile(new File(fs.pathToFile(input), "part-r-00000"), TRANSACTIONS);
+
+        Job job = StatisticsCubeBuilder.createJob(input, cube, conf);
+        Assert.assertTrue(job.waitForCompletion(true));
+        Assert.assertEquals(1, job.getCounters().findCounter(
+                StatisticsCubeBuilder.COUNTERS.malformed_lines).getValue());
+
+        CubePetStoreStatistics stats = new CubePetStoreStatistics(cube, conf);
+        // the two AK dog-food sales on the same day share one cell.
+        Assert.assertEquals(4, stats.size());
+
+        Map<String, ? extends Number> byState = stats.numberOfTransactionsByState();
+        Assert.assertEquals(2L, byState.get("AK"));
+        Assert.assertEquals(3L, byState.get("CA"));
+
+        Map<String, ? extends Number> byProduct = stats.numberOfProductsByProduct();
+        Assert.assertEquals(3L, byProduct.get("dog-food"));
+        Assert.assertEquals(1L, byProduct.get("cat-food"));
+
+        Assert.assertEquals(1, stats.count("CA", null, 19700101, 19700131));
+        Assert.assertEquals(21.0, stats.revenue("AK", "dog-food", 19700110, 19700110), .0001);
+        Assert.assertEquals(Long.valueOf(1),
+                stats.productsByState("CA", 19691201, 19691231).get("organic-dog-food"));
+    }
+}
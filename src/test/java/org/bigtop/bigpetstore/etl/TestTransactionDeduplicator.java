@@ -0,0 +1,118 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTransactionDeduplicator {
+
+    static final String AK1 = "BigPetStore,storeCode_AK,1\tlindsay,franco,1970-01-10T00:11:10Z,10.5,dog-food";
+    static final String AK2 = "BigPetStore,storeCode_AK,2\ttom,giles,1970-01-10T23:08:45Z,10.5,dog-food";
+    static final String CA1 = "BigPetStore,storeCode_CA,1\tbrandon,ewing,1969-12-08T20:23:57Z,16.5,organic-dog-food";
+    static final String CA2 = "BigPetStore,storeCode_CA,2\tangie,coleman,1969-12-11T07:00:31Z,10.5,dog-food";
+
+    static List<String> lines(FileSystem fs, Path dir) throws Exception {
+        List<String> lines = new ArrayList<String>();
+        for (File f : fs.pathToFile(dir).listFiles()) {
+            if (f.getName().startsWith("part-")) {
+                lines.addAll(FileUtils.readLines(f));
+            }
+        }
+        return lines;
+    }
+
+    static Job load(Configuration conf, Path base, String name, String... lines) throws Exception {
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path input = new Path(base, name);
+        StringBuilder sb = new StringBuilder();
+        for (String l : lines) {
+            sb.append(l).append('\n');
+        }
+        FileUtils.writeStringToFile(new File(fs.pathToFile(input), "part-r-00000"), sb.toString());
+        Job job = TransactionDeduplicator.createJob(input, new Path(base, name + "_deduplicated"),
+                new Path(base, "state"), conf);
+        Assert.assertTrue(job.waitForCompletion(true));
+        TransactionDeduplicator.commit(job);
+        return job;
+    }
+
+    static long counter(Job job, TransactionDeduplicator.COUNTERS c) throws Exception {
+        return job.getCounters().findCounter(c).getValue();
+    }
+
+    @Test
+    public void testReplaysAreDropped() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt(TransactionDeduplicator.PARTITIONS, 4);
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path base = fs.makeQualified(new Path("target/dedup_test_" + System.currentTimeMillis()));
+
+        // first load : AK1 twice in a row (dropped by the mapper), CA1 twice
+        // apart (dropped by the reducer, the split cache is 1 key).
+        conf.setInt(TransactionDeduplicator.SPLIT_CACHE, 1);
+        Job first = load(conf, base, "load1", AK1, AK1, CA1, AK2, CA1);
+        Assert.assertEquals(3, counter(first, TransactionDeduplicator.COUNTERS.unique));
+        Assert.assertEquals(1, counter(first, TransactionDeduplicator.COUNTERS.duplicates_in_split));
+        Assert.assertEquals(1, counter(first, TransactionDeduplicator.COUNTERS.duplicates_in_load));
+        Assert.assertEquals(0, counter(first, TransactionDeduplicator.COUNTERS.bloom_positives));
+        Assert.assertEquals(3, lines(fs, new Path(base, "load1_deduplicated")).size());
+        Assert.assertEquals(1, TransactionDeduplicator.currentGeneration(new Path(base, "state"), conf));
+
+        // second load : a replay of the first one, plus one new transaction.
+        Job second = load(conf, base, "load2", AK1, CA2, AK2, CA1);
+        Assert.assertEquals(1, counter(second, TransactionDeduplicator.COUNTERS.unique));
+        Assert.assertEquals(3, counter(second, TransactionDeduplicator.COUNTERS.duplicates_in_history));
+        List<String> loaded = lines(fs, new Path(base, "load2_deduplicated"));
+        Assert.assertEquals(1, loaded.size());
+        Assert.assertEquals(CA2, loaded.get(0));
+
+        // third load : everything is history, across both generations.
+        Job third = load(conf, base, "load3", CA2, AK1);
+        Assert.assertEquals(0, counter(third, TransactionDeduplicator.COUNTERS.unique));
+        Assert.assertEquals(2, counter(third, TransactionDeduplicator.COUNTERS.duplicates_in_history));
+        Assert.assertEquals(3, TransactionDeduplicator.currentGeneration(new Path(base, "state"), conf));
+    }
+
+    @Test
+    public void testPartitionsOwnedByOneReducer() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt(TransactionDeduplicator.PARTITIONS, 4);
+        TransactionDeduplicator.DedupPartitioner partitioner = new TransactionDeduplicator.DedupPartitioner();
+        partitioner.setConf(conf);
+
+        // 3 reducers, 4 state partitions : 0 and 3 share a reducer, and no
+        // partition is split between two reducers.
+        Map<Integer, Integer> owners = new HashMap<Integer, Integer>();
+        for (int i = 0; i < 1000; i++) {
+            Text key = new Text("storeCode_CA," + i);
+            int p = TransactionDeduplicator.partition(key, 4);
+            int reducer = partitioner.getPartition(key, null, 3);
+            Assert.assertEquals(p % 3, reducer);
+            Integer owner = owners.put(p, reducer);
+            Assert.assertTrue(owner == null || owner == reducer);
+        }
+        Assert.assertEquals(4, owners.size());
+
+        // and the loads dedup the same as with one reducer (the local runner
+        // may run them as one).
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path base = fs.makeQualified(new Path("target/dedup_reducers_test_" + System.currentTimeMillis()));
+        conf.setInt("mapreduce.job.reduces", 3);
+        Job first = load(conf, base, "load1", AK1, CA1, AK2, CA1);
+        Assert.assertEquals(3, counter(first, TransactionDeduplicator.COUNTERS.unique));
+        Job second = load(conf, base, "load2", AK1, CA2, AK2, CA1);
+        Assert.assertEquals(1, counter(second, TransactionDeduplicator.COUNTERS.unique));
+        Assert.assertEquals(3, counter(second, TransactionDeduplicator.COUNTERS.duplicates_in_history));
+    }
+}
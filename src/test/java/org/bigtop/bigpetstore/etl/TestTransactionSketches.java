@@ -0,0 +1,228 @@
+package org.bigtop.bigpetstore.etl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.bigtop.bigpetstore.etl.ApproximatePetStoreStatistics.Estimate;
+import org.bigtop.bigpetstore.etl.TransactionSketches.Sampled;
+import org.bigtop.bigpetstore.etl.TransactionSketches.Stratum;
+import org.bigtop.bigpetstore.util.TimestampCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.google.common.base.Predicate;
+
+public class TestTransactionSketches {
+
+    static final int K = 200;
+
+    // one in four transactions is dog-food, customers repeat every 1000 lines.
+    static String line(String state, int id) {
+        return String.format("BigPetStore,storeCode_%s,%d\tfirst%d,last,1970-01-%02dT12:00:00Z,10.5,%s",
+                state, id, id % 1000, 1 + id % 28, id % 4 == 0 ? "dog-food" : "cat-food");
+    }
+
+    static TransactionSketches sketch(String state, int from, int to) {
+        TransactionSketches s = new TransactionSketches(K, 512, 5, 12);
+        for (int id = from; id < to; id++) {
+            String line = line(state, id);
+            LineItem li = LineItem.parse(line);
+            s.add(li, line, TimestampCodec.monthKey(li.getTimestamp()));
+        }
+        return s;
+    }
+
+    static List<String> sample(TransactionSketches s, String state) {
+        List<String> lines = new ArrayList<String>();
+        for (Sampled sampled : s.strata.get(state).sample) {
+            lines.add(sampled.priority + " " + sampled.line);
+        }
+        Collections.sort(lines);
+        return lines;
+    }
+
+    static void assertSameSketches(TransactionSketches expected, TransactionSketches actual) {
+        Assert.assertEquals(expected.states(), actual.states());
+        for (String state : expected.states()) {
+            Stratum e = expected.strata.get(state);
+            Stratum a = actual.strata.get(state);
+            Assert.assertEquals(e.population, a.population);
+            Assert.assertEquals(e.products, a.products);
+            Assert.assertEquals(e.customers.cardinality(), a.customers.cardinality());
+            Assert.assertEquals(sample(expected, state), sample(actual, state));
+            for (String product : e.products) {
+                String key = state + TransactionSketches.SEP + product;
+                Assert.assertEquals(expected.stateProduct.estimate(key), actual.stateProduct.estimate(key));
+            }
+        }
+        Assert.assertEquals(expected.customers.cardinality(), actual.customers.cardinality());
+    }
+
+    @Test
+    public void testBottomKMerge() {
+        // (a + b) + c
+        TransactionSketches left = sketch("CA", 0, 1000);
+        left.merge(sketch("CA", 1000, 2000));
+        left.merge(sketch("CA", 2000, 3000));
+        // a + (b + c)
+        TransactionSketches bc = sketch("CA", 1000, 2000);
+        bc.merge(sketch("CA", 2000, 3000));
+        TransactionSketches right = sketch("CA", 0, 1000);
+        right.merge(bc);
+
+        assertSameSketches(left, right);
+        // and both are the sample of the whole, built in one pass.
+        assertSameSketches(sketch("CA", 0, 3000), left);
+        Assert.assertEquals(3000, left.strata.get("CA").population);
+        Assert.assertEquals(K, left.strata.get("CA").sample.size());
+    }
+
+    @Test
+    public void testMergeWithEmpty() {
+        TransactionSketches s = sketch("AK", 0, 500);
+        s.merge(new TransactionSketches(K, 512, 5, 12));
+        assertSameSketches(sketch("AK", 0, 500), s);
+
+        TransactionSketches empty = new TransactionSketches(K, 512, 5, 12);
+        empty.merge(sketch("AK", 0, 500));
+        assertSameSketches(s, empty);
+    }
+
+    @Test
+    public void testWritableRoundTrip() throws Exception {
+        TransactionSketches s = sketch("CA", 0, 2000);
+        s.merge(sketch("AK", 0, 50));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        s.write(new DataOutputStream(bytes));
+        TransactionSketches read = new TransactionSketches();
+        read.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+        assertSameSketches(s, read);
+        Assert.assertEquals(s.samplePerState, read.samplePerState);
+        // the read sketches keep merging correctly.
+        read.merge(sketch("CA", 2000, 3000));
+        s.merge(sketch("CA", 2000, 3000));
+        assertSameSketches(s, read);
+    }
+
+    @Test
+    public void testEstimatorErrorBounds() throws Exception {
+        int n = 20000;
+        TransactionSketches s = sketch("CA", 0, n);
+        s.merge(sketch("AK", 0, 100));
+        ApproximatePetStoreStatistics stats = new ApproximatePetStoreStatistics(s);
+
+        // populations are exact.
+        Map<String, ? extends Number> byState = stats.numberOfTransactionsByState();
+        Assert.assertEquals(20000L, byState.get("CA"));
+        Assert.assertEquals(100L, byState.get("AK"));
+
+        // the sample answers are within their 95% bound; the assertions allow
+        // twice the bound, so that they are not the 1 in 20 that misses.
+        Estimate dogFood = stats.count("CA", new Predicate<LineItem>() {
+            @Override
+            public boolean apply(LineItem li) {
+                return "dog-food".equals(li.getDescription());
+            }
+        });
+        Assert.assertTrue(dogFood.toString(), dogFood.error > 0);
+        Assert.assertEquals(n / 4, dogFood.value, 2 * dogFood.error);
+
+        // AK is smaller than the sample, so it is exact.
+        Estimate ak = stats.count("AK", new Predicate<LineItem>() {
+            @Override
+            public boolean apply(LineItem li) {
+                return true;
+            }
+        });
+        Assert.assertEquals(100, ak.value, 1e-9);
+        Assert.assertEquals(0, ak.error, 1e-9);
+
+        for (Estimate e : stats.productEstimates()) {
+            double truth = "dog-food".equals(e.key) ? (n + 100) / 4 : 3 * (n + 100) / 4;
+            Assert.assertEquals(e.toString(), truth, e.value, 2 * e.error);
+        }
+
+        // count-min never underestimates, and overestimates by at most the bound.
+        for (Estimate e : stats.topProducts("CA", -1, 10)) {
+            double truth = "dog-food".equals(e.key) ? n / 4 : 3 * n / 4;
+            Assert.assertTrue(e.toString(), e.value >= truth);
+            Assert.assertTrue(e.toString(), e.value <= truth + e.error);
+        }
+        Assert.assertEquals(2, stats.topProducts("CA", 197001, 10).size());
+
+        Estimate customers = stats.distinctCustomers("CA");
+        Assert.assertEquals(customers.toString(), 1000, customers.value, 2 * customers.error);
+        Estimate all = stats.distinctCustomers(null);
+        Assert.assertEquals(all.toString(), 1100, all.value, 2 * all.error);
+    }
+
+    @Test
+    public void testSketchBuilder() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt(TransactionSketches.SAMPLE_PER_STATE, K);
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path base = fs.makeQualified(new Path("target/sketch_test_" + System.currentTimeMillis()));
+        Path input = new Path(base, "generated");
+        StringBuilder transactions = new StringBuilder();
+        for (int id = 0; id < 1000; id++) {
+            transactions.append(line(id % 3 == 0 ? "AK" : "CA", id)).append('\n');
+        }
+        transactions.append("this line is garbage\n");
+        FileUtils.writeStringToFile(new File(fs.pathToFile(input), "part-r-00000"), transactions.toString());
+
+        TransactionSketches built = SketchBuilder.build(input, conf);
+        Assert.assertTrue(fs.exists(new Path(input, TransactionSketches.FILE)));
+        Assert.assertEquals(334, built.strata.get("AK").population);
+        Assert.assertEquals(666, built.strata.get("CA").population);
+        Assert.assertEquals(K, built.strata.get("CA").sample.size());
+
+        assertSameSketches(built, TransactionSketches.load(input, conf));
+
+        // the text copy, for BPS_analytics_approx.pig.
+        File text = fs.pathToFile(new Path(input, TransactionSketches.TEXT_DIR));
+        int ak = 0, ca = 0;
+        for (String row : FileUtils.readLines(new File(text, "sample"))) {
+            String[] fields = row.split("\t");
+            Assert.assertEquals(row, 11, fields.length);
+            Assert.assertEquals(row, fields[0], LineItem.parse(row.substring(row.indexOf("BigPetStore"))).getState());
+            if ("AK".equals(fields[0])) {
+                Assert.assertEquals("334\t334", fields[1] + "\t" + fields[2]);
+                ak++;
+            }
+            else {
+                Assert.assertEquals("666\t" + K, fields[1] + "\t" + fields[2]);
+                ca++;
+            }
+        }
+        Assert.assertEquals(334, ak);
+        Assert.assertEquals(K, ca);
+        List<String> counts = FileUtils.readLines(new File(text, "counts"));
+        Assert.assertEquals(4, counts.size());
+        for (String row : counts) {
+            String[] fields = row.split("\t");
+            Assert.assertEquals(row, 5, fields.length);
+            Assert.assertEquals(built.stateProduct.estimate(fields[0] + TransactionSketches.SEP + fields[1]),
+                    Long.parseLong(fields[2]));
+            Assert.assertEquals(built.stateProduct.errorBound(), Double.parseDouble(fields[3]), 0);
+        }
+
+        // forData finds the stored sketches instead of building them again.
+        Map<String, ? extends Number> byState =
+                ApproximatePetStoreStatistics.forData(input, conf).numberOfTransactionsByState();
+        Assert.assertEquals(334L, byState.get("AK"));
+        Assert.assertEquals(666L, byState.get("CA"));
+    }
+}
@@ -0,0 +1,85 @@
+package org.bigtop.bigpetstore.local;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.bigtop.bigpetstore.etl.LineItem;
+import org.bigtop.bigpetstore.generator.TransactionIteratorFactory.STATE;
+import org.bigtop.bigpetstore.util.BigPetStoreConstants.OUTPUTS;
+import org.bigtop.bigpetstore.util.TimestampCodec;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestLocalFastMode {
+
+    @Test
+    public void testBatchCleaning() {
+        TransactionBatch batch = new TransactionBatch(STATE.CA,
+                new TransactionBatch.Dictionary(), new TransactionBatch.Dictionary(), 2);
+        Assert.assertTrue(batch.add("BigPetStore,storeCode_CA,12", "angie,coleman,1970-01-20T06:24:23Z,7.5,cat-food"));
+        Assert.assertFalse(batch.add("BigPetStore,storeCode_CA,13", "angie,coleman,garbage,7.5,cat-food"));
+        Assert.assertTrue(batch.add("BigPetStore,storeCode_CA,14", "angie,coleman,1970-01-21T06:24:23Z,10.5,dog-food"));
+        Assert.assertTrue(batch.isFull());
+        Assert.assertEquals(batch.getCustomerId(0), batch.getCustomerId(1));
+        Assert.assertEquals(TimestampCodec.parse("1970-01-20T06:24:23Z"), batch.getTime(0));
+
+        String cleaned = batch.appendCleaned(new StringBuilder(), 1).toString();
+        Assert.assertEquals("BigPetStore\tstoreCode_CA\t14\tangie\tcoleman\t1970-01-21T06:24:23Z\t10.5\tdog-food", cleaned);
+        Assert.assertNotNull(LineItem.parse(cleaned));
+
+        batch.clear();
+        Assert.assertEquals(0, batch.size());
+    }
+
+    @Test
+    public void testWorkflow() throws Exception {
+        Configuration conf = new Configuration();
+        conf.setInt(LocalFastMode.THREADS, 3);
+        conf.setInt(LocalFastMode.BATCH_SIZE, 100);
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path output = fs.makeQualified(new Path("target/local_fast_test_" + System.currentTimeMillis()));
+
+        LocalFastMode local = new LocalFastMode();
+        local.setConf(conf);
+        LocalFastMode.Result r = local.run(2000, output);
+
+        long expected = 0;
+        for (STATE s : STATE.values()) {
+            expected += (long) Math.ceil(2000 * s.probability);
+        }
+        Assert.assertEquals(expected, r.transactions);
+
+        long byState = 0;
+        for (Number n : r.statistics.numberOfTransactionsByState().values()) {
+            byState += n.longValue();
+        }
+        Assert.assertEquals(r.transactions, byState);
+        long byProduct = 0;
+        for (Number n : r.statistics.numberOfProductsByProduct().values()) {
+            byProduct += n.longValue();
+        }
+        Assert.assertEquals(r.transactions, byProduct);
+
+        // the cleaned output is what pig would have written.
+        long lines = 0;
+        for (File f : fs.pathToFile(new Path(output, OUTPUTS.cleaned.name())).listFiles()) {
+            if (f.getName().startsWith("part-")) {
+                List<String> cleaned = FileUtils.readLines(f);
+                for (String line : cleaned) {
+                    Assert.assertNotNull(line, LineItem.parse(line));
+                }
+                lines += cleaned.size();
+            }
+        }
+        Assert.assertEquals(r.transactions, lines);
+
+        Map<String, ? extends Number> states = r.statistics.numberOfTransactionsByState();
+        Assert.assertEquals((long) Math.ceil(2000 * STATE.CA.probability), states.get("CA").longValue());
+        Assert.assertTrue(new File(fs.pathToFile(output), OUTPUTS.MAHOUT_CF_OUT.name() + "/part-00000").exists());
+    }
+}
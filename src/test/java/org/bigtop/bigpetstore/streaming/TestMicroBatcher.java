@@ -0,0 +1,84 @@
+package org.bigtop.bigpetstore.streaming;
+
+import java.io.File;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.bigtop.bigpetstore.etl.LineItem;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestMicroBatcher {
+
+    @Test
+    public void testGeneratorStreamIsBatchedAndAggregated() throws Exception {
+        Configuration conf = new Configuration();
+        FileSystem fs = FileSystem.getLocal(conf);
+        Path out = fs.makeQualified(new Path("target/stream_test_" + System.currentTimeMillis()));
+
+        GeneratorSource source = new GeneratorSource(2500, 0);
+        // a fixed clock : the batches are cut by size only, into a known bucket.
+        MicroBatcher batcher = new MicroBatcher(source, out, conf, 1000, 60000, "yyyyMMdd") {
+            @Override
+            long now() {
+                return 1394064000000L; // 2014-03-06T00:00:00Z
+            }
+        };
+        IncrementalStatistics stats = new IncrementalStatistics(5);
+        batcher.addListener(stats);
+        batcher.run();
+
+        Assert.assertEquals(2500, batcher.written());
+        Assert.assertEquals(2500, stats.transactions());
+
+        long total = 0;
+        for (Number n : stats.numberOfTransactionsByState().values()) {
+            total += n.longValue();
+        }
+        Assert.assertEquals(2500, total);
+
+        // one bucket (one day), three batch files : 1000 + 1000 + 500
+        FileStatus[] buckets = fs.listStatus(out);
+        Assert.assertEquals(1, buckets.length);
+        Assert.assertEquals("20140306", buckets[0].getPath().getName());
+        FileStatus[] batches = fs.listStatus(buckets[0].getPath());
+        int files = 0;
+        for (FileStatus b : batches) {
+            if (b.getPath().getName().startsWith("batch-")) {
+                files++;
+            }
+        }
+        Assert.assertEquals(3, files);
+
+        // histories are bounded
+        for (String state : stats.byState.keySet()) {
+            for (String customer : stats.histories.keySet()) {
+                if (customer.startsWith(state)) {
+                    String[] c = customer.split("\t");
+                    List<LineItem> h = stats.purchaseHistory(c[0], c[1], c[2]);
+                    Assert.assertTrue(h.size() >= 1 && h.size() <= 5);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTailSourceReadsUtf8() throws Exception {
+        File f = new File("target/tail_test_" + System.currentTimeMillis());
+        FileUtils.writeStringToFile(f, "jos\u00e9,mu\u00f1oz\r\npartial", "UTF-8");
+        FileTailSource source = new FileTailSource(f, true);
+        try {
+            Assert.assertEquals("jos\u00e9,mu\u00f1oz", source.poll(10));
+            // no newline yet.
+            Assert.assertNull(source.poll(10));
+        }
+        finally {
+            source.close();
+        }
+    }
+}
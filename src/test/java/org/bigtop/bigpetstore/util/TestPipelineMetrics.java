@@ -0,0 +1,51 @@
+package org.bigtop.bigpetstore.util;
+
+import java.io.File;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+import org.bigtop.bigpetstore.util.PipelineMetrics.STAGE;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TestPipelineMetrics {
+
+    // the other tests of the JVM record their stages in the same instance.
+    @Before
+    @After
+    public void reset() {
+        PipelineMetrics.get().reset();
+    }
+
+    @Test
+    public void testStageIsRecordedAndReported() throws Exception {
+        File report = File.createTempFile("bps_metrics", ".json");
+        System.setProperty(PipelineMetrics.REPORT_PROPERTY, report.getAbsolutePath());
+        try {
+            StageMetrics m = PipelineMetrics.start(STAGE.crunch_etl);
+            Thread.sleep(20);
+            m.recordsIn(1000).recordsOut(10).bytesIn(80000).stop();
+
+            Assert.assertSame(m, PipelineMetrics.get().latest(STAGE.crunch_etl));
+            Assert.assertTrue(m.getWallMillis() >= 10);
+            Assert.assertTrue(m.recordsPerSecond() > 0);
+            // unknowns stay -1 so they dont look like zero in the report.
+            Assert.assertEquals(-1, m.getBytesOut());
+
+            Map<String, Object> r = PipelineMetrics.get().report();
+            Assert.assertEquals(STAGE.crunch_etl.name(), r.get("dominant_stage"));
+            Assert.assertFalse(((List) r.get("stages")).isEmpty());
+
+            String json = FileUtils.readFileToString(report);
+            Assert.assertTrue(json, json.contains("\"stage\":\"crunch_etl\""));
+            Assert.assertTrue(json, json.contains("\"records_in\":1000"));
+        }
+        finally {
+            System.clearProperty(PipelineMetrics.REPORT_PROPERTY);
+            report.delete();
+        }
+    }
+}
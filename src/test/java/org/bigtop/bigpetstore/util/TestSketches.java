@@ -0,0 +1,68 @@
+package org.bigtop.bigpetstore.util;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestSketches {
+
+    @Test
+    public void testCountMinNeverUnderestimates() throws Exception {
+        CountMinSketch cms = new CountMinSketch(512, 5);
+        for (int i = 0; i < 200; i++) {
+            cms.add("product_" + i, i);
+        }
+        for (int i = 0; i < 200; i++) {
+            long e = cms.estimate("product_" + i);
+            Assert.assertTrue(e >= i);
+            Assert.assertTrue("estimate " + e + " for " + i, e <= i + cms.errorBound());
+        }
+
+        CountMinSketch copy = new CountMinSketch();
+        roundTrip(cms, copy);
+        Assert.assertEquals(cms.estimate("product_42"), copy.estimate("product_42"));
+
+        copy.merge(cms);
+        Assert.assertEquals(2 * cms.total(), copy.total());
+    }
+
+    @Test
+    public void testHyperLogLogAccuracy() throws Exception {
+        HyperLogLog hll = new HyperLogLog(14);
+        HyperLogLog other = new HyperLogLog(14);
+        for (int i = 0; i < 100000; i++) {
+            hll.offer("customer_" + i);
+            // half overlapping
+            other.offer("customer_" + (i + 50000));
+        }
+        long c = hll.cardinality();
+        Assert.assertTrue("cardinality " + c, Math.abs(c - 100000) < 100000 * 4 * hll.standardError());
+
+        // small cardinalities use linear counting and are ~exact
+        HyperLogLog small = new HyperLogLog(14);
+        for (int i = 0; i < 100; i++) {
+            small.offer("x" + i);
+            small.offer("x" + i);
+        }
+        Assert.assertTrue(Math.abs(small.cardinality() - 100) <= 2);
+
+        hll.merge(other);
+        long merged = hll.cardinality();
+        Assert.assertTrue("merged " + merged, Math.abs(merged - 150000) < 150000 * 4 * hll.standardError());
+
+        HyperLogLog copy = new HyperLogLog();
+        roundTrip(hll, copy);
+        Assert.assertEquals(merged, copy.cardinality());
+    }
+
+    static void roundTrip(org.apache.hadoop.io.Writable from, org.apache.hadoop.io.Writable to)
+            throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        from.write(new DataOutputStream(bytes));
+        to.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+}
@@ -0,0 +1,79 @@
+package org.bigtop.bigpetstore.util;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.bigtop.bigpetstore.etl.DateDimension;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class TestTimestampCodec {
+
+    @Test
+    public void testMatchesSimpleDateFormat() throws Exception {
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'", Locale.US);
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        SimpleDateFormat day = new SimpleDateFormat("yyyyMMdd", Locale.US);
+        day.setTimeZone(TimeZone.getTimeZone("UTC"));
+        Random r = new Random(42);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            // +/- ~150 years around the epoch, to the second.
+            long millis = (r.nextLong() % 4700000000L) * 1000L;
+            String s = TimestampCodec.format(millis);
+            Assert.assertEquals(iso.format(new Date(millis)), s);
+            Assert.assertEquals(millis, TimestampCodec.parse(s));
+            sb.setLength(0);
+            Assert.assertEquals(s, TimestampCodec.appendTo(sb.append('>'), millis).substring(1));
+            Assert.assertEquals(Integer.parseInt(day.format(new Date(millis))),
+                    TimestampCodec.dayKey(millis));
+        }
+    }
+
+    @Test
+    public void testGeneratorRange() {
+        // the generator draws a random int of millis : negative ones too.
+        Assert.assertEquals("1969-12-07T03:28:36Z", TimestampCodec.format(Integer.MIN_VALUE));
+        Assert.assertEquals("1970-01-25T20:31:23Z", TimestampCodec.format(Integer.MAX_VALUE));
+        Assert.assertEquals(19691231, TimestampCodec.dayKey(-1));
+        Assert.assertEquals(196912, TimestampCodec.monthKey(-1));
+        Assert.assertEquals(-1000L, TimestampCodec.parse("1969-12-31T23:59:59Z"));
+        Assert.assertEquals(1500L, TimestampCodec.parse("1970-01-01T00:00:01.500Z"));
+    }
+
+    @Test
+    public void testLegacyAndMalformed() {
+        Assert.assertEquals(TimestampCodec.parse("1970-01-10T00:11:10Z"),
+                TimestampCodec.parse("Sat Jan 10 00:11:10 UTC 1970"));
+        Assert.assertEquals(TimestampCodec.parse("1970-01-10T05:11:10Z"),
+                TimestampCodec.parse("Sat Jan 10 00:11:10 EST 1970"));
+        for (String bad : new String[] { "", "garbage", "1970-13-10T00:11:10Z",
+                "1970-01-10 00:11:10Z", "1970-01-10T00:11:10", "1970-01-10T00:00:01.5Z",
+                "1970-01-10T00:00:01.", "1970-01-10T00:00:01.50", "1970-01-10T00:00:01.500" }) {
+            try {
+                TimestampCodec.parse(bad);
+                Assert.fail("parsed " + bad);
+            }
+            catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testDateDimensionRow() {
+        Assert.assertEquals("19700110\t1970-01-10\t1970\t1\t1\t10\t6\t2\t1\t9",
+                DateDimension.row(9));
+        // 2008-12-29 (a monday) is in ISO week 1 of 2009.
+        long d = TimestampCodec.epochDay(2008, 12, 29);
+        Assert.assertEquals("20081229\t2008-12-29\t2008\t4\t12\t29\t1\t1\t0\t" + d,
+                DateDimension.row(d));
+        // 2010-01-03 (a sunday) is in ISO week 53 of 2009.
+        d = TimestampCodec.epochDay(2010, 1, 3);
+        Assert.assertEquals("20100103\t2010-01-03\t2010\t1\t1\t3\t7\t53\t1\t" + d,
+                DateDimension.row(d));
+    }
+}